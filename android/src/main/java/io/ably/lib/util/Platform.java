@@ -2,4 +2,11 @@ package io.ably.lib.util;
 
 public class Platform {
 	public static final String name = "android";
+
+	/**
+	 * Whether Base64Coder delegates to java.util.Base64; on Android,
+	 * that has no advantage over the built-in coder, and is only
+	 * available from API level 26
+	 */
+	public static final boolean preferJdkBase64 = false;
 }
@@ -2,4 +2,10 @@ package io.ably.lib.util;
 
 public class Platform {
 	public static final String name = "java";
+
+	/**
+	 * Whether Base64Coder delegates to java.util.Base64, when
+	 * running on Java 8 or later, which is intrinsified by the JIT
+	 */
+	public static final boolean preferJdkBase64 = true;
 }
@@ -13,6 +13,7 @@ import io.ably.lib.debug.DebugOptions;
 import io.ably.lib.debug.DebugOptions.RawHttpListener;
 import io.ably.lib.rest.Auth;
 import io.ably.lib.transport.Defaults;
+import io.ably.lib.transport.HostScores;
 import io.ably.lib.transport.Hosts;
 import io.ably.lib.types.AblyException;
 import io.ably.lib.types.ClientOptions;
@@ -108,6 +109,15 @@ public class HttpCore {
 		return hosts.getHost();
 	}
 
+	/**
+	 * Gets the scores used to order fallback hosts for this HTTP client
+	 *
+	 * @return
+	 */
+	public HostScores getHostScores() {
+		return hosts.getScores();
+	}
+
 	/**************************
 	 *     Internal API
 	 **************************/
@@ -203,13 +213,13 @@ public class HttpCore {
 			byte[] body = null;
 			if(requestBody != null) {
 				body = prepareRequestBody(requestBody, conn);
-				if (Log.level <= Log.VERBOSE)
+				if (Log.isLoggable(TAG, Log.VERBOSE))
 					Log.v(TAG, System.lineSeparator() + new String(body));
 			}
 
 			/* log raw request details */
 			Map<String, List<String>> requestProperties = conn.getRequestProperties();
-			if (Log.level <= Log.VERBOSE) {
+			if (Log.isLoggable(TAG, Log.VERBOSE)) {
 				Log.v(TAG, "HTTP request: " + conn.getURL() + " " + method);
 				if (credentialsIncluded)
 					Log.v(TAG, "  " + HttpConstants.Headers.AUTHORIZATION + ": " + authHeader);
@@ -378,7 +388,7 @@ public class HttpCore {
 		for (Map.Entry<String, List<String>> entry : caseSensitiveHeaders.entrySet()) {
 			if (entry.getKey() != null) {
 				response.headers.put(entry.getKey().toLowerCase(), entry.getValue());
-				if (Log.level <= Log.VERBOSE)
+				if (Log.isLoggable(TAG, Log.VERBOSE))
 					for (String val : entry.getValue())
 						Log.v(TAG, entry.getKey() + ": " + val);
 			}
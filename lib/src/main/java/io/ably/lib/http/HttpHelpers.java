@@ -2,7 +2,9 @@ package io.ably.lib.http;
 
 import java.io.IOException;
 import java.net.URL;
+import java.util.concurrent.TimeUnit;
 
+import io.ably.lib.transport.Hosts;
 import io.ably.lib.types.AblyException;
 import io.ably.lib.types.Callback;
 import io.ably.lib.types.ErrorInfo;
@@ -26,18 +28,23 @@ public class HttpHelpers {
 	 */
 	public static <T> T ablyHttpExecute(HttpCore httpCore, String path, String method, Param[] headers, Param[] params, HttpCore.RequestBody requestBody, HttpCore.ResponseHandler<T> responseHandler, boolean requireAblyAuth) throws AblyException {
 		String candidateHost = httpCore.getHost();
-		int retryCountRemaining = httpCore.hosts.getFallback(candidateHost) != null ? httpCore.options.httpMaxRetryCount : 0;
+		Hosts.FallbackSequence fallbacks = httpCore.hosts.getFallbackSequence();
+		int retryCountRemaining = fallbacks.hasFallback() ? httpCore.options.httpMaxRetryCount : 0;
 		URL url;
 
 		while(true) {
 			url = buildURL(httpCore.scheme, candidateHost, httpCore.port, path, params);
+			long startTime = System.nanoTime();
 			try {
-				return httpCore.httpExecuteWithRetry(url, method, headers, requestBody, responseHandler, requireAblyAuth);
+				T result = httpCore.httpExecuteWithRetry(url, method, headers, requestBody, responseHandler, requireAblyAuth);
+				httpCore.hosts.recordSuccess(candidateHost, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime));
+				return result;
 			} catch (AblyException.HostFailedException e) {
+				httpCore.hosts.recordFailure(candidateHost);
 				if(--retryCountRemaining < 0)
 					throw e; /* reached httpMaxRetryCount */
 				Log.d(TAG, "Connection failed to host `" + candidateHost + "`. Searching for new host...");
-				candidateHost = httpCore.hosts.getFallback(candidateHost);
+				candidateHost = fallbacks.getFallback(candidateHost);
 				if (candidateHost == null)
 					throw e; /* run out of fallback hosts */
 				Log.d(TAG, "Switched to `" + candidateHost + "`.");
@@ -7,6 +7,7 @@ import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
 
+import io.ably.lib.transport.Hosts;
 import io.ably.lib.types.AblyException;
 import io.ably.lib.types.Callback;
 import io.ably.lib.types.ErrorInfo;
@@ -180,20 +181,24 @@ public class HttpScheduler<Executor extends java.util.concurrent.Executor> {
         @Override
         public void run() {
             String candidateHost = httpCore.getHost();
-            int retryCountRemaining = httpCore.hosts.getFallback(candidateHost) != null ? httpCore.options.httpMaxRetryCount : 0;
+            Hosts.FallbackSequence fallbacks = httpCore.hosts.getFallbackSequence();
+            int retryCountRemaining = fallbacks.hasFallback() ? httpCore.options.httpMaxRetryCount : 0;
 
             while(!isCancelled) {
+                long startTime = System.nanoTime();
                 try {
                     result = httpExecuteWithRetry(candidateHost, path, requireAblyAuth);
+                    httpCore.hosts.recordSuccess(candidateHost, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime));
                     setResult(result);
                     break;
                 } catch (AblyException.HostFailedException e) {
+                    httpCore.hosts.recordFailure(candidateHost);
                     if(--retryCountRemaining < 0) {
                         setError(e.errorInfo);
                         break;
                     }
                     Log.d(TAG, "Connection failed to host `" + candidateHost + "`. Searching for new host...");
-                    candidateHost = httpCore.hosts.getFallback(candidateHost);
+                    candidateHost = fallbacks.getFallback(candidateHost);
                     if (candidateHost == null) {
                         setError(e.errorInfo);
                         break;
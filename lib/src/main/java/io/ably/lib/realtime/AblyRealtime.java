@@ -1,8 +1,6 @@
 package io.ably.lib.realtime;
 
-import java.util.HashMap;
-import java.util.Iterator;
-import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 import io.ably.lib.rest.AblyRest;
 import io.ably.lib.transport.ITransport;
@@ -89,9 +87,13 @@ public class AblyRealtime extends AblyRest {
 	 * A collection of the Channels associated with this Realtime
 	 * instance.
 	 *
+	 * Channels may be obtained and released from any thread. Lookups,
+	 * including those for each message received, take no lock, and
+	 * iteration sees a consistent view of each channel without blocking
+	 * concurrent changes.
 	 */
 	@SuppressWarnings("serial")
-	public class Channels extends HashMap<String, Channel> {
+	public class Channels extends ConcurrentHashMap<String, Channel> {
 		public Channels() {
 			/* remove all channels when the connection is closed, to avoid stalled state */
 			connection.on(ConnectionEvent.closed, new ConnectionStateListener() {
@@ -111,8 +113,14 @@ public class AblyRealtime extends AblyRest {
 		public Channel get(String channelName) {
 			Channel channel = super.get(channelName);
 			if(channel == null) {
-				channel = new Channel(AblyRealtime.this, channelName);
-				put(channelName, channel);
+				/* channels are created under the lock, so only one is created for a name */
+				synchronized(this) {
+					channel = super.get(channelName);
+					if(channel == null) {
+						channel = new Channel(AblyRealtime.this, channelName);
+						put(channelName, channel);
+					}
+				}
 			}
 			return channel;
 		}
@@ -150,8 +158,7 @@ public class AblyRealtime extends AblyRest {
 
 		public void onChannelMessage(ITransport transport, ProtocolMessage msg) {
 			String channelName = msg.channel;
-			Channel channel;
-			synchronized(this) { channel = channels.get(channelName); }
+			Channel channel = super.get(channelName);
 			if(channel == null) {
 				Log.e(TAG, "Received channel message for non-existent channel");
 				return;
@@ -160,10 +167,8 @@ public class AblyRealtime extends AblyRest {
 		}
 
 		public void suspendAll(ErrorInfo error, boolean notifyStateChange) {
-			for(Iterator<Map.Entry<String, Channel>> it = entrySet().iterator(); it.hasNext(); ) {
-				Map.Entry<String, Channel> entry = it.next();
-				entry.getValue().setSuspended(error, notifyStateChange);
-			}
+			for(Channel channel : values())
+				channel.setSuspended(error, notifyStateChange);
 		}
 	}
 
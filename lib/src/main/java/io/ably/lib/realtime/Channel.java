@@ -12,8 +12,12 @@ import io.ably.lib.types.ProtocolMessage.Action;
 import io.ably.lib.types.ProtocolMessage.Flag;
 import io.ably.lib.util.EventEmitter;
 import io.ably.lib.util.Log;
+import io.ably.lib.util.Scheduler;
+import io.ably.lib.util.SerialExecutor;
 
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
 
 
 /**
@@ -67,7 +71,7 @@ public class Channel extends EventEmitter<ChannelEvent, ChannelStateListener> {
 		setState(newState, reason, resumed, true);
 	}
 	private void setState(ChannelState newState, ErrorInfo reason, boolean resumed, boolean notifyStateChange) {
-		Log.v(TAG, "setState(): channel = " + name + "; setting " + newState);
+		Log.v(TAG, "setState(): channel = {}; setting {}", name, newState);
 		ChannelStateListener.ChannelStateChange stateChange;
 		synchronized(this) {
 			stateChange = new ChannelStateListener.ChannelStateChange(newState, this.state, reason, resumed);
@@ -116,7 +120,7 @@ public class Channel extends EventEmitter<ChannelEvent, ChannelStateListener> {
 	}
 
 	private void attachImpl(final CompletionListener listener) throws AblyException {
-		Log.v(TAG, "attach(); channel = " + name);
+		Log.v(TAG, "attach(); channel = {}", name);
 		/* check preconditions */
 		switch(state) {
 			case attaching:
@@ -136,7 +140,7 @@ public class Channel extends EventEmitter<ChannelEvent, ChannelStateListener> {
 			throw AblyException.fromErrorInfo(connectionManager.getStateErrorInfo());
 
 		/* send attach request and pending state */
-		Log.v(TAG, "attach(); channel = " + name + "; sending ATTACH request");
+		Log.v(TAG, "attach(); channel = {}; sending ATTACH request", name);
 		ProtocolMessage attachMessage = new ProtocolMessage(Action.attach, this.name);
 		try {
 			if (listener != null) {
@@ -172,7 +176,7 @@ public class Channel extends EventEmitter<ChannelEvent, ChannelStateListener> {
 	}
 
 	private void detachImpl(CompletionListener listener) throws AblyException {
-		Log.v(TAG, "detach(); channel = " + name);
+		Log.v(TAG, "detach(); channel = {}", name);
 		/* check preconditions */
 		switch(state) {
 			case initialized:
@@ -208,7 +212,7 @@ public class Channel extends EventEmitter<ChannelEvent, ChannelStateListener> {
 	}
 
 	public void sync() throws AblyException {
-		Log.v(TAG, "sync(); channel = " + name);
+		Log.v(TAG, "sync(); channel = {}", name);
 		/* check preconditions */
 		switch(state) {
 			case initialized:
@@ -231,13 +235,18 @@ public class Channel extends EventEmitter<ChannelEvent, ChannelStateListener> {
 	 * internal
 	 *
 	 */
-	private void setAttached(ProtocolMessage message) {
+	private synchronized void setAttached(ProtocolMessage message) {
+		if(state == ChannelState.detaching) {
+			/* the response to an attach superseded by a detach; the DETACHED that follows completes the detach */
+			Log.v(TAG, "setAttached(); channel = {} is detaching; ignoring ATTACHED", name);
+			return;
+		}
 		clearAttachTimers();
 		boolean resumed = (message.flags & ( 1 << Flag.resumed.ordinal())) != 0;
-		Log.v(TAG, "setAttached(); channel = " + name + ", resumed = " + resumed);
+		Log.v(TAG, "setAttached(); channel = {}, resumed = {}", name, resumed);
 		properties.attachSerial = message.channelSerial;
 		if(state == ChannelState.attached) {
-			Log.v(TAG, String.format("Server initiated attach for channel %s", name));
+			Log.v(TAG, "Server initiated attach for channel {}", name);
 			/* emit UPDATE event according to RTL12 */
 			emitUpdate(null, resumed);
 		} else {
@@ -249,7 +258,7 @@ public class Channel extends EventEmitter<ChannelEvent, ChannelStateListener> {
 
 	private void setDetached(ErrorInfo reason) {
 		clearAttachTimers();
-		Log.v(TAG, "setDetached(); channel = " + name);
+		Log.v(TAG, "setDetached(); channel = {}", name);
 		presence.setDetached(reason);
 		setState(ChannelState.detached, reason);
 		failQueuedMessages(reason);
@@ -257,28 +266,44 @@ public class Channel extends EventEmitter<ChannelEvent, ChannelStateListener> {
 
 	private void setFailed(ErrorInfo reason) {
 		clearAttachTimers();
-		Log.v(TAG, "setFailed(); channel = " + name);
+		Log.v(TAG, "setFailed(); channel = {}", name);
 		presence.setDetached(reason);
 		setState(ChannelState.failed, reason);
 		failQueuedMessages(reason);
 	}
 
+	/**
+	 * A timeout for a pending channel operation; since it emits state
+	 * changes and calls listeners, it is not run on the scheduler's thread
+	 */
+	private abstract class ChannelTimer implements Runnable {
+		private Scheduler.Timeout timeout;
+
+		void schedule(long delay) {
+			timeout = ably.connection.connectionManager.scheduleCallback(this, delay);
+		}
+
+		void cancel() {
+			if(timeout != null)
+				timeout.cancel();
+		}
+	}
+
 	/* Timer for attach operation */
-	private Timer attachTimer;
+	private ChannelTimer attachTimer;
 
 	/* Timer for reattaching if attach failed */
-	private Timer reattachTimer;
+	private ChannelTimer reattachTimer;
 
 	/**
 	 * Cancel attach/reattach timers
 	 */
 	synchronized private void clearAttachTimers() {
-		Timer[] timers = new Timer[]{attachTimer, reattachTimer};
+		ChannelTimer[] timers = new ChannelTimer[]{attachTimer, reattachTimer};
 		attachTimer = reattachTimer = null;
-		for (Timer t: timers) {
+		for (ChannelTimer t: timers) {
 			if (t != null) {
 				t.cancel();
-				t.purge();
 			}
 		}
 	}
@@ -288,7 +313,22 @@ public class Channel extends EventEmitter<ChannelEvent, ChannelStateListener> {
 	 * set up timer to reattach it later
 	 */
 	synchronized private void attachWithTimeout(final CompletionListener listener) throws AblyException {
-		final Timer currentAttachTimer = new Timer();
+		final ChannelTimer currentAttachTimer = new ChannelTimer() {
+			@Override
+			public void run() {
+				String errorMessage = String.format("Attach timed out for channel %s", name);
+				Log.v(TAG, errorMessage);
+				synchronized (Channel.this) {
+					if(attachTimer != this)
+						return;
+					attachTimer = null;
+					if(state == ChannelState.attaching) {
+						setSuspendedImpl(new ErrorInfo(errorMessage, 91200), true);
+						reattachAfterTimeout();
+					}
+				}
+			}
+		};
 		attachTimer = currentAttachTimer;
 
 		try {
@@ -315,23 +355,7 @@ public class Channel extends EventEmitter<ChannelEvent, ChannelStateListener> {
 			/* operation has already succeeded or failed, no need to set the timer */
 			return;
 
-		attachTimer.schedule(
-				new TimerTask() {
-					@Override
-					public void run() {
-						String errorMessage = String.format("Attach timed out for channel %s", name);
-						Log.v(TAG, errorMessage);
-						synchronized (Channel.this) {
-							if(attachTimer != currentAttachTimer)
-								return;
-							attachTimer = null;
-							if(state == ChannelState.attaching) {
-								setSuspended(new ErrorInfo(errorMessage, 91200), true);
-								reattachAfterTimeout();
-							}
-						}
-					}
-				}, Defaults.realtimeRequestTimeout);
+		currentAttachTimer.schedule(Defaults.realtimeRequestTimeout);
 	}
 
 	/**
@@ -339,14 +363,11 @@ public class Channel extends EventEmitter<ChannelEvent, ChannelStateListener> {
 	 * try to attach the channel
 	 */
 	synchronized private void reattachAfterTimeout() {
-		final Timer currentReattachTimer = new Timer();
-		reattachTimer = currentReattachTimer;
-
-		reattachTimer.schedule(new TimerTask() {
+		final ChannelTimer currentReattachTimer = new ChannelTimer() {
 			@Override
 			public void run() {
 				synchronized (Channel.this) {
-					if (currentReattachTimer != reattachTimer)
+					if (reattachTimer != this)
 						return;
 					reattachTimer = null;
 					if (state == ChannelState.suspended) {
@@ -358,7 +379,9 @@ public class Channel extends EventEmitter<ChannelEvent, ChannelStateListener> {
 					}
 				}
 			}
-		}, ably.options.channelRetryTimeout);
+		};
+		reattachTimer = currentReattachTimer;
+		currentReattachTimer.schedule(ably.options.channelRetryTimeout);
 	}
 
 	/**
@@ -367,7 +390,22 @@ public class Channel extends EventEmitter<ChannelEvent, ChannelStateListener> {
 	 */
 	synchronized private void detachWithTimeout(final CompletionListener listener) throws AblyException {
 		final ChannelState originalState = state;
-		final Timer currentDetachTimer = new Timer();
+		final ChannelTimer currentDetachTimer = new ChannelTimer() {
+			@Override
+			public void run() {
+				synchronized (Channel.this) {
+					if (attachTimer != this)
+						return;
+					attachTimer = null;
+					if (state == ChannelState.detaching) {
+						ErrorInfo reason = new ErrorInfo("Detach operation timed out", 90007);
+						if(listener != null)
+							listener.onError(reason);
+						setState(originalState, reason);
+					}
+				}
+			}
+		};
 		attachTimer = currentDetachTimer;
 
 		try {
@@ -394,27 +432,35 @@ public class Channel extends EventEmitter<ChannelEvent, ChannelStateListener> {
 			/* operation has already succeeded or failed, no need to set the timer */
 			return;
 
-		attachTimer.schedule(new TimerTask() {
-			@Override
-			public void run() {
-				synchronized (Channel.this) {
-					if (currentDetachTimer != attachTimer)
-						return;
-					attachTimer = null;
-					if (state == ChannelState.detaching) {
-						ErrorInfo reason = new ErrorInfo("Detach operation timed out", 90007);
-						if(listener != null)
-							listener.onError(reason);
-						setState(originalState, reason);
-					}
-				}
-			}
-		}, Defaults.realtimeRequestTimeout);
+		currentDetachTimer.schedule(Defaults.realtimeRequestTimeout);
 	}
 
 	/* State changes provoked by ConnectionManager state changes. */
 
+	/**
+	 * Apply a change of state provoked by the connection; when messages
+	 * are dispatched on the dispatch executor, it is ordered after any
+	 * channel messages that are still queued there
+	 */
+	private void dispatchConnectionState(Runnable stateChange) {
+		SerialExecutor dispatcher = this.dispatcher;
+		if(dispatcher == null) {
+			stateChange.run();
+			return;
+		}
+		dispatcher.execute(stateChange);
+	}
+
 	public void setConnected() {
+		dispatchConnectionState(new Runnable() {
+			@Override
+			public void run() {
+				setConnectedImpl();
+			}
+		});
+	}
+
+	private void setConnectedImpl() {
 		if(state == ChannelState.attached) {
 			try {
 				sync();
@@ -439,18 +485,28 @@ public class Channel extends EventEmitter<ChannelEvent, ChannelStateListener> {
 	 * or ATTACHED channel state will transition to FAILED and set the
 	 * Channel#errorReason
 	 */
-	public void setConnectionFailed(ErrorInfo reason) {
-		clearAttachTimers();
-		if (state == ChannelState.attached || state == ChannelState.attaching)
-			setFailed(reason);
+	public void setConnectionFailed(final ErrorInfo reason) {
+		dispatchConnectionState(new Runnable() {
+			@Override
+			public void run() {
+				clearAttachTimers();
+				if (state == ChannelState.attached || state == ChannelState.attaching)
+					setFailed(reason);
+			}
+		});
 	}
 
 	/** (RTL3b) If the connection state enters the CLOSED state, then an
 	 * ATTACHING or ATTACHED channel state will transition to DETACHED. */
-	public void setConnectionClosed(ErrorInfo reason) {
-		clearAttachTimers();
-		if (state == ChannelState.attached || state == ChannelState.attaching)
-			setDetached(reason);
+	public void setConnectionClosed(final ErrorInfo reason) {
+		dispatchConnectionState(new Runnable() {
+			@Override
+			public void run() {
+				clearAttachTimers();
+				if (state == ChannelState.attached || state == ChannelState.attaching)
+					setDetached(reason);
+			}
+		});
 	}
 
 	/** (RTL3c) If the connection state enters the SUSPENDED state, then an
@@ -461,10 +517,19 @@ public class Channel extends EventEmitter<ChannelEvent, ChannelStateListener> {
 	 *  messages for that channel and initiate a new attach.
 	 * This also gets called when a connection enters CONNECTED but with a
 	 * non-fatal error for a failed reconnect (RTN16e). */
-	public synchronized void setSuspended(ErrorInfo reason, boolean notifyStateChange) {
+	public void setSuspended(final ErrorInfo reason, final boolean notifyStateChange) {
+		dispatchConnectionState(new Runnable() {
+			@Override
+			public void run() {
+				setSuspendedImpl(reason, notifyStateChange);
+			}
+		});
+	}
+
+	private synchronized void setSuspendedImpl(ErrorInfo reason, boolean notifyStateChange) {
 		clearAttachTimers();
 		if (state == ChannelState.attached || state == ChannelState.attaching) {
-			Log.v(TAG, "setSuspended(); channel = " + name);
+			Log.v(TAG, "setSuspended(); channel = {}", name);
 			presence.setSuspended(reason);
 			setState(ChannelState.suspended, reason, false, notifyStateChange);
 			failQueuedMessages(reason);
@@ -498,7 +563,7 @@ public class Channel extends EventEmitter<ChannelEvent, ChannelStateListener> {
 	 * </p>
 	 */
 	public synchronized void unsubscribe() {
-		Log.v(TAG, "unsubscribe(); channel = " + this.name);
+		Log.v(TAG, "unsubscribe(); channel = {}", this.name);
 		listeners.clear();
 		eventListeners.clear();
 	}
@@ -510,7 +575,7 @@ public class Channel extends EventEmitter<ChannelEvent, ChannelStateListener> {
 	 * @throws AblyException
 	 */
 	public synchronized void subscribe(MessageListener listener) throws AblyException {
-		Log.v(TAG, "subscribe(); channel = " + this.name);
+		Log.v(TAG, "subscribe(); channel = {}", this.name);
 		listeners.add(listener);
 		attach();
 	}
@@ -520,7 +585,7 @@ public class Channel extends EventEmitter<ChannelEvent, ChannelStateListener> {
 	 * @param listener: the previously subscribed listener.
 	 */
 	public synchronized void unsubscribe(MessageListener listener) {
-		Log.v(TAG, "unsubscribe(); channel = " + this.name);
+		Log.v(TAG, "unsubscribe(); channel = {}", this.name);
 		listeners.remove(listener);
 		for (MessageMulticaster multicaster: eventListeners.values()) {
 			multicaster.remove(listener);
@@ -535,7 +600,7 @@ public class Channel extends EventEmitter<ChannelEvent, ChannelStateListener> {
 	 * @throws AblyException
 	 */
 	public synchronized void subscribe(String name, MessageListener listener) throws AblyException {
-		Log.v(TAG, "subscribe(); channel = " + this.name + "; event = " + name);
+		Log.v(TAG, "subscribe(); channel = {}; event = {}", this.name, name);
 		subscribeImpl(name, listener);
 		attach();
 	}
@@ -546,7 +611,7 @@ public class Channel extends EventEmitter<ChannelEvent, ChannelStateListener> {
 	 * @param listener: the previously subscribed listener.
 	 */
 	public synchronized void unsubscribe(String name, MessageListener listener) {
-		Log.v(TAG, "unsubscribe(); channel = " + this.name + "; event = " + name);
+		Log.v(TAG, "unsubscribe(); channel = {}; event = {}", this.name, name);
 		unsubscribeImpl(name, listener);
 	}
 
@@ -558,7 +623,7 @@ public class Channel extends EventEmitter<ChannelEvent, ChannelStateListener> {
 	 * @throws AblyException
 	 */
 	public synchronized void subscribe(String[] names, MessageListener listener) throws AblyException {
-		Log.v(TAG, "subscribe(); channel = " + this.name + "; (multiple events)");
+		Log.v(TAG, "subscribe(); channel = {}; (multiple events)", this.name);
 		for(String name : names)
 			subscribeImpl(name, listener);
 		attach();
@@ -570,50 +635,172 @@ public class Channel extends EventEmitter<ChannelEvent, ChannelStateListener> {
 	 * @param listener: the previously subscribed listener.
 	 */
 	public synchronized void unsubscribe(String[] names, MessageListener listener) {
-		Log.v(TAG, "unsubscribe(); channel = " + this.name + "; (multiple events)");
+		Log.v(TAG, "unsubscribe(); channel = {}; (multiple events)", this.name);
 		for(String name : names)
 			unsubscribeImpl(name, listener);
 	}
 
+	/**
+	 * Subscribe for messages on this channel, buffering up to a given number
+	 * of messages for the listener, which is called on an executor; see
+	 * SubscriptionOptions. This implicitly attaches the channel if not
+	 * already attached.
+	 * @param listener: the MessageListener
+	 * @param options: the buffer size, overflow policy and executor
+	 * @return the subscription, which gives the state of the buffer and
+	 * may be unsubscribed
+	 * @throws AblyException
+	 */
+	public ChannelSubscription subscribe(MessageListener listener, SubscriptionOptions options) throws AblyException {
+		return subscribe((String[])null, listener, options);
+	}
+
+	/**
+	 * Subscribe for messages with a specific event name on this channel,
+	 * buffering messages for the listener; see subscribe(MessageListener, SubscriptionOptions).
+	 * @param name: the event name
+	 * @param listener: the MessageListener
+	 * @param options: the buffer size, overflow policy and executor
+	 * @throws AblyException
+	 */
+	public ChannelSubscription subscribe(String name, MessageListener listener, SubscriptionOptions options) throws AblyException {
+		return subscribe(new String[] { name }, listener, options);
+	}
+
+	/**
+	 * Subscribe for messages with an array of event names on this channel,
+	 * buffering messages for the listener; see subscribe(MessageListener, SubscriptionOptions).
+	 * @param names: the event names, or null for all messages
+	 * @param listener: the MessageListener
+	 * @param options: the buffer size, overflow policy and executor
+	 * @throws AblyException
+	 */
+	public ChannelSubscription subscribe(String[] names, MessageListener listener, SubscriptionOptions options) throws AblyException {
+		ChannelSubscription subscription = new ChannelSubscription(listener, options, ably.options.dispatchExecutor);
+		subscription.setSubscribed(this, names);
+		if(names == null)
+			subscribe(subscription);
+		else
+			subscribe(names, subscription);
+		return subscription;
+	}
+
+	/**
+	 * Get a Flow.Publisher of the messages on this channel. Each subscriber
+	 * subscribes a listener to this channel, which implicitly attaches it,
+	 * and is given the messages that it requests, from those received while
+	 * it is subscribed; messages received and not yet requested are buffered
+	 * as given by the options. Cancelling the subscription unsubscribes the
+	 * listener, and detaches this channel if it was attached by the subscriber
+	 * and has no other listeners. A subscriber is given an error if this
+	 * channel fails.
+	 * @param options: the buffer size, overflow policy and executor of each
+	 * subscriber, or null for the defaults
+	 * @return the publisher
+	 */
+	public Flow.Publisher<Message> publisher(SubscriptionOptions options) {
+		return FlowPublishers.messages(this, null, options);
+	}
+
+	/**
+	 * Get a Flow.Publisher of the messages with a specific event name on this
+	 * channel; see publisher(SubscriptionOptions).
+	 * @param name: the event name
+	 * @param options: the buffer size, overflow policy and executor of each
+	 * subscriber, or null for the defaults
+	 */
+	public Flow.Publisher<Message> publisher(String name, SubscriptionOptions options) {
+		return FlowPublishers.messages(this, new String[] { name }, options);
+	}
+
+	/**
+	 * Get a Flow.Publisher of the messages with an array of event names on
+	 * this channel; see publisher(SubscriptionOptions).
+	 * @param names: the event names
+	 * @param options: the buffer size, overflow policy and executor of each
+	 * subscriber, or null for the defaults
+	 */
+	public Flow.Publisher<Message> publisher(String[] names, SubscriptionOptions options) {
+		return FlowPublishers.messages(this, names, options);
+	}
+
+	/**
+	 * Internal: whether any listener is subscribed for messages
+	 * or presence on this channel
+	 */
+	synchronized boolean hasSubscribers() {
+		if(!listeners.isEmpty())
+			return true;
+		for(MessageMulticaster multicaster : eventListeners.values())
+			if(!multicaster.isEmpty())
+				return true;
+		return presence.hasSubscribers();
+	}
+
 	/***
 	 * internal
 	 *
 	 */
 	private void onMessage(ProtocolMessage message) {
-		Log.v(TAG, "onMessage(); channel = " + name);
+		Log.v(TAG, "onMessage(); channel = {}", name);
 		Message[] messages = message.messages;
+		/* the payload of a message is only decoded if a listener will receive
+		 * it, so there is no decryption or parsing of messages with names
+		 * that nobody has subscribed to */
+		boolean[] decoded = new boolean[messages.length];
+		boolean all = !this.listeners.isEmpty();
+		for(int i = 0; i < messages.length; i++)
+			decoded[i] = all || getEventListeners(messages[i].name) != null;
+		logDecodeErrors(BatchDecoder.get(ably.options).decode(messages, decoded, options));
+
 		for(int i = 0; i < messages.length; i++) {
 			Message msg = messages[i];
-			try {
-				msg.decode(options);
-			} catch (MessageDecodeException e) {
-				Log.e(TAG, String.format("%s on channel %s", e.errorInfo.message, name));
-			}
 			/* populate fields derived from protocol message */
 			if(msg.connectionId == null) msg.connectionId = message.connectionId;
 			if(msg.timestamp == 0) msg.timestamp = message.timestamp;
 			if(msg.id == null) msg.id = message.id + ':' + i;
 			/* broadcast */
-			MessageMulticaster listeners = eventListeners.get(msg.name);
-			if(listeners != null)
+			MessageMulticaster listeners = getEventListeners(msg.name);
+			if(listeners != null) {
+				/* a listener may have subscribed since the messages were decoded */
+				if(!decoded[i]) {
+					decode(msg);
+					decoded[i] = true;
+				}
 				listeners.onMessage(msg);
+			}
 		}
 
-		for (Message msg : message.messages) {
-			this.listeners.onMessage(msg);
+		if(!this.listeners.isEmpty()) {
+			for(int i = 0; i < messages.length; i++) {
+				if(!decoded[i])
+					decode(messages[i]);
+				this.listeners.onMessage(messages[i]);
+			}
 		}
 	}
 
+	private void decode(Message msg) {
+		try {
+			msg.decode(options);
+		} catch (MessageDecodeException e) {
+			Log.e(TAG, String.format("%s on channel %s", e.errorInfo.message, name));
+		}
+	}
+
+	private void logDecodeErrors(MessageDecodeException[] errors) {
+		if(errors != null)
+			for(MessageDecodeException e : errors)
+				if(e != null)
+					Log.e(TAG, String.format("%s on channel %s", e.errorInfo.message, name));
+	}
+
 	private void onPresence(ProtocolMessage message, String syncChannelSerial) {
-		Log.v(TAG, "onPresence(); channel = " + name + "; syncChannelSerial = " + syncChannelSerial);
+		Log.v(TAG, "onPresence(); channel = {}; syncChannelSerial = {}", name, syncChannelSerial);
 		PresenceMessage[] messages = message.presence;
+		logDecodeErrors(BatchDecoder.get(ably.options).decode(messages, null, options));
 		for(int i = 0; i < messages.length; i++) {
 			PresenceMessage msg = messages[i];
-			try {
-				msg.decode(options);
-			} catch (MessageDecodeException e) {
-				Log.e(TAG, String.format("%s on channel %s", e.errorInfo.message, name));
-			}
 			/* populate fields derived from protocol message */
 			if(msg.connectionId == null) msg.connectionId = message.connectionId;
 			if(msg.timestamp == 0) msg.timestamp = message.timestamp;
@@ -623,13 +810,15 @@ public class Channel extends EventEmitter<ChannelEvent, ChannelStateListener> {
 	}
 
 	private void onSync(ProtocolMessage message) {
-		Log.v(TAG, "onSync(); channel = " + name);
+		Log.v(TAG, "onSync(); channel = {}", name);
 		if(message.presence != null)
 			onPresence(message, (syncChannelSerial = message.channelSerial));
 	}
 
 	private MessageMulticaster listeners = new MessageMulticaster();
-	private HashMap<String, MessageMulticaster> eventListeners = new HashMap<String, MessageMulticaster>();
+	/* listeners are added and removed under the channel lock, and called
+	 * without it from the snapshots published by each multicaster */
+	private final ConcurrentHashMap<String, MessageMulticaster> eventListeners = new ConcurrentHashMap<String, MessageMulticaster>();
 
 	private static class MessageMulticaster extends io.ably.lib.util.Multicaster<MessageListener> implements MessageListener {
 		@Override
@@ -643,7 +832,14 @@ public class Channel extends EventEmitter<ChannelEvent, ChannelStateListener> {
 		}
 	}
 
+	/* unnamed messages have a null name, which the map does not hold */
+	private MessageMulticaster getEventListeners(String name) {
+		return (name == null) ? null : eventListeners.get(name);
+	}
+
 	private void subscribeImpl(String name, MessageListener listener) throws AblyException {
+		if(name == null)
+			throw AblyException.fromErrorInfo(new ErrorInfo("Unable to subscribe with a null event name", 400, 40000));
 		MessageMulticaster listeners = eventListeners.get(name);
 		if(listeners == null) {
 			listeners = new MessageMulticaster();
@@ -653,7 +849,7 @@ public class Channel extends EventEmitter<ChannelEvent, ChannelStateListener> {
 	}
 
 	private void unsubscribeImpl(String name, MessageListener listener) {
-		MessageMulticaster listeners = eventListeners.get(name);
+		MessageMulticaster listeners = getEventListeners(name);
 		if(listeners != null) {
 			listeners.remove(listener);
 			if(listeners.isEmpty())
@@ -705,7 +901,7 @@ public class Channel extends EventEmitter<ChannelEvent, ChannelStateListener> {
 	 * @throws AblyException
 	 */
 	public void publish(String name, Object data, CompletionListener listener) throws AblyException {
-		Log.v(TAG, "publish(String, Object); channel = " + this.name + "; event = " + name);
+		Log.v(TAG, "publish(String, Object); channel = {}; event = {}", this.name, name);
 		publish(new Message[] {new Message(name, data)}, listener);
 	}
 
@@ -717,7 +913,7 @@ public class Channel extends EventEmitter<ChannelEvent, ChannelStateListener> {
 	 * @throws AblyException
 	 */
 	public void publish(Message message, CompletionListener listener) throws AblyException {
-		Log.v(TAG, "publish(Message); channel = " + this.name + "; event = " + message.name);
+		Log.v(TAG, "publish(Message); channel = {}; event = {}", this.name, message.name);
 		publish(new Message[] {message}, listener);
 	}
 
@@ -729,7 +925,7 @@ public class Channel extends EventEmitter<ChannelEvent, ChannelStateListener> {
 	 * @throws AblyException
 	 */
 	public synchronized void publish(Message[] messages, CompletionListener listener) throws AblyException {
-		Log.v(TAG, "publish(Message[]); channel = " + this.name);
+		Log.v(TAG, "publish(Message[]); channel = {}", this.name);
 		boolean connected = (ably.connection.state == ConnectionState.connected);
 		try {
 			for(Message message : messages) {
@@ -879,6 +1075,23 @@ public class Channel extends EventEmitter<ChannelEvent, ChannelStateListener> {
 		historyImpl(params).async(callback);
 	}
 
+	/**
+	 * Get a Flow.Publisher of the history of this channel. Each subscriber
+	 * makes a new query, and the next page of the history is only requested
+	 * once the subscriber has been given every message of the previous page
+	 * and requests more.
+	 * @param params: the request params, as for history()
+	 * @return the publisher
+	 */
+	public Flow.Publisher<Message> historyPublisher(final Param[] params) {
+		return FlowPublishers.history(new FlowPublishers.HistoryQuery<Message>() {
+			@Override
+			public void query(Callback<AsyncPaginatedResult<Message>> callback) {
+				historyAsync(params, callback);
+			}
+		}, ably.options.dispatchExecutor);
+	}
+
 	private BasePaginatedQuery.ResultRequest<Message> historyImpl(Param[] params) {
 		try {
 			params = replacePlaceholderParams(this, params);
@@ -886,7 +1099,7 @@ public class Channel extends EventEmitter<ChannelEvent, ChannelStateListener> {
 			return new BasePaginatedQuery.ResultRequest.Failed<Message>(e);
 		}
 
-		HttpCore.BodyHandler<Message> bodyHandler = MessageSerializer.getMessageResponseHandler(options);
+		HttpCore.BodyHandler<Message> bodyHandler = MessageSerializer.getMessageResponseHandler(options, BatchDecoder.get(ably.options));
 		return new BasePaginatedQuery<Message>(ably.http, basePath + "/history", HttpUtils.defaultAcceptHeaders(ably.options.useBinaryProtocol), params, bodyHandler).get();
 	}
 
@@ -928,7 +1141,7 @@ public class Channel extends EventEmitter<ChannelEvent, ChannelStateListener> {
 	}
 
 	Channel(AblyRealtime ably, String name) {
-		Log.v(TAG, "RealtimeChannel(); channel = " + name);
+		Log.v(TAG, "RealtimeChannel(); channel = {}", name);
 		this.ably = ably;
 		this.name = name;
 		this.basePath = "/channels/" + HttpUtils.encodeURIComponent(name);
@@ -938,6 +1151,25 @@ public class Channel extends EventEmitter<ChannelEvent, ChannelStateListener> {
 	}
 
 	void onChannelMessage(ProtocolMessage msg) {
+		switch(msg.action) {
+		case message:
+		case presence:
+		case sync:
+			dispatch(msg, true);
+			break;
+		case attached:
+		case detach:
+		case detached:
+		case error:
+			/* changes of state are ordered after any messages still being dispatched */
+			dispatch(msg, false);
+			break;
+		default:
+			Log.e(TAG, "onChannelMessage(): Unexpected message action (" + msg.action + ")");
+		}
+	}
+
+	private void onStateMessage(ProtocolMessage msg) {
 		switch(msg.action) {
 		case attached:
 			setAttached(msg);
@@ -949,7 +1181,7 @@ public class Channel extends EventEmitter<ChannelEvent, ChannelStateListener> {
 				case attached:
 					/* Unexpected detach, reattach when possible */
 					setDetached((msg.error != null) ? msg.error : REASON_NOT_ATTACHED);
-					Log.v(TAG, String.format("Server initiated detach for channel %s; attempting reattach", name));
+					Log.v(TAG, "Server initiated detach for channel {}; attempting reattach", name);
 					try {
 						attachWithTimeout(null);
 					} catch (AblyException e) {
@@ -960,8 +1192,8 @@ public class Channel extends EventEmitter<ChannelEvent, ChannelStateListener> {
 					break;
 				case attaching:
 					/* RTL13b says we need to be suspended, but continue to retry */
-					Log.v(TAG, String.format("Server initiated detach for channel %s whilst attaching; moving to suspended", name));
-					setSuspended(msg.error, true);
+					Log.v(TAG, "Server initiated detach for channel {} whilst attaching; moving to suspended", name);
+					setSuspendedImpl(msg.error, true);
 					reattachAfterTimeout();
 					break;
 				case detaching:
@@ -975,6 +1207,41 @@ public class Channel extends EventEmitter<ChannelEvent, ChannelStateListener> {
 					break;
 			}
 			break;
+		case error:
+			setFailed(msg.error);
+			break;
+		default:
+			break;
+		}
+	}
+
+	/**
+	 * Handle a channel message on the dispatch executor if there is one,
+	 * in the order in which the messages were received
+	 * @param create false if the message is to be handled immediately
+	 * when no message has yet been dispatched
+	 */
+	private void dispatch(final ProtocolMessage msg, boolean create) {
+		Executor executor = ably.options.dispatchExecutor;
+		SerialExecutor dispatcher = this.dispatcher;
+		if(executor == null || (dispatcher == null && !create)) {
+			onDispatch(msg);
+			return;
+		}
+		if(dispatcher == null) {
+			/* only the connection's thread creates the dispatcher */
+			this.dispatcher = dispatcher = new SerialExecutor(executor);
+		}
+		dispatcher.execute(new Runnable() {
+			@Override
+			public void run() {
+				onDispatch(msg);
+			}
+		});
+	}
+
+	private void onDispatch(ProtocolMessage msg) {
+		switch(msg.action) {
 		case message:
 			onMessage(msg);
 			break;
@@ -984,11 +1251,9 @@ public class Channel extends EventEmitter<ChannelEvent, ChannelStateListener> {
 		case sync:
 			onSync(msg);
 			break;
-		case error:
-			setFailed(msg.error);
-			break;
 		default:
-			Log.e(TAG, "onChannelMessage(): Unexpected message action (" + msg.action + ")");
+			onStateMessage(msg);
+			break;
 		}
 	}
 
@@ -1014,8 +1279,9 @@ public class Channel extends EventEmitter<ChannelEvent, ChannelStateListener> {
 	}
 
 	private static final String TAG = Channel.class.getName();
+	private volatile SerialExecutor dispatcher;
 	final AblyRealtime ably;
 	final String basePath;
 	ChannelOptions options;
-	String syncChannelSerial;
+	volatile String syncChannelSerial;
 }
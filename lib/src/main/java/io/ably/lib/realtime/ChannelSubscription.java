@@ -0,0 +1,221 @@
+package io.ably.lib.realtime;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+import io.ably.lib.realtime.Channel.MessageListener;
+import io.ably.lib.realtime.SubscriptionOptions.OverflowPolicy;
+import io.ably.lib.types.ErrorInfo;
+import io.ably.lib.types.Message;
+import io.ably.lib.util.Log;
+import io.ably.lib.util.SharedExecutor;
+
+/**
+ * A MessageListener that buffers the messages it receives, up to a bounded
+ * number, and delivers them in order to another listener on an executor,
+ * so that a listener that cannot keep up does not hold up its channel or
+ * the connection. When the buffer is full, the subscription's OverflowPolicy
+ * applies; see SubscriptionOptions.
+ *
+ * A subscription is obtained from Channel.subscribe() with SubscriptionOptions,
+ * or may be constructed and subscribed as any other listener.
+ */
+public class ChannelSubscription implements MessageListener {
+
+	public ChannelSubscription(MessageListener listener, SubscriptionOptions options) {
+		this(listener, options, null);
+	}
+
+	/**
+	 * @param defaultExecutor the executor used if the options give none, or null
+	 */
+	ChannelSubscription(MessageListener listener, SubscriptionOptions options, Executor defaultExecutor) {
+		if(options == null)
+			options = new SubscriptionOptions();
+		this.listener = listener;
+		this.capacity = Math.max(options.bufferSize, 1);
+		this.policy = options.overflowPolicy;
+		if(options.executor != null)
+			this.executor = options.executor;
+		else if(defaultExecutor != null && policy != OverflowPolicy.block)
+			this.executor = defaultExecutor;
+		else
+			/* a blocked dispatch may be holding the thread of the default
+			 * executor that the listener would be called on */
+			this.executor = SharedExecutor.get();
+	}
+
+	@Override
+	public void onMessage(Message message) {
+		boolean overflowed = false;
+		synchronized(this) {
+			if(closed)
+				return;
+			if(buffer.size() >= capacity) {
+				switch(policy) {
+				case block:
+					while(buffer.size() >= capacity && !closed) {
+						try {
+							wait();
+						} catch(InterruptedException e) {
+							Thread.currentThread().interrupt();
+							++dropped;
+							return;
+						}
+					}
+					if(closed)
+						return;
+					break;
+				case dropOldest:
+					buffer.poll();
+					++dropped;
+					break;
+				case dropNewest:
+					++dropped;
+					return;
+				case fail:
+					++dropped;
+					failure = new ErrorInfo("Subscription buffer overflow", 400, 40000);
+					closeLocked();
+					overflowed = true;
+					break;
+				}
+			}
+			if(!overflowed) {
+				buffer.add(new Entry(message, System.nanoTime()));
+				if(draining)
+					return;
+				draining = true;
+			}
+		}
+		if(overflowed) {
+			Log.e(TAG, "Subscription buffer of " + capacity + " messages overflowed; unsubscribing");
+			unsubscribeFromChannel();
+			return;
+		}
+		try {
+			executor.execute(drainer);
+		} catch(RejectedExecutionException e) {
+			drainer.run();
+		}
+	}
+
+	/**
+	 * Stop delivering messages, discarding any that are buffered, and
+	 * unsubscribe from the channel, if subscribed with Channel.subscribe()
+	 */
+	public void unsubscribe() {
+		synchronized(this) {
+			closeLocked();
+		}
+		unsubscribeFromChannel();
+	}
+
+	/**
+	 * The number of messages buffered and not yet delivered
+	 */
+	public synchronized int getQueueDepth() {
+		return buffer.size();
+	}
+
+	/**
+	 * The number of messages discarded because the buffer was full
+	 */
+	public synchronized long getDroppedCount() {
+		return dropped;
+	}
+
+	/**
+	 * The time, in milliseconds, for which the oldest buffered
+	 * message has been waiting; 0 if none is buffered
+	 */
+	public synchronized long getOldestMessageAge() {
+		Entry oldest = buffer.peek();
+		return (oldest == null) ? 0 : (System.nanoTime() - oldest.received) / 1000000;
+	}
+
+	/**
+	 * The reason the subscription failed, if its buffer overflowed
+	 * with OverflowPolicy.fail; otherwise null
+	 */
+	public synchronized ErrorInfo getFailure() {
+		return failure;
+	}
+
+	/**
+	 * Internal: record the channel and names with which this is subscribed
+	 */
+	synchronized void setSubscribed(Channel channel, String[] names) {
+		this.channel = channel;
+		this.names = names;
+	}
+
+	private void closeLocked() {
+		closed = true;
+		buffer.clear();
+		/* release any threads blocked on a full buffer */
+		notifyAll();
+	}
+
+	private void unsubscribeFromChannel() {
+		Channel channel;
+		String[] names;
+		synchronized(this) {
+			channel = this.channel;
+			names = this.names;
+			this.channel = null;
+		}
+		if(channel == null)
+			return;
+		if(names == null)
+			channel.unsubscribe(this);
+		else
+			channel.unsubscribe(names, this);
+	}
+
+	private final Runnable drainer = new Runnable() {
+		@Override
+		public void run() {
+			while(true) {
+				Entry entry;
+				synchronized(ChannelSubscription.this) {
+					entry = buffer.poll();
+					if(entry == null) {
+						draining = false;
+						return;
+					}
+					if(policy == OverflowPolicy.block)
+						ChannelSubscription.this.notifyAll();
+				}
+				try {
+					listener.onMessage(entry.message);
+				} catch(Throwable t) {
+					Log.e(TAG, "Unexpected exception calling listener", t);
+				}
+			}
+		}
+	};
+
+	private static class Entry {
+		Entry(Message message, long received) { this.message = message; this.received = received; }
+		final Message message;
+		final long received;
+	}
+
+	private static final String TAG = ChannelSubscription.class.getName();
+
+	private final MessageListener listener;
+	private final int capacity;
+	private final OverflowPolicy policy;
+	private final Executor executor;
+
+	/* all guarded by this */
+	private final ArrayDeque<Entry> buffer = new ArrayDeque<Entry>();
+	private boolean draining;
+	private boolean closed;
+	private long dropped;
+	private ErrorInfo failure;
+	private Channel channel;
+	private String[] names;
+}
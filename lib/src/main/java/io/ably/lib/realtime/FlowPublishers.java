@@ -0,0 +1,236 @@
+package io.ably.lib.realtime;
+
+import java.util.EnumSet;
+import java.util.concurrent.Executor;
+
+import io.ably.lib.realtime.Channel.MessageListener;
+import io.ably.lib.realtime.Presence.PresenceListener;
+import io.ably.lib.types.AblyException;
+import io.ably.lib.types.AsyncPaginatedResult;
+import io.ably.lib.types.Callback;
+import io.ably.lib.types.ErrorInfo;
+import io.ably.lib.types.Flow;
+import io.ably.lib.types.Message;
+import io.ably.lib.types.PresenceMessage;
+import io.ably.lib.util.Log;
+
+/**
+ * Internal: the Flow.Publishers of the messages, presence messages and
+ * history of a channel.
+ *
+ * Subscribing to the publisher of live messages subscribes a listener to
+ * the channel, which implicitly attaches it; cancelling the subscription
+ * unsubscribes the listener and, if the subscription attached the channel
+ * and no other listener remains, detaches it. Each subscriber is given the
+ * messages received while it is subscribed, buffered until requested as
+ * given by its SubscriptionOptions, and an error if the channel fails.
+ *
+ * Subscribing to the publisher of history makes a new query, and each
+ * page is requested only once the subscriber has taken every item of the
+ * previous page and requested more.
+ */
+final class FlowPublishers {
+
+	static Flow.Publisher<Message> messages(final Channel channel, final String[] names, final SubscriptionOptions options) {
+		return new Flow.Publisher<Message>() {
+			@Override
+			public void subscribe(Flow.Subscriber<? super Message> subscriber) {
+				new MessageFlow(channel, names, subscriber, options).start();
+			}
+		};
+	}
+
+	static Flow.Publisher<PresenceMessage> presence(final Channel channel, final EnumSet<PresenceMessage.Action> actions, final SubscriptionOptions options) {
+		return new Flow.Publisher<PresenceMessage>() {
+			@Override
+			public void subscribe(Flow.Subscriber<? super PresenceMessage> subscriber) {
+				new PresenceFlow(channel, actions, subscriber, options).start();
+			}
+		};
+	}
+
+	/**
+	 * A query for the first page of a paginated result
+	 */
+	interface HistoryQuery<T> {
+		void query(Callback<AsyncPaginatedResult<T>> callback);
+	}
+
+	static <T> Flow.Publisher<T> history(final HistoryQuery<T> query, final Executor executor) {
+		return new Flow.Publisher<T>() {
+			@Override
+			public void subscribe(Flow.Subscriber<? super T> subscriber) {
+				new HistoryFlow<T>(query, subscriber, executor).start();
+			}
+		};
+	}
+
+	/**
+	 * The subscription of a subscriber to the live messages of a channel
+	 */
+	private static abstract class ChannelFlow<T> extends FlowSubscription<T> implements ChannelStateListener {
+		ChannelFlow(Channel channel, Flow.Subscriber<? super T> subscriber, SubscriptionOptions options) {
+			super(subscriber, options, channel.ably.options.dispatchExecutor);
+			this.channel = channel;
+		}
+
+		@Override
+		void onStart() throws AblyException {
+			ChannelState state = channel.state;
+			attachedHere = (state != ChannelState.attached && state != ChannelState.attaching);
+			channel.on(ChannelState.failed, this);
+			try {
+				subscribe();
+			} catch(AblyException e) {
+				attachedHere = false;
+				throw e;
+			}
+		}
+
+		@Override
+		void onRelease() {
+			unsubscribe();
+			channel.off(this);
+			ChannelState state = channel.state;
+			if(attachedHere && (state == ChannelState.attached || state == ChannelState.attaching) && !channel.hasSubscribers()) {
+				try {
+					channel.detach();
+				} catch(AblyException e) {
+					Log.e(TAG, "Unable to detach channel " + channel.name, e);
+				}
+			}
+		}
+
+		@Override
+		public void onChannelStateChanged(ChannelStateChange stateChange) {
+			ErrorInfo reason = stateChange.reason;
+			if(reason == null)
+				reason = new ErrorInfo(String.format("Channel %s failed", channel.name), 90000);
+			error(AblyException.fromErrorInfo(reason));
+		}
+
+		abstract void subscribe() throws AblyException;
+		abstract void unsubscribe();
+
+		final Channel channel;
+		/* written before the first signal to the subscriber */
+		private volatile boolean attachedHere;
+	}
+
+	private static class MessageFlow extends ChannelFlow<Message> implements MessageListener {
+		MessageFlow(Channel channel, String[] names, Flow.Subscriber<? super Message> subscriber, SubscriptionOptions options) {
+			super(channel, subscriber, options);
+			this.names = names;
+		}
+
+		@Override
+		public void onMessage(Message message) {
+			offer(message);
+		}
+
+		@Override
+		void subscribe() throws AblyException {
+			if(names == null)
+				channel.subscribe(this);
+			else
+				channel.subscribe(names, this);
+		}
+
+		@Override
+		void unsubscribe() {
+			if(names == null)
+				channel.unsubscribe(this);
+			else
+				channel.unsubscribe(names, this);
+		}
+
+		private final String[] names;
+	}
+
+	private static class PresenceFlow extends ChannelFlow<PresenceMessage> implements PresenceListener {
+		PresenceFlow(Channel channel, EnumSet<PresenceMessage.Action> actions, Flow.Subscriber<? super PresenceMessage> subscriber, SubscriptionOptions options) {
+			super(channel, subscriber, options);
+			this.actions = actions;
+		}
+
+		@Override
+		public void onPresenceMessage(PresenceMessage message) {
+			offer(message);
+		}
+
+		@Override
+		void subscribe() throws AblyException {
+			if(actions == null)
+				channel.presence.subscribe(this);
+			else
+				channel.presence.subscribe(actions, this);
+		}
+
+		@Override
+		void unsubscribe() {
+			if(actions == null)
+				channel.presence.unsubscribe(this);
+			else
+				channel.presence.unsubscribe(actions, this);
+		}
+
+		private final EnumSet<PresenceMessage.Action> actions;
+	}
+
+	/**
+	 * The subscription of a subscriber to the items of a paginated query,
+	 * which fetches a page when the subscriber's demand is not met by the
+	 * items of the pages already fetched
+	 */
+	private static class HistoryFlow<T> extends FlowSubscription<T> implements Callback<AsyncPaginatedResult<T>> {
+		HistoryFlow(HistoryQuery<T> query, Flow.Subscriber<? super T> subscriber, Executor executor) {
+			super(subscriber, null, executor);
+			this.query = query;
+		}
+
+		@Override
+		void onStart() {}
+
+		@Override
+		void onDemand() {
+			AsyncPaginatedResult<T> page;
+			synchronized(this) {
+				if(fetching)
+					return;
+				fetching = true;
+				page = this.page;
+			}
+			if(page == null)
+				query.query(this);
+			else
+				page.next(this);
+		}
+
+		@Override
+		public void onSuccess(AsyncPaginatedResult<T> result) {
+			synchronized(this) {
+				page = result;
+				fetching = false;
+			}
+			offerAll(result.items(), !result.hasNext());
+		}
+
+		@Override
+		public void onError(ErrorInfo reason) {
+			error(AblyException.fromErrorInfo(reason));
+		}
+
+		@Override
+		void onRelease() {}
+
+		private final HistoryQuery<T> query;
+
+		/* guarded by this */
+		private AsyncPaginatedResult<T> page;
+		private boolean fetching;
+	}
+
+	private static final String TAG = FlowPublishers.class.getName();
+
+	private FlowPublishers() {}
+}
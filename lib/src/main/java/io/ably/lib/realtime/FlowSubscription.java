@@ -0,0 +1,298 @@
+package io.ably.lib.realtime;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+import io.ably.lib.realtime.SubscriptionOptions.OverflowPolicy;
+import io.ably.lib.types.AblyException;
+import io.ably.lib.types.ErrorInfo;
+import io.ably.lib.types.Flow;
+import io.ably.lib.util.Log;
+import io.ably.lib.util.SharedExecutor;
+
+/**
+ * Internal: the subscription of a single Flow.Subscriber to a publisher
+ * of this library. Items given by the source are buffered until the
+ * subscriber requests them, and the subscriber's methods are called one
+ * at a time, on an executor, and never while a lock is held.
+ *
+ * A source that cannot be slowed down, such as the messages of a channel,
+ * offers each item with offer(), and the OverflowPolicy applies when the
+ * buffer is full; a source that can wait, such as the pages of history,
+ * fetches more items when onDemand() is called.
+ */
+abstract class FlowSubscription<T> implements Flow.Subscription {
+
+	FlowSubscription(Flow.Subscriber<? super T> subscriber, SubscriptionOptions options, Executor defaultExecutor) {
+		if(options == null)
+			options = new SubscriptionOptions();
+		this.subscriber = subscriber;
+		this.capacity = Math.max(options.bufferSize, 1);
+		this.policy = options.overflowPolicy;
+		if(options.executor != null)
+			this.executor = options.executor;
+		else if(defaultExecutor != null && policy != OverflowPolicy.block)
+			this.executor = defaultExecutor;
+		else
+			/* a blocked dispatch may be holding the thread of the default
+			 * executor that the subscriber would be called on */
+			this.executor = SharedExecutor.get();
+	}
+
+	/**
+	 * Start the source, then signal onSubscribe() to the subscriber;
+	 * if the source cannot be started, that is followed by onError()
+	 */
+	void start() {
+		try {
+			onStart();
+		} catch(AblyException e) {
+			error(e);
+		}
+		synchronized(this) {
+			/* an error starting the source has already scheduled the drainer */
+			if(draining)
+				return;
+			draining = true;
+		}
+		execute();
+	}
+
+	/**
+	 * Start giving items; called before any method of the subscriber
+	 */
+	abstract void onStart() throws AblyException;
+
+	/**
+	 * Called, without the lock, when the buffer is empty and the subscriber
+	 * has requested more items; a source that can wait for demand gives
+	 * more items, or completes, in response
+	 */
+	void onDemand() {}
+
+	/**
+	 * Release the resources of the source; called once, when the
+	 * subscription is cancelled or has signalled its last item or error
+	 */
+	abstract void onRelease();
+
+	/**
+	 * Give an item from a source that cannot wait for demand
+	 */
+	void offer(T item) {
+		boolean overflowed = false;
+		synchronized(this) {
+			if(terminated || failure != null)
+				return;
+			if(buffer.size() >= capacity) {
+				switch(policy) {
+				case block:
+					while(buffer.size() >= capacity && !terminated) {
+						try {
+							wait();
+						} catch(InterruptedException e) {
+							Thread.currentThread().interrupt();
+							return;
+						}
+					}
+					if(terminated)
+						return;
+					break;
+				case dropOldest:
+					buffer.poll();
+					break;
+				case dropNewest:
+					return;
+				case fail:
+					overflowed = true;
+					break;
+				}
+			}
+			if(!overflowed) {
+				buffer.add(item);
+				if(requested == 0)
+					return;
+			}
+		}
+		if(overflowed) {
+			Log.e(TAG, "Subscriber did not request items fast enough; buffer of " + capacity + " items overflowed");
+			error(AblyException.fromErrorInfo(new ErrorInfo("Subscription buffer overflow", 400, 40000)));
+			return;
+		}
+		schedule();
+	}
+
+	/**
+	 * Give items from a source that waits for demand; these are
+	 * not limited by the buffer size
+	 * @param last true if these are the last items, after which
+	 * onComplete() is signalled
+	 */
+	void offerAll(T[] items, boolean last) {
+		synchronized(this) {
+			if(terminated || failure != null)
+				return;
+			for(T item : items)
+				buffer.add(item);
+			if(last)
+				completed = true;
+		}
+		schedule();
+	}
+
+	/**
+	 * Discard any buffered items and signal onError()
+	 */
+	void error(Throwable t) {
+		synchronized(this) {
+			if(terminated || failure != null)
+				return;
+			failure = t;
+			buffer.clear();
+			notifyAll();
+		}
+		schedule();
+	}
+
+	@Override
+	public void request(long n) {
+		if(n <= 0) {
+			error(new IllegalArgumentException("Subscription.request() called with a non-positive number: " + n));
+			return;
+		}
+		synchronized(this) {
+			requested += n;
+			if(requested < 0)
+				requested = Long.MAX_VALUE;
+		}
+		schedule();
+	}
+
+	@Override
+	public void cancel() {
+		synchronized(this) {
+			if(terminated)
+				return;
+			terminated = true;
+			buffer.clear();
+			notifyAll();
+		}
+		release();
+	}
+
+	/**
+	 * The number of items buffered and not yet given to the subscriber
+	 */
+	synchronized int getQueueDepth() {
+		return buffer.size();
+	}
+
+	private void schedule() {
+		synchronized(this) {
+			if(draining || terminated)
+				return;
+			draining = true;
+		}
+		execute();
+	}
+
+	private void execute() {
+		try {
+			executor.execute(drainer);
+		} catch(RejectedExecutionException e) {
+			drainer.run();
+		}
+	}
+
+	private void release() {
+		try {
+			onRelease();
+		} catch(Throwable t) {
+			Log.e(TAG, "Unexpected exception releasing subscription", t);
+		}
+	}
+
+	private final Runnable drainer = new Runnable() {
+		@Override
+		public void run() {
+			if(!subscribed) {
+				subscribed = true;
+				try {
+					subscriber.onSubscribe(FlowSubscription.this);
+				} catch(Throwable t) {
+					Log.e(TAG, "Unexpected exception calling subscriber", t);
+					cancel();
+					return;
+				}
+			}
+			while(true) {
+				T item = null;
+				Throwable error = null;
+				boolean complete = false, demand = false;
+				synchronized(FlowSubscription.this) {
+					if(terminated) {
+						draining = false;
+						return;
+					}
+					if(failure != null) {
+						error = failure;
+						terminated = true;
+					} else if(!buffer.isEmpty() && requested > 0) {
+						item = buffer.poll();
+						if(requested != Long.MAX_VALUE)
+							--requested;
+						if(policy == OverflowPolicy.block)
+							FlowSubscription.this.notifyAll();
+					} else if(buffer.isEmpty() && completed) {
+						complete = true;
+						terminated = true;
+					} else {
+						draining = false;
+						demand = buffer.isEmpty() && requested > 0;
+					}
+				}
+				try {
+					if(error != null) {
+						release();
+						subscriber.onError(error);
+						return;
+					}
+					if(complete) {
+						release();
+						subscriber.onComplete();
+						return;
+					}
+					if(item == null) {
+						if(demand)
+							onDemand();
+						return;
+					}
+					subscriber.onNext(item);
+				} catch(Throwable t) {
+					Log.e(TAG, "Unexpected exception calling subscriber", t);
+					cancel();
+					return;
+				}
+			}
+		}
+	};
+
+	private static final String TAG = FlowSubscription.class.getName();
+
+	private final Flow.Subscriber<? super T> subscriber;
+	private final int capacity;
+	private final OverflowPolicy policy;
+	private final Executor executor;
+
+	/* accessed only by the drainer, which runs once at a time */
+	private boolean subscribed;
+
+	/* all guarded by this */
+	private final ArrayDeque<T> buffer = new ArrayDeque<T>();
+	private long requested;
+	private boolean draining;
+	private boolean completed;
+	private boolean terminated;
+	private Throwable failure;
+}
@@ -7,8 +7,10 @@ import io.ably.lib.http.PaginatedQuery;
 import io.ably.lib.transport.ConnectionManager;
 import io.ably.lib.types.AblyException;
 import io.ably.lib.types.AsyncPaginatedResult;
+import io.ably.lib.types.BatchDecoder;
 import io.ably.lib.types.Callback;
 import io.ably.lib.types.ErrorInfo;
+import io.ably.lib.types.Flow;
 import io.ably.lib.types.PaginatedResult;
 import io.ably.lib.types.Param;
 import io.ably.lib.types.PresenceMessage;
@@ -17,6 +19,7 @@ import io.ably.lib.types.ProtocolMessage;
 import io.ably.lib.util.Log;
 
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * A class that provides access to presence operations and state for the
@@ -194,6 +197,53 @@ public class Presence {
 		eventListeners.clear();
 	}
 
+	/**
+	 * Get a Flow.Publisher of the presence messages on the associated Channel.
+	 * Each subscriber subscribes a listener, which implicitly attaches the
+	 * Channel, and is given the presence messages that it requests; see
+	 * Channel.publisher(SubscriptionOptions).
+	 * @param options: the buffer size, overflow policy and executor of each
+	 * subscriber, or null for the defaults
+	 * @return the publisher
+	 */
+	public Flow.Publisher<PresenceMessage> publisher(SubscriptionOptions options) {
+		return FlowPublishers.presence(channel, null, options);
+	}
+
+	/**
+	 * Get a Flow.Publisher of the presence messages with a specific action
+	 * on the associated Channel; see publisher(SubscriptionOptions).
+	 * @param action to be observed
+	 * @param options: the buffer size, overflow policy and executor of each
+	 * subscriber, or null for the defaults
+	 */
+	public Flow.Publisher<PresenceMessage> publisher(PresenceMessage.Action action, SubscriptionOptions options) {
+		return FlowPublishers.presence(channel, EnumSet.of(action), options);
+	}
+
+	/**
+	 * Get a Flow.Publisher of the presence messages with specific actions
+	 * on the associated Channel; see publisher(SubscriptionOptions).
+	 * @param actions to be observed
+	 * @param options: the buffer size, overflow policy and executor of each
+	 * subscriber, or null for the defaults
+	 */
+	public Flow.Publisher<PresenceMessage> publisher(EnumSet<PresenceMessage.Action> actions, SubscriptionOptions options) {
+		return FlowPublishers.presence(channel, actions, options);
+	}
+
+	/**
+	 * Internal: whether any presence listener is subscribed
+	 */
+	boolean hasSubscribers() {
+		if(!listeners.isEmpty())
+			return true;
+		for(Multicaster multicaster : eventListeners.values())
+			if(!multicaster.isEmpty())
+				return true;
+		return false;
+	}
+
 
 	/***
 	 * internal
@@ -344,7 +394,9 @@ public class Presence {
 	}
 
 	private final Multicaster listeners = new Multicaster();
-	private final EnumMap<PresenceMessage.Action, Multicaster> eventListeners = new EnumMap<>(PresenceMessage.Action.class);
+	/* listeners are added and removed under the lock of eventListeners, and
+	 * called without it from the snapshots published by each multicaster */
+	private final ConcurrentHashMap<PresenceMessage.Action, Multicaster> eventListeners = new ConcurrentHashMap<PresenceMessage.Action, Multicaster>();
 
 	private static class Multicaster extends io.ably.lib.util.Multicaster<PresenceListener> implements PresenceListener {
 		@Override
@@ -357,20 +409,24 @@ public class Presence {
 	}
 
 	private void subscribeImpl(PresenceMessage.Action action, PresenceListener listener) {
-		Multicaster listeners = eventListeners.get(action);
-		if(listeners == null) {
-			listeners = new Multicaster();
-			eventListeners.put(action, listeners);
+		synchronized(eventListeners) {
+			Multicaster listeners = eventListeners.get(action);
+			if(listeners == null) {
+				listeners = new Multicaster();
+				eventListeners.put(action, listeners);
+			}
+			listeners.add(listener);
 		}
-		listeners.add(listener);
 	}
 
 	private void unsubscribeImpl(PresenceMessage.Action action, PresenceListener listener) {
-		Multicaster listeners = eventListeners.get(action);
-		if(listeners != null) {
-			listeners.remove(listener);
-			if(listeners.isEmpty()) {
-				eventListeners.remove(action);
+		synchronized(eventListeners) {
+			Multicaster listeners = eventListeners.get(action);
+			if(listeners != null) {
+				listeners.remove(listener);
+				if(listeners.isEmpty()) {
+					eventListeners.remove(action);
+				}
 			}
 		}
 	}
@@ -643,6 +699,22 @@ public class Presence {
 		historyImpl(params).async(callback);
 	}
 
+	/**
+	 * Get a Flow.Publisher of the presence history of the associated Channel,
+	 * which requests each page only when the subscriber requests more;
+	 * see Channel.historyPublisher().
+	 * @param params: the request params, as for history()
+	 * @return the publisher
+	 */
+	public Flow.Publisher<PresenceMessage> historyPublisher(final Param[] params) {
+		return FlowPublishers.history(new FlowPublishers.HistoryQuery<PresenceMessage>() {
+			@Override
+			public void query(Callback<AsyncPaginatedResult<PresenceMessage>> callback) {
+				historyAsync(params, callback);
+			}
+		}, channel.ably.options.dispatchExecutor);
+	}
+
 	private BasePaginatedQuery.ResultRequest<PresenceMessage> historyImpl(Param[] params) {
 		try {
 			params = Channel.replacePlaceholderParams(channel, params);
@@ -651,7 +723,7 @@ public class Presence {
 		}
 
 		AblyRealtime ably = channel.ably;
-		HttpCore.BodyHandler<PresenceMessage> bodyHandler = PresenceSerializer.getPresenceResponseHandler(channel.options);
+		HttpCore.BodyHandler<PresenceMessage> bodyHandler = PresenceSerializer.getPresenceResponseHandler(channel.options, BatchDecoder.get(ably.options));
 		return new BasePaginatedQuery<PresenceMessage>(ably.http, channel.basePath + "/presence/history", HttpUtils.defaultAcceptHeaders(ably.options.useBinaryProtocol), params, bodyHandler).get();
 	}
 
@@ -0,0 +1,54 @@
+package io.ably.lib.realtime;
+
+import java.util.concurrent.Executor;
+
+import io.ably.lib.transport.Defaults;
+
+/**
+ * Options for a ChannelSubscription: the size of its buffer, what happens
+ * when the buffer is full, and where its listener is called.
+ */
+public class SubscriptionOptions {
+
+	/**
+	 * What a subscription does with a message received when its buffer is full
+	 */
+	public enum OverflowPolicy {
+		/** the thread delivering the message waits until there is space;
+		 * this holds up the channel, or the connection if there is no
+		 * ClientOptions.dispatchExecutor. Unless an executor is given, the
+		 * listener is then called on the library's shared executor, since a
+		 * thread of the dispatchExecutor may be the one waiting;
+		 * an executor given with this policy must likewise not have a
+		 * bounded number of threads that are shared with the dispatchExecutor,
+		 * or the waiting threads may use them all and deadlock. */
+		block,
+		/** the oldest buffered message is discarded */
+		dropOldest,
+		/** the received message is discarded */
+		dropNewest,
+		/** the subscription fails: buffered messages are discarded,
+		 * and it is unsubscribed from its channel */
+		fail
+	}
+
+	/**
+	 * The maximum number of messages buffered for the listener
+	 */
+	public int bufferSize = Defaults.SUBSCRIPTION_BUFFER_SIZE;
+
+	/**
+	 * The policy applied when the buffer is full
+	 */
+	public OverflowPolicy overflowPolicy = OverflowPolicy.dropOldest;
+
+	/**
+	 * The executor on which the listener is called. If not set, the
+	 * client's dispatchExecutor is used, or else an executor shared by the
+	 * library, which has a bounded number of threads and calls the listener
+	 * on the thread delivering the message when they are all busy; see
+	 * OverflowPolicy.block for an exception. The
+	 * listener is called for one message at a time.
+	 */
+	public Executor executor;
+}
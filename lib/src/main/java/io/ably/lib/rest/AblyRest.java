@@ -1,6 +1,6 @@
 package io.ably.lib.rest;
 
-import java.util.HashMap;
+import java.util.concurrent.ConcurrentHashMap;
 
 import io.ably.lib.http.AsyncHttpScheduler;
 import io.ably.lib.http.Http;
@@ -84,8 +84,10 @@ public class AblyRest {
 	/**
 	 * A collection of Channels associated with an Ably instance.
 	 *
+	 * Channels may be obtained and released from any thread;
+	 * lookups of existing channels take no lock.
 	 */
-	public class Channels extends HashMap<String, Channel> {
+	public class Channels extends ConcurrentHashMap<String, Channel> {
 		private static final long serialVersionUID = 1L;
 
 		public Channel get(String channelName) {
@@ -102,7 +104,12 @@ public class AblyRest {
 			}
 
 			channel = new Channel(AblyRest.this, channelName, channelOptions);
-			super.put(channelName, channel);
+			Channel existing = super.putIfAbsent(channelName, channel);
+			if (existing != null) {
+				if (channelOptions != null)
+					existing.options = channelOptions;
+				return existing;
+			}
 			return channel;
 		}
 
@@ -10,6 +10,7 @@ import io.ably.lib.realtime.CompletionListener;
 import io.ably.lib.http.AsyncPaginatedQuery;
 import io.ably.lib.types.AblyException;
 import io.ably.lib.types.AsyncPaginatedResult;
+import io.ably.lib.types.BatchDecoder;
 import io.ably.lib.types.Callback;
 import io.ably.lib.types.ChannelOptions;
 import io.ably.lib.types.Message;
@@ -130,7 +131,7 @@ public class Channel {
 	}
 
 	private BasePaginatedQuery.ResultRequest<Message> historyImpl(Param[] params) {
-		HttpCore.BodyHandler<Message> bodyHandler = MessageSerializer.getMessageResponseHandler(options);
+		HttpCore.BodyHandler<Message> bodyHandler = MessageSerializer.getMessageResponseHandler(options, BatchDecoder.get(ably.options));
 		return (new BasePaginatedQuery<Message>(ably.http, basePath + "/messages", HttpUtils.defaultAcceptHeaders(ably.options.useBinaryProtocol), params, bodyHandler)).get();
 	}
 
@@ -160,7 +161,7 @@ public class Channel {
 		}
 
 		private BasePaginatedQuery.ResultRequest<PresenceMessage> getImpl(Param[] params) {
-			HttpCore.BodyHandler<PresenceMessage> bodyHandler = PresenceSerializer.getPresenceResponseHandler(options);
+			HttpCore.BodyHandler<PresenceMessage> bodyHandler = PresenceSerializer.getPresenceResponseHandler(options, BatchDecoder.get(ably.options));
 			return (new BasePaginatedQuery<PresenceMessage>(ably.http, basePath + "/presence", HttpUtils.defaultAcceptHeaders(ably.options.useBinaryProtocol), params, bodyHandler)).get();
 		}
 
@@ -186,7 +187,7 @@ public class Channel {
 		}
 
 		private BasePaginatedQuery.ResultRequest<PresenceMessage> historyImpl(Param[] params) {
-			HttpCore.BodyHandler<PresenceMessage> bodyHandler = PresenceSerializer.getPresenceResponseHandler(options);
+			HttpCore.BodyHandler<PresenceMessage> bodyHandler = PresenceSerializer.getPresenceResponseHandler(options, BatchDecoder.get(ably.options));
 			return (new BasePaginatedQuery<PresenceMessage>(ably.http, basePath + "/presence/history", HttpUtils.defaultAcceptHeaders(ably.options.useBinaryProtocol), params, bodyHandler)).get();
 		}
 
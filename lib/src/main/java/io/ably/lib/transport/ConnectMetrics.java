@@ -0,0 +1,86 @@
+package io.ably.lib.transport;
+
+/**
+ * Statistics on the establishment of realtime connections by a
+ * ConnectionManager; see {@link ConnectionManager#getConnectMetrics()}.
+ *
+ * The time to connect is measured from the start of the first connection
+ * attempt, after entering the connecting state, to the receipt of the
+ * CONNECTED message; it includes any attempts with fallback hosts.
+ */
+public class ConnectMetrics {
+
+	/**
+	 * The number of times the connected state has been reached.
+	 */
+	public int connectCount;
+
+	/**
+	 * The time taken to connect, in milliseconds, for the most recent connection.
+	 */
+	public long lastConnectTime;
+
+	/**
+	 * The total time taken to connect, in milliseconds, over all connections.
+	 */
+	public long totalConnectTime;
+
+	/**
+	 * The maximum time taken to connect, in milliseconds.
+	 */
+	public long maxConnectTime;
+
+	/**
+	 * The number of transports opened for the most recent connection,
+	 * including those abandoned in favour of the one that connected.
+	 */
+	public int lastAttemptCount;
+
+	/**
+	 * The total number of transports opened over all connections.
+	 */
+	public int totalAttemptCount;
+
+	/**
+	 * The number of connections that were established on a host
+	 * other than the first host attempted.
+	 */
+	public int fallbackCount;
+
+	/**
+	 * The host of the most recent connection.
+	 */
+	public String lastHost;
+
+	/**
+	 * Get the mean time taken to connect, in milliseconds.
+	 */
+	public long getMeanConnectTime() {
+		return (connectCount == 0) ? 0 : totalConnectTime / connectCount;
+	}
+
+	ConnectMetrics copy() {
+		ConnectMetrics result = new ConnectMetrics();
+		result.connectCount = connectCount;
+		result.lastConnectTime = lastConnectTime;
+		result.totalConnectTime = totalConnectTime;
+		result.maxConnectTime = maxConnectTime;
+		result.lastAttemptCount = lastAttemptCount;
+		result.totalAttemptCount = totalAttemptCount;
+		result.fallbackCount = fallbackCount;
+		result.lastHost = lastHost;
+		return result;
+	}
+
+	@Override
+	public String toString() {
+		return "ConnectMetrics{connectCount=" + connectCount +
+				", lastConnectTime=" + lastConnectTime +
+				", meanConnectTime=" + getMeanConnectTime() +
+				", maxConnectTime=" + maxConnectTime +
+				", lastAttemptCount=" + lastAttemptCount +
+				", totalAttemptCount=" + totalAttemptCount +
+				", fallbackCount=" + fallbackCount +
+				", lastHost=" + lastHost + '}';
+	}
+}
@@ -10,15 +10,24 @@ import io.ably.lib.types.AblyException;
 import io.ably.lib.types.ClientOptions;
 import io.ably.lib.types.ConnectionDetails;
 import io.ably.lib.types.ErrorInfo;
+import io.ably.lib.types.Message;
 import io.ably.lib.types.ProtocolMessage;
 import io.ably.lib.types.ProtocolMessage.Action;
-import io.ably.lib.types.ProtocolSerializer;
+import io.ably.lib.util.Base64Coder;
+import io.ably.lib.util.HashedWheelTimer;
 import io.ably.lib.util.Log;
+import io.ably.lib.util.Scheduler;
+import io.ably.lib.util.SharedExecutor;
 
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
 
 
 public class ConnectionManager implements ConnectListener {
@@ -112,7 +121,7 @@ public class ConnectionManager implements ConnectListener {
 			if (change == null) {
 				try { wait(); } catch(InterruptedException e) {}
 			}
-			Log.d(TAG, "ConnectionWaiter.waitFor done: state=" + state + ")");
+			Log.d(TAG, "ConnectionWaiter.waitFor done: state={})", state);
 			ErrorInfo reason = change.reason;
 			change = null;
 			return reason;
@@ -170,12 +179,14 @@ public class ConnectionManager implements ConnectListener {
 		this.ably = ably;
 		this.options = ably.options;
 		this.connection = connection;
+		this.scheduler = (options.scheduler != null) ? options.scheduler : HashedWheelTimer.getDefault();
 		queuedMessages = new ArrayList<QueuedMessage>();
 		pendingMessages = new PendingMessageQueue();
 		state = states.get(ConnectionState.initialized);
 		String transportClass = Defaults.TRANSPORT;
 		try {
-			this.hosts = new Hosts(options.realtimeHost, Defaults.HOST_REALTIME, options);
+			/* scores for hosts are shared with the rest client */
+			this.hosts = new Hosts(options.realtimeHost, Defaults.HOST_REALTIME, options, ably.httpCore.getHostScores());
 			/* debug options */
 			if(options instanceof DebugOptions)
 				protocolListener = ((DebugOptions)options).protocolListener;
@@ -191,6 +202,33 @@ public class ConnectionManager implements ConnectListener {
 		}
 	}
 
+	/**
+	 * Get the scheduler used for timeouts associated with this connection and its channels.
+	 */
+	public Scheduler getScheduler() {
+		return scheduler;
+	}
+
+	/**
+	 * Schedule a task that calls listeners or other application code. When
+	 * the task expires it is run on ClientOptions.dispatchExecutor, or else the
+	 * SharedExecutor, rather than on the scheduler's thread, which must not
+	 * block; only if that executor rejects it is it run on the scheduler's thread.
+	 */
+	public Scheduler.Timeout scheduleCallback(final Runnable task, long delay) {
+		return scheduler.schedule(new Runnable() {
+			@Override
+			public void run() {
+				Executor executor = (options.dispatchExecutor != null) ? options.dispatchExecutor : SharedExecutor.get();
+				try {
+					executor.execute(task);
+				} catch(RejectedExecutionException e) {
+					task.run();
+				}
+			}
+		}, delay);
+	}
+
 	/*********************
 	 * host management
 	 *********************/
@@ -233,18 +271,23 @@ public class ConnectionManager implements ConnectListener {
 		StateInfo newStateInfo = states.get(newState.state);
 		synchronized(this) {
 			if(newState.state == state.state) {
-				Log.v(TAG, "setState(): unchanged " + newState.state);
+				Log.v(TAG, "setState(): unchanged {}", newState.state);
 				return false;
 			}
 			ErrorInfo reason = newState.reason;
 			if(reason == null) {
 				reason = newStateInfo.defaultErrorInfo;
 			}
-			Log.v(TAG, "setState(): setting " + newState.state + "; reason " + reason);
+			Log.v(TAG, "setState(): setting {}; reason {}", newState.state, reason);
 			change = new ConnectionStateListener.ConnectionStateChange(state.state, newState.state, newStateInfo.timeout, reason);
 			newStateInfo.host = newState.currentHost;
 			state = newStateInfo;
 
+			/* coalesced messages cannot be sent once disconnected;
+			 * they are queued or failed according to the new state */
+			if(!state.sendEvents)
+				flushCoalesced();
+
 			if(change.current != change.previous) {
 				/* any state change clears pending reauth flag */
 				pendingReauth = false;
@@ -254,6 +297,7 @@ public class ConnectionManager implements ConnectListener {
 				stopThread();
 			}
 		}
+		notifyCoalesceFailures();
 
 		/* broadcast state change */
 		connection.onConnectionStateChange(change);
@@ -305,16 +349,21 @@ public class ConnectionManager implements ConnectListener {
 	}
 
 	public synchronized void requestState(StateIndication state) {
-		Log.v(TAG, "requestState(): requesting " + state.state + "; id = " + connection.key);
+		Log.v(TAG, "requestState(): requesting {}; id = {}", state.state, connection.key);
 		requestedState = state;
 		notify();
 	}
 
 	synchronized void notifyState(ITransport transport, StateIndication state) {
 		if(this.transport != transport) {
-			Log.v(TAG, "notifyState: notification received for superseded transport");
+			if(removeRaceCandidate(transport))
+				Log.v(TAG, "notifyState: racing connection attempt to {} ended", transport.getHost());
+			else
+				Log.v(TAG, "notifyState: notification received for superseded transport");
 			return;
 		}
+		if(promoteRaceCandidate(transport))
+			return;
 		/* if this transition signifies the end of the transport, clear the transport */
 		if(states.get(state.state).terminal) {
 			this.transport = null;
@@ -323,7 +372,7 @@ public class ConnectionManager implements ConnectListener {
 	}
 
 	synchronized void notifyState(StateIndication state) {
-		Log.v(TAG, "notifyState(): notifying " + state.state + "; id = " + connection.key);
+		Log.v(TAG, "notifyState(): notifying {}; id = {}", state.state, connection.key);
 		if (Thread.currentThread() == mgrThread) {
 			handleStateChange(state);
 		}
@@ -340,25 +389,10 @@ public class ConnectionManager implements ConnectListener {
 			return;
 		}
 		if(listener != null) {
-			Runnable waiter = new Runnable() {
-				public void run() {
-					boolean pending;
-					synchronized(heartbeatWaiters) {
-						pending = heartbeatWaiters.contains(this);
-						if(pending)
-							try { heartbeatWaiters.wait(HEARTBEAT_TIMEOUT); } catch(InterruptedException ie) {}
-
-						pending = heartbeatWaiters.remove(this);
-					}
-					if(pending)
-						listener.onError(new ErrorInfo("Timed out waiting for heartbeat response", 50000, 500));
-					else
-						listener.onSuccess();
-				}
-			};
+			HeartbeatWaiter waiter = new HeartbeatWaiter(listener);
 			synchronized(heartbeatWaiters) {
 				heartbeatWaiters.add(waiter);
-				(new Thread(waiter)).start();
+				waiter.timeout = scheduleCallback(waiter, HEARTBEAT_TIMEOUT);
 			}
 		}
 		try {
@@ -463,12 +497,14 @@ public class ConnectionManager implements ConnectListener {
 	 * @throws AblyException
 	 */
 	public void onMessage(ITransport transport, ProtocolMessage message) throws AblyException {
+		if (transport != null && message.action == Action.connected) {
+			/* the first racing connection attempt to connect becomes the transport */
+			endRace(transport);
+		}
 		if (transport != null && this.transport != transport) {
 			return;
 		}
-		if (Log.level <= Log.VERBOSE) {
-			Log.v(TAG, "onMessage() (transport = " + transport + "): " + message.action + ": " + new String(ProtocolSerializer.writeJSON(message)));
-		}
+		Log.v(TAG, "onMessage() (transport = {}): {}: {}", transport, message.action, message);
 		try {
 			if(protocolListener != null) {
 				protocolListener.onRawMessageRecv(message);
@@ -585,6 +621,8 @@ public class ConnectionManager implements ConnectListener {
 		/* Get any parameters from connectionDetails. */
 		maxIdleInterval = connectionDetails.maxIdleInterval;
 		connectionStateTtl = connectionDetails.connectionStateTtl;
+		maxMessageSize = connectionDetails.maxMessageSize;
+		maxFrameSize = connectionDetails.maxFrameSize;
 
 		/* set the clientId resolved from token, if any */
 		String clientId = connectionDetails.clientId;
@@ -595,6 +633,10 @@ public class ConnectionManager implements ConnectListener {
 		}
 
 		/* indicated connected state */
+		if(state.state != ConnectionState.connected) {
+			hosts.recordSuccess(pendingConnect.host, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - pendingConnect.startTime));
+			updateConnectMetrics();
+		}
 		setSuspendTime();
 		notifyState(new StateIndication(ConnectionState.connected, error));
 	}
@@ -627,10 +669,33 @@ public class ConnectionManager implements ConnectListener {
 	}
 
 	private void onHeartbeat(ProtocolMessage message) {
+		HeartbeatWaiter[] waiters;
 		synchronized(heartbeatWaiters) {
+			waiters = heartbeatWaiters.toArray(new HeartbeatWaiter[heartbeatWaiters.size()]);
 			heartbeatWaiters.clear();
-			heartbeatWaiters.notifyAll();
 		}
+		for(HeartbeatWaiter waiter : waiters) {
+			if(waiter.timeout.cancel())
+				waiter.listener.onSuccess();
+		}
+	}
+
+	/* A pending ping, which fails if no heartbeat is received within HEARTBEAT_TIMEOUT */
+	private class HeartbeatWaiter implements Runnable {
+		HeartbeatWaiter(CompletionListener listener) {
+			this.listener = listener;
+		}
+
+		@Override
+		public void run() {
+			synchronized(heartbeatWaiters) {
+				heartbeatWaiters.remove(this);
+			}
+			listener.onError(new ErrorInfo("Timed out waiting for heartbeat response", 50000, 500));
+		}
+
+		private final CompletionListener listener;
+		private Scheduler.Timeout timeout;
 	}
 
 	/**************************
@@ -797,11 +862,18 @@ public class ConnectionManager implements ConnectListener {
 		 */
 
 		if(pendingConnect != null && (stateChange.reason == null || stateChange.reason.statusCode >= 500)) {
+			hosts.recordFailure(pendingConnect.host);
 			if (checkConnectivity()) {
-				/* we will try a fallback host */
-				String hostFallback = hosts.getFallback(pendingConnect.host);
+				/* we will try a fallback host, after the last one raced if any */
+				String lastHost;
+				Hosts.FallbackSequence fallbacks;
+				synchronized(this) {
+					lastHost = (connectRace != null) ? connectRace.lastHost : pendingConnect.host;
+					fallbacks = this.fallbacks;
+				}
+				String hostFallback = fallbacks.getFallback(lastHost);
 				if (hostFallback != null) {
-					Log.v(TAG, "checkSuspend: fallback to " + hostFallback);
+					Log.v(TAG, "checkSuspend: fallback to {}", hostFallback);
 					requestState(new StateIndication(ConnectionState.connecting, null, hostFallback, pendingConnect.host));
 					/* returning null ensures we stay in the connecting state */
 					return null;
@@ -815,7 +887,7 @@ public class ConnectionManager implements ConnectListener {
 	}
 
 	private void tryWait(long timeout) {
-		if(requestedState == null && indicatedState == null && !pendingReauth) {
+		if(requestedState == null && indicatedState == null && !pendingReauth && raceConnects.isEmpty()) {
 			try {
 				if(timeout == 0) {
 					wait();
@@ -842,6 +914,7 @@ public class ConnectionManager implements ConnectListener {
 				 * - enact that change
 				 */
 				StateIndication stateChange = null;
+				List<ITransport> attempts = null;
 
 				/* Hold the lock until we obtain a state change */
 				synchronized(cm) {
@@ -860,9 +933,20 @@ public class ConnectionManager implements ConnectListener {
 						/* if during the wait some action was requested, handle it */
 						if (requestedState != null) {
 							handleStateRequest();
+							/* call the listeners of failed coalesced messages (outside the lock) */
+							if (!coalesceFailures.isEmpty())
+								break;
 							continue;
 						}
 
+						/* if racing connection attempts were started,
+						 * connect them (outside the lock) */
+						if (!raceConnects.isEmpty()) {
+							attempts = new ArrayList<ITransport>(raceConnects);
+							raceConnects.clear();
+							break;
+						}
+
 						/* if during the wait we were told that a transition
 						 * needs to be enacted, handle that (outside the lock) */
 						if (indicatedState != null) {
@@ -887,8 +971,13 @@ public class ConnectionManager implements ConnectListener {
 						stateChange = checkSuspend(new StateIndication(ConnectionState.disconnected, REASON_TIMEDOUT));
 					}
 				}
+				notifyCoalesceFailures();
 				if(exiting) { break; }
 
+				if (attempts != null) {
+					connectRaceAttempts(attempts);
+				}
+
 				/* Enact the change without the lock */
 				if (stateChange != null) {
 					handleStateChange(stateChange);
@@ -937,15 +1026,34 @@ public class ConnectionManager implements ConnectListener {
 	@Override
 	public synchronized void onTransportUnavailable(ITransport transport, TransportParams params, ErrorInfo reason) {
 		if (this.transport != transport) {
+			if (removeRaceCandidate(transport)) {
+				Log.v(TAG, "onTransportUnavailable: racing connection attempt to {} failed; reason = {}", transport.getHost(), reason);
+				recordHostFailure(transport.getHost(), reason);
+				return;
+			}
 			/* This is from a transport that we have already abandoned. */
 			Log.v(TAG, "onTransportUnavailable: ignoring disconnection event from superseded transport");
 			return;
 		}
+		if (promoteRaceCandidate(transport)) {
+			Log.v(TAG, "onTransportUnavailable: connection attempt failed; continuing with racing attempts; reason = {}", reason);
+			recordHostFailure(transport.getHost(), reason);
+			return;
+		}
 		ably.auth.onAuthError(reason);
 		notifyState(new StateIndication(ConnectionState.disconnected, reason, null, transport.getHost()));
 		this.transport = null;
 	}
 
+	/**
+	 * Record the failure of a connection attempt that is not otherwise
+	 * handled by checkSuspend(), if the host may be at fault.
+	 */
+	private void recordHostFailure(String host, ErrorInfo reason) {
+		if (reason == null || reason.statusCode >= 500)
+			hosts.recordFailure(host);
+	}
+
 	private class ConnectParams extends TransportParams {
 		ConnectParams(ClientOptions options) {
 			this.options = options;
@@ -953,6 +1061,9 @@ public class ConnectionManager implements ConnectListener {
 			this.connectionSerial = String.valueOf(connection.serial);
 			this.port = Defaults.getPort(options);
 		}
+
+		/* the time the transport was created, from System.nanoTime() */
+		long startTime;
 	}
 
 	private boolean connectImpl(StateIndication request) {
@@ -970,23 +1081,35 @@ public class ConnectionManager implements ConnectListener {
 		pendingConnect = new ConnectParams(options);
 		pendingConnect.host = host;
 		lastUsedHost = host;
+		if (state.state != ConnectionState.connecting) {
+			/* this is the first attempt of this connection */
+			connectStartTime = System.nanoTime();
+			connectAttemptCount = 0;
+			connectFirstHost = host;
+		}
 
 		/* enter the connecting state */
 		notifyState(request);
 
 		/* try the connection */
-		ITransport transport;
-		try {
-			transport = factory.getTransport(pendingConnect, this);
-		} catch(Exception e) {
-			String msg = "Unable to instance transport class";
-			Log.e(getClass().getName(), msg, e);
-			throw new RuntimeException(msg, e);
-		}
+		ITransport transport = createTransport(pendingConnect);
 		ITransport oldTransport;
 		synchronized(this) {
+			abortRace();
 			oldTransport = this.transport;
 			this.transport = transport;
+			/* an attempt with the primary host starts a new sequence of fallback hosts */
+			if (request.fallback == null || fallbacks == null)
+				fallbacks = hosts.getFallbackSequence();
+			/* race the primary host against fallback hosts, if enabled; a connection
+			 * that resumes or recovers a previous connection is not raced, because
+			 * racing resume attempts would compete for the same connection */
+			if (options.connectRaceDelay > 0 && request.fallback == null &&
+					pendingConnect.connectionKey == null && options.recover == null &&
+					fallbacks.hasFallback()) {
+				connectRace = new ConnectRace(transport, pendingConnect);
+				connectRace.timeout = scheduler.schedule(connectRace, options.connectRaceDelay);
+			}
 		}
 		if (oldTransport != null)
 			oldTransport.abort(REASON_TIMEDOUT);
@@ -994,8 +1117,207 @@ public class ConnectionManager implements ConnectListener {
 		return true;
 	}
 
+	private ITransport createTransport(ConnectParams params) {
+		try {
+			ITransport transport = factory.getTransport(params, this);
+			params.startTime = System.nanoTime();
+			++connectAttemptCount;
+			return transport;
+		} catch(Exception e) {
+			String msg = "Unable to instance transport class";
+			Log.e(getClass().getName(), msg, e);
+			throw new RuntimeException(msg, e);
+		}
+	}
+
+	/**
+	 * A set of connection attempts, to the primary host and successive
+	 * fallback hosts, started at intervals of ClientOptions.connectRaceDelay;
+	 * the first to receive a CONNECTED message becomes the transport, and the
+	 * others are closed. While the race is in progress, the transport is the
+	 * earliest attempt that has not failed.
+	 */
+	private class ConnectRace implements Runnable {
+		ConnectRace(ITransport transport, ConnectParams params) {
+			candidates.put(transport, params);
+			lastHost = params.host;
+		}
+
+		/* start the next attempt on expiry of the race delay */
+		@Override
+		public void run() {
+			synchronized(ConnectionManager.this) {
+				if(connectRace != this || state.state != ConnectionState.connecting)
+					return;
+				timeout = null;
+				startNext();
+			}
+		}
+
+		/**
+		 * Create a transport for the next fallback host, if any, and schedule
+		 * the attempt after that. The transport is connected by the
+		 * ConnectionManager thread, outside the lock.
+		 * Called with the ConnectionManager lock held.
+		 */
+		ITransport startNext() {
+			String host = fallbacks.getFallback(lastHost);
+			if(host == null)
+				return null;
+			ConnectParams params = new ConnectParams(options);
+			params.host = host;
+			ITransport transport = createTransport(params);
+			candidates.put(transport, params);
+			lastHost = host;
+			if(timeout != null)
+				timeout.cancel();
+			timeout = null;
+			if(candidates.size() < options.connectRaceMaxAttempts && fallbacks.getFallback(host) != null)
+				timeout = scheduler.schedule(this, options.connectRaceDelay);
+			Log.v(TAG, "ConnectRace: starting connection attempt to {}", host);
+			raceConnects.add(transport);
+			ConnectionManager.this.notify();
+			return transport;
+		}
+
+		/* the attempts in progress, in the order they were started */
+		final Map<ITransport, ConnectParams> candidates = new LinkedHashMap<ITransport, ConnectParams>();
+		/* the host of the most recent attempt */
+		String lastHost;
+		Scheduler.Timeout timeout;
+	}
+
+	/**
+	 * Connect the transports of racing attempts started since the last call.
+	 * Called by the ConnectionManager thread without the lock held, since
+	 * connecting a transport may block, for example to obtain a token.
+	 */
+	private void connectRaceAttempts(List<ITransport> attempts) {
+		for(ITransport attempt : attempts) {
+			if(!isRaceAttempt(attempt))
+				continue;
+			attempt.connect(this);
+			/* close the attempt if the race ended while it was being connected */
+			if(!isRaceAttempt(attempt))
+				attempt.close(false);
+		}
+	}
+
+	private synchronized boolean isRaceAttempt(ITransport attempt) {
+		return attempt == transport || (connectRace != null && connectRace.candidates.containsKey(attempt));
+	}
+
+	/**
+	 * Called when a transport receives a CONNECTED message; if the transport
+	 * is taking part in a race, it becomes the transport and the other
+	 * attempts are closed.
+	 */
+	private void endRace(ITransport winner) {
+		List<ITransport> losers;
+		synchronized(this) {
+			ConnectRace race = connectRace;
+			if(race == null || !race.candidates.containsKey(winner))
+				return;
+			connectRace = null;
+			if(race.timeout != null)
+				race.timeout.cancel();
+			raceConnects.clear();
+			pendingConnect = race.candidates.remove(winner);
+			lastUsedHost = pendingConnect.host;
+			transport = winner;
+			losers = new ArrayList<ITransport>(race.candidates.keySet());
+		}
+		for(ITransport loser : losers) {
+			Log.v(TAG, "endRace: closing connection attempt to {}", loser.getHost());
+			loser.close(false);
+		}
+	}
+
+	/**
+	 * Abandon any race in progress, closing all attempts except the transport.
+	 * Called with the ConnectionManager lock held.
+	 */
+	private void abortRace() {
+		ConnectRace race = connectRace;
+		if(race == null)
+			return;
+		connectRace = null;
+		if(race.timeout != null)
+			race.timeout.cancel();
+		raceConnects.clear();
+		for(ITransport candidate : race.candidates.keySet())
+			if(candidate != transport)
+				candidate.close(false);
+	}
+
+	/**
+	 * Remove a failed attempt that is not the current transport from any race in progress.
+	 * Called with the ConnectionManager lock held.
+	 * @return true if the transport was taking part in a race
+	 */
+	private boolean removeRaceCandidate(ITransport failed) {
+		return connectRace != null && connectRace.candidates.remove(failed) != null;
+	}
+
+	/**
+	 * Called with the ConnectionManager lock held when the current transport
+	 * fails; if other racing attempts are still in progress, the earliest
+	 * becomes the transport.
+	 * @return true if another attempt became the transport
+	 */
+	private boolean promoteRaceCandidate(ITransport failed) {
+		ConnectRace race = connectRace;
+		if(race == null || race.candidates.remove(failed) == null)
+			return false;
+		if(race.candidates.isEmpty()) {
+			/* all attempts failed; start the next one now, rather than waiting for the race delay */
+			ITransport next = race.startNext();
+			if(next == null) {
+				/* no more hosts to race; any further
+				 * fallback continues from the last host attempted */
+				connectRace = null;
+				if(race.timeout != null)
+					race.timeout.cancel();
+				pendingConnect.host = race.lastHost;
+				return false;
+			}
+			transport = next;
+			pendingConnect = race.candidates.get(next);
+			lastUsedHost = pendingConnect.host;
+			return true;
+		}
+		Map.Entry<ITransport, ConnectParams> next = race.candidates.entrySet().iterator().next();
+		transport = next.getKey();
+		pendingConnect = next.getValue();
+		lastUsedHost = pendingConnect.host;
+		return true;
+	}
+
+	/**
+	 * Get statistics on the time taken to establish connections.
+	 */
+	public synchronized ConnectMetrics getConnectMetrics() {
+		return connectMetrics.copy();
+	}
+
+	private void updateConnectMetrics() {
+		long connectTime = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - connectStartTime);
+		connectMetrics.connectCount++;
+		connectMetrics.lastConnectTime = connectTime;
+		connectMetrics.totalConnectTime += connectTime;
+		connectMetrics.maxConnectTime = Math.max(connectMetrics.maxConnectTime, connectTime);
+		connectMetrics.lastAttemptCount = connectAttemptCount;
+		connectMetrics.totalAttemptCount += connectAttemptCount;
+		connectMetrics.lastHost = pendingConnect.host;
+		if(!pendingConnect.host.equals(connectFirstHost))
+			connectMetrics.fallbackCount++;
+	}
+
 	private void closeImpl(StateIndication request) {
 		boolean isConnected = state.state == ConnectionState.connected;
+		synchronized(this) {
+			abortRace();
+		}
 
 		/* enter the closing state */
 		notifyState(request);
@@ -1021,6 +1343,7 @@ public class ConnectionManager implements ConnectListener {
 	}
 
 	private void clearTransport() {
+		abortRace();
 		if(transport != null) {
 			transport.close(false);
 			transport = null;
@@ -1062,33 +1385,218 @@ public class ConnectionManager implements ConnectListener {
 
 	public void send(ProtocolMessage msg, boolean queueEvents, CompletionListener listener) throws AblyException {
 		StateInfo state;
-		synchronized(this) {
-			state = this.state;
-			if(state.sendEvents) {
-				sendImpl(msg, listener);
-				return;
-			}
-			if(state.queueEvents && queueEvents) {
-				int queueSize = queuedMessages.size();
-				if(queueSize > 0) {
-					QueuedMessage lastQueued = queuedMessages.get(queueSize - 1);
-					ProtocolMessage lastMessage = lastQueued.msg;
-					if(ProtocolMessage.mergeTo(lastMessage, msg)) {
-						if(!lastQueued.isMerged) {
-							lastQueued.listener = new CompletionListener.Multicaster(lastQueued.listener);
-							lastQueued.isMerged = true;
-						}
-						((CompletionListener.Multicaster)lastQueued.listener).add(listener);
+		try {
+			synchronized(this) {
+				state = this.state;
+				if(state.sendEvents) {
+					if(options.publishCoalesceInterval > 0 && msg.action == Action.message) {
+						coalesce(msg, queueEvents, listener);
 						return;
 					}
+					/* preserve ordering with any messages being coalesced */
+					flushCoalesced();
+					sendImpl(msg, listener);
+					return;
+				}
+				if(state.queueEvents && queueEvents) {
+					int queueSize = queuedMessages.size();
+					if(queueSize > 0) {
+						QueuedMessage lastQueued = queuedMessages.get(queueSize - 1);
+						ProtocolMessage lastMessage = lastQueued.msg;
+						if(ProtocolMessage.mergeTo(lastMessage, msg)) {
+							addListener(lastQueued, listener);
+							return;
+						}
+					}
+					queuedMessages.add(new QueuedMessage(msg, listener));
+					return;
 				}
-				queuedMessages.add(new QueuedMessage(msg, listener));
-				return;
 			}
+		} finally {
+			notifyCoalesceFailures();
 		}
 		throw AblyException.fromErrorInfo(state.defaultErrorInfo);
 	}
 
+	private static void addListener(QueuedMessage merged, CompletionListener listener) {
+		if(!merged.isMerged) {
+			merged.listener = new CompletionListener.Multicaster(merged.listener);
+			merged.isMerged = true;
+		}
+		((CompletionListener.Multicaster)merged.listener).add(listener);
+	}
+
+	/**
+	 * Add a message to the message being coalesced, if it is for the same
+	 * channel and the size limit permits; otherwise send the message being
+	 * coalesced and start coalescing with this message.
+	 * Called with the ConnectionManager lock held, in a state that sends events.
+	 */
+	private void coalesce(ProtocolMessage msg, boolean queueEvents, CompletionListener listener) {
+		int size = messageSize(msg, options.useBinaryProtocol);
+		long limit = coalesceLimit();
+		QueuedMessage coalescing = coalescedMessage;
+		if(coalescing != null) {
+			if(coalescedSize + size <= limit && ProtocolMessage.mergeTo(coalescing.msg, msg)) {
+				addListener(coalescing, listener);
+				coalescedSize += size;
+				coalescedQueueEvents &= queueEvents;
+				if(coalescedSize >= limit)
+					flushCoalesced();
+				return;
+			}
+			flushCoalesced();
+		}
+		coalescing = coalescedMessage = new QueuedMessage(msg, listener);
+		coalescedSize = size;
+		coalescedQueueEvents = queueEvents;
+		if(size >= limit) {
+			flushCoalesced();
+			return;
+		}
+		coalesceTimeout = scheduleCallback(new CoalesceFlush(coalescing), options.publishCoalesceInterval);
+	}
+
+	/**
+	 * Send the message being coalesced, if any; if not in a state that sends
+	 * events, the message is queued or failed as if it had just been published.
+	 * Called with the ConnectionManager lock held; the listener of a message
+	 * that fails is called by notifyCoalesceFailures() once it is released.
+	 */
+	private void flushCoalesced() {
+		QueuedMessage coalescing = coalescedMessage;
+		if(coalescing == null)
+			return;
+		coalescedMessage = null;
+		coalescedSize = 0;
+		if(coalesceTimeout != null) {
+			coalesceTimeout.cancel();
+			coalesceTimeout = null;
+		}
+		if(state.sendEvents) {
+			try {
+				sendImpl(coalescing);
+			} catch(AblyException e) {
+				Log.e(TAG, "flushCoalesced(): Unexpected error sending coalesced messages", e);
+				failCoalesced(coalescing, e.errorInfo);
+			}
+		} else if(state.queueEvents && coalescedQueueEvents) {
+			queuedMessages.add(coalescing);
+		} else {
+			failCoalesced(coalescing, state.defaultErrorInfo);
+		}
+	}
+
+	/**
+	 * Record the failure of a coalesced message.
+	 * Called with the ConnectionManager lock held.
+	 */
+	private void failCoalesced(final QueuedMessage coalescing, final ErrorInfo reason) {
+		if(coalescing.listener == null)
+			return;
+		coalesceFailures.add(new Runnable() {
+			@Override
+			public void run() {
+				coalescing.listener.onError(reason);
+			}
+		});
+	}
+
+	/**
+	 * Call the listeners of any coalesced messages that have failed; if
+	 * called with the ConnectionManager lock held, they are left to be
+	 * called by the ConnectionManager thread once it releases the lock.
+	 */
+	private void notifyCoalesceFailures() {
+		if(Thread.holdsLock(this))
+			return;
+		List<Runnable> failures;
+		synchronized(this) {
+			if(coalesceFailures.isEmpty())
+				return;
+			failures = new ArrayList<Runnable>(coalesceFailures);
+			coalesceFailures.clear();
+		}
+		for(Runnable failure : failures) {
+			try {
+				failure.run();
+			} catch(Throwable t) {
+				Log.e(TAG, "notifyCoalesceFailures(): Unexpected exception calling listener", t);
+			}
+		}
+	}
+
+	/**
+	 * The size limit for coalesced messages, being the smallest of the
+	 * configured limit and the message and frame size limits of the connection.
+	 */
+	private long coalesceLimit() {
+		long limit = options.publishCoalesceMaxSize;
+		if(maxMessageSize != null && maxMessageSize > 0)
+			limit = Math.min(limit, maxMessageSize);
+		if(maxFrameSize != null && maxFrameSize > 0)
+			limit = Math.min(limit, maxFrameSize);
+		return limit;
+	}
+
+	/**
+	 * An estimate of the size of the messages in a ProtocolMessage, counting
+	 * the name, clientId, encoding and data of each message as they are sent.
+	 * With the JSON protocol binary data is sent as base64, so it is counted
+	 * at its encoded length; this is never less than the size counted towards
+	 * the maxMessageSize limit, and is the bulk of what counts towards maxFrameSize.
+	 * @param binary true if the messages are sent with the binary protocol
+	 */
+	static int messageSize(ProtocolMessage msg, boolean binary) {
+		int size = 0;
+		if(msg.messages != null) {
+			for(Message message : msg.messages) {
+				size += utf8Length(message.name) + utf8Length(message.clientId) + utf8Length(message.encoding);
+				Object data = message.data;
+				if(data instanceof byte[]) {
+					int length = ((byte[])data).length;
+					/* the base64 encoding is also added to the encoding field */
+					size += binary ? length : Base64Coder.encodedLength(length) + BASE64_ENCODING_LENGTH;
+				} else if(data instanceof String)
+					size += utf8Length((String)data);
+				else if(data != null)
+					size += utf8Length(data.toString());
+			}
+		}
+		return size;
+	}
+
+	private static int utf8Length(String str) {
+		if(str == null)
+			return 0;
+		int length = str.length(), result = length;
+		for(int i = 0; i < length; i++) {
+			char c = str.charAt(i);
+			if(c >= 0x800)
+				result += (Character.isHighSurrogate(c) || Character.isLowSurrogate(c)) ? 1 : 2;
+			else if(c >= 0x80)
+				++result;
+		}
+		return result;
+	}
+
+	private class CoalesceFlush implements Runnable {
+		CoalesceFlush(QueuedMessage coalescing) {
+			this.coalescing = coalescing;
+		}
+
+		@Override
+		public void run() {
+			synchronized(ConnectionManager.this) {
+				if(coalescedMessage == coalescing)
+					flushCoalesced();
+			}
+			notifyCoalesceFailures();
+		}
+
+		private final QueuedMessage coalescing;
+	}
+
 	private void sendImpl(ProtocolMessage message, CompletionListener listener) throws AblyException {
 		if(transport == null) {
 			Log.v(TAG, "sendImpl(): Discarding message; transport unavailable");
@@ -1287,8 +1795,9 @@ public class ConnectionManager implements ConnectListener {
 	private final ITransport.Factory factory;
 	private final List<QueuedMessage> queuedMessages;
 	private final PendingMessageQueue pendingMessages;
-	private final HashSet<Object> heartbeatWaiters = new HashSet<Object>();
+	private final HashSet<HeartbeatWaiter> heartbeatWaiters = new HashSet<HeartbeatWaiter>();
 	private final Hosts hosts;
+	private final Scheduler scheduler;
 
 	private CMThread mgrThread;
 	private StateInfo state;
@@ -1299,6 +1808,22 @@ public class ConnectionManager implements ConnectListener {
 	private ITransport transport;
 	private long suspendTime;
 	private long msgSerial;
+	private Long maxMessageSize, maxFrameSize;
+	private ConnectRace connectRace;
+	/* racing attempts to be connected by the ConnectionManager thread */
+	private final List<ITransport> raceConnects = new ArrayList<ITransport>();
+	private Hosts.FallbackSequence fallbacks;
+	private final ConnectMetrics connectMetrics = new ConnectMetrics();
+	private long connectStartTime;
+	private int connectAttemptCount;
+	private String connectFirstHost;
+
+	/* the message being coalesced, if any; see ClientOptions.publishCoalesceInterval */
+	private QueuedMessage coalescedMessage;
+	private int coalescedSize;
+	private boolean coalescedQueueEvents;
+	private Scheduler.Timeout coalesceTimeout;
+	private final List<Runnable> coalesceFailures = new ArrayList<Runnable>();
 	private long lastActivity;
 
 	/* for debug/test only */
@@ -1306,4 +1831,6 @@ public class ConnectionManager implements ConnectListener {
 	private String lastUsedHost;
 
 	private static final long HEARTBEAT_TIMEOUT = 5000L;
+	/* the length of "/base64", appended to the encoding of binary data sent as JSON */
+	private static final int BASE64_ENCODING_LENGTH = 7;
 }
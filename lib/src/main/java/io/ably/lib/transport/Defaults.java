@@ -41,6 +41,35 @@ public class Defaults {
 
 	public static final String[] TRANSPORTS         = new String[]{"web_socket"};
 	public static String TRANSPORT = "io.ably.lib.transport.WebSocketTransport$Factory";
+	/* alternative transport, performing I/O on a shared pool of NIO selector threads */
+	public static final String TRANSPORT_NIO = "io.ably.lib.transport.NioWebSocketTransport$Factory";
+	/* number of selector threads shared by all NIO transports in the JVM */
+	public static int NIO_SELECTOR_THREADS = 2;
+	/* maximum number of threads of the executor shared by all clients in the JVM; see SharedExecutor */
+	public static int EXECUTOR_MAX_THREADS = 8;
+
+	/* Timer used for realtime timeouts; see HashedWheelTimer */
+	public static long TIMER_TICK_DURATION = 100L;
+	public static int TIMER_WHEEL_SIZE = 512;
+	public static int TIMER_MAX_THREADS = 4;
+
+	/* maximum combined size of coalesced published messages; see ClientOptions.publishCoalesceInterval */
+	public static int PUBLISH_COALESCE_MAX_SIZE = 16384;
+
+	/* maximum concurrent connection attempts; see ClientOptions.connectRaceDelay */
+	public static int CONNECT_RACE_MAX_ATTEMPTS = 3;
+
+	/* minimum number of messages decoded in parallel; see ClientOptions.decodePool */
+	public static int PARALLEL_DECODE_THRESHOLD = 64;
+
+	/* messages buffered for a subscriber; see SubscriptionOptions.bufferSize */
+	public static int SUBSCRIPTION_BUFFER_SIZE = 1000;
+
+	/* scoring of hosts to determine fallback host order; see HostScores */
+	public static long HOST_SCORE_HALF_LIFE = 60000L;
+	public static double HOST_LATENCY_WEIGHT = 0.2;
+	public static double HOST_FAILURE_WEIGHT = 0.5;
+	public static long HOST_FAILURE_PENALTY = 10000L;
 	public static final int HTTP_MAX_RETRY_COUNT    = 3;
 	public static final int HTTP_ASYNC_THREADPOOL_SIZE = 64;
 
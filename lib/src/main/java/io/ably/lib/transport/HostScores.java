@@ -0,0 +1,160 @@
+package io.ably.lib.transport;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Per-host scores, based on an exponentially weighted moving average of
+ * the latency of successful requests and of the rate of failures, used
+ * by Hosts to order fallback hosts. Lower scores are better.
+ *
+ * The influence of each host's history decays over time, with a half-life
+ * of Defaults.HOST_SCORE_HALF_LIFE, so a host that failed in the past is
+ * eventually ranked alongside the others again and will be retried; a host
+ * with no history is scored as if its latency were the mean of the others.
+ */
+public class HostScores {
+
+	/**
+	 * Get the scores shared by all clients in the JVM
+	 * that set ClientOptions.shareHostScores
+	 */
+	public static HostScores getShared() {
+		return shared;
+	}
+
+	public HostScores() {
+		this(Defaults.HOST_SCORE_HALF_LIFE);
+	}
+
+	/**
+	 * @param halfLife the time in milliseconds for the influence of a recorded result to halve
+	 */
+	public HostScores(long halfLife) {
+		this.halfLife = halfLife;
+	}
+
+	/**
+	 * Record a successful request or connection attempt with a host
+	 * @param host
+	 * @param latency the time taken, in milliseconds
+	 */
+	public synchronized void recordSuccess(String host, long latency) {
+		long now = System.currentTimeMillis();
+		Entry entry = getEntry(host);
+		entry.failure *= decay(now, entry.failureTime) * (1 - Defaults.HOST_FAILURE_WEIGHT);
+		entry.failureTime = now;
+		if(entry.latencyTime == 0) {
+			entry.latency = latency;
+		} else {
+			/* a sample weighs more the older the average it is combined with */
+			double weight = 1 - (1 - Defaults.HOST_LATENCY_WEIGHT) * decay(now, entry.latencyTime);
+			entry.latency += (latency - entry.latency) * weight;
+		}
+		entry.latencyTime = now;
+	}
+
+	/**
+	 * Record a failed request or connection attempt with a host
+	 * @param host
+	 */
+	public synchronized void recordFailure(String host) {
+		long now = System.currentTimeMillis();
+		Entry entry = getEntry(host);
+		double failure = entry.failure * decay(now, entry.failureTime);
+		entry.failure = failure + (1 - failure) * Defaults.HOST_FAILURE_WEIGHT;
+		entry.failureTime = now;
+	}
+
+	/**
+	 * Get the current score for a host
+	 * @param host
+	 * @return the score; the expected latency in milliseconds, with
+	 * a penalty of up to Defaults.HOST_FAILURE_PENALTY for failures
+	 */
+	public synchronized double getScore(String host) {
+		return score(host, System.currentTimeMillis(), meanLatency());
+	}
+
+	/**
+	 * Get the scores for a set of hosts, all evaluated at the same time
+	 */
+	synchronized double[] getScores(String[] hosts) {
+		long now = System.currentTimeMillis();
+		double meanLatency = meanLatency();
+		double[] result = new double[hosts.length];
+		for(int i = 0; i < hosts.length; i++)
+			result[i] = score(hosts[i], now, meanLatency);
+		return result;
+	}
+
+	/**
+	 * Get the average latency recorded for a host, or -1 if none has been recorded
+	 */
+	public synchronized double getLatency(String host) {
+		Entry entry = entries.get(host);
+		return (entry == null || entry.latencyTime == 0) ? -1 : entry.latency;
+	}
+
+	/**
+	 * Get the current failure rate of a host, between 0 and 1
+	 */
+	public synchronized double getFailureRate(String host) {
+		Entry entry = entries.get(host);
+		return (entry == null) ? 0 : entry.failure * decay(System.currentTimeMillis(), entry.failureTime);
+	}
+
+	/**
+	 * Discard all recorded results
+	 */
+	public synchronized void reset() {
+		entries.clear();
+	}
+
+	private double score(String host, long now, double meanLatency) {
+		Entry entry = entries.get(host);
+		if(entry == null)
+			return meanLatency;
+		double latency = meanLatency;
+		if(entry.latencyTime != 0)
+			latency += (entry.latency - meanLatency) * decay(now, entry.latencyTime);
+		return latency + entry.failure * decay(now, entry.failureTime) * Defaults.HOST_FAILURE_PENALTY;
+	}
+
+	private double meanLatency() {
+		double total = 0;
+		int count = 0;
+		for(Entry entry : entries.values()) {
+			if(entry.latencyTime != 0) {
+				total += entry.latency;
+				++count;
+			}
+		}
+		return (count == 0) ? 0 : total / count;
+	}
+
+	private double decay(long now, long time) {
+		long elapsed = now - time;
+		return (elapsed <= 0) ? 1 : Math.pow(0.5, (double)elapsed / halfLife);
+	}
+
+	private Entry getEntry(String host) {
+		Entry entry = entries.get(host);
+		if(entry == null) {
+			entry = new Entry();
+			entries.put(host, entry);
+		}
+		return entry;
+	}
+
+	private static class Entry {
+		double latency;
+		long latencyTime;
+		double failure;
+		long failureTime;
+	}
+
+	private final long halfLife;
+	private final Map<String, Entry> entries = new HashMap<String, Entry>();
+	private static final HostScores shared = new HostScores();
+}
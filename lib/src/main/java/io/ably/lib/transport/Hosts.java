@@ -4,12 +4,16 @@ import io.ably.lib.types.AblyException;
 import io.ably.lib.types.ClientOptions;
 import io.ably.lib.types.ErrorInfo;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
 
 
 /**
- * Object to encapsulate primary host name and shuffled fallback host names.
+ * Object to encapsulate primary host name and fallback host names, ordered
+ * according to the scores of each host, or shuffled in the absence of scores.
  */
 public class Hosts {
 	private String primaryHost;
@@ -18,6 +22,7 @@ public class Hosts {
 	private final String[] fallbackHosts;
 	private final boolean fallbackHostsIsDefault;
 	private final boolean fallbackHostsUseDefault;
+	private final HostScores scores;
 
 	/**
 	 * Create Hosts object
@@ -35,7 +40,17 @@ public class Hosts {
 	 * setHost() and fallback is not used.
 	 */
 	public Hosts(String primaryHost, String defaultHost, ClientOptions options) throws AblyException {
+		this(primaryHost, defaultHost, options, options.shareHostScores ? HostScores.getShared() : new HostScores());
+	}
+
+	/**
+	 * Create Hosts object that orders fallback hosts using the given scores
+	 *
+	 * @param scores HostScores to record results in, and to rank fallback hosts with
+	 */
+	public Hosts(String primaryHost, String defaultHost, ClientOptions options, HostScores scores) throws AblyException {
 		this.defaultHost = defaultHost;
+		this.scores = scores;
 		if (primaryHost != null) {
 			setHost(primaryHost);
 			if (options.environment != null) {
@@ -92,33 +107,130 @@ public class Hosts {
 	}
 
 	/**
-	 * Get next fallback host if any
+	 * Get the scores used to order fallback hosts
+	 */
+	public HostScores getScores() {
+		return scores;
+	}
+
+	/**
+	 * Record a successful request or connection attempt with a host
+	 *
+	 * @param host
+	 * @param latency the time taken, in milliseconds
+	 */
+	public void recordSuccess(String host, long latency) {
+		scores.recordSuccess(host, latency);
+	}
+
+	/**
+	 * Record a failed request or connection attempt with a host
+	 *
+	 * @param host
+	 */
+	public void recordFailure(String host) {
+		scores.recordFailure(host);
+	}
+
+	/**
+	 * Get next fallback host if any. The fallback hosts are ranked afresh on
+	 * each call, so a caller making a sequence of attempts should instead use
+	 * getFallbackSequence(), whose order is fixed for the sequence.
 	 *
 	 * @param lastHost
 	 * @return Successor host that can be used as a fallback.
 	 * null, if there is no successor fallback available.
 	 */
 	public String getFallback(String lastHost) {
-		if (fallbackHosts == null)
-			return null;
-		int idx;
-		if (lastHost.equals(primaryHost)) {
+		return getFallbackSequence().getFallback(lastHost);
+	}
+
+	/**
+	 * Start a sequence of attempts with the primary host and then
+	 * successive fallback hosts
+	 */
+	public FallbackSequence getFallbackSequence() {
+		return new FallbackSequence(primaryHost);
+	}
+
+	/**
+	 * A sequence of attempts with a primary host and then successive fallback
+	 * hosts. The fallback hosts are ordered by their scores when the first is
+	 * needed, and the order is kept for the rest of the sequence, whatever
+	 * results other requests record meanwhile. Not safe for concurrent use.
+	 */
+	public class FallbackSequence {
+		private final String primaryHost;
+		private final boolean fallbackAllowed;
+		private String[] rankedFallbackHosts;
+
+		private FallbackSequence(String primaryHost) {
+			this.primaryHost = primaryHost;
 			/* RSC15b, RTN17b: only use fallback if the hostname has not been overridden
 			 * or if ClientOptions#fallbackHostsUseDefault is true
 			 * or if ClientOptions#fallbackHosts was provided. */
-			if (!primaryHostIsDefault && !fallbackHostsUseDefault && fallbackHostsIsDefault)
+			this.fallbackAllowed = primaryHost.equalsIgnoreCase(defaultHost) || fallbackHostsUseDefault || !fallbackHostsIsDefault;
+		}
+
+		/**
+		 * Whether there is any fallback host to follow the primary host
+		 */
+		public boolean hasFallback() {
+			if (!fallbackAllowed)
+				return false;
+			for (String host : fallbackHosts)
+				if (!host.equals(primaryHost))
+					return true;
+			return false;
+		}
+
+		/**
+		 * Get next fallback host if any
+		 *
+		 * @param lastHost the primary host, or the last fallback host of this sequence
+		 * @return Successor host that can be used as a fallback.
+		 * null, if there is no successor fallback available.
+		 */
+		public String getFallback(String lastHost) {
+			if (!fallbackAllowed)
 				return null;
-			idx = 0;
-		} else {
-			/* Onto next fallback. */
-			idx = Arrays.asList(fallbackHosts).indexOf(lastHost);
-			if (idx < 0)
+			if (rankedFallbackHosts == null)
+				rankedFallbackHosts = rank(primaryHost);
+			int idx;
+			if (lastHost.equals(primaryHost)) {
+				idx = 0;
+			} else {
+				/* Onto next fallback. */
+				idx = Arrays.asList(rankedFallbackHosts).indexOf(lastHost);
+				if (idx < 0)
+					return null;
+				++idx;
+			}
+			if (idx >= rankedFallbackHosts.length)
 				return null;
-			++idx;
+			return rankedFallbackHosts[idx];
 		}
-		if (idx >= fallbackHosts.length)
-			return null;
-		return fallbackHosts[idx];
 	}
-}
 
+	/**
+	 * Order the fallback hosts, other than the primary host, by ascending
+	 * score; hosts with equal scores remain in their shuffled order.
+	 */
+	private String[] rank(String primaryHost) {
+		final double[] hostScores = scores.getScores(fallbackHosts);
+		List<Integer> order = new ArrayList<Integer>(fallbackHosts.length);
+		for (int i = 0; i < fallbackHosts.length; i++)
+			if (!fallbackHosts[i].equals(primaryHost))
+				order.add(i);
+		Collections.sort(order, new Comparator<Integer>() {
+			@Override
+			public int compare(Integer a, Integer b) {
+				return Double.compare(hostScores[a], hostScores[b]);
+			}
+		});
+		String[] result = new String[order.size()];
+		for (int i = 0; i < result.length; i++)
+			result[i] = fallbackHosts[order.get(i)];
+		return result;
+	}
+}
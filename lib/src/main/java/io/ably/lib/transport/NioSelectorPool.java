@@ -0,0 +1,170 @@
+package io.ably.lib.transport;
+
+import io.ably.lib.util.Log;
+
+import java.io.IOException;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.SelectableChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A small, fixed pool of selector threads shared by all
+ * {@link NioWebSocketTransport} instances in the JVM.
+ *
+ * Each registered channel is bound to a single selector thread for
+ * its lifetime, so all I/O and protocol processing for a given
+ * connection happens on one thread; connections are distributed
+ * across the pool round-robin. Received messages and changes of state
+ * are delivered to the ConnectionManager on the SharedExecutor, so
+ * that processing them does not hold up the I/O of other connections.
+ */
+class NioSelectorPool {
+
+	/**
+	 * Interface implemented by the owner of a registered channel
+	 * to be notified of readiness events. All methods are called
+	 * on the selector thread that the channel is registered with.
+	 */
+	interface Handler {
+		void onConnectable(SelectionKey key) throws Exception;
+		void onReadable(SelectionKey key) throws Exception;
+		void onWritable(SelectionKey key) throws Exception;
+		void onTick(long now);
+		void onError(Throwable t);
+	}
+
+	/**
+	 * Get the shared pool, creating it if necessary. The size of
+	 * the pool is determined by {@link Defaults#NIO_SELECTOR_THREADS}
+	 * at the time of first use.
+	 */
+	static synchronized NioSelectorPool getInstance() {
+		if(instance == null)
+			instance = new NioSelectorPool(Defaults.NIO_SELECTOR_THREADS);
+		return instance;
+	}
+
+	private NioSelectorPool(int size) {
+		selectors = new SelectorThread[Math.max(1, size)];
+	}
+
+	/**
+	 * Select the thread that will service the next registered channel.
+	 */
+	synchronized SelectorThread next() throws IOException {
+		int idx = (nextIndex.getAndIncrement() & Integer.MAX_VALUE) % selectors.length;
+		SelectorThread selector = selectors[idx];
+		if(selector == null) {
+			selector = selectors[idx] = new SelectorThread(idx);
+			selector.start();
+		}
+		return selector;
+	}
+
+	/**
+	 * A single selector thread. Tasks submitted via execute() are run
+	 * on the thread, in order, ahead of the next readiness check.
+	 */
+	static class SelectorThread extends Thread {
+
+		private SelectorThread(int idx) throws IOException {
+			super("ably-nio-selector-" + idx);
+			setDaemon(true);
+			selector = Selector.open();
+		}
+
+		/**
+		 * Register a channel with this selector. Must be called on this thread.
+		 */
+		SelectionKey register(SelectableChannel channel, int ops, Handler handler) throws IOException {
+			return channel.register(selector, ops, handler);
+		}
+
+		/**
+		 * Run the given task on this thread.
+		 */
+		void execute(Runnable task) {
+			if(Thread.currentThread() == this) {
+				task.run();
+				return;
+			}
+			tasks.add(task);
+			selector.wakeup();
+		}
+
+		boolean isCurrentThread() {
+			return Thread.currentThread() == this;
+		}
+
+		@Override
+		public void run() {
+			long lastTick = 0;
+			while(true) {
+				try {
+					selector.select(TICK_INTERVAL);
+				} catch(IOException e) {
+					Log.e(TAG, "Unexpected exception in select()", e);
+				}
+
+				Runnable task;
+				while((task = tasks.poll()) != null) {
+					try {
+						task.run();
+					} catch(Throwable t) {
+						Log.e(TAG, "Unexpected exception in selector task", t);
+					}
+				}
+
+				for(Iterator<SelectionKey> it = selector.selectedKeys().iterator(); it.hasNext(); ) {
+					SelectionKey key = it.next();
+					it.remove();
+					Handler handler = (Handler)key.attachment();
+					try {
+						if(!key.isValid())
+							continue;
+						if(key.isConnectable())
+							handler.onConnectable(key);
+						if(key.isValid() && key.isReadable())
+							handler.onReadable(key);
+						if(key.isValid() && key.isWritable())
+							handler.onWritable(key);
+					} catch(CancelledKeyException cke) {
+						/* the channel was closed while we were servicing it */
+					} catch(Throwable t) {
+						handler.onError(t);
+					}
+				}
+
+				long now = System.currentTimeMillis();
+				if(now - lastTick >= TICK_INTERVAL) {
+					lastTick = now;
+					for(SelectionKey key : selector.keys()) {
+						try {
+							if(key.isValid())
+								((Handler)key.attachment()).onTick(now);
+						} catch(Throwable t) {
+							Log.e(TAG, "Unexpected exception in activity check", t);
+						}
+					}
+				}
+			}
+		}
+
+		private final Selector selector;
+		private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<Runnable>();
+	}
+
+	private static NioSelectorPool instance;
+
+	private final SelectorThread[] selectors;
+	private final AtomicInteger nextIndex = new AtomicInteger();
+
+	/* the interval at which registered handlers are polled for inactivity */
+	private static final long TICK_INTERVAL = 1000L;
+	private static final String TAG = NioSelectorPool.class.getName();
+}
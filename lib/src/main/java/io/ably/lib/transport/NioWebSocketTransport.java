@@ -0,0 +1,741 @@
+package io.ably.lib.transport;
+
+import io.ably.lib.http.HttpUtils;
+import io.ably.lib.realtime.ConnectionState;
+import io.ably.lib.transport.ConnectionManager.StateIndication;
+import io.ably.lib.types.AblyException;
+import io.ably.lib.types.ErrorInfo;
+import io.ably.lib.types.Param;
+import io.ably.lib.types.ProtocolMessage;
+import io.ably.lib.types.ProtocolMessage.Action;
+import io.ably.lib.types.ProtocolSerializer;
+import io.ably.lib.util.Log;
+import io.ably.lib.util.Platform;
+import io.ably.lib.util.SerialExecutor;
+import io.ably.lib.util.SharedExecutor;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLEngineResult;
+import javax.net.ssl.SSLEngineResult.HandshakeStatus;
+import javax.net.ssl.SSLException;
+import javax.net.ssl.SSLParameters;
+
+import org.java_websocket.WebSocket;
+import org.java_websocket.WebSocketAdapter;
+import org.java_websocket.WebSocketImpl;
+import org.java_websocket.framing.CloseFrame;
+import org.java_websocket.framing.Framedata;
+import org.java_websocket.handshake.ClientHandshake;
+import org.java_websocket.handshake.HandshakeImpl1Client;
+import org.java_websocket.handshake.Handshakedata;
+
+/**
+ * A websocket transport that performs all of its network I/O on a
+ * small pool of NIO selector threads shared by every connection in
+ * the JVM (see {@link NioSelectorPool}), instead of owning a read and
+ * a write thread per connection as {@link WebSocketTransport} does.
+ *
+ * Websocket framing and the opening handshake are handled by the
+ * Java-WebSocket protocol engine; this class supplies the non-blocking
+ * socket, and TLS via an SSLEngine. Received messages and changes of
+ * state are passed to the ConnectionManager, in order, off the selector
+ * thread.
+ *
+ * The transport is selected by setting {@link Defaults#TRANSPORT} to
+ * {@link Defaults#TRANSPORT_NIO} before the library is instanced.
+ */
+public class NioWebSocketTransport implements ITransport {
+
+	private static final String TAG = NioWebSocketTransport.class.getName();
+
+	/******************
+	 * public factory API
+	 ******************/
+
+	public static class Factory implements ITransport.Factory {
+		@Override
+		public NioWebSocketTransport getTransport(TransportParams params, ConnectionManager connectionManager) {
+			return new NioWebSocketTransport(params, connectionManager);
+		}
+	}
+
+	/******************
+	 * protected constructor
+	 ******************/
+
+	protected NioWebSocketTransport(TransportParams params, ConnectionManager connectionManager) {
+		this.params = params;
+		this.connectionManager = connectionManager;
+		this.channelBinaryMode = params.options.useBinaryProtocol;
+		/* We do not require Ably heartbeats, as we can use WebSocket pings instead. */
+		params.heartbeats = false;
+	}
+
+	/******************
+	 * ITransport methods
+	 ******************/
+
+	@Override
+	public void connect(ConnectListener connectListener) {
+		this.connectListener = connectListener;
+		try {
+			boolean isTls = params.options.tls;
+			String wsScheme = isTls ? "wss://" : "ws://";
+			wsUri = wsScheme + params.host + ':' + String.valueOf(params.port) + "/";
+			Param[] authParams = connectionManager.ably.auth.getAuthParams();
+			Param[] connectParams = params.getConnectParams(authParams);
+			if(connectParams.length > 0)
+				wsUri = HttpUtils.encodeParams(wsUri, connectParams);
+			InetSocketAddress address = new InetSocketAddress(params.host, params.port);
+			if(address.isUnresolved())
+				throw new UnknownHostException(params.host);
+			NioClient client;
+			synchronized(this) {
+				client = wsConnection = new NioClient(URI.create(wsUri), address, isTls ? createSslEngine() : null);
+			}
+			client.open();
+		} catch(AblyException e) {
+			Log.e(TAG, "Unexpected exception attempting connection; wsUri = " + wsUri, e);
+			connectListener.onTransportUnavailable(this, params, e.errorInfo);
+		} catch(Throwable t) {
+			Log.e(TAG, "Unexpected exception attempting connection; wsUri = " + wsUri, t);
+			connectListener.onTransportUnavailable(this, params, AblyException.fromThrowable(t).errorInfo);
+		}
+	}
+
+	@Override
+	public void close(boolean sendClose) {
+		synchronized(this) {
+			if(wsConnection != null) {
+				if(sendClose) {
+					try {
+						send(new ProtocolMessage(Action.close));
+					} catch (AblyException e) {
+						Log.e(TAG, "Unexpected exception sending close", e);
+					}
+				}
+				wsConnection.close();
+				wsConnection = null;
+			}
+		}
+	}
+
+	@Override
+	public void abort(ErrorInfo reason) {
+		synchronized(this) {
+			if(wsConnection != null) {
+				wsConnection.close();
+				wsConnection = null;
+			}
+		}
+		connectionManager.notifyState(this, new StateIndication(ConnectionState.failed, reason));
+	}
+
+	@Override
+	public void send(ProtocolMessage msg) throws AblyException {
+		NioClient client;
+		synchronized(this) {
+			client = wsConnection;
+		}
+		if(client == null)
+			throw AblyException.fromErrorInfo(new ErrorInfo("Unable to send message; transport is not connected", 400, 80000));
+		try {
+			if(channelBinaryMode) {
+				/* the encoded message is in a buffer that is reused by this thread, but
+				 * the websocket library copies it into a frame before returning */
+				ByteBuffer encodedMsg = ProtocolSerializer.writeMsgpackToBuffer(msg);
+				/* the message is only rendered as JSON if verbose logging is enabled */
+				Log.v(TAG, "send(): {}: {}", msg.action, msg);
+				client.engine.send(encodedMsg);
+			} else {
+				String encodedMsg = ProtocolSerializer.toJSON(msg);
+				Log.v(TAG, "send(): {}: {}", msg.action, encodedMsg);
+				client.engine.send(encodedMsg);
+			}
+		} catch (Exception e) {
+			throw AblyException.fromThrowable(e);
+		}
+	}
+
+	@Override
+	public String getHost() {
+		return params.host;
+	}
+
+	public String toString() {
+		return NioWebSocketTransport.class.getName() + " [" + getURL() + "]";
+	}
+
+	public String getURL() {
+		return wsUri;
+	}
+
+	private SSLEngine createSslEngine() throws Exception {
+		SSLContext sslContext = SSLContext.getInstance("TLS");
+		sslContext.init(null, null, null);
+		SSLEngine sslEngine = sslContext.createSSLEngine(params.host, params.port);
+		sslEngine.setUseClientMode(true);
+		if(Platform.name.equals("java")) {
+			/* verify that the server certificate matches the host */
+			SSLParameters sslParameters = sslEngine.getSSLParameters();
+			sslParameters.setEndpointIdentificationAlgorithm("HTTPS");
+			sslEngine.setSSLParameters(sslParameters);
+		}
+		return sslEngine;
+	}
+
+	/**************************
+	 * NioClient: the per-connection
+	 * state serviced by a selector thread
+	 **************************/
+
+	class NioClient extends WebSocketAdapter implements NioSelectorPool.Handler {
+
+		NioClient(URI uri, InetSocketAddress address, SSLEngine sslEngine) throws IOException {
+			this.uri = uri;
+			this.address = address;
+			this.sslEngine = sslEngine;
+			this.engine = new WebSocketImpl(this, WebSocketTransport.createDraft(params.options));
+			this.selectorThread = NioSelectorPool.getInstance().next();
+			if(sslEngine != null) {
+				netIn = ByteBuffer.allocate(sslEngine.getSession().getPacketBufferSize());
+				appIn = ByteBuffer.allocate(sslEngine.getSession().getApplicationBufferSize());
+				netOut = ByteBuffer.allocate(sslEngine.getSession().getPacketBufferSize());
+				netOut.flip();
+			} else {
+				netIn = ByteBuffer.allocate(READ_BUFFER_SIZE);
+			}
+		}
+
+		/**
+		 * Initiate the (non-blocking) socket connection
+		 */
+		void open() {
+			selectorThread.execute(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						socketChannel = SocketChannel.open();
+						socketChannel.configureBlocking(false);
+						socketChannel.socket().setTcpNoDelay(true);
+						boolean connected = socketChannel.connect(address);
+						key = selectorThread.register(socketChannel, connected ? SelectionKey.OP_READ : SelectionKey.OP_CONNECT, NioClient.this);
+						if(connected)
+							onSocketConnected();
+					} catch(Throwable t) {
+						onError(t);
+					}
+				}
+			});
+		}
+
+		/**
+		 * Close the websocket connection; if the websocket is open,
+		 * this starts the closing handshake, otherwise the socket is
+		 * closed immediately.
+		 */
+		void close() {
+			selectorThread.execute(new Runnable() {
+				@Override
+				public void run() {
+					if(engine.isOpen()) {
+						engine.close(CloseFrame.NORMAL);
+					} else {
+						closeSocket();
+						engine.eot();
+					}
+				}
+			});
+		}
+
+		/**************************
+		 * NioSelectorPool.Handler methods
+		 **************************/
+
+		@Override
+		public void onConnectable(SelectionKey key) throws Exception {
+			socketChannel.finishConnect();
+			key.interestOps(SelectionKey.OP_READ);
+			onSocketConnected();
+		}
+
+		@Override
+		public void onReadable(SelectionKey key) throws Exception {
+			int read = socketChannel.read(netIn);
+			if(read < 0) {
+				closeSocket();
+				engine.eot();
+				return;
+			}
+			if(read == 0)
+				return;
+
+			if(sslEngine == null) {
+				netIn.flip();
+				engine.decode(netIn);
+				netIn.clear();
+				return;
+			}
+			if(tlsHandshaking) {
+				progressTlsHandshake();
+				if(tlsHandshaking)
+					return;
+			}
+			unwrapAppData();
+		}
+
+		@Override
+		public void onWritable(SelectionKey key) throws Exception {
+			if(tlsHandshaking)
+				progressTlsHandshake();
+			else
+				flush();
+		}
+
+		@Override
+		public void onTick(long now) {
+			checkActivity(now);
+		}
+
+		@Override
+		public void onError(Throwable t) {
+			String msg = "Unexpected exception in NioClient";
+			Log.e(TAG, msg, t);
+			notifyUnavailable(new ErrorInfo(t.getMessage(), 503, 80000));
+			closeSocket();
+			engine.eot();
+		}
+
+		/**************************
+		 * WebSocketListener methods
+		 **************************/
+
+		@Override
+		public void onWebsocketOpen(WebSocket conn, Handshakedata handshake) {
+			final ConnectListener listener = connectListener;
+			connectListener = null;
+			if(listener != null) {
+				delivery.execute(new Runnable() {
+					@Override
+					public void run() {
+						listener.onTransportAvailable(NioWebSocketTransport.this, params);
+					}
+				});
+			}
+			flagActivity();
+		}
+
+		@Override
+		public void onWebsocketMessage(WebSocket conn, ByteBuffer blob) {
+			try {
+				deliverMessage(ProtocolSerializer.readMsgpack(blob));
+			} catch (AblyException e) {
+				String msg = "Unexpected exception processing received binary message";
+				Log.e(TAG, msg, e);
+			}
+			flagActivity();
+		}
+
+		@Override
+		public void onWebsocketMessage(WebSocket conn, String string) {
+			try {
+				deliverMessage(ProtocolSerializer.fromJSON(string));
+			} catch (AblyException e) {
+				String msg = "Unexpected exception processing received text message";
+				Log.e(TAG, msg, e);
+			}
+			flagActivity();
+		}
+
+		/* This allows us to detect a websocket ping, so we don't need Ably pings. */
+		@Override
+		public void onWebsocketPing(WebSocket conn, Framedata f) {
+			/* Call superclass to ensure the pong is sent. */
+			super.onWebsocketPing(conn, f);
+			flagActivity();
+		}
+
+		@Override
+		public void onWebsocketClose(WebSocket conn, int wsCode, String wsReason, boolean remote) {
+			closeSocket();
+			synchronized(NioWebSocketTransport.this) {
+				if(wsConnection == this)
+					wsConnection = null;
+			}
+			final StateIndication state = WebSocketTransport.closeStateIndication(wsCode);
+			delivery.execute(new Runnable() {
+				@Override
+				public void run() {
+					connectionManager.notifyState(NioWebSocketTransport.this, state);
+				}
+			});
+		}
+
+		@Override
+		public void onWebsocketClosing(WebSocket conn, int code, String reason, boolean remote) {}
+
+		@Override
+		public void onWebsocketCloseInitiated(WebSocket conn, int code, String reason) {}
+
+		@Override
+		public void onWebsocketError(WebSocket conn, Exception e) {
+			String msg = "Unexpected exception in NioClient";
+			Log.e(TAG, msg, e);
+			notifyUnavailable(new ErrorInfo(e.getMessage(), 503, 80000));
+		}
+
+		@Override
+		public void onWebsocketHandshakeSentAsClient(WebSocket conn, ClientHandshake request) {}
+
+		@Override
+		public void onWriteDemand(WebSocket conn) {
+			if(selectorThread.isCurrentThread()) {
+				flushTask.run();
+			} else if(flushScheduled.compareAndSet(false, true)) {
+				selectorThread.execute(flushTask);
+			}
+		}
+
+		@Override
+		public InetSocketAddress getLocalSocketAddress(WebSocket conn) {
+			return (socketChannel == null) ? null : (InetSocketAddress)socketChannel.socket().getLocalSocketAddress();
+		}
+
+		@Override
+		public InetSocketAddress getRemoteSocketAddress(WebSocket conn) {
+			return (socketChannel == null) ? null : (InetSocketAddress)socketChannel.socket().getRemoteSocketAddress();
+		}
+
+		/**************************
+		 * internal
+		 **************************/
+
+		/**
+		 * Pass a received message to the ConnectionManager; this, like
+		 * other notifications, is run on the shared executor, since the
+		 * selector thread is shared with other connections; when all of
+		 * its threads are busy it is run on the selector thread, which
+		 * then stops reading until the message has been processed
+		 */
+		private void deliverMessage(final ProtocolMessage message) {
+			delivery.execute(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						connectionManager.onMessage(NioWebSocketTransport.this, message);
+					} catch (AblyException e) {
+						String msg = "Unexpected exception processing received message";
+						Log.e(TAG, msg, e);
+					}
+				}
+			});
+		}
+
+		private void notifyUnavailable(final ErrorInfo reason) {
+			final ConnectListener listener = connectListener;
+			connectListener = null;
+			if(listener == null)
+				return;
+			delivery.execute(new Runnable() {
+				@Override
+				public void run() {
+					listener.onTransportUnavailable(NioWebSocketTransport.this, params, reason);
+				}
+			});
+		}
+
+		private void onSocketConnected() throws Exception {
+			if(sslEngine != null) {
+				tlsHandshaking = true;
+				sslEngine.beginHandshake();
+				progressTlsHandshake();
+			} else {
+				startWsHandshake();
+			}
+		}
+
+		private void startWsHandshake() throws Exception {
+			String resource = uri.getRawPath();
+			if(resource == null || resource.length() == 0)
+				resource = "/";
+			if(uri.getRawQuery() != null)
+				resource += '?' + uri.getRawQuery();
+			int port = uri.getPort();
+			boolean isDefaultPort = (port == -1) || (port == (sslEngine != null ? Defaults.TLS_PORT : Defaults.PORT));
+
+			HandshakeImpl1Client handshake = new HandshakeImpl1Client();
+			handshake.setResourceDescriptor(resource);
+			handshake.put("Host", uri.getHost() + (isDefaultPort ? "" : ":" + port));
+			engine.startHandshake(handshake);
+		}
+
+		/**
+		 * Drive the TLS handshake as far as possible with the data
+		 * currently available; once complete, start the websocket handshake.
+		 */
+		private void progressTlsHandshake() throws Exception {
+			while(true) {
+				switch(sslEngine.getHandshakeStatus()) {
+				case NEED_TASK:
+					runDelegatedTasks();
+					break;
+				case NEED_WRAP:
+					if(!writeNetOut())
+						return;
+					netOut.clear();
+					SSLEngineResult wrapResult = sslEngine.wrap(EMPTY, netOut);
+					netOut.flip();
+					if(wrapResult.getStatus() == SSLEngineResult.Status.CLOSED)
+						throw new SSLException("TLS connection closed during handshake");
+					if(!writeNetOut())
+						return;
+					break;
+				case NEED_UNWRAP:
+					netIn.flip();
+					SSLEngineResult unwrapResult = sslEngine.unwrap(netIn, appIn);
+					netIn.compact();
+					switch(unwrapResult.getStatus()) {
+					case BUFFER_UNDERFLOW:
+						/* wait for more data */
+						return;
+					case BUFFER_OVERFLOW:
+						appIn = enlarge(appIn, sslEngine.getSession().getApplicationBufferSize());
+						break;
+					case CLOSED:
+						throw new SSLException("TLS connection closed during handshake");
+					default:
+					}
+					break;
+				default:
+					/* FINISHED or NOT_HANDSHAKING */
+					if(tlsHandshaking) {
+						tlsHandshaking = false;
+						setWriteInterest(false);
+						startWsHandshake();
+					}
+					return;
+				}
+			}
+		}
+
+		/**
+		 * Decrypt any buffered TLS records and pass the resulting
+		 * data to the websocket engine.
+		 */
+		private void unwrapAppData() throws Exception {
+			netIn.flip();
+			boolean closed = false;
+			while(netIn.hasRemaining()) {
+				SSLEngineResult result = sslEngine.unwrap(netIn, appIn);
+				if(result.getStatus() == SSLEngineResult.Status.BUFFER_OVERFLOW) {
+					appIn = enlarge(appIn, sslEngine.getSession().getApplicationBufferSize());
+					continue;
+				}
+				if(result.getStatus() == SSLEngineResult.Status.CLOSED) {
+					closed = true;
+					break;
+				}
+				if(result.getHandshakeStatus() == HandshakeStatus.NEED_TASK)
+					runDelegatedTasks();
+				if(result.getStatus() == SSLEngineResult.Status.BUFFER_UNDERFLOW || result.bytesConsumed() == 0)
+					break;
+			}
+			netIn.compact();
+			appIn.flip();
+			if(appIn.hasRemaining())
+				engine.decode(appIn);
+			appIn.clear();
+			if(closed) {
+				closeSocket();
+				engine.eot();
+			} else if(sslEngine.getHandshakeStatus() == HandshakeStatus.NEED_WRAP) {
+				/* post-handshake messages are wrapped by flush() */
+				flush();
+			}
+		}
+
+		/**
+		 * Write as much outbound data as the socket will accept; if
+		 * any remains, register interest in writability to resume later.
+		 * A record is wrapped only once the previous one has been written
+		 * in full, and post-handshake messages that the TLS engine needs
+		 * to send are wrapped ahead of the next application data.
+		 */
+		private void flush() throws IOException {
+			if(socketChannel == null || !socketChannel.isConnected() || tlsHandshaking)
+				return;
+			while(true) {
+				if(!writeNetOut())
+					return;
+				ByteBuffer src;
+				if(sslEngine != null && sslEngine.getHandshakeStatus() == HandshakeStatus.NEED_WRAP) {
+					src = EMPTY;
+				} else {
+					if(pendingOut == null || !pendingOut.hasRemaining())
+						pendingOut = engine.outQueue.poll();
+					if(pendingOut == null)
+						break;
+					if(sslEngine == null) {
+						netOut = pendingOut;
+						pendingOut = null;
+						continue;
+					}
+					src = pendingOut;
+				}
+				netOut.clear();
+				SSLEngineResult result = sslEngine.wrap(src, netOut);
+				netOut.flip();
+				switch(result.getStatus()) {
+				case BUFFER_OVERFLOW:
+					netOut = ByteBuffer.allocate(Math.max(netOut.capacity() * 2, sslEngine.getSession().getPacketBufferSize()));
+					netOut.flip();
+					break;
+				case CLOSED:
+					/* a close_notify produced for the engine is still written */
+					if(src != EMPTY || result.bytesProduced() == 0)
+						throw new SSLException("TLS connection closed");
+					break;
+				default:
+				}
+				if(result.getHandshakeStatus() == HandshakeStatus.NEED_TASK)
+					runDelegatedTasks();
+			}
+			setWriteInterest(false);
+		}
+
+		/**
+		 * Write any pending encoded output.
+		 * @return true if all pending output was written
+		 */
+		private boolean writeNetOut() throws IOException {
+			if(netOut != null && netOut.hasRemaining()) {
+				socketChannel.write(netOut);
+				if(netOut.hasRemaining()) {
+					setWriteInterest(true);
+					return false;
+				}
+			}
+			return true;
+		}
+
+		private void setWriteInterest(boolean writeInterest) {
+			if(key != null && key.isValid())
+				key.interestOps(writeInterest ? (SelectionKey.OP_READ | SelectionKey.OP_WRITE) : SelectionKey.OP_READ);
+		}
+
+		private void runDelegatedTasks() {
+			Runnable task;
+			while((task = sslEngine.getDelegatedTask()) != null)
+				task.run();
+		}
+
+		private void closeSocket() {
+			if(key != null)
+				key.cancel();
+			if(socketChannel != null) {
+				try {
+					socketChannel.close();
+				} catch(IOException e) {
+					Log.v(TAG, "closeSocket(): exception closing socket", e);
+				}
+			}
+		}
+
+		private void flagActivity() {
+			lastActivityTime = System.currentTimeMillis();
+			connectionManager.setLastActivity(lastActivityTime);
+		}
+
+		/* Implements disconnection if no activity (inc pings) is seen within
+		 * maxIdleInterval+realtimeRequestTimeout, or if the peer does not
+		 * complete the closing handshake within realtimeRequestTimeout; this
+		 * is polled by the selector thread instead of being driven by a
+		 * per-connection timer. */
+		private void checkActivity(long now) {
+			if (engine.isClosing()) {
+				if (closingTime == 0) {
+					closingTime = now;
+				} else if (now >= closingTime + connectionManager.ably.options.realtimeRequestTimeout) {
+					Log.e(TAG, "Close not acknowledged within " + connectionManager.ably.options.realtimeRequestTimeout + "ms, closing socket");
+					closeSocket();
+					engine.eot();
+				}
+				return;
+			}
+			long timeout = connectionManager.maxIdleInterval;
+			if (timeout == 0 || !engine.isOpen())
+				return;
+			timeout += connectionManager.ably.options.realtimeRequestTimeout;
+			if (now >= lastActivityTime + timeout) {
+				/* Timeout has been reached. Close the connection. */
+				Log.e(TAG, "No activity for " + timeout + "ms, closing connection");
+				closeSocket();
+				engine.closeConnection(CloseFrame.ABNORMAL_CLOSE, "timed out");
+			}
+		}
+
+		/***************************
+		 * NioClient private members
+		 ***************************/
+
+		private final URI uri;
+		private final InetSocketAddress address;
+		private final SSLEngine sslEngine;
+		private final WebSocketImpl engine;
+		private final NioSelectorPool.SelectorThread selectorThread;
+		/* notifications to the ConnectionManager, in the order they occur */
+		private final SerialExecutor delivery = new SerialExecutor(SharedExecutor.get());
+		private final AtomicBoolean flushScheduled = new AtomicBoolean();
+		private final Runnable flushTask = new Runnable() {
+			@Override
+			public void run() {
+				flushScheduled.set(false);
+				try {
+					flush();
+				} catch(Throwable t) {
+					onError(t);
+				}
+			}
+		};
+
+		private SocketChannel socketChannel;
+		private SelectionKey key;
+		private ByteBuffer netIn, appIn, netOut, pendingOut;
+		private boolean tlsHandshaking;
+		private long lastActivityTime;
+		/* the first activity check after the closing handshake started */
+		private long closingTime;
+	}
+
+	private static ByteBuffer enlarge(ByteBuffer buffer, int minCapacity) {
+		ByteBuffer result = ByteBuffer.allocate(Math.max(buffer.capacity() * 2, minCapacity));
+		buffer.flip();
+		result.put(buffer);
+		return result;
+	}
+
+	/******************
+	 * private members
+	 ******************/
+
+	private final TransportParams params;
+	private final ConnectionManager connectionManager;
+	private final boolean channelBinaryMode;
+	private String wsUri;
+	private ConnectListener connectListener;
+
+	private NioClient wsConnection;
+
+	private static final ByteBuffer EMPTY = ByteBuffer.allocate(0);
+	private static final int READ_BUFFER_SIZE = 16384;
+}
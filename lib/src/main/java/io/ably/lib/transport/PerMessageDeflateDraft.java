@@ -0,0 +1,429 @@
+package io.ably.lib.transport;
+
+import io.ably.lib.types.CompressionOptions;
+import io.ably.lib.util.Log;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import org.java_websocket.drafts.Draft;
+import org.java_websocket.drafts.Draft_17;
+import org.java_websocket.exceptions.InvalidDataException;
+import org.java_websocket.exceptions.InvalidFrameException;
+import org.java_websocket.exceptions.InvalidHandshakeException;
+import org.java_websocket.framing.CloseFrame;
+import org.java_websocket.framing.Framedata;
+import org.java_websocket.framing.Framedata.Opcode;
+import org.java_websocket.framing.FramedataImpl1;
+import org.java_websocket.handshake.ClientHandshake;
+import org.java_websocket.handshake.ClientHandshakeBuilder;
+import org.java_websocket.handshake.HandshakeBuilder;
+import org.java_websocket.handshake.ServerHandshake;
+import org.java_websocket.handshake.ServerHandshakeBuilder;
+
+/**
+ * A websocket draft that negotiates and implements the
+ * permessage-deflate extension (RFC 7692).
+ *
+ * The websocket engine in use does not support extensions, so
+ * this is done by wrapping frame translation: compressed received
+ * frames have the RSV1 bit removed before being parsed, and their
+ * payloads inflated; data frames to be sent are deflated, and have
+ * the RSV1 bit added after being serialised.
+ *
+ * Deflate state is carried between messages unless no_context_takeover
+ * has been negotiated, so the caller must send messages in the order that
+ * they are created; ConnectionManager already serialises sends.
+ *
+ * An instance is used for both client and server roles, the latter being
+ * used in tests.
+ */
+public class PerMessageDeflateDraft extends Draft_17 {
+
+	private static final String TAG = PerMessageDeflateDraft.class.getName();
+
+	public PerMessageDeflateDraft(CompressionOptions options) {
+		this.options = options;
+	}
+
+	/**
+	 * Whether or not compression was agreed in the opening handshake.
+	 */
+	public boolean isNegotiated() {
+		return negotiated;
+	}
+
+	/**
+	 * Get the total size of data frame payloads sent, before and after compression.
+	 */
+	public synchronized long getBytesSent() { return bytesSent; }
+	public synchronized long getCompressedBytesSent() { return compressedBytesSent; }
+
+	/**
+	 * Get the total size of data frame payloads received, before and after decompression.
+	 */
+	public long getCompressedBytesReceived() { return compressedBytesReceived; }
+	public long getBytesReceived() { return bytesReceived; }
+
+	/******************
+	 * Draft methods
+	 ******************/
+
+	@Override
+	public Draft copyInstance() {
+		return new PerMessageDeflateDraft(options);
+	}
+
+	@Override
+	public ClientHandshakeBuilder postProcessHandshakeRequestAsClient(ClientHandshakeBuilder request) {
+		request = super.postProcessHandshakeRequestAsClient(request);
+		if(syncFlushSupported) {
+			StringBuilder offer = new StringBuilder(EXTENSION_NAME);
+			if(options.serverMaxWindowBits >= MIN_WINDOW_BITS && options.serverMaxWindowBits < MAX_WINDOW_BITS)
+				offer.append("; ").append(SERVER_MAX_WINDOW_BITS).append('=').append(options.serverMaxWindowBits);
+			if(options.serverNoContextTakeover)
+				offer.append("; ").append(SERVER_NO_CONTEXT_TAKEOVER);
+			if(options.clientNoContextTakeover)
+				offer.append("; ").append(CLIENT_NO_CONTEXT_TAKEOVER);
+			request.put(EXTENSIONS_HEADER, offer.toString());
+		}
+		return request;
+	}
+
+	@Override
+	public HandshakeState acceptHandshakeAsClient(ClientHandshake request, ServerHandshake response) throws InvalidHandshakeException {
+		HandshakeState state = super.acceptHandshakeAsClient(request, response);
+		if(state != HandshakeState.MATCHED)
+			return state;
+		String accepted = response.getFieldValue(EXTENSIONS_HEADER);
+		if(accepted == null || accepted.trim().isEmpty())
+			return state;
+
+		String[] params = accepted.split(";");
+		if(!params[0].trim().equals(EXTENSION_NAME) || !request.hasFieldValue(EXTENSIONS_HEADER)) {
+			Log.e(TAG, "acceptHandshakeAsClient(): unexpected extension: " + accepted);
+			return HandshakeState.NOT_MATCHED;
+		}
+		boolean localNoContextTakeover = options.clientNoContextTakeover, remoteNoContextTakeover = false;
+		for(int i = 1; i < params.length; i++) {
+			String[] param = params[i].trim().split("=");
+			String name = param[0].trim();
+			if(name.equals(SERVER_NO_CONTEXT_TAKEOVER)) {
+				remoteNoContextTakeover = true;
+			} else if(name.equals(CLIENT_NO_CONTEXT_TAKEOVER)) {
+				localNoContextTakeover = true;
+			} else if(name.equals(SERVER_MAX_WINDOW_BITS)) {
+				/* the inflater handles any window size */
+			} else if(name.equals(CLIENT_MAX_WINDOW_BITS) && param.length == 2 && param[1].trim().equals(String.valueOf(MAX_WINDOW_BITS))) {
+				/* this is the only window size we can use */
+			} else {
+				Log.e(TAG, "acceptHandshakeAsClient(): unsupported extension parameter: " + accepted);
+				return HandshakeState.NOT_MATCHED;
+			}
+		}
+		init(localNoContextTakeover, remoteNoContextTakeover);
+		return state;
+	}
+
+	@Override
+	public HandshakeState acceptHandshakeAsServer(ClientHandshake request) throws InvalidHandshakeException {
+		HandshakeState state = super.acceptHandshakeAsServer(request);
+		if(state != HandshakeState.MATCHED)
+			return state;
+		String offers = request.getFieldValue(EXTENSIONS_HEADER);
+		if(offers == null || !syncFlushSupported)
+			return state;
+
+		/* accept the first permessage-deflate offer that we can support */
+		for(String offer : offers.split(",")) {
+			String[] params = offer.split(";");
+			if(!params[0].trim().equals(EXTENSION_NAME))
+				continue;
+			boolean localNoContextTakeover = false, remoteNoContextTakeover = false, acceptable = true;
+			for(int i = 1; i < params.length && acceptable; i++) {
+				String[] param = params[i].trim().split("=");
+				String name = param[0].trim();
+				if(name.equals(SERVER_NO_CONTEXT_TAKEOVER))
+					localNoContextTakeover = true;
+				else if(name.equals(CLIENT_NO_CONTEXT_TAKEOVER))
+					remoteNoContextTakeover = true;
+				else if(name.equals(SERVER_MAX_WINDOW_BITS))
+					/* we can only compress with a 15-bit window */
+					acceptable = (param.length == 2 && param[1].trim().equals(String.valueOf(MAX_WINDOW_BITS)));
+				else if(!name.equals(CLIENT_MAX_WINDOW_BITS))
+					acceptable = false;
+			}
+			if(!acceptable)
+				continue;
+			StringBuilder response = new StringBuilder(EXTENSION_NAME);
+			if(localNoContextTakeover)
+				response.append("; ").append(SERVER_NO_CONTEXT_TAKEOVER);
+			if(remoteNoContextTakeover)
+				response.append("; ").append(CLIENT_NO_CONTEXT_TAKEOVER);
+			negotiatedResponse = response.toString();
+			init(localNoContextTakeover, remoteNoContextTakeover);
+			break;
+		}
+		return state;
+	}
+
+	@Override
+	public HandshakeBuilder postProcessHandshakeResponseAsServer(ClientHandshake request, ServerHandshakeBuilder response) throws InvalidHandshakeException {
+		HandshakeBuilder result = super.postProcessHandshakeResponseAsServer(request, response);
+		if(negotiatedResponse != null)
+			result.put(EXTENSIONS_HEADER, negotiatedResponse);
+		return result;
+	}
+
+	@Override
+	public List<Framedata> createFrames(ByteBuffer binary, boolean mask) {
+		return compress(super.createFrames(binary, mask));
+	}
+
+	@Override
+	public List<Framedata> createFrames(String text, boolean mask) {
+		return compress(super.createFrames(text, mask));
+	}
+
+	@Override
+	public ByteBuffer createBinaryFrame(Framedata framedata) {
+		ByteBuffer frame = super.createBinaryFrame(framedata);
+		boolean compressed;
+		synchronized(this) {
+			compressed = compressedFrames.remove(framedata);
+		}
+		if(compressed)
+			frame.put(frame.position(), (byte)(frame.get(frame.position()) | RSV1));
+		return frame;
+	}
+
+	@Override
+	public Framedata translateSingleFrame(ByteBuffer buffer) throws InvalidDataException {
+		if(!negotiated || !buffer.hasRemaining())
+			return parseFrame(buffer);
+
+		/* remove the RSV1 bit, if present, so that the frame is accepted by the parser */
+		int headerPosition = buffer.position();
+		byte header = buffer.get(headerPosition);
+		boolean rsv1 = (header & RSV1) != 0;
+		if(rsv1)
+			buffer.put(headerPosition, (byte)(header & ~RSV1));
+
+		Framedata frame;
+		boolean complete = false;
+		try {
+			frame = parseFrame(buffer);
+			complete = true;
+		} finally {
+			/* if the frame is incomplete it will be parsed again when more data arrives */
+			if(rsv1 && !complete)
+				buffer.put(headerPosition, header);
+		}
+
+		Opcode opcode = frame.getOpcode();
+		if(opcode == Opcode.TEXT || opcode == Opcode.BINARY) {
+			inflatingMessage = rsv1;
+		} else if(opcode != Opcode.CONTINUOUS) {
+			if(rsv1)
+				throw new InvalidFrameException("RSV1 set on control frame");
+			return frame;
+		} else if(rsv1) {
+			throw new InvalidFrameException("RSV1 set on continuation frame");
+		}
+		if(inflatingMessage)
+			setPayload(frame, inflate(frame.getPayloadData(), frame.isFin()));
+		if(frame.isFin())
+			inflatingMessage = false;
+		return frame;
+	}
+
+	/******************
+	 * internal
+	 ******************/
+
+	/**
+	 * Parse a frame using the superclass. When the frame is incomplete the
+	 * superclass signals this with a checked exception whose type is not
+	 * accessible here, so this is rethrown undeclared; the caller is
+	 * Draft_10.translateFrame(), which handles it.
+	 */
+	private Framedata parseFrame(ByteBuffer buffer) throws InvalidDataException {
+		try {
+			return super.translateSingleFrame(buffer);
+		} catch(InvalidDataException e) {
+			throw e;
+		} catch(RuntimeException e) {
+			throw e;
+		} catch(Throwable t) {
+			throw PerMessageDeflateDraft.<RuntimeException>rethrow(t);
+		}
+	}
+
+	private void init(boolean localNoContextTakeover, boolean remoteNoContextTakeover) {
+		this.localNoContextTakeover = localNoContextTakeover;
+		this.remoteNoContextTakeover = remoteNoContextTakeover;
+		deflater = new Deflater(options.level, true);
+		inflater = new Inflater(true);
+		negotiated = true;
+	}
+
+	private List<Framedata> compress(List<Framedata> frames) {
+		if(!negotiated)
+			return frames;
+		synchronized(this) {
+			for(Framedata frame : frames) {
+				ByteBuffer payload = frame.getPayloadData();
+				int length = payload.remaining();
+				bytesSent += length;
+				/* messages are not fragmented by the engine, so each frame is a complete message */
+				if(length < options.threshold || (frame.getOpcode() != Opcode.TEXT && frame.getOpcode() != Opcode.BINARY)) {
+					compressedBytesSent += length;
+					continue;
+				}
+				ByteBuffer compressed = deflate(payload);
+				compressedBytesSent += compressed.remaining();
+				try {
+					setPayload(frame, compressed);
+				} catch(InvalidDataException e) {
+					/* not expected for data frames */
+					throw new IllegalStateException(e);
+				}
+				compressedFrames.add(frame);
+			}
+		}
+		return frames;
+	}
+
+	private ByteBuffer deflate(ByteBuffer payload) {
+		byte[] input;
+		int offset, length = payload.remaining();
+		if(payload.hasArray()) {
+			input = payload.array();
+			offset = payload.arrayOffset() + payload.position();
+		} else {
+			input = new byte[length];
+			payload.duplicate().get(input);
+			offset = 0;
+		}
+		deflater.setInput(input, offset, length);
+		ByteArrayOutputStream out = new ByteArrayOutputStream(length / 2 + 16);
+		int count;
+		do {
+			count = deflater.deflate(deflateChunk, 0, deflateChunk.length, Deflater.SYNC_FLUSH);
+			out.write(deflateChunk, 0, count);
+		} while(count == deflateChunk.length);
+		if(localNoContextTakeover)
+			deflater.reset();
+
+		/* remove the empty stored block that terminates the flush (RFC 7692 7.2.1) */
+		byte[] result = out.toByteArray();
+		int resultLength = result.length;
+		if(resultLength >= 4 && endsWithTail(result, resultLength))
+			resultLength -= 4;
+		return ByteBuffer.wrap(result, 0, resultLength);
+	}
+
+	private ByteBuffer inflate(ByteBuffer payload, boolean fin) throws InvalidDataException {
+		int length = payload.remaining();
+		compressedBytesReceived += length;
+		byte[] input = new byte[length + (fin ? 4 : 0)];
+		payload.duplicate().get(input, 0, length);
+		if(fin)
+			System.arraycopy(TAIL, 0, input, length, 4);
+
+		ByteArrayOutputStream out = new ByteArrayOutputStream(length * 4 + 16);
+		inflater.setInput(input);
+		try {
+			while(true) {
+				int count = inflater.inflate(inflateChunk);
+				if(count == 0) {
+					if(inflater.needsInput() || inflater.finished() || inflater.needsDictionary())
+						break;
+					continue;
+				}
+				out.write(inflateChunk, 0, count);
+				if(out.size() > MAX_INFLATED_SIZE)
+					throw new InvalidFrameException("Inflated message too large");
+			}
+		} catch(DataFormatException e) {
+			throw new InvalidFrameException("Invalid compressed data: " + e.getMessage());
+		}
+		if(fin && remoteNoContextTakeover)
+			inflater.reset();
+		bytesReceived += out.size();
+		return ByteBuffer.wrap(out.toByteArray());
+	}
+
+	@SuppressWarnings("unchecked")
+	private static <T extends Throwable> T rethrow(Throwable t) throws T {
+		throw (T)t;
+	}
+
+	private static boolean endsWithTail(byte[] data, int length) {
+		for(int i = 0; i < 4; i++)
+			if(data[length - 4 + i] != TAIL[i])
+				return false;
+		return true;
+	}
+
+	private static void setPayload(Framedata frame, ByteBuffer payload) throws InvalidDataException {
+		try {
+			((FramedataImpl1)frame).setPayload(payload);
+		} catch(Exception e) {
+			throw new InvalidDataException(CloseFrame.POLICY_VALIDATION, e.getMessage());
+		}
+	}
+
+	/******************
+	 * private members
+	 ******************/
+
+	private final CompressionOptions options;
+	/* frames are sent and received on different threads */
+	private final byte[] deflateChunk = new byte[8192];
+	private final byte[] inflateChunk = new byte[8192];
+	private final Set<Framedata> compressedFrames = Collections.newSetFromMap(new IdentityHashMap<Framedata, Boolean>());
+
+	private volatile boolean negotiated;
+	private boolean localNoContextTakeover, remoteNoContextTakeover;
+	private String negotiatedResponse;
+	private Deflater deflater;
+	private Inflater inflater;
+	private boolean inflatingMessage;
+
+	private long bytesSent, compressedBytesSent;
+	private volatile long bytesReceived, compressedBytesReceived;
+
+	private static final String EXTENSIONS_HEADER = "Sec-WebSocket-Extensions";
+	private static final String EXTENSION_NAME = "permessage-deflate";
+	private static final String SERVER_NO_CONTEXT_TAKEOVER = "server_no_context_takeover";
+	private static final String CLIENT_NO_CONTEXT_TAKEOVER = "client_no_context_takeover";
+	private static final String SERVER_MAX_WINDOW_BITS = "server_max_window_bits";
+	private static final String CLIENT_MAX_WINDOW_BITS = "client_max_window_bits";
+	private static final int MIN_WINDOW_BITS = 8;
+	private static final int MAX_WINDOW_BITS = 15;
+	private static final byte RSV1 = 0x40;
+	/* a limit on the size of an inflated frame, to guard against malicious payloads */
+	private static final int MAX_INFLATED_SIZE = 16 * 1024 * 1024;
+	private static final byte[] TAIL = new byte[] { 0x00, 0x00, (byte)0xff, (byte)0xff };
+
+	/* Deflater.SYNC_FLUSH is unavailable on older Android versions, so compression is not offered there */
+	private static final boolean syncFlushSupported;
+	static {
+		boolean supported;
+		try {
+			Deflater.class.getMethod("deflate", byte[].class, int.class, int.class, int.class);
+			supported = true;
+		} catch(NoSuchMethodException e) {
+			supported = false;
+		}
+		syncFlushSupported = supported;
+	}
+}
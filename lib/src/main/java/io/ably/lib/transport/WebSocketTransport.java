@@ -4,22 +4,24 @@ import io.ably.lib.http.HttpUtils;
 import io.ably.lib.realtime.ConnectionState;
 import io.ably.lib.transport.ConnectionManager.StateIndication;
 import io.ably.lib.types.AblyException;
+import io.ably.lib.types.ClientOptions;
 import io.ably.lib.types.ErrorInfo;
 import io.ably.lib.types.Param;
 import io.ably.lib.types.ProtocolMessage;
 import io.ably.lib.types.ProtocolSerializer;
 import io.ably.lib.types.ProtocolMessage.Action;
 import io.ably.lib.util.Log;
+import io.ably.lib.util.Scheduler;
 
 import java.net.URI;
 import java.nio.ByteBuffer;
-import java.util.Timer;
-import java.util.TimerTask;
 
 import javax.net.ssl.SSLContext;
 import javax.net.ssl.SSLSocketFactory;
 
 import org.java_websocket.client.WebSocketClient;
+import org.java_websocket.drafts.Draft;
+import org.java_websocket.drafts.Draft_17;
 import org.java_websocket.framing.CloseFrame;
 import org.java_websocket.framing.Framedata;
 import org.java_websocket.handshake.ServerHandshake;
@@ -68,7 +70,7 @@ public class WebSocketTransport implements ITransport {
 			if(connectParams.length > 0)
 				wsUri = HttpUtils.encodeParams(wsUri, connectParams);
 			synchronized(this) {
-				wsConnection = new WsClient(URI.create(wsUri));
+				wsConnection = new WsClient(URI.create(wsUri), createDraft(params.options));
 				if(isTls) {
 					SSLContext sslContext = SSLContext.getInstance("TLS");
 					sslContext.init( null, null, null );
@@ -88,46 +90,63 @@ public class WebSocketTransport implements ITransport {
 
 	@Override
 	public void close(boolean sendClose) {
+		WsClient client;
 		synchronized(this) {
-			if(wsConnection != null) {
-				if(sendClose) {
-					try {
-						send(new ProtocolMessage(Action.close));
-					} catch (AblyException e) {
-						Log.e(TAG, "Unexpected exception sending close", e);
-					}
+			client = wsConnection;
+			if(client == null)
+				return;
+			if(sendClose) {
+				try {
+					send(new ProtocolMessage(Action.close));
+				} catch (AblyException e) {
+					Log.e(TAG, "Unexpected exception sending close", e);
 				}
-				wsConnection.close();
-				wsConnection = null;
 			}
+			wsConnection = null;
 		}
+		closeWsConnection(client);
 	}
 
 	@Override
 	public void abort(ErrorInfo reason) {
+		WsClient client;
 		synchronized(this) {
-			if(wsConnection != null) {
-				wsConnection.close();
-				wsConnection = null;
-			}
+			client = wsConnection;
+			wsConnection = null;
 		}
+		if(client != null)
+			closeWsConnection(client);
 		connectionManager.notifyState(this, new StateIndication(ConnectionState.failed, reason));
 	}
 
+	/**
+	 * Close the websocket; if the opening handshake has not completed,
+	 * the socket is closed immediately, since there can be no closing
+	 * handshake. Called without the lock held, since that calls onClose(),
+	 * which notifies the ConnectionManager, whose lock is taken first by
+	 * callers that close a transport.
+	 */
+	private static void closeWsConnection(WsClient client) {
+		if(client.getReadyState() == WebSocket.READYSTATE.OPEN)
+			client.close();
+		else
+			client.getConnection().closeConnection(CloseFrame.NEVER_CONNECTED, "Connection aborted");
+	}
+
 	@Override
 	public void send(ProtocolMessage msg) throws AblyException {
 		try {
 			if(channelBinaryMode) {
-				byte[] encodedMsg = ProtocolSerializer.writeMsgpack(msg);
-				if (Log.level <= Log.VERBOSE) {
-					ProtocolMessage decodedMsg = ProtocolSerializer.readMsgpack(encodedMsg);
-					Log.v(TAG, "send(): " + decodedMsg.action + ": " + new String(ProtocolSerializer.writeJSON(decodedMsg)));
-				}
+				/* the encoded message is in a buffer that is reused by this thread, but
+				 * the websocket library copies it into a frame before returning */
+				ByteBuffer encodedMsg = ProtocolSerializer.writeMsgpackToBuffer(msg);
+				/* the message is only rendered as JSON if verbose logging is enabled */
+				Log.v(TAG, "send(): {}: {}", msg.action, msg);
 				wsConnection.send(encodedMsg);
 			} else {
-				if (Log.level <= Log.VERBOSE)
-					Log.v(TAG, "send(): " + new String(ProtocolSerializer.writeJSON(msg)));
-				wsConnection.send(ProtocolSerializer.writeJSON(msg));
+				byte[] encodedMsg = ProtocolSerializer.writeJSON(msg);
+				Log.v(TAG, "send(): {}: {}", msg.action, msg);
+				wsConnection.send(encodedMsg);
 			}
 		} catch (Exception e) {
 			throw AblyException.fromThrowable(e);
@@ -139,14 +158,22 @@ public class WebSocketTransport implements ITransport {
 		return params.host;
 	}
 
+	/**
+	 * Create the websocket draft for a connection; this
+	 * negotiates compression if enabled in the client options.
+	 */
+	static Draft createDraft(ClientOptions options) {
+		return (options.compression != null) ? new PerMessageDeflateDraft(options.compression) : new Draft_17();
+	}
+
 	/**************************
 	 * WebSocketHandler methods
 	 **************************/
 
 	class WsClient extends WebSocketClient {
 
-		public WsClient(URI serverUri) {
-			super(serverUri);
+		public WsClient(URI serverUri, Draft draft) {
+			super(serverUri, draft);
 		}
 
 		@Override
@@ -161,7 +188,7 @@ public class WebSocketTransport implements ITransport {
 		@Override
 		public void onMessage(ByteBuffer blob) {
 			try {
-				connectionManager.onMessage(WebSocketTransport.this, ProtocolSerializer.readMsgpack(blob.array()));
+				connectionManager.onMessage(WebSocketTransport.this, ProtocolSerializer.readMsgpack(blob));
 			} catch (AblyException e) {
 				String msg = "Unexpected exception processing received binary message";
 				Log.e(TAG, msg, e);
@@ -191,50 +218,10 @@ public class WebSocketTransport implements ITransport {
 		@Override
 		public void onClose(int wsCode, String wsReason, boolean remote) {
 			flagActivity();
-			ConnectionState newState;
-			ErrorInfo reason;
-			switch(wsCode) {
-			case NEVER_CONNECTED:
-				newState = ConnectionState.disconnected;
-				reason = ConnectionManager.REASON_NEVER_CONNECTED;
-				break;
-			case CLOSE_NORMAL:
-			case BUGGYCLOSE:
-			case GOING_AWAY:
-			case ABNORMAL_CLOSE:
-				/* we don't know the specific reason that the connection closed in these cases,
-				 * but we have to assume it's a problem with connectivity rather than some other
-				 * application problem */
-				newState = ConnectionState.disconnected;
-				reason = ConnectionManager.REASON_DISCONNECTED;
-				break;
-			case REFUSE:
-			case POLICY_VALIDATION:
-				newState = ConnectionState.failed;
-				reason = ConnectionManager.REASON_REFUSED;
-				break;
-			case TOOBIG:
-				newState = ConnectionState.failed;
-				reason = ConnectionManager.REASON_TOO_BIG;
-				break;
-			case NO_UTF8:
-			case CLOSE_PROTOCOL_ERROR:
-			case UNEXPECTED_CONDITION:
-			case EXTENSION:
-			case TLS_ERROR:
-			default:
-				/* we don't know the specific reason that the connection closed in these cases,
-				 * but we have to assume it's an application problem, and the problem will
-				 * recur if we try again. The failed state means that we won't automatically
-				 * try again. */
-				newState = ConnectionState.failed;
-				reason = ConnectionManager.REASON_FAILED;
-				break;
-			}
 			synchronized(WebSocketTransport.this) {
 				wsConnection = null;
 			}
-			connectionManager.notifyState(WebSocketTransport.this, new StateIndication(newState, reason));
+			connectionManager.notifyState(WebSocketTransport.this, closeStateIndication(wsCode));
 			dispose();
 		}
 
@@ -250,16 +237,19 @@ public class WebSocketTransport implements ITransport {
 
 		private void dispose() {
 			/* dispose timer */
-			if(timer != null) {
-				timer.cancel();
-				timer = null;
+			synchronized(this) {
+				disposed = true;
+				if(activityTimeout != null) {
+					activityTimeout.cancel();
+					activityTimeout = null;
+				}
 			}
 		}
 
 		private void flagActivity() {
 			lastActivityTime = System.currentTimeMillis();
 			connectionManager.setLastActivity(lastActivityTime);
-			if (timer == null && connectionManager.maxIdleInterval != 0) {
+			if (activityTimeout == null && connectionManager.maxIdleInterval != 0) {
 				/* No timer currently running because previously there was no
 				 * maxIdleInterval configured, but now there is a
 				 * maxIdleInterval configured.  Call checkActivity so a timer
@@ -274,7 +264,6 @@ public class WebSocketTransport implements ITransport {
 			long timeout = connectionManager.maxIdleInterval;
 			if (timeout == 0) {
 				Log.v(TAG, "checkActivity: infinite timeout");
-				timer = null;
 				return;
 			}
 			timeout += connectionManager.ably.options.realtimeRequestTimeout;
@@ -285,16 +274,12 @@ public class WebSocketTransport implements ITransport {
 				 * of inactivity.  Schedule a new timer for that long after the
 				 * last activity time. */
 				Log.v(TAG, "checkActivity: ok");
-				if (timer == null) {
-					synchronized(this) {
-						if (timer == null)
-							timer = new Timer();
-					}
-				}
-				try {
-					timer.schedule(new WsClientTimerTask(this), next - now);
-				} catch(IllegalStateException ise) {
-					Log.e(TAG, "Unexpected exception scheduling activity timer", ise);
+				synchronized(this) {
+					if (disposed)
+						return;
+					if (activityTimeout != null)
+						activityTimeout.cancel();
+					activityTimeout = connectionManager.getScheduler().schedule(activityTask, next - now);
 				}
 			} else {
 				/* Timeout has been reached. Close the connection. */
@@ -303,34 +288,77 @@ public class WebSocketTransport implements ITransport {
 			}
 		}
 
-		/* The TimerTask used to implement disconnection if no activity (inc
+		/* The task used to implement disconnection if no activity (inc
 		 * pings) is seen within a certain time.
 		 */
-		class WsClientTimerTask extends TimerTask {
-			private final WsClient client;
-
-			public WsClientTimerTask(WsClient client) {
-				this.client = client;
-			}
-
+		private final Runnable activityTask = new Runnable() {
 			public void run() {
 				try {
-					client.checkActivity();
+					checkActivity();
 				} catch(Throwable t) {
 					Log.e(TAG, "Unexpected exception in activity timer handler", t);
 				}
 			}
-		}
+		};
 
 		/***************************
 		 * WsClient private members
 		 ***************************/
 
-		private Timer timer;
+		private Scheduler.Timeout activityTimeout;
+		private boolean disposed;
 		private long lastActivityTime;
 
 	}
 
+	/**
+	 * Determine the connection state change to indicate when a
+	 * websocket connection is closed with the given close code.
+	 */
+	static StateIndication closeStateIndication(int wsCode) {
+		ConnectionState newState;
+		ErrorInfo reason;
+		switch(wsCode) {
+		case NEVER_CONNECTED:
+			newState = ConnectionState.disconnected;
+			reason = ConnectionManager.REASON_NEVER_CONNECTED;
+			break;
+		case CLOSE_NORMAL:
+		case BUGGYCLOSE:
+		case GOING_AWAY:
+		case ABNORMAL_CLOSE:
+			/* we don't know the specific reason that the connection closed in these cases,
+			 * but we have to assume it's a problem with connectivity rather than some other
+			 * application problem */
+			newState = ConnectionState.disconnected;
+			reason = ConnectionManager.REASON_DISCONNECTED;
+			break;
+		case REFUSE:
+		case POLICY_VALIDATION:
+			newState = ConnectionState.failed;
+			reason = ConnectionManager.REASON_REFUSED;
+			break;
+		case TOOBIG:
+			newState = ConnectionState.failed;
+			reason = ConnectionManager.REASON_TOO_BIG;
+			break;
+		case NO_UTF8:
+		case CLOSE_PROTOCOL_ERROR:
+		case UNEXPECTED_CONDITION:
+		case EXTENSION:
+		case TLS_ERROR:
+		default:
+			/* we don't know the specific reason that the connection closed in these cases,
+			 * but we have to assume it's an application problem, and the problem will
+			 * recur if we try again. The failed state means that we won't automatically
+			 * try again. */
+			newState = ConnectionState.failed;
+			reason = ConnectionManager.REASON_FAILED;
+			break;
+		}
+		return new StateIndication(newState, reason);
+	}
+
 	public String toString() {
 		return WebSocketTransport.class.getName() + " [" + getURL() + "]";
 	}
@@ -3,8 +3,8 @@ package io.ably.lib.types;
 import java.io.IOException;
 import java.io.UnsupportedEncodingException;
 import java.lang.reflect.Type;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
 
 import org.msgpack.core.MessageFormat;
 import org.msgpack.core.MessagePacker;
@@ -12,8 +12,10 @@ import org.msgpack.core.MessageUnpacker;
 
 import com.google.gson.JsonElement;
 import com.google.gson.JsonObject;
-import com.google.gson.JsonParseException;
 import com.google.gson.JsonSerializationContext;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
 
 import io.ably.lib.util.Base64Coder;
 import io.ably.lib.util.Crypto.ChannelCipher;
@@ -69,88 +71,60 @@ public class BaseMessage implements Cloneable {
 	}
 
 	public void decode(ChannelOptions opts) throws MessageDecodeException {
-		if(encoding != null) {
-			String[] xforms = encoding.split("\\/");
-			int i = 0, j = xforms.length;
-			try {
-				while((i = j) > 0) {
-					Matcher match = xformPattern.matcher(xforms[--j]);
-					if(!match.matches()) break;
-					switch(match.group(1)) {
-						case "base64":
-							try {
-								data = Base64Coder.decode((String) data);
-							} catch (IllegalArgumentException e) {
-								throw MessageDecodeException.fromDescription("Invalid base64 data received");
-							}
-							continue;
-
-						case "utf-8":
-							String jsonText2 = ((String)data).trim();
-							data = jsonText2;
-
-							continue;
-
-						case "json":
-							try {
-								String jsonText = ((String)data).trim();
-								data = Serialisation.gsonParser.parse(jsonText);
-							} catch(JsonParseException e) {
-								throw MessageDecodeException.fromDescription("Invalid JSON data received");
-							}
-							continue;
-
-						case "cipher":
-							if(opts != null && opts.encrypted) {
-								try {
-									data = opts.getCipher().decrypt((byte[]) data);
-								} catch(AblyException e) {
-									throw MessageDecodeException.fromDescription(e.errorInfo.message);
-								}
-								continue;
-							}
-							else {
-								throw MessageDecodeException.fromDescription("Encrypted message received but encryption is not set up");
-							}
-					}
-					break;
-				}
-			} finally {
-				encoding = (i <= 0) ? null : join(xforms, '/', 0, i);
-			}
+		/* binary data is read from msgpack as a view of the received buffer;
+		 * it is only left that way if requested, and there is nothing to decode */
+		if(data instanceof ByteBuffer && (encoding != null || opts == null || !opts.binaryDataAsByteBuffer)) {
+			ByteBuffer dataBuffer = (ByteBuffer)data;
+			byte[] byteData = new byte[dataBuffer.remaining()];
+			dataBuffer.duplicate().get(byteData);
+			data = byteData;
 		}
+		if(encoding != null)
+			EncodingPipeline.get(encoding).decode(this, opts);
 	}
 
 	public void encode(ChannelOptions opts) throws AblyException {
+		int transforms = 0;
 		if(data != null) {
 			if(data instanceof JsonElement) {
 				data = Serialisation.gson.toJson((JsonElement)data);
-				encoding = ((encoding == null) ? "" : encoding + "/") + "json";
+				transforms |= EncodingPipeline.JSON;
 			}
 			if(data instanceof String) {
 				if (opts != null && opts.encrypted) {
 					try { data = ((String)data).getBytes("UTF-8"); } catch(UnsupportedEncodingException e) {}
-					encoding = ((encoding == null) ? "" : encoding + "/") + "utf-8";
+					transforms |= EncodingPipeline.UTF8;
 				}
 			} else if(!(data instanceof byte[])) {
 				Log.d(TAG, "Message data must be either `byte[]`, `String` or `JSONElement`; implicit coercion of other types to String is deprecated");
 				throw AblyException.fromErrorInfo(new ErrorInfo("Invalid message data or encoding", 400, 40013));
 			}
+			if(opts != null && opts.codecs != null) {
+				for(PayloadCodec codec : opts.codecs) {
+					byte[] encoded = codec.encode((data instanceof String) ? ((String)data).getBytes(UTF8) : (byte[])data);
+					if(encoded == null)
+						continue;
+					if(data instanceof String)
+						transforms |= EncodingPipeline.UTF8;
+					/* the transforms so far precede the codec in the encoding */
+					if(transforms != 0) {
+						encoding = EncodingPipeline.get(encoding).encoded(transforms, null);
+						transforms = 0;
+					}
+					encoding = EncodingPipeline.get(encoding).appended(codec.getName());
+					data = encoded;
+				}
+			}
 		}
+		String cipherAlgorithm = null;
 		if (opts != null && opts.encrypted) {
 			ChannelCipher cipher = opts.getCipher();
 			data = cipher.encrypt((byte[]) data);
-			encoding = ((encoding == null) ? "" : encoding + "/") + "cipher+" + cipher.getAlgorithm();
+			cipherAlgorithm = cipher.getAlgorithm();
+			transforms |= EncodingPipeline.CIPHER;
 		}
-	}
-
-	/* trivial utilities for processing encoding string */
-	private static Pattern xformPattern = Pattern.compile("([\\-\\w]+)(\\+([\\-\\w]+))?");
-	private String join(String[] elements, char separator, int start, int end) {
-		StringBuilder result = new StringBuilder(elements[start++]);
-		for(int i = start; i < end; i++)
-			result.append(separator).append(elements[i]);
-		return result.toString();
+		if(transforms != 0)
+			encoding = EncodingPipeline.get(encoding).encoded(transforms, cipherAlgorithm);
 	}
 
 	/* Gson Serializer */
@@ -162,8 +136,8 @@ public class BaseMessage implements Cloneable {
 			if(data != null) {
 				if(data instanceof byte[]) {
 					byte[] dataBytes = (byte[])data;
-					json.addProperty("data", new String(Base64Coder.encode(dataBytes)));
-					encoding = (encoding == null) ? "base64" : encoding + "/base64";
+					json.addProperty("data", Base64Coder.encodeToString(dataBytes));
+					encoding = EncodingPipeline.get(encoding).encoded(EncodingPipeline.BASE64, null);
 				} else {
 					json.addProperty("data", data.toString());
 				}
@@ -176,25 +150,89 @@ public class BaseMessage implements Cloneable {
 		}
 	}
 
-	/* Msgpack processing */
-	boolean readField(MessageUnpacker unpacker, String fieldName, MessageFormat fieldType) throws IOException {
+	/* JSON processing */
+	/**
+	 * Read the value of a field from a JSON stream
+	 * @return false if the field is not one of those of BaseMessage
+	 */
+	boolean readField(JsonReader reader, String fieldName) throws IOException {
 		boolean result = true;
 		switch (fieldName) {
 			case "timestamp":
-				timestamp = unpacker.unpackLong(); break;
+				timestamp = reader.nextLong(); break;
 			case "id":
-				id = unpacker.unpackString(); break;
+				id = reader.nextString(); break;
 			case "clientId":
-				clientId = unpacker.unpackString(); break;
+				clientId = reader.nextString(); break;
 			case "connectionId":
-				connectionId = unpacker.unpackString(); break;
+				connectionId = reader.nextString(); break;
 			case "encoding":
-				encoding = unpacker.unpackString(); break;
+				encoding = reader.nextString(); break;
 			case "data":
+				if(reader.peek() == JsonToken.STRING) {
+					data = reader.nextString();
+				} else {
+					/* not sent by Ably, but read as it was by Gson */
+					data = Serialisation.gson.getAdapter(Object.class).read(reader);
+				}
+				break;
+			default:
+				result = false;
+				break;
+		}
+		return result;
+	}
+
+	/**
+	 * Write the fields to a JSON stream, with binary data base64-encoded
+	 */
+	void writeFields(JsonWriter writer) throws IOException {
+		Object data = this.data;
+		String encoding = this.encoding;
+		if(timestamp > 0) writer.name("timestamp").value(timestamp);
+		if(id != null) writer.name("id").value(id);
+		if(clientId != null) writer.name("clientId").value(clientId);
+		if(connectionId != null) writer.name("connectionId").value(connectionId);
+		if(data != null) {
+			if(data instanceof ByteBuffer) {
+				ByteBuffer dataBuffer = (ByteBuffer)data;
+				byte[] byteData = new byte[dataBuffer.remaining()];
+				dataBuffer.duplicate().get(byteData);
+				data = byteData;
+			}
+			if(data instanceof byte[]) {
+				writer.name("data").value(Base64Coder.encodeToString((byte[])data));
+				encoding = EncodingPipeline.get(encoding).encoded(EncodingPipeline.BASE64, null);
+			} else {
+				writer.name("data").value(data.toString());
+			}
+		}
+		if(encoding != null) writer.name("encoding").value(encoding);
+	}
+
+	/* Msgpack processing */
+	/**
+	 * Read the value of a field, identified by its index in FIELD_NAMES
+	 * @return false if the field is not one of those of BaseMessage
+	 */
+	boolean readField(MessageUnpacker unpacker, int field, MessageFormat fieldType) throws IOException {
+		boolean result = true;
+		switch (field) {
+			case TIMESTAMP:
+				timestamp = unpacker.unpackLong(); break;
+			case ID:
+				id = unpacker.unpackString(); break;
+			case CLIENT_ID:
+				clientId = unpacker.unpackString(); break;
+			case CONNECTION_ID:
+				connectionId = unpacker.unpackString(); break;
+			case ENCODING:
+				encoding = unpacker.unpackString(); break;
+			case DATA:
 				if(fieldType.getValueType().isBinaryType()) {
-					byte[] byteData = new byte[unpacker.unpackBinaryHeader()];
-					unpacker.readPayload(byteData);
-					data = byteData;
+					/* take a view of the payload in place; this is converted
+					 * to a byte[] in decode() unless the client asks otherwise */
+					data = unpacker.readPayloadAsReference(unpacker.unpackBinaryHeader()).sliceAsByteBuffer().asReadOnlyBuffer();
 				} else {
 					data = unpacker.unpackString();
 				}
@@ -207,39 +245,54 @@ public class BaseMessage implements Cloneable {
 	}
 
 	protected int countFields() {
-		int fieldCount = 0;
-		if(timestamp > 0) ++fieldCount;
-		if(id != null) ++fieldCount;
-		if(clientId != null) ++fieldCount;
-		if(connectionId != null) ++fieldCount;
-		if(encoding != null) ++fieldCount;
-		if(data != null) ++fieldCount;
-		return fieldCount;
+		return Integer.bitCount(fieldMask());
+	}
+
+	/**
+	 * Get a mask of the fields present, for msgpack encoding; subclasses
+	 * add their own fields using bits from SUBCLASS_FIELD upwards.
+	 */
+	int fieldMask() {
+		int fields = 0;
+		if(timestamp > 0) fields |= TIMESTAMP_FIELD;
+		if(id != null) fields |= ID_FIELD;
+		if(clientId != null) fields |= CLIENT_ID_FIELD;
+		if(connectionId != null) fields |= CONNECTION_ID_FIELD;
+		if(encoding != null) fields |= ENCODING_FIELD;
+		if(data != null) fields |= DATA_FIELD;
+		return fields;
 	}
 
 	void writeFields(MessagePacker packer) throws IOException {
-		if(timestamp > 0) {
-			packer.packString("timestamp");
+		writeFields(packer, fieldMask());
+	}
+
+	/**
+	 * Write the fields indicated by the given mask, from fieldMask()
+	 */
+	void writeFields(MessagePacker packer, int fields) throws IOException {
+		if((fields & TIMESTAMP_FIELD) != 0) {
+			packer.writePayload(TIMESTAMP_KEY);
 			packer.packLong(timestamp);
 		}
-		if(id != null) {
-			packer.packString("id");
+		if((fields & ID_FIELD) != 0) {
+			packer.writePayload(ID_KEY);
 			packer.packString(id);
 		}
-		if(clientId != null) {
-			packer.packString("clientId");
+		if((fields & CLIENT_ID_FIELD) != 0) {
+			packer.writePayload(CLIENT_ID_KEY);
 			packer.packString(clientId);
 		}
-		if(connectionId != null) {
-			packer.packString("connectionId");
+		if((fields & CONNECTION_ID_FIELD) != 0) {
+			packer.writePayload(CONNECTION_ID_KEY);
 			packer.packString(connectionId);
 		}
-		if(encoding != null) {
-			packer.packString("encoding");
+		if((fields & ENCODING_FIELD) != 0) {
+			packer.writePayload(ENCODING_KEY);
 			packer.packString(encoding);
 		}
-		if(data != null) {
-			packer.packString("data");
+		if((fields & DATA_FIELD) != 0) {
+			packer.writePayload(DATA_KEY);
 			if(data instanceof byte[]) {
 				byte[] byteData = (byte[])data;
 				packer.packBinaryHeader(byteData.length);
@@ -250,5 +303,38 @@ public class BaseMessage implements Cloneable {
 		}
 	}
 
+	/* bits for fieldMask() */
+	static final int TIMESTAMP_FIELD = 1;
+	static final int ID_FIELD = 1 << 1;
+	static final int CLIENT_ID_FIELD = 1 << 2;
+	static final int CONNECTION_ID_FIELD = 1 << 3;
+	static final int ENCODING_FIELD = 1 << 4;
+	static final int DATA_FIELD = 1 << 5;
+	static final int SUBCLASS_FIELD = 1 << 6;
+
+	/* field names, pre-encoded in msgpack format */
+	private static final byte[] TIMESTAMP_KEY = MsgpackEncoder.encodeKey("timestamp");
+	private static final byte[] ID_KEY = MsgpackEncoder.encodeKey("id");
+	private static final byte[] CLIENT_ID_KEY = MsgpackEncoder.encodeKey("clientId");
+	private static final byte[] CONNECTION_ID_KEY = MsgpackEncoder.encodeKey("connectionId");
+	private static final byte[] ENCODING_KEY = MsgpackEncoder.encodeKey("encoding");
+	private static final byte[] DATA_KEY = MsgpackEncoder.encodeKey("data");
+
 	private static final String TAG = BaseMessage.class.getName();
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	/* indices of the names in FIELD_NAMES */
+	private static final int TIMESTAMP = 0;
+	private static final int ID = 1;
+	private static final int CLIENT_ID = 2;
+	private static final int CONNECTION_ID = 3;
+	private static final int ENCODING = 4;
+	private static final int DATA = 5;
+
+	/**
+	 * The names of the fields read by readField(); subclasses
+	 * add their own, with indices from FIELD_NAMES.size()
+	 */
+	static final MsgpackFieldNames FIELD_NAMES = new MsgpackFieldNames(TAG,
+			"timestamp", "id", "clientId", "connectionId", "encoding", "data");
 }
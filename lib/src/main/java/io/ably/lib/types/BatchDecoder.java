@@ -0,0 +1,139 @@
+package io.ably.lib.types;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Decodes the messages of a batch, such as a page of history or the
+ * messages of a protocol message, in place. Batches of at least the
+ * threshold size are split across a ForkJoinPool, if one is given; see
+ * ClientOptions.decodePool. The order of the messages is unchanged, and
+ * they are all decoded when decode() returns.
+ *
+ * When decoding in parallel, any PayloadCodec configured for the channel
+ * is called concurrently from several threads.
+ */
+public class BatchDecoder {
+
+	/**
+	 * A decoder that decodes every batch on the calling thread
+	 */
+	public static final BatchDecoder SEQUENTIAL = new BatchDecoder(null, 0);
+
+	/**
+	 * Get the decoder for the given client options
+	 */
+	public static BatchDecoder get(ClientOptions options) {
+		if(options == null || options.decodePool == null)
+			return SEQUENTIAL;
+		return new BatchDecoder(options.decodePool, options.parallelDecodeThreshold);
+	}
+
+	/**
+	 * @param pool the pool in which to decode batches in parallel, or null
+	 * @param threshold the number of messages to decode, below which a batch is decoded sequentially
+	 */
+	public BatchDecoder(ForkJoinPool pool, int threshold) {
+		this.pool = pool;
+		this.threshold = Math.max(threshold, 1);
+	}
+
+	/**
+	 * Decode messages
+	 * @param messages the messages
+	 * @param selected if not null, only the messages for which this is true are decoded
+	 * @param opts the options of the channel
+	 * @return null if all messages were decoded; otherwise the exception for each
+	 * message, by index, that failed to decode
+	 */
+	public MessageDecodeException[] decode(BaseMessage[] messages, boolean[] selected, ChannelOptions opts) {
+		int count = messages.length;
+		if(selected != null) {
+			count = 0;
+			for(boolean s : selected)
+				if(s) ++count;
+		}
+		Batch batch = new Batch(messages, selected, opts);
+		if(pool == null || count < threshold) {
+			batch.decode(0, messages.length);
+		} else {
+			/* each task decodes a range of roughly equal numbers of messages,
+			 * several per worker so that the load is balanced */
+			int tasks = pool.getParallelism() * TASKS_PER_THREAD;
+			int leafSize = Math.max(messages.length / tasks, MIN_LEAF_SIZE);
+			pool.invoke(new DecodeTask(batch, 0, messages.length, leafSize));
+		}
+		return batch.errors;
+	}
+
+	/**
+	 * Internal: the state of a decode of a single batch
+	 */
+	private static class Batch {
+		Batch(BaseMessage[] messages, boolean[] selected, ChannelOptions opts) {
+			this.messages = messages;
+			this.selected = selected;
+			this.opts = opts;
+		}
+
+		void decode(int start, int end) {
+			for(int i = start; i < end; i++) {
+				if(selected != null && !selected[i])
+					continue;
+				try {
+					messages[i].decode(opts);
+				} catch(MessageDecodeException e) {
+					setError(i, e);
+				}
+			}
+		}
+
+		private synchronized void setError(int index, MessageDecodeException e) {
+			if(errors == null)
+				errors = new MessageDecodeException[messages.length];
+			errors[index] = e;
+		}
+
+		private final BaseMessage[] messages;
+		private final boolean[] selected;
+		private final ChannelOptions opts;
+		/* written under the lock; read once all tasks have completed */
+		private MessageDecodeException[] errors;
+	}
+
+	/**
+	 * Internal: a task that decodes a range of a batch, splitting it
+	 * in two until it is no larger than the leaf size
+	 */
+	private static class DecodeTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+
+		DecodeTask(Batch batch, int start, int end, int leafSize) {
+			this.batch = batch;
+			this.start = start;
+			this.end = end;
+			this.leafSize = leafSize;
+		}
+
+		@Override
+		protected void compute() {
+			if(end - start <= leafSize) {
+				batch.decode(start, end);
+				return;
+			}
+			int middle = (start + end) >>> 1;
+			invokeAll(new DecodeTask(batch, start, middle, leafSize), new DecodeTask(batch, middle, end, leafSize));
+		}
+
+		private final Batch batch;
+		private final int start;
+		private final int end;
+		private final int leafSize;
+	}
+
+	private static final int TASKS_PER_THREAD = 4;
+	private static final int MIN_LEAF_SIZE = 8;
+
+	private final ForkJoinPool pool;
+	private final int threshold;
+}
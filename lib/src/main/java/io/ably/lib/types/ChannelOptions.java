@@ -8,12 +8,56 @@ public class ChannelOptions {
 	public boolean encrypted;
 	public Object cipherParams;
 
+	/**
+	 * If true, binary message data that has no further encoding to undo
+	 * is delivered as a read-only ByteBuffer that is a view of the received
+	 * frame, instead of being copied into a byte[].
+	 */
+	public boolean binaryDataAsByteBuffer;
+
+	/**
+	 * Payload codecs, such as {@link io.ably.lib.util.DeflateCodec}, applied in
+	 * order to the data of messages published on the channel, and used to
+	 * decode messages received with their names in the encoding. Messages
+	 * encoded with "deflate" are decoded whether or not it is included here.
+	 */
+	public PayloadCodec[] codecs;
+
+	/**
+	 * Get the configured codec with the given name
+	 * @return the codec, or null if none is configured with that name
+	 */
+	public PayloadCodec getCodec(String name) {
+		if(codecs != null)
+			for(PayloadCodec codec : codecs)
+				if(name.equals(codec.getName()))
+					return codec;
+		return null;
+	}
+
 	public ChannelCipher getCipher() throws AblyException {
 		if(!encrypted) return null;
 		if(cipher != null) return cipher;
 		return (cipher = Crypto.getCipher(this));
 	}
 
+	/**
+	 * Get a cipher for the given algorithm, such as "aes-128-gcm", with the
+	 * key of this channel; this is the channel's cipher unless the algorithm
+	 * names a different mode, so that messages encrypted in any supported
+	 * mode are decrypted.
+	 * @param algorithm the algorithm in the message encoding, or null
+	 */
+	public ChannelCipher getCipher(String algorithm) throws AblyException {
+		ChannelCipher cipher = getCipher();
+		if(cipher == null || algorithm == null || algorithm.equalsIgnoreCase(cipher.getAlgorithm()))
+			return cipher;
+		ChannelCipher other = otherCipher;
+		if(other == null || !algorithm.equalsIgnoreCase(other.getAlgorithm()))
+			otherCipher = other = Crypto.getCipher(this, algorithm);
+		return other;
+	}
+
 	public static ChannelOptions fromCipherKey(byte[] key) throws AblyException {
 		ChannelOptions options = new ChannelOptions();
 		options.encrypted = true;
@@ -27,4 +71,6 @@ public class ChannelOptions {
 	}
 
 	private ChannelCipher cipher;
+	/* the cipher most recently used for a mode other than that of the channel */
+	private volatile ChannelCipher otherCipher;
 }
@@ -5,8 +5,11 @@ import io.ably.lib.rest.Auth.TokenParams;
 import io.ably.lib.transport.Defaults;
 import io.ably.lib.util.Log;
 import io.ably.lib.util.Log.LogHandler;
+import io.ably.lib.util.Scheduler;
 
 import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
 
 /**
  * Options: Ably library options for REST and Realtime APIs
@@ -179,4 +182,84 @@ public class ClientOptions extends AuthOptions {
 	 * Allows the caller to specify a non-default size for the asyncHttp threadpool
 	 */
 	public int asyncHttpThreadpoolSize = Defaults.HTTP_ASYNC_THREADPOOL_SIZE;
+
+	/**
+	 * The scheduler used for connection and channel timeouts. If not set,
+	 * a timer shared by all clients in the JVM is used.
+	 */
+	public Scheduler scheduler;
+
+	/**
+	 * If set, permessage-deflate compression is requested for realtime
+	 * connections, with the given parameters. Compression is only used
+	 * if the server accepts it.
+	 */
+	public CompressionOptions compression;
+
+	/**
+	 * If greater than zero, messages published on a channel while connected are
+	 * held for up to this many milliseconds so that messages published in quick
+	 * succession on the same channel can be sent together as a single protocol
+	 * message. The listener for each publish is still called individually when
+	 * the combined message is acknowledged. Messages are never reordered; any
+	 * other message sent by the connection causes held messages to be sent first.
+	 */
+	public long publishCoalesceInterval;
+
+	/**
+	 * When publishCoalesceInterval is set, the maximum combined size, in bytes,
+	 * of the messages held for sending together; when this is reached they are
+	 * sent immediately. The maxMessageSize and maxFrameSize limits indicated by the
+	 * server for the connection are also respected.
+	 */
+	public int publishCoalesceMaxSize = Defaults.PUBLISH_COALESCE_MAX_SIZE;
+
+	/**
+	 * If greater than zero, a new realtime connection is raced across hosts: if
+	 * the connection to the primary host is not established within this many
+	 * milliseconds, an attempt is started with the next fallback host while the
+	 * first continues, and so on, up to connectRaceMaxAttempts concurrent attempts.
+	 * The first attempt to connect is used and the others are closed.
+	 * Attempts to resume or recover a connection are not raced.
+	 */
+	public long connectRaceDelay;
+
+	/**
+	 * The maximum number of concurrent connection attempts when connectRaceDelay is set.
+	 */
+	public int connectRaceMaxAttempts = Defaults.CONNECT_RACE_MAX_ATTEMPTS;
+
+	/**
+	 * Fallback hosts are ordered according to the latency and failures
+	 * seen with each host by this client's REST requests and realtime
+	 * connection attempts. If true, these are instead shared by all clients
+	 * in the JVM that also set this option.
+	 */
+	public boolean shareHostScores;
+
+	/**
+	 * If set, batches of received messages, such as pages of history and
+	 * the messages and presence of each protocol message, are decoded and
+	 * decrypted in parallel in this pool when they contain at least
+	 * parallelDecodeThreshold messages to decode. The order in which
+	 * messages are delivered is unchanged.
+	 */
+	public ForkJoinPool decodePool;
+
+	/**
+	 * The number of messages in a batch below which it is decoded on
+	 * the receiving thread; see decodePool.
+	 */
+	public int parallelDecodeThreshold = Defaults.PARALLEL_DECODE_THRESHOLD;
+
+	/**
+	 * If set, the messages, presence and sync messages received on each
+	 * realtime channel are decoded and delivered to listeners by tasks run
+	 * on this executor, rather than on the connection's thread. The messages
+	 * of each channel are delivered in order, one at a time; those of
+	 * different channels may be delivered in parallel. Changes of a channel's
+	 * state, whether received on the channel or caused by the connection,
+	 * are handled in order with its messages.
+	 */
+	public Executor dispatchExecutor;
 }
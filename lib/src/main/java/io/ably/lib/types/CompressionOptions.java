@@ -0,0 +1,44 @@
+package io.ably.lib.types;
+
+import java.util.zip.Deflater;
+
+/**
+ * Options for permessage-deflate compression (RFC 7692) of realtime
+ * websocket connections; see {@link ClientOptions#compression}.
+ *
+ * Compression of messages sent by the client always uses a 15-bit window,
+ * as this is the only window size supported by java.util.zip.
+ */
+public class CompressionOptions {
+
+	/**
+	 * The deflate compression level for messages sent by the
+	 * client, from 0 (none) to 9 (best); -1 selects the default.
+	 */
+	public int level = Deflater.DEFAULT_COMPRESSION;
+
+	/**
+	 * The LZ77 window size, as a base-2 logarithm from 8 to 15, requested
+	 * for messages sent by the server. Smaller windows reduce memory use
+	 * on both ends of the connection, at some cost in compression ratio.
+	 */
+	public int serverMaxWindowBits = 15;
+
+	/**
+	 * If true, request that the server compresses each message independently
+	 * instead of referring to data in previous messages.
+	 */
+	public boolean serverNoContextTakeover;
+
+	/**
+	 * If true, the client compresses each message independently
+	 * instead of referring to data in previous messages.
+	 */
+	public boolean clientNoContextTakeover;
+
+	/**
+	 * Messages sent by the client that are smaller than this
+	 * number of bytes are sent uncompressed.
+	 */
+	public int threshold = 64;
+}
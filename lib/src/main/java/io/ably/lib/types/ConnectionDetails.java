@@ -8,6 +8,10 @@ import io.ably.lib.util.Log;
 import org.msgpack.core.MessageFormat;
 import org.msgpack.core.MessageUnpacker;
 
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+
 public class ConnectionDetails {
 	public String clientId;
 	public String connectionKey;
@@ -26,37 +30,36 @@ public class ConnectionDetails {
 	ConnectionDetails readMsgpack(MessageUnpacker unpacker) throws IOException {
 		int fieldCount = unpacker.unpackMapHeader();
 		for(int i = 0; i < fieldCount; i++) {
-			String fieldName = unpacker.unpackString().intern();
+			int field = FIELD_NAMES.read(unpacker);
 			MessageFormat fieldFormat = unpacker.getNextFormat();
 			if(fieldFormat.equals(MessageFormat.NIL)) { unpacker.unpackNil(); continue; }
 
-			switch(fieldName) {
-				case "clientId":
+			switch(field) {
+				case CLIENT_ID:
 					clientId = unpacker.unpackString();
 					break;
-				case "connectionKey":
+				case CONNECTION_KEY:
 					connectionKey = unpacker.unpackString();
 					break;
-				case "serverId":
+				case SERVER_ID:
 					serverId = unpacker.unpackString();
 					break;
-				case "maxMessageSize":
+				case MAX_MESSAGE_SIZE:
 					maxMessageSize = unpacker.unpackLong();
 					break;
-				case "maxInboundRate":
+				case MAX_INBOUND_RATE:
 					maxInboundRate = unpacker.unpackLong();
 					break;
-				case "maxFrameSize":
+				case MAX_FRAME_SIZE:
 					maxFrameSize = unpacker.unpackLong();
 					break;
-				case "maxIdleInterval":
+				case MAX_IDLE_INTERVAL:
 					maxIdleInterval = unpacker.unpackLong();
 					break;
-				case "connectionStateTtl":
+				case CONNECTION_STATE_TTL:
 					connectionStateTtl = unpacker.unpackLong();
 					break;
 				default:
-					Log.v(TAG, "Unexpected field: " + fieldName);
 					unpacker.skipValue();
 			}
 		}
@@ -67,5 +70,75 @@ public class ConnectionDetails {
 		return (new ConnectionDetails()).readMsgpack(unpacker);
 	}
 
+	ConnectionDetails readJSON(JsonReader reader) throws IOException {
+		reader.beginObject();
+		while(reader.hasNext()) {
+			String fieldName = reader.nextName();
+			if(reader.peek() == JsonToken.NULL) { reader.nextNull(); continue; }
+
+			switch(fieldName) {
+				case "clientId":
+					clientId = reader.nextString();
+					break;
+				case "connectionKey":
+					connectionKey = reader.nextString();
+					break;
+				case "serverId":
+					serverId = reader.nextString();
+					break;
+				case "maxMessageSize":
+					maxMessageSize = reader.nextLong();
+					break;
+				case "maxInboundRate":
+					maxInboundRate = reader.nextLong();
+					break;
+				case "maxFrameSize":
+					maxFrameSize = reader.nextLong();
+					break;
+				case "maxIdleInterval":
+					maxIdleInterval = reader.nextLong();
+					break;
+				case "connectionStateTtl":
+					connectionStateTtl = reader.nextLong();
+					break;
+				default:
+					Log.v(TAG, "Unexpected field: {}", fieldName);
+					reader.skipValue();
+			}
+		}
+		reader.endObject();
+		return this;
+	}
+
+	static ConnectionDetails fromJSON(JsonReader reader) throws IOException {
+		return (new ConnectionDetails()).readJSON(reader);
+	}
+
+	void writeJSON(JsonWriter writer) throws IOException {
+		writer.beginObject();
+		if(clientId != null) writer.name("clientId").value(clientId);
+		if(connectionKey != null) writer.name("connectionKey").value(connectionKey);
+		if(serverId != null) writer.name("serverId").value(serverId);
+		if(maxMessageSize != null) writer.name("maxMessageSize").value(maxMessageSize);
+		if(maxInboundRate != null) writer.name("maxInboundRate").value(maxInboundRate);
+		if(maxFrameSize != null) writer.name("maxFrameSize").value(maxFrameSize);
+		if(maxIdleInterval != null) writer.name("maxIdleInterval").value(maxIdleInterval);
+		if(connectionStateTtl != null) writer.name("connectionStateTtl").value(connectionStateTtl);
+		writer.endObject();
+	}
+
 	private static final String TAG = ConnectionDetails.class.getName();
+
+	/* field names, matched when decoding msgpack */
+	private static final MsgpackFieldNames FIELD_NAMES = new MsgpackFieldNames(TAG,
+			"clientId", "connectionKey", "serverId", "maxMessageSize",
+			"maxInboundRate", "maxFrameSize", "maxIdleInterval", "connectionStateTtl");
+	private static final int CLIENT_ID = 0;
+	private static final int CONNECTION_KEY = 1;
+	private static final int SERVER_ID = 2;
+	private static final int MAX_MESSAGE_SIZE = 3;
+	private static final int MAX_INBOUND_RATE = 4;
+	private static final int MAX_FRAME_SIZE = 5;
+	private static final int MAX_IDLE_INTERVAL = 6;
+	private static final int CONNECTION_STATE_TTL = 7;
 }
@@ -0,0 +1,297 @@
+package io.ably.lib.types;
+
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.google.gson.JsonParseException;
+
+import io.ably.lib.util.Base64Coder;
+import io.ably.lib.util.DeflateCodec;
+import io.ably.lib.util.Serialisation;
+
+/**
+ * The transforms of a message encoding string, such as
+ * "json/utf-8/cipher+aes-128-cbc/base64", parsed once and cached,
+ * so that decoding a message runs the prebuilt sequence of steps
+ * without parsing the string, and encoding a message appends to
+ * the string without concatenating it again.
+ *
+ * Transforms other than the built-in ones are decoded with the payload
+ * codec of that name, if there is one; see PayloadCodec.
+ *
+ * Pipelines are obtained with get(); the number cached is bounded,
+ * since encoding strings are received from the network.
+ */
+final class EncodingPipeline {
+
+	/* transforms applied when encoding, for encoded() */
+	static final int JSON = 1;
+	static final int UTF8 = 2;
+	static final int CIPHER = 4;
+	static final int BASE64 = 8;
+
+	/**
+	 * Get the pipeline for an encoding string, which may be null
+	 */
+	static EncodingPipeline get(String encoding) {
+		if(encoding == null)
+			return NONE;
+		EncodingPipeline pipeline = cache.get(encoding);
+		if(pipeline == null) {
+			pipeline = new EncodingPipeline(encoding);
+			if(cache.size() < MAX_CACHED) {
+				EncodingPipeline existing = cache.putIfAbsent(encoding, pipeline);
+				if(existing != null)
+					pipeline = existing;
+			}
+		}
+		return pipeline;
+	}
+
+	/**
+	 * Decode the message's data, in place, removing each transform decoded
+	 * from its encoding. Decoding stops at the first transform that is not
+	 * recognised, or has no codec; if a transform fails, it remains in the encoding.
+	 */
+	void decode(BaseMessage message, ChannelOptions opts) throws MessageDecodeException {
+		Object data = message.data;
+		int step = 0;
+		try {
+			for(; step < steps.length; step++) {
+				switch(steps[step]) {
+				case STEP_BASE64:
+					try {
+						data = Base64Coder.decode((String)data);
+					} catch(IllegalArgumentException e) {
+						throw MessageDecodeException.fromDescription("Invalid base64 data received");
+					}
+					break;
+				case STEP_UTF8:
+					data = (data instanceof byte[]) ? new String((byte[])data, UTF_8) : ((String)data).trim();
+					break;
+				case STEP_UTF8_JSON:
+					/* the text is parsed without trimming it first, since the
+					 * parser skips surrounding whitespace; if parsing fails, the
+					 * text is kept, as it would be after the utf-8 step alone */
+					if(data instanceof byte[])
+						data = new String((byte[])data, UTF_8);
+					/* fall through */
+				case STEP_JSON:
+					try {
+						data = Serialisation.gsonParser.parse((String)data);
+					} catch(JsonParseException e) {
+						throw MessageDecodeException.fromDescription("Invalid JSON data received");
+					}
+					break;
+				case STEP_CIPHER:
+					if(opts == null || !opts.encrypted)
+						throw MessageDecodeException.fromDescription("Encrypted message received but encryption is not set up");
+					try {
+						data = opts.getCipher(stepParams[step]).decrypt((byte[])data);
+					} catch(AblyException e) {
+						throw MessageDecodeException.fromDescription(e.errorInfo.message);
+					}
+					break;
+				case STEP_CODEC:
+					PayloadCodec codec = (opts == null) ? null : opts.getCodec(stepParams[step]);
+					if(codec == null)
+						codec = builtinCodecs[step];
+					if(codec == null)
+						return;
+					try {
+						data = codec.decode((byte[])data);
+					} catch(AblyException e) {
+						throw MessageDecodeException.fromDescription(e.errorInfo.message);
+					}
+					break;
+				}
+			}
+		} catch(ClassCastException e) {
+			throw MessageDecodeException.fromDescription("Invalid data received for encoding " + message.encoding);
+		} finally {
+			message.data = data;
+			message.encoding = remaining[step];
+		}
+	}
+
+	/**
+	 * The encoding string after appending the given transforms
+	 * @param transforms the transforms applied, any of JSON, UTF8, CIPHER and BASE64,
+	 * which are appended in that order
+	 * @param cipherAlgorithm the algorithm, if CIPHER is included
+	 */
+	String encoded(int transforms, String cipherAlgorithm) {
+		if((transforms & CIPHER) == 0) {
+			String result = encodings[transforms];
+			if(result == null)
+				encodings[transforms] = result = append(transforms, null);
+			return result;
+		}
+		CipherEncodings cipherEncodings = this.cipherEncodings;
+		if(cipherEncodings == null || !cipherEncodings.algorithm.equals(cipherAlgorithm))
+			this.cipherEncodings = cipherEncodings = new CipherEncodings(cipherAlgorithm);
+		int index = transforms & ~CIPHER;
+		String result = cipherEncodings.encodings[index];
+		if(result == null)
+			cipherEncodings.encodings[index] = result = append(transforms, cipherAlgorithm);
+		return result;
+	}
+
+	/**
+	 * The encoding string after appending a transform with the given name,
+	 * such as that of a PayloadCodec
+	 */
+	String appended(String name) {
+		Appended appended = this.appended;
+		if(appended == null || !appended.name.equals(name)) {
+			StringBuilder builder = new StringBuilder();
+			if(encoding != null)
+				builder.append(encoding);
+			this.appended = appended = new Appended(name, appendTransform(builder, name).toString());
+		}
+		return appended.encoding;
+	}
+
+	private String append(int transforms, String cipherAlgorithm) {
+		StringBuilder builder = new StringBuilder();
+		if(encoding != null)
+			builder.append(encoding);
+		if((transforms & JSON) != 0)
+			appendTransform(builder, "json");
+		if((transforms & UTF8) != 0)
+			appendTransform(builder, "utf-8");
+		if((transforms & CIPHER) != 0)
+			appendTransform(builder, "cipher+").append(cipherAlgorithm);
+		if((transforms & BASE64) != 0)
+			appendTransform(builder, "base64");
+		return builder.toString();
+	}
+
+	private static StringBuilder appendTransform(StringBuilder builder, String transform) {
+		if(builder.length() > 0)
+			builder.append('/');
+		return builder.append(transform);
+	}
+
+	/**
+	 * Parse an encoding string. Transforms are decoded from last to first;
+	 * for each step, remaining[] holds the encoding that is left if that
+	 * step fails, and its last element the encoding left once all steps
+	 * have succeeded.
+	 */
+	private EncodingPipeline(String encoding) {
+		this.encoding = encoding;
+		ArrayList<Integer> stepList = new ArrayList<Integer>();
+		ArrayList<String> remainingList = new ArrayList<String>();
+		ArrayList<String> paramList = new ArrayList<String>();
+		int end = (encoding == null) ? 0 : encoding.length();
+		while(end > 0) {
+			int start = encoding.lastIndexOf('/', end - 1) + 1;
+			int nameEnd = parseStep(encoding, start, end);
+			if(nameEnd < 0)
+				break;
+			String name = encoding.substring(start, nameEnd);
+			String param = (nameEnd < end) ? encoding.substring(nameEnd + 1, end) : null;
+			int step = STEP_CODEC;
+			for(int i = 0; i < STEP_NAMES.length; i++) {
+				if(STEP_NAMES[i].equals(name)) {
+					step = i;
+					break;
+				}
+			}
+			stepList.add(step);
+			paramList.add((step == STEP_CODEC) ? name : (step == STEP_CIPHER) ? param : null);
+			remainingList.add(encoding.substring(0, end));
+			end = start - 1;
+		}
+		remainingList.add((end > 0) ? encoding.substring(0, end) : null);
+
+		/* a json step directly following a utf-8 step is combined with it */
+		for(int i = 0; i + 1 < stepList.size(); i++) {
+			if(stepList.get(i) == STEP_UTF8 && stepList.get(i + 1) == STEP_JSON) {
+				stepList.set(i, STEP_UTF8_JSON);
+				stepList.remove(i + 1);
+				paramList.remove(i + 1);
+				/* on failure, the json transform remains */
+				remainingList.remove(i);
+			}
+		}
+		steps = new int[stepList.size()];
+		stepParams = paramList.toArray(new String[paramList.size()]);
+		builtinCodecs = new PayloadCodec[steps.length];
+		for(int i = 0; i < steps.length; i++) {
+			steps[i] = stepList.get(i);
+			if(steps[i] == STEP_CODEC && DeflateCodec.NAME.equals(stepParams[i]))
+				builtinCodecs[i] = DeflateCodec.DEFAULT;
+		}
+		remaining = remainingList.toArray(new String[remainingList.size()]);
+	}
+
+	/**
+	 * Parse a single transform, of the form name[+param], where the name
+	 * and parameter comprise letters, digits, '_' and '-'
+	 * @return the end of the name, or -1 if not valid
+	 */
+	private static int parseStep(String encoding, int start, int end) {
+		int nameEnd = encoding.indexOf('+', start);
+		if(nameEnd < 0 || nameEnd >= end)
+			nameEnd = end;
+		else if(!isValid(encoding, nameEnd + 1, end))
+			return -1;
+		if(!isValid(encoding, start, nameEnd))
+			return -1;
+		return nameEnd;
+	}
+
+	private static boolean isValid(String encoding, int start, int end) {
+		if(start == end)
+			return false;
+		for(int i = start; i < end; i++) {
+			char c = encoding.charAt(i);
+			if(!((c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9') || c == '_' || c == '-'))
+				return false;
+		}
+		return true;
+	}
+
+	private static class Appended {
+		Appended(String name, String encoding) { this.name = name; this.encoding = encoding; }
+		final String name;
+		final String encoding;
+	}
+
+	private static class CipherEncodings {
+		CipherEncodings(String algorithm) { this.algorithm = algorithm; }
+		final String algorithm;
+		final String[] encodings = new String[BASE64 << 1];
+	}
+
+	/* decode steps; the names are indexed by step */
+	private static final int STEP_BASE64 = 0;
+	private static final int STEP_UTF8 = 1;
+	private static final int STEP_JSON = 2;
+	private static final int STEP_CIPHER = 3;
+	private static final int STEP_UTF8_JSON = 4;
+	private static final int STEP_CODEC = 5;
+	private static final String[] STEP_NAMES = { "base64", "utf-8", "json", "cipher" };
+
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
+	private static final int MAX_CACHED = 64;
+	private static final ConcurrentHashMap<String, EncodingPipeline> cache = new ConcurrentHashMap<String, EncodingPipeline>();
+	private static final EncodingPipeline NONE = new EncodingPipeline(null);
+
+	private final String encoding;
+	private final int[] steps;
+	private final String[] remaining;
+	/* for each codec step, the name of the codec, and any built-in codec of that name;
+	 * for each cipher step, the cipher algorithm, such as "aes-128-cbc" */
+	private final String[] stepParams;
+	private final PayloadCodec[] builtinCodecs;
+
+	/* the results of encoded(); these are set without synchronization,
+	 * since any thread computes the same strings */
+	private final String[] encodings = new String[BASE64 << 1];
+	private volatile CipherEncodings cipherEncodings;
+	private volatile Appended appended;
+}
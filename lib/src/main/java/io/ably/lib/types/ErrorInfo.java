@@ -3,6 +3,10 @@ package io.ably.lib.types;
 import org.msgpack.core.MessageFormat;
 import org.msgpack.core.MessageUnpacker;
 
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+
 import io.ably.lib.util.Log;
 
 import java.io.IOException;
@@ -71,22 +75,21 @@ public class ErrorInfo {
 	ErrorInfo readMsgpack(MessageUnpacker unpacker) throws IOException {
 		int fieldCount = unpacker.unpackMapHeader();
 		for(int i = 0; i < fieldCount; i++) {
-			String fieldName = unpacker.unpackString().intern();
+			int field = FIELD_NAMES.read(unpacker);
 			MessageFormat fieldFormat = unpacker.getNextFormat();
 			if(fieldFormat.equals(MessageFormat.NIL)) { unpacker.unpackNil(); continue; }
 
-			switch(fieldName) {
-				case "message":
+			switch(field) {
+				case MESSAGE:
 					message = unpacker.unpackString();
 					break;
-				case "code":
+				case CODE:
 					code = unpacker.unpackInt();
 					break;
-				case "statusCode":
+				case STATUS_CODE:
 					statusCode = unpacker.unpackInt();
 					break;
 				default:
-					Log.v(TAG, "Unexpected field: " + fieldName);
 					unpacker.skipValue();
 			}
 		}
@@ -97,6 +100,43 @@ public class ErrorInfo {
 		return (new ErrorInfo()).readMsgpack(unpacker);
 	}
 
+	ErrorInfo readJSON(JsonReader reader) throws IOException {
+		reader.beginObject();
+		while(reader.hasNext()) {
+			String fieldName = reader.nextName();
+			if(reader.peek() == JsonToken.NULL) { reader.nextNull(); continue; }
+
+			switch(fieldName) {
+				case "message":
+					message = reader.nextString();
+					break;
+				case "code":
+					code = reader.nextInt();
+					break;
+				case "statusCode":
+					statusCode = reader.nextInt();
+					break;
+				default:
+					Log.v(TAG, "Unexpected field: {}", fieldName);
+					reader.skipValue();
+			}
+		}
+		reader.endObject();
+		return this;
+	}
+
+	static ErrorInfo fromJSON(JsonReader reader) throws IOException {
+		return (new ErrorInfo()).readJSON(reader);
+	}
+
+	void writeJSON(JsonWriter writer) throws IOException {
+		writer.beginObject();
+		if(message != null) writer.name("message").value(message);
+		if(code != 0) writer.name("code").value(code);
+		if(statusCode != 0) writer.name("statusCode").value(statusCode);
+		writer.endObject();
+	}
+
 	public static ErrorInfo fromThrowable(Throwable throwable) {
 		ErrorInfo errorInfo;
 		if(throwable instanceof UnknownHostException
@@ -118,4 +158,11 @@ public class ErrorInfo {
 	}
 
 	private static final String TAG = ErrorInfo.class.getName();
+
+	/* field names, matched when decoding msgpack */
+	private static final MsgpackFieldNames FIELD_NAMES = new MsgpackFieldNames(TAG,
+			"message", "code", "statusCode");
+	private static final int MESSAGE = 0;
+	private static final int CODE = 1;
+	private static final int STATUS_CODE = 2;
 }
\ No newline at end of file
@@ -0,0 +1,66 @@
+package io.ably.lib.types;
+
+/**
+ * Interfaces for demand-driven streams of items, with the same methods and
+ * rules as those of Reactive Streams, and of java.util.concurrent.Flow,
+ * which is not available on all the platforms that this library supports.
+ * A Publisher given by this library can be adapted to either of those
+ * by delegating each method to its counterpart.
+ *
+ * A Subscriber receives no more items than it has requested, so a consumer
+ * that cannot keep up controls the rate at which it is given items.
+ */
+public final class Flow {
+
+	/**
+	 * A source of items, given to each Subscriber that subscribes to it
+	 */
+	public interface Publisher<T> {
+		/**
+		 * Subscribe to the items of this publisher. The subscriber's
+		 * onSubscribe() is called with a Subscription, with which it
+		 * requests items; it is called with onError() if the items
+		 * cannot be given.
+		 */
+		void subscribe(Subscriber<? super T> subscriber);
+	}
+
+	/**
+	 * A receiver of items. Its methods are called one at a time, and
+	 * onNext() is called no more times than the number of items requested.
+	 */
+	public interface Subscriber<T> {
+		void onSubscribe(Subscription subscription);
+		void onNext(T item);
+		/**
+		 * Called when no more items will be given because of an error;
+		 * this is the last method called.
+		 */
+		void onError(Throwable throwable);
+		/**
+		 * Called when there are no more items; this is the last method called.
+		 */
+		void onComplete();
+	}
+
+	/**
+	 * The link between a Publisher and one of its Subscribers
+	 */
+	public interface Subscription {
+		/**
+		 * Request a number of further items; Long.MAX_VALUE requests
+		 * all items. A number that is not positive is an error, which
+		 * is signalled to the subscriber.
+		 */
+		void request(long n);
+		/**
+		 * Stop giving items to the subscriber, and release the resources
+		 * of the subscription. Items may be given to the subscriber after
+		 * this is called, but not once a call to it has returned on the
+		 * subscriber's own thread.
+		 */
+		void cancel();
+	}
+
+	private Flow() {}
+}
@@ -0,0 +1,69 @@
+package io.ably.lib.types;
+
+import java.io.Writer;
+
+/**
+ * A Writer that accumulates JSON text in a StringBuilder that is reused
+ * for successive messages. Unlike StringWriter it is not synchronized,
+ * which matters because JsonWriter writes each token separately.
+ * There is one instance per thread; see get().
+ */
+final class JsonTextWriter extends Writer {
+
+	/**
+	 * Get the writer for the calling thread, with no content
+	 */
+	static JsonTextWriter get() {
+		JsonTextWriter writer = writers.get();
+		/* don't retain a large buffer after writing a single large message */
+		if(writer.text.capacity() > MAX_RETAINED_SIZE)
+			writer.text = new StringBuilder(INITIAL_SIZE);
+		writer.text.setLength(0);
+		return writer;
+	}
+
+	private JsonTextWriter() {
+		text = new StringBuilder(INITIAL_SIZE);
+	}
+
+	/**
+	 * Get the text written
+	 */
+	@Override
+	public String toString() {
+		return text.toString();
+	}
+
+	@Override
+	public void write(char[] buffer, int offset, int length) {
+		text.append(buffer, offset, length);
+	}
+
+	@Override
+	public void write(String str, int offset, int length) {
+		text.append(str, offset, offset + length);
+	}
+
+	@Override
+	public void write(int c) {
+		text.append((char)c);
+	}
+
+	@Override
+	public void flush() {}
+
+	@Override
+	public void close() {}
+
+	private static final int INITIAL_SIZE = 1024;
+	private static final int MAX_RETAINED_SIZE = 65536;
+
+	private static final ThreadLocal<JsonTextWriter> writers = new ThreadLocal<JsonTextWriter>() {
+		@Override
+		protected JsonTextWriter initialValue() {
+			return new JsonTextWriter();
+		}
+	};
+
+	private StringBuilder text;
+}
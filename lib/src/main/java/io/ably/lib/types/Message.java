@@ -11,6 +11,9 @@ import com.google.gson.JsonElement;
 import com.google.gson.JsonObject;
 import com.google.gson.JsonSerializationContext;
 import com.google.gson.JsonSerializer;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
 
 import io.ably.lib.util.Log;
 
@@ -64,12 +67,12 @@ public class Message extends BaseMessage {
 	}
 
 	void writeMsgpack(MessagePacker packer) throws IOException {
-		int fieldCount = super.countFields();
-		if(name != null) ++fieldCount;
-		packer.packMapHeader(fieldCount);
-		super.writeFields(packer);
-		if(name != null) {
-			packer.packString("name");
+		int fields = fieldMask();
+		if(name != null) fields |= NAME_FIELD;
+		packer.packMapHeader(Integer.bitCount(fields));
+		super.writeFields(packer, fields);
+		if((fields & NAME_FIELD) != 0) {
+			packer.writePayload(NAME_KEY);
 			packer.packString(name);
 		}
 	}
@@ -77,15 +80,14 @@ public class Message extends BaseMessage {
 	Message readMsgpack(MessageUnpacker unpacker) throws IOException {
 		int fieldCount = unpacker.unpackMapHeader();
 		for(int i = 0; i < fieldCount; i++) {
-			String fieldName = unpacker.unpackString().intern();
+			int field = FIELD_NAMES.read(unpacker);
 			MessageFormat fieldFormat = unpacker.getNextFormat();
 			if(fieldFormat.equals(MessageFormat.NIL)) { unpacker.unpackNil(); continue; }
 
-			if(super.readField(unpacker, fieldName, fieldFormat)) { continue; }
-			if(fieldName.equals("name")) {
+			if(super.readField(unpacker, field, fieldFormat)) { continue; }
+			if(field == NAME) {
 				name = unpacker.unpackString();
 			} else {
-				Log.v(TAG, "Unexpected field: " + fieldName);
 				unpacker.skipValue();
 			}
 		}
@@ -96,6 +98,35 @@ public class Message extends BaseMessage {
 		return (new Message()).readMsgpack(unpacker);
 	}
 
+	void writeJSON(JsonWriter writer) throws IOException {
+		writer.beginObject();
+		super.writeFields(writer);
+		if(name != null) writer.name("name").value(name);
+		writer.endObject();
+	}
+
+	Message readJSON(JsonReader reader) throws IOException {
+		reader.beginObject();
+		while(reader.hasNext()) {
+			String fieldName = reader.nextName();
+			if(reader.peek() == JsonToken.NULL) { reader.nextNull(); continue; }
+
+			if(super.readField(reader, fieldName)) { continue; }
+			if(fieldName.equals("name")) {
+				name = reader.nextString();
+			} else {
+				Log.v(TAG, "Unexpected field: {}", fieldName);
+				reader.skipValue();
+			}
+		}
+		reader.endObject();
+		return this;
+	}
+
+	static Message fromJSON(JsonReader reader) throws IOException {
+		return (new Message()).readJSON(reader);
+	}
+
 	public static class Serializer extends BaseMessage.Serializer implements JsonSerializer<Message> {
 		@Override
 		public JsonElement serialize(Message message, Type typeOfMessage, JsonSerializationContext ctx) {
@@ -105,5 +136,12 @@ public class Message extends BaseMessage {
 		}
 	}
 
+	private static final int NAME_FIELD = SUBCLASS_FIELD;
+	private static final byte[] NAME_KEY = MsgpackEncoder.encodeKey("name");
+
 	private static final String TAG = Message.class.getName();
+
+	/* field names, matched when decoding msgpack */
+	private static final MsgpackFieldNames FIELD_NAMES = new MsgpackFieldNames(TAG, BaseMessage.FIELD_NAMES, "name");
+	private static final int NAME = BaseMessage.FIELD_NAMES.size();
 }
@@ -1,7 +1,10 @@
 package io.ably.lib.types;
 
-import java.io.ByteArrayOutputStream;
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
 
 import io.ably.lib.http.HttpCore;
 import io.ably.lib.http.HttpUtils;
@@ -9,7 +12,9 @@ import io.ably.lib.util.Log;
 import org.msgpack.core.MessagePacker;
 import org.msgpack.core.MessageUnpacker;
 
-import io.ably.lib.util.Serialisation;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonWriter;
+
 
 /**
  * MessageReader: internal
@@ -31,11 +36,15 @@ public class MessageSerializer {
 	}
 
 	public static Message[] readMsgpack(byte[] packed) throws AblyException {
+		MsgpackDecoder decoder = null;
 		try {
-			MessageUnpacker unpacker = Serialisation.msgpackUnpackerConfig.newUnpacker(packed);
-			return readMsgpackArray(unpacker);
+			decoder = MsgpackDecoder.get(packed);
+			return readMsgpackArray(decoder);
 		} catch(IOException ioe) {
 			throw AblyException.fromThrowable(ioe);
+		} finally {
+			if(decoder != null)
+				decoder.release();
 		}
 	}
 
@@ -52,13 +61,15 @@ public class MessageSerializer {
 	}
 
 	static byte[] writeMsgpackArray(Message[] messages) {
+		MsgpackEncoder encoder = MsgpackEncoder.get();
 		try {
-			ByteArrayOutputStream out = new ByteArrayOutputStream();
-			MessagePacker packer = Serialisation.msgpackPackerConfig.newPacker(out);
-			writeMsgpackArray(messages, packer);
-			packer.flush();
-			return out.toByteArray();
-		} catch(IOException e) { return null; }
+			writeMsgpackArray(messages, encoder.packer());
+			encoder.finish();
+			return encoder.toByteArray();
+		} catch(IOException e) {
+			encoder.discard();
+			return null;
+		}
 	}
 
 	static void writeMsgpackArray(Message[] messages, MessagePacker packer) {
@@ -75,7 +86,25 @@ public class MessageSerializer {
 	 ****************************************/
 	
 	public static Message[] readJSON(byte[] packed) throws IOException {
-		return Serialisation.gson.fromJson(new String(packed), Message[].class);
+		JsonReader reader = new JsonReader(new InputStreamReader(new ByteArrayInputStream(packed), UTF8));
+		reader.setLenient(true);
+		try {
+			return readJSONArray(reader);
+		} catch(IllegalStateException e) {
+			/* thrown for content of the wrong type */
+			throw new IOException(e.getMessage());
+		} catch(NumberFormatException e) {
+			throw new IOException(e.getMessage());
+		}
+	}
+
+	static Message[] readJSONArray(JsonReader reader) throws IOException {
+		ArrayList<Message> result = new ArrayList<Message>();
+		reader.beginArray();
+		while(reader.hasNext())
+			result.add(Message.fromJSON(reader));
+		reader.endArray();
+		return result.toArray(new Message[result.size()]);
 	}
 
 	/****************************************
@@ -87,7 +116,22 @@ public class MessageSerializer {
 	}
 
 	public static HttpCore.RequestBody asJsonRequest(Message[] messages) {
-		return new HttpUtils.JsonRequestBody(Serialisation.gson.toJson(messages));
+		JsonTextWriter out = JsonTextWriter.get();
+		try {
+			JsonWriter writer = new JsonWriter(out);
+			writeJSONArray(messages, writer);
+			writer.flush();
+		} catch(IOException e) {
+			/* not thrown when writing to a string */
+		}
+		return new HttpUtils.JsonRequestBody(out.toString());
+	}
+
+	static void writeJSONArray(Message[] messages, JsonWriter writer) throws IOException {
+		writer.beginArray();
+		for(Message message : messages)
+			message.writeJSON(writer);
+		writer.endArray();
 	}
 
 	/****************************************
@@ -95,12 +139,19 @@ public class MessageSerializer {
 	 ****************************************/
 	
 	public static HttpCore.BodyHandler<Message> getMessageResponseHandler(ChannelOptions opts) {
-		return opts == null ? messageResponseHandler : new MessageBodyHandler(opts);
+		return getMessageResponseHandler(opts, BatchDecoder.SEQUENTIAL);
+	}
+
+	/**
+	 * Get a handler for a response body, decoding its messages with the given decoder
+	 */
+	public static HttpCore.BodyHandler<Message> getMessageResponseHandler(ChannelOptions opts, BatchDecoder decoder) {
+		return (opts == null && decoder == BatchDecoder.SEQUENTIAL) ? messageResponseHandler : new MessageBodyHandler(opts, decoder);
 	}
 
 	private static class MessageBodyHandler implements HttpCore.BodyHandler<Message> {
 
-		public MessageBodyHandler(ChannelOptions opts) { this.opts = opts; }
+		public MessageBodyHandler(ChannelOptions opts, BatchDecoder decoder) { this.opts = opts; this.decoder = decoder; }
 
 		@Override
 		public Message[] handleResponseBody(String contentType, byte[] body) throws AblyException {
@@ -111,13 +162,11 @@ public class MessageSerializer {
 				else if("application/x-msgpack".equals(contentType))
 					messages = readMsgpack(body);
 				if(messages != null) {
-					for (Message message : messages) {
-						try {
-							message.decode(opts);
-						} catch (MessageDecodeException e) {
-							Log.e(TAG, e.errorInfo.message);
-						}
-					}
+					MessageDecodeException[] errors = decoder.decode(messages, null, opts);
+					if(errors != null)
+						for(MessageDecodeException e : errors)
+							if(e != null)
+								Log.e(TAG, e.errorInfo.message);
 				}
 				return messages;
 			} catch(IOException e) {
@@ -126,9 +175,11 @@ public class MessageSerializer {
 		}
 
 		private ChannelOptions opts;
+		private BatchDecoder decoder;
 	}
 
-	private static HttpCore.BodyHandler<Message> messageResponseHandler = new MessageBodyHandler(null);
+	private static HttpCore.BodyHandler<Message> messageResponseHandler = new MessageBodyHandler(null, BatchDecoder.SEQUENTIAL);
 
+	private static final Charset UTF8 = Charset.forName("UTF-8");
 	private static final String TAG = MessageSerializer.class.getName();
 }
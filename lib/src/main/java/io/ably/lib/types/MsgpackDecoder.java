@@ -0,0 +1,111 @@
+package io.ably.lib.types;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import org.msgpack.core.MessageUnpacker;
+import org.msgpack.core.buffer.ArrayBufferInput;
+import org.msgpack.core.buffer.ByteBufferInput;
+import org.msgpack.core.buffer.MessageBuffer;
+import org.msgpack.core.buffer.MessageBufferInput;
+
+import io.ably.lib.util.Serialisation;
+
+/**
+ * A msgpack unpacker that is reused for successive messages, together with
+ * its inputs and a buffer for reading field names; see MsgpackFieldNames.
+ * There is one instance per thread; see get().
+ *
+ * Each get() must be followed by release() once decoding is complete.
+ */
+final class MsgpackDecoder extends MessageUnpacker {
+
+	/**
+	 * Get the decoder for the calling thread, ready to decode the given content
+	 */
+	static MsgpackDecoder get(byte[] packed) throws IOException {
+		MsgpackDecoder decoder = acquire();
+		decoder.arrayInput.reset(packed);
+		return decoder.start(decoder.arrayInput);
+	}
+
+	/**
+	 * Get the decoder for the calling thread, ready to decode
+	 * the remaining content of the given buffer
+	 */
+	static MsgpackDecoder get(ByteBuffer packed) throws IOException {
+		MsgpackDecoder decoder = acquire();
+		decoder.byteBufferInput.reset(packed);
+		return decoder.start(decoder.byteBufferInput);
+	}
+
+	private static MsgpackDecoder acquire() {
+		MsgpackDecoder decoder = decoders.get();
+		if(decoder.inUse) {
+			/* a nested decode on this thread gets a decoder of its own */
+			return new MsgpackDecoder();
+		}
+		decoder.inUse = true;
+		return decoder;
+	}
+
+	private MsgpackDecoder start(MessageBufferInput input) throws IOException {
+		try {
+			reset(input);
+			return this;
+		} catch(IOException e) {
+			release();
+			throw e;
+		}
+	}
+
+	private MsgpackDecoder() {
+		super(new ArrayBufferInput(EMPTY_BUFFER), Serialisation.msgpackUnpackerConfig);
+		arrayInput = new ArrayBufferInput(EMPTY_BUFFER);
+		byteBufferInput = new ByteBufferInput(EMPTY_BYTE_BUFFER);
+	}
+
+	/**
+	 * Finish with the decoder, so that it no longer refers to the decoded content
+	 */
+	void release() {
+		try {
+			arrayInput.reset(EMPTY_BUFFER);
+			byteBufferInput.reset(EMPTY_BYTE_BUFFER);
+			reset(arrayInput);
+		} catch(IOException e) {
+			/* not thrown when resetting the input */
+		}
+		inUse = false;
+	}
+
+	/**
+	 * Read the payload of a field name, of the given length, into
+	 * the start of an array; usually the decoder's own buffer
+	 */
+	byte[] readKey(int length) throws IOException {
+		if(length > keyBuffer.length)
+			return readPayload(length);
+		keyByteBuffer.clear();
+		keyByteBuffer.limit(length);
+		readPayload(keyByteBuffer);
+		return keyBuffer;
+	}
+
+	private static final MessageBuffer EMPTY_BUFFER = MessageBuffer.wrap(new byte[0]);
+	private static final ByteBuffer EMPTY_BYTE_BUFFER = ByteBuffer.allocate(0);
+	private static final int KEY_BUFFER_SIZE = 64;
+
+	private static final ThreadLocal<MsgpackDecoder> decoders = new ThreadLocal<MsgpackDecoder>() {
+		@Override
+		protected MsgpackDecoder initialValue() {
+			return new MsgpackDecoder();
+		}
+	};
+
+	private final ArrayBufferInput arrayInput;
+	private final ByteBufferInput byteBufferInput;
+	private final byte[] keyBuffer = new byte[KEY_BUFFER_SIZE];
+	private final ByteBuffer keyByteBuffer = ByteBuffer.wrap(keyBuffer);
+	private boolean inUse;
+}
@@ -0,0 +1,170 @@
+package io.ably.lib.types;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+import org.msgpack.core.MessagePacker;
+import org.msgpack.core.buffer.MessageBuffer;
+import org.msgpack.core.buffer.MessageBufferOutput;
+
+import io.ably.lib.util.Serialisation;
+
+/**
+ * A msgpack encoder, with a packer and output buffer that are reused for
+ * successive messages, so that encoding a message allocates nothing beyond
+ * any growth of the buffer. There is one instance per thread; see get().
+ *
+ * The encoded content is valid until the next use of the encoder by the
+ * same thread.
+ */
+final class MsgpackEncoder implements MessageBufferOutput {
+
+	/**
+	 * Encode a constant string, such as a field name, as a complete msgpack
+	 * string, so that it can be written with MessagePacker.writePayload()
+	 * without being encoded for every message
+	 */
+	static byte[] encodeKey(String key) {
+		byte[] utf8 = key.getBytes(UTF8);
+		if(utf8.length > 0xff)
+			throw new IllegalArgumentException("Key too long: " + key);
+		byte[] result;
+		int offset;
+		if(utf8.length < 32) {
+			/* fixstr */
+			result = new byte[utf8.length + 1];
+			result[0] = (byte)(0xa0 | utf8.length);
+			offset = 1;
+		} else {
+			/* str8 */
+			result = new byte[utf8.length + 2];
+			result[0] = (byte)0xd9;
+			result[1] = (byte)utf8.length;
+			offset = 2;
+		}
+		System.arraycopy(utf8, 0, result, offset, utf8.length);
+		return result;
+	}
+
+	/**
+	 * Get the encoder for the calling thread, ready to encode a new message
+	 */
+	static MsgpackEncoder get() {
+		MsgpackEncoder encoder = encoders.get();
+		encoder.size = 0;
+		/* don't retain a large buffer after encoding a single large message */
+		if(encoder.buf.length > MAX_RETAINED_SIZE)
+			encoder.buf = new byte[INITIAL_SIZE];
+		return encoder;
+	}
+
+	private MsgpackEncoder() {
+		chunkArray = new byte[CHUNK_SIZE];
+		chunk = MessageBuffer.wrap(chunkArray);
+		buf = new byte[INITIAL_SIZE];
+		packer = Serialisation.msgpackPackerConfig.newPacker(this);
+	}
+
+	/**
+	 * The packer to encode with
+	 */
+	MessagePacker packer() {
+		return packer;
+	}
+
+	/**
+	 * Complete encoding of a message
+	 */
+	void finish() throws IOException {
+		packer.flush();
+	}
+
+	/**
+	 * Discard the content after a failed attempt to encode a message
+	 */
+	void discard() {
+		/* the packer may hold partially encoded content, so replace it */
+		packer = Serialisation.msgpackPackerConfig.newPacker(this);
+		size = 0;
+	}
+
+	/**
+	 * Get the encoded content as a buffer that wraps the encoder's array
+	 */
+	ByteBuffer toByteBuffer() {
+		return ByteBuffer.wrap(buf, 0, size);
+	}
+
+	/**
+	 * Get a copy of the encoded content
+	 */
+	byte[] toByteArray() {
+		return Arrays.copyOf(buf, size);
+	}
+
+	int size() {
+		return size;
+	}
+
+	/**************************
+	 * MessageBufferOutput
+	 **************************/
+
+	@Override
+	public MessageBuffer next(int minimumSize) {
+		if(minimumSize > chunkArray.length) {
+			chunkArray = new byte[minimumSize];
+			chunk = MessageBuffer.wrap(chunkArray);
+		}
+		return chunk;
+	}
+
+	@Override
+	public void writeBuffer(int length) {
+		write(chunkArray, 0, length);
+	}
+
+	@Override
+	public void write(byte[] buffer, int offset, int length) {
+		ensureCapacity(length);
+		System.arraycopy(buffer, offset, buf, size, length);
+		size += length;
+	}
+
+	@Override
+	public void add(byte[] buffer, int offset, int length) {
+		write(buffer, offset, length);
+	}
+
+	@Override
+	public void close() {}
+
+	@Override
+	public void flush() {}
+
+	private void ensureCapacity(int length) {
+		int required = size + length;
+		if(required > buf.length)
+			buf = Arrays.copyOf(buf, Math.max(required, buf.length * 2));
+	}
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+	private static final int CHUNK_SIZE = 8192;
+	private static final int INITIAL_SIZE = 1024;
+	private static final int MAX_RETAINED_SIZE = 65536;
+
+	private static final ThreadLocal<MsgpackEncoder> encoders = new ThreadLocal<MsgpackEncoder>() {
+		@Override
+		protected MsgpackEncoder initialValue() {
+			return new MsgpackEncoder();
+		}
+	};
+
+	private MessagePacker packer;
+	private byte[] chunkArray;
+	private MessageBuffer chunk;
+	private byte[] buf;
+	private int size;
+}
@@ -0,0 +1,115 @@
+package io.ably.lib.types;
+
+import java.io.IOException;
+import java.nio.charset.Charset;
+
+import org.msgpack.core.MessageUnpacker;
+
+import io.ably.lib.util.Log;
+
+/**
+ * The field names of a type decoded from msgpack, matched against the
+ * UTF-8 bytes of each name as read, so that decoding a field does not
+ * create a String for its name.
+ *
+ * Each name is identified by its position in the list given to the
+ * constructor; the reader of the type switches on that index.
+ */
+final class MsgpackFieldNames {
+
+	/**
+	 * @param tag the log tag for reporting unexpected fields
+	 * @param names the names, in index order
+	 */
+	MsgpackFieldNames(String tag, String... names) {
+		this.tag = tag;
+		keys = new byte[names.length][];
+		int size = Integer.highestOneBit(Math.max(names.length, 1) * 4 - 1) << 1;
+		slots = new int[size];
+		mask = size - 1;
+		for(int i = 0; i < names.length; i++) {
+			byte[] key = names[i].getBytes(UTF8);
+			keys[i] = key;
+			int slot = hash(key, key.length) & mask;
+			while(slots[slot] != 0)
+				slot = (slot + 1) & mask;
+			/* slots hold the index + 1, so that 0 is empty */
+			slots[slot] = i + 1;
+		}
+	}
+
+	/**
+	 * Create the names for a subtype, which come after those of the supertype
+	 */
+	MsgpackFieldNames(String tag, MsgpackFieldNames inherited, String... names) {
+		this(tag, concat(inherited, names));
+	}
+
+	/**
+	 * The number of names; the index of the first name of any subtype
+	 */
+	int size() {
+		return keys.length;
+	}
+
+	/**
+	 * Read a field name
+	 * @return the index of the name, or -1 if it is not one of these names;
+	 * in that case the caller is expected to skip the value
+	 */
+	int read(MessageUnpacker unpacker) throws IOException {
+		int length = unpacker.unpackRawStringHeader();
+		byte[] buf = (unpacker instanceof MsgpackDecoder) ? ((MsgpackDecoder)unpacker).readKey(length) : unpacker.readPayload(length);
+		int field = find(buf, length);
+		if(field < 0 && Log.isLoggable(tag, Log.VERBOSE))
+			Log.v(tag, "Unexpected field: {}", new String(buf, 0, length, UTF8));
+		return field;
+	}
+
+	int find(byte[] buf, int length) {
+		int slot = hash(buf, length) & mask;
+		int entry;
+		while((entry = slots[slot]) != 0) {
+			byte[] key = keys[entry - 1];
+			if(matches(key, buf, length))
+				return entry - 1;
+			slot = (slot + 1) & mask;
+		}
+		return -1;
+	}
+
+	private static boolean matches(byte[] key, byte[] buf, int length) {
+		if(key.length != length)
+			return false;
+		for(int i = 0; i < length; i++)
+			if(key[i] != buf[i])
+				return false;
+		return true;
+	}
+
+	/**
+	 * A cheap hash of the length and the first and last bytes, which
+	 * distinguishes the names of each type with few collisions
+	 */
+	private static int hash(byte[] buf, int length) {
+		if(length == 0)
+			return 0;
+		int h = (length * 31 + buf[0]) * 31 + buf[length - 1];
+		return h ^ (h >>> 7);
+	}
+
+	private static String[] concat(MsgpackFieldNames inherited, String[] names) {
+		String[] result = new String[inherited.keys.length + names.length];
+		for(int i = 0; i < inherited.keys.length; i++)
+			result[i] = new String(inherited.keys[i], UTF8);
+		System.arraycopy(names, 0, result, inherited.keys.length, names.length);
+		return result;
+	}
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	private final String tag;
+	private final byte[][] keys;
+	private final int[] slots;
+	private final int mask;
+}
@@ -0,0 +1,34 @@
+package io.ably.lib.types;
+
+/**
+ * A transform of message payloads, such as compression or a compact
+ * binary format, that takes part in the message encoding chain;
+ * see {@link ChannelOptions#codecs}.
+ *
+ * A codec is applied to the binary form of the payload: string and
+ * JSON data are first converted to UTF-8 text. Its name is recorded
+ * in the message encoding, after any json and utf-8 transforms and
+ * before any cipher, so that any client with a codec of the same name
+ * can decode the message.
+ */
+public interface PayloadCodec {
+	/**
+	 * The name of the transform in the message encoding; this must comprise
+	 * only letters, digits, '_' and '-'.
+	 */
+	public String getName();
+
+	/**
+	 * Encode a payload.
+	 * @param data the payload
+	 * @return the encoded payload, or null if the payload is to be
+	 * sent without this transform; for example, because it would not
+	 * be made smaller
+	 */
+	public byte[] encode(byte[] data) throws AblyException;
+
+	/**
+	 * Decode a payload that was encoded with this transform.
+	 */
+	public byte[] decode(byte[] data) throws AblyException;
+}
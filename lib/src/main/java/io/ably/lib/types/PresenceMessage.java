@@ -14,6 +14,9 @@ import com.google.gson.JsonObject;
 import com.google.gson.JsonParseException;
 import com.google.gson.JsonSerializationContext;
 import com.google.gson.JsonSerializer;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
 
 import io.ably.lib.util.Log;
 
@@ -91,26 +94,25 @@ public class PresenceMessage extends BaseMessage implements Cloneable {
 	}
 
 	void writeMsgpack(MessagePacker packer) throws IOException {
-		int fieldCount = super.countFields();
-		++fieldCount;
-		packer.packMapHeader(fieldCount);
-		super.writeFields(packer);
-		packer.packString("action");
+		int fields = fieldMask();
+		/* the action is always present */
+		packer.packMapHeader(Integer.bitCount(fields) + 1);
+		super.writeFields(packer, fields);
+		packer.writePayload(ACTION_KEY);
 		packer.packInt(action.getValue());
 	}
 
 	PresenceMessage readMsgpack(MessageUnpacker unpacker) throws IOException {
 		int fieldCount = unpacker.unpackMapHeader();
 		for(int i = 0; i < fieldCount; i++) {
-			String fieldName = unpacker.unpackString().intern();
+			int field = FIELD_NAMES.read(unpacker);
 			MessageFormat fieldFormat = unpacker.getNextFormat();
 			if(fieldFormat.equals(MessageFormat.NIL)) { unpacker.unpackNil(); continue; }
 
-			if(super.readField(unpacker, fieldName, fieldFormat)) { continue; }
-			if(fieldName.equals("action")) {
+			if(super.readField(unpacker, field, fieldFormat)) { continue; }
+			if(field == ACTION) {
 				action = Action.findByValue(unpacker.unpackInt());
 			} else {
-				Log.v(TAG, "Unexpected field: " + fieldName);
 				unpacker.skipValue();
 			}
 		}
@@ -121,6 +123,35 @@ public class PresenceMessage extends BaseMessage implements Cloneable {
 		return (new PresenceMessage()).readMsgpack(unpacker);
 	}
 
+	void writeJSON(JsonWriter writer) throws IOException {
+		writer.beginObject();
+		super.writeFields(writer);
+		if(action != null) writer.name("action").value(action.getValue());
+		writer.endObject();
+	}
+
+	PresenceMessage readJSON(JsonReader reader) throws IOException {
+		reader.beginObject();
+		while(reader.hasNext()) {
+			String fieldName = reader.nextName();
+			if(reader.peek() == JsonToken.NULL) { reader.nextNull(); continue; }
+
+			if(super.readField(reader, fieldName)) { continue; }
+			if(fieldName.equals("action")) {
+				action = Action.findByValue(reader.nextInt());
+			} else {
+				Log.v(TAG, "Unexpected field: {}", fieldName);
+				reader.skipValue();
+			}
+		}
+		reader.endObject();
+		return this;
+	}
+
+	static PresenceMessage fromJSON(JsonReader reader) throws IOException {
+		return (new PresenceMessage()).readJSON(reader);
+	}
+
 	public static class ActionSerializer implements JsonDeserializer<Action> {
 		@Override
 		public Action deserialize(JsonElement json, Type t, JsonDeserializationContext ctx)
@@ -146,5 +177,11 @@ public class PresenceMessage extends BaseMessage implements Cloneable {
 		return connectionId + ':' + clientId;
 	}
 
+	private static final byte[] ACTION_KEY = MsgpackEncoder.encodeKey("action");
+
 	private static final String TAG = PresenceMessage.class.getName();
+
+	/* field names, matched when decoding msgpack */
+	private static final MsgpackFieldNames FIELD_NAMES = new MsgpackFieldNames(TAG, BaseMessage.FIELD_NAMES, "action");
+	private static final int ACTION = BaseMessage.FIELD_NAMES.size();
 }
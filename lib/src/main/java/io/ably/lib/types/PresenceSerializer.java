@@ -1,7 +1,10 @@
 package io.ably.lib.types;
 
-import java.io.ByteArrayOutputStream;
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
 
 import io.ably.lib.http.HttpCore;
 import io.ably.lib.http.HttpUtils;
@@ -9,7 +12,9 @@ import io.ably.lib.util.Log;
 import org.msgpack.core.MessagePacker;
 import org.msgpack.core.MessageUnpacker;
 
-import io.ably.lib.util.Serialisation;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonWriter;
+
 
 /**
  * PresenceSerializer: internal
@@ -31,11 +36,15 @@ public class PresenceSerializer {
 	}
 
 	public static PresenceMessage[] readMsgpack(byte[] packed) throws AblyException {
+		MsgpackDecoder decoder = null;
 		try {
-			MessageUnpacker unpacker = Serialisation.msgpackUnpackerConfig.newUnpacker(packed);
-			return readMsgpackArray(unpacker);
+			decoder = MsgpackDecoder.get(packed);
+			return readMsgpackArray(decoder);
 		} catch(IOException ioe) {
 			throw AblyException.fromThrowable(ioe);
+		} finally {
+			if(decoder != null)
+				decoder.release();
 		}
 	}
 
@@ -44,13 +53,15 @@ public class PresenceSerializer {
 	 ****************************************/
 
 	static byte[] writeMsgpackArray(PresenceMessage[] messages) {
+		MsgpackEncoder encoder = MsgpackEncoder.get();
 		try {
-			ByteArrayOutputStream out = new ByteArrayOutputStream();
-			MessagePacker packer = Serialisation.msgpackPackerConfig.newPacker(out);
-			writeMsgpackArray(messages, packer);
-			packer.flush();
-			return out.toByteArray();
-		} catch(IOException e) { return null; }
+			writeMsgpackArray(messages, encoder.packer());
+			encoder.finish();
+			return encoder.toByteArray();
+		} catch(IOException e) {
+			encoder.discard();
+			return null;
+		}
 	}
 
 	static void writeMsgpackArray(PresenceMessage[] messages, MessagePacker packer) {
@@ -67,7 +78,25 @@ public class PresenceSerializer {
 	 ****************************************/
 	
 	private static PresenceMessage[] readJson(byte[] packed) throws IOException {
-		return Serialisation.gson.fromJson(new String(packed), PresenceMessage[].class);
+		JsonReader reader = new JsonReader(new InputStreamReader(new ByteArrayInputStream(packed), UTF8));
+		reader.setLenient(true);
+		try {
+			return readJSONArray(reader);
+		} catch(IllegalStateException e) {
+			/* thrown for content of the wrong type */
+			throw new IOException(e.getMessage());
+		} catch(NumberFormatException e) {
+			throw new IOException(e.getMessage());
+		}
+	}
+
+	static PresenceMessage[] readJSONArray(JsonReader reader) throws IOException {
+		ArrayList<PresenceMessage> result = new ArrayList<PresenceMessage>();
+		reader.beginArray();
+		while(reader.hasNext())
+			result.add(PresenceMessage.fromJSON(reader));
+		reader.endArray();
+		return result.toArray(new PresenceMessage[result.size()]);
 	}
 
 	/****************************************
@@ -79,7 +108,22 @@ public class PresenceSerializer {
 	}
 
 	public static HttpCore.RequestBody asJsonRequest(PresenceMessage[] messages) {
-		return new HttpUtils.JsonRequestBody(Serialisation.gson.toJson(messages));
+		JsonTextWriter out = JsonTextWriter.get();
+		try {
+			JsonWriter writer = new JsonWriter(out);
+			writeJSONArray(messages, writer);
+			writer.flush();
+		} catch(IOException e) {
+			/* not thrown when writing to a string */
+		}
+		return new HttpUtils.JsonRequestBody(out.toString());
+	}
+
+	static void writeJSONArray(PresenceMessage[] messages, JsonWriter writer) throws IOException {
+		writer.beginArray();
+		for(PresenceMessage message : messages)
+			message.writeJSON(writer);
+		writer.endArray();
 	}
 
 	/****************************************
@@ -87,12 +131,19 @@ public class PresenceSerializer {
 	 ****************************************/
 	
 	public static HttpCore.BodyHandler<PresenceMessage> getPresenceResponseHandler(ChannelOptions opts) {
-		return opts == null ? presenceResponseHandler : new PresenceBodyHandler(opts);
+		return getPresenceResponseHandler(opts, BatchDecoder.SEQUENTIAL);
+	}
+
+	/**
+	 * Get a handler for a response body, decoding its messages with the given decoder
+	 */
+	public static HttpCore.BodyHandler<PresenceMessage> getPresenceResponseHandler(ChannelOptions opts, BatchDecoder decoder) {
+		return (opts == null && decoder == BatchDecoder.SEQUENTIAL) ? presenceResponseHandler : new PresenceBodyHandler(opts, decoder);
 	}
 
 	private static class PresenceBodyHandler implements HttpCore.BodyHandler<PresenceMessage> {
 
-		public PresenceBodyHandler(ChannelOptions opts) { this.opts = opts; }
+		public PresenceBodyHandler(ChannelOptions opts, BatchDecoder decoder) { this.opts = opts; this.decoder = decoder; }
 
 		@Override
 		public PresenceMessage[] handleResponseBody(String contentType, byte[] body) throws AblyException {
@@ -103,13 +154,11 @@ public class PresenceSerializer {
 				else if("application/x-msgpack".equals(contentType))
 					messages = readMsgpack(body);
 				if(messages != null) {
-					for (PresenceMessage message : messages) {
-						try {
-							message.decode(opts);
-						} catch (MessageDecodeException e) {
-							Log.e(TAG, e.errorInfo.message);
-						}
-					}
+					MessageDecodeException[] errors = decoder.decode(messages, null, opts);
+					if(errors != null)
+						for(MessageDecodeException e : errors)
+							if(e != null)
+								Log.e(TAG, e.errorInfo.message);
 				}
 				return messages;
 			} catch(IOException e) {
@@ -118,9 +167,11 @@ public class PresenceSerializer {
 		}
 
 		private ChannelOptions opts;
+		private BatchDecoder decoder;
 	}
 
-	private static HttpCore.BodyHandler<PresenceMessage> presenceResponseHandler = new PresenceBodyHandler(null);
+	private static HttpCore.BodyHandler<PresenceMessage> presenceResponseHandler = new PresenceBodyHandler(null, BatchDecoder.SEQUENTIAL);
 
+	private static final Charset UTF8 = Charset.forName("UTF-8");
 	private static final String TAG = PresenceSerializer.class.getName();
 }
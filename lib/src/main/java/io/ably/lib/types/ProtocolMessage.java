@@ -14,6 +14,9 @@ import com.google.gson.JsonParseException;
 import com.google.gson.JsonPrimitive;
 import com.google.gson.JsonSerializationContext;
 import com.google.gson.JsonSerializer;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
 
 import io.ably.lib.util.Log;
 
@@ -121,7 +124,22 @@ public class ProtocolMessage {
 	public ConnectionDetails connectionDetails;
 	public AuthDetails auth;
 
+	/**
+	 * Get the JSON representation of this message, for logging
+	 */
+	@Override
+	public String toString() {
+		return ProtocolSerializer.toJSON(this);
+	}
+
 	void writeMsgpack(MessagePacker packer) throws IOException {
+		/* the field values are read once, so that the fields
+		 * written are consistent with the count in the header */
+		String channel = this.channel;
+		Long msgSerial = this.msgSerial;
+		Message[] messages = this.messages;
+		PresenceMessage[] presence = this.presence;
+		AuthDetails auth = this.auth;
 		int fieldCount = 1; //action
 		if(channel != null) ++fieldCount;
 		if(msgSerial != null) ++fieldCount;
@@ -129,26 +147,26 @@ public class ProtocolMessage {
 		if(presence != null) ++fieldCount;
 		if(auth != null) ++fieldCount;
 		packer.packMapHeader(fieldCount);
-		packer.packString("action");
+		packer.writePayload(ACTION_KEY);
 		packer.packInt(action.getValue());
 		if(channel != null) {
-			packer.packString("channel");
+			packer.writePayload(CHANNEL_KEY);
 			packer.packString(channel);
 		}
 		if(msgSerial != null) {
-			packer.packString("msgSerial");
+			packer.writePayload(MSG_SERIAL_KEY);
 			packer.packLong(msgSerial.longValue());
 		}
 		if(messages != null) {
-			packer.packString("messages");
+			packer.writePayload(MESSAGES_KEY);
 			MessageSerializer.writeMsgpackArray(messages, packer);
 		}
 		if(presence != null) {
-			packer.packString("presence");
+			packer.writePayload(PRESENCE_KEY);
 			PresenceSerializer.writeMsgpackArray(presence, packer);
 		}
 		if(auth != null) {
-			packer.packString("auth");
+			packer.writePayload(AUTH_KEY);
 			auth.writeMsgpack(packer);
 		}
 	}
@@ -156,58 +174,57 @@ public class ProtocolMessage {
 	ProtocolMessage readMsgpack(MessageUnpacker unpacker) throws IOException {
 		int fieldCount = unpacker.unpackMapHeader();
 		for(int i = 0; i < fieldCount; i++) {
-			String fieldName = unpacker.unpackString().intern();
+			int field = FIELD_NAMES.read(unpacker);
 			MessageFormat fieldFormat = unpacker.getNextFormat();
 			if(fieldFormat.equals(MessageFormat.NIL)) { unpacker.unpackNil(); continue; }
 
-			switch(fieldName) {
-				case "action":
+			switch(field) {
+				case ACTION:
 					action = Action.findByValue(unpacker.unpackInt());
 					break;
-				case "flags":
+				case FLAGS:
 					flags = unpacker.unpackInt();
 					break;
-				case "count":
+				case COUNT:
 					count = unpacker.unpackInt();
 					break;
-				case "error":
+				case ERROR:
 					error = ErrorInfo.fromMsgpack(unpacker);
 					break;
-				case "id":
+				case ID:
 					id = unpacker.unpackString();
 					break;
-				case "channel":
+				case CHANNEL:
 					channel = unpacker.unpackString();
 					break;
-				case "channelSerial":
+				case CHANNEL_SERIAL:
 					channelSerial = unpacker.unpackString();
 					break;
-				case "connectionId":
+				case CONNECTION_ID:
 					connectionId = unpacker.unpackString();
 					break;
-				case "connectionSerial":
+				case CONNECTION_SERIAL:
 					connectionSerial = Long.valueOf(unpacker.unpackLong());
 					break;
-				case "msgSerial":
+				case MSG_SERIAL:
 					msgSerial = Long.valueOf(unpacker.unpackLong());
 					break;
-				case "timestamp":
+				case TIMESTAMP:
 					timestamp = unpacker.unpackLong();
 					break;
-				case "messages":
+				case MESSAGES:
 					messages = MessageSerializer.readMsgpackArray(unpacker);
 					break;
-				case "presence":
+				case PRESENCE:
 					presence = PresenceSerializer.readMsgpackArray(unpacker);
 					break;
-				case "connectionDetails":
+				case CONNECTION_DETAILS:
 					connectionDetails = ConnectionDetails.fromMsgpack(unpacker);
 					break;
-				case "auth":
+				case AUTH:
 					auth = AuthDetails.fromMsgpack(unpacker);
 					break;
 				default:
-					Log.v(TAG, "Unexpected field: " + fieldName);
 					unpacker.skipValue();
 			}
 		}
@@ -218,6 +235,106 @@ public class ProtocolMessage {
 		return (new ProtocolMessage()).readMsgpack(unpacker);
 	}
 
+	void writeJSON(JsonWriter writer) throws IOException {
+		writer.beginObject();
+		if(action != null) writer.name("action").value(action.getValue());
+		if(flags != 0) writer.name("flags").value(flags);
+		if(count != 0) writer.name("count").value(count);
+		if(error != null) {
+			writer.name("error");
+			error.writeJSON(writer);
+		}
+		if(id != null) writer.name("id").value(id);
+		if(channel != null) writer.name("channel").value(channel);
+		if(channelSerial != null) writer.name("channelSerial").value(channelSerial);
+		if(connectionId != null) writer.name("connectionId").value(connectionId);
+		if(connectionSerial != null) writer.name("connectionSerial").value(connectionSerial);
+		if(msgSerial != null) writer.name("msgSerial").value(msgSerial);
+		if(timestamp != 0) writer.name("timestamp").value(timestamp);
+		if(messages != null) {
+			writer.name("messages");
+			MessageSerializer.writeJSONArray(messages, writer);
+		}
+		if(presence != null) {
+			writer.name("presence");
+			PresenceSerializer.writeJSONArray(presence, writer);
+		}
+		if(connectionDetails != null) {
+			writer.name("connectionDetails");
+			connectionDetails.writeJSON(writer);
+		}
+		if(auth != null) {
+			writer.name("auth");
+			auth.writeJSON(writer);
+		}
+		writer.endObject();
+	}
+
+	ProtocolMessage readJSON(JsonReader reader) throws IOException {
+		reader.beginObject();
+		while(reader.hasNext()) {
+			String fieldName = reader.nextName();
+			if(reader.peek() == JsonToken.NULL) { reader.nextNull(); continue; }
+
+			switch(fieldName) {
+				case "action":
+					action = Action.findByValue(reader.nextInt());
+					break;
+				case "flags":
+					flags = reader.nextInt();
+					break;
+				case "count":
+					count = reader.nextInt();
+					break;
+				case "error":
+					error = ErrorInfo.fromJSON(reader);
+					break;
+				case "id":
+					id = reader.nextString();
+					break;
+				case "channel":
+					channel = reader.nextString();
+					break;
+				case "channelSerial":
+					channelSerial = reader.nextString();
+					break;
+				case "connectionId":
+					connectionId = reader.nextString();
+					break;
+				case "connectionSerial":
+					connectionSerial = Long.valueOf(reader.nextLong());
+					break;
+				case "msgSerial":
+					msgSerial = Long.valueOf(reader.nextLong());
+					break;
+				case "timestamp":
+					timestamp = reader.nextLong();
+					break;
+				case "messages":
+					messages = MessageSerializer.readJSONArray(reader);
+					break;
+				case "presence":
+					presence = PresenceSerializer.readJSONArray(reader);
+					break;
+				case "connectionDetails":
+					connectionDetails = ConnectionDetails.fromJSON(reader);
+					break;
+				case "auth":
+					auth = AuthDetails.fromJSON(reader);
+					break;
+				default:
+					Log.v(TAG, "Unexpected field: {}", fieldName);
+					reader.skipValue();
+			}
+		}
+		reader.endObject();
+		return this;
+	}
+
+	static ProtocolMessage fromJSON(JsonReader reader) throws IOException {
+		return (new ProtocolMessage()).readJSON(reader);
+	}
+
 	public static class ActionSerializer implements JsonSerializer<Action>, JsonDeserializer<Action> {
 		@Override
 		public Action deserialize(JsonElement json, Type t, JsonDeserializationContext ctx)
@@ -240,16 +357,15 @@ public class ProtocolMessage {
 		AuthDetails readMsgpack(MessageUnpacker unpacker) throws IOException {
 			int fieldCount = unpacker.unpackMapHeader();
 			for(int i = 0; i < fieldCount; i++) {
-				String fieldName = unpacker.unpackString().intern();
+				int field = FIELD_NAMES.read(unpacker);
 				MessageFormat fieldFormat = unpacker.getNextFormat();
 				if(fieldFormat.equals(MessageFormat.NIL)) { unpacker.unpackNil(); continue; }
 
-				switch(fieldName) {
-					case "accessToken":
+				switch(field) {
+					case ACCESS_TOKEN:
 						accessToken = unpacker.unpackString();
 						break;
 					default:
-						Log.v(TAG, "Unexpected field: " + fieldName);
 						unpacker.skipValue();
 				}
 			}
@@ -260,16 +376,78 @@ public class ProtocolMessage {
 			return (new AuthDetails()).readMsgpack(unpacker);
 		}
 
+		AuthDetails readJSON(JsonReader reader) throws IOException {
+			reader.beginObject();
+			while(reader.hasNext()) {
+				String fieldName = reader.nextName();
+				if(reader.peek() == JsonToken.NULL) { reader.nextNull(); continue; }
+
+				switch(fieldName) {
+					case "accessToken":
+						accessToken = reader.nextString();
+						break;
+					default:
+						Log.v(TAG, "Unexpected field: {}", fieldName);
+						reader.skipValue();
+				}
+			}
+			reader.endObject();
+			return this;
+		}
+
+		static AuthDetails fromJSON(JsonReader reader) throws IOException {
+			return (new AuthDetails()).readJSON(reader);
+		}
+
+		void writeJSON(JsonWriter writer) throws IOException {
+			writer.beginObject();
+			if(accessToken != null) writer.name("accessToken").value(accessToken);
+			writer.endObject();
+		}
+
 		void writeMsgpack(MessagePacker packer) throws IOException {
 			int fieldCount = 0;
 			if(accessToken != null) ++fieldCount;
 			packer.packMapHeader(fieldCount);
 			if(accessToken != null) {
-				packer.packString("accessToken");
+				packer.writePayload(ACCESS_TOKEN_KEY);
 				packer.packString(accessToken);
 			}
 		}
+
+		/* field names, matched when decoding msgpack */
+		private static final MsgpackFieldNames FIELD_NAMES = new MsgpackFieldNames(TAG, "accessToken");
+		private static final int ACCESS_TOKEN = 0;
 	}
 
+	/* field names, pre-encoded in msgpack format */
+	private static final byte[] ACTION_KEY = MsgpackEncoder.encodeKey("action");
+	private static final byte[] CHANNEL_KEY = MsgpackEncoder.encodeKey("channel");
+	private static final byte[] MSG_SERIAL_KEY = MsgpackEncoder.encodeKey("msgSerial");
+	private static final byte[] MESSAGES_KEY = MsgpackEncoder.encodeKey("messages");
+	private static final byte[] PRESENCE_KEY = MsgpackEncoder.encodeKey("presence");
+	private static final byte[] AUTH_KEY = MsgpackEncoder.encodeKey("auth");
+	private static final byte[] ACCESS_TOKEN_KEY = MsgpackEncoder.encodeKey("accessToken");
+
 	private static final String TAG = ProtocolMessage.class.getName();
+
+	/* field names, matched when decoding msgpack */
+	private static final MsgpackFieldNames FIELD_NAMES = new MsgpackFieldNames(TAG,
+			"action", "flags", "count", "error", "id", "channel", "channelSerial", "connectionId",
+			"connectionSerial", "msgSerial", "timestamp", "messages", "presence", "connectionDetails", "auth");
+	private static final int ACTION = 0;
+	private static final int FLAGS = 1;
+	private static final int COUNT = 2;
+	private static final int ERROR = 3;
+	private static final int ID = 4;
+	private static final int CHANNEL = 5;
+	private static final int CHANNEL_SERIAL = 6;
+	private static final int CONNECTION_ID = 7;
+	private static final int CONNECTION_SERIAL = 8;
+	private static final int MSG_SERIAL = 9;
+	private static final int TIMESTAMP = 10;
+	private static final int MESSAGES = 11;
+	private static final int PRESENCE = 12;
+	private static final int CONNECTION_DETAILS = 13;
+	private static final int AUTH = 14;
 }
@@ -1,13 +1,14 @@
 package io.ably.lib.types;
 
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.StringReader;
+import java.nio.ByteBuffer;
 import java.nio.charset.Charset;
 
-import org.msgpack.core.MessagePacker;
-import org.msgpack.core.MessageUnpacker;
+import org.msgpack.core.buffer.MessageBuffer;
 
-import io.ably.lib.util.Serialisation;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonWriter;
 
 public class ProtocolSerializer {
 
@@ -16,27 +17,86 @@ public class ProtocolSerializer {
 	 ****************************************/
 	
 	public static ProtocolMessage readMsgpack(byte[] packed) throws AblyException {
+		MsgpackDecoder decoder = null;
 		try {
-			MessageUnpacker unpacker = Serialisation.msgpackUnpackerConfig.newUnpacker(packed);
-			return ProtocolMessage.fromMsgpack(unpacker);
+			decoder = MsgpackDecoder.get(packed);
+			return ProtocolMessage.fromMsgpack(decoder);
 		} catch (IOException ioe) {
 			throw AblyException.fromThrowable(ioe);
+		} finally {
+			if(decoder != null)
+				decoder.release();
 		}
 	}
 
+	/**
+	 * Decode a ProtocolMessage directly from the remaining content of the given
+	 * buffer, which may be a direct buffer, without first copying it to an array.
+	 * Binary message payloads are read as views of the buffer, so the buffer must
+	 * not be reused by the caller after this call; see {@link ChannelOptions#binaryDataAsByteBuffer}.
+	 */
+	public static ProtocolMessage readMsgpack(ByteBuffer packed) throws AblyException {
+		if(packed.isDirect() && !directBufferSupported) {
+			/* msgpack can only read direct buffers where it has native
+			 * access to them; otherwise we have to copy */
+			byte[] packedArray = new byte[packed.remaining()];
+			packed.duplicate().get(packedArray);
+			packed = ByteBuffer.wrap(packedArray);
+		}
+		MsgpackDecoder decoder = null;
+		try {
+			decoder = MsgpackDecoder.get(packed);
+			return ProtocolMessage.fromMsgpack(decoder);
+		} catch (IOException ioe) {
+			throw AblyException.fromThrowable(ioe);
+		} finally {
+			if(decoder != null)
+				decoder.release();
+		}
+	}
+
+	private static final boolean directBufferSupported;
+	static {
+		boolean supported;
+		try {
+			MessageBuffer.wrap(ByteBuffer.allocateDirect(1));
+			supported = true;
+		} catch(Throwable t) {
+			supported = false;
+		}
+		directBufferSupported = supported;
+	}
+
 	/****************************************
 	 *            Msgpack encode
 	 ****************************************/
 	
 	public static byte[] writeMsgpack(ProtocolMessage message) {
-		ByteArrayOutputStream out = new ByteArrayOutputStream();
-		MessagePacker packer = Serialisation.msgpackPackerConfig.newPacker(out);
+		MsgpackEncoder encoder = encode(message);
+		return (encoder == null) ? null : encoder.toByteArray();
+	}
+
+	/**
+	 * Encode a message into a buffer owned by the calling thread, avoiding
+	 * allocation of an array for the result. The content of the buffer is
+	 * only valid until the thread next encodes a message, so it must be
+	 * consumed (for example, copied into a websocket frame) before then.
+	 */
+	public static ByteBuffer writeMsgpackToBuffer(ProtocolMessage message) {
+		MsgpackEncoder encoder = encode(message);
+		return (encoder == null) ? null : encoder.toByteBuffer();
+	}
+
+	private static MsgpackEncoder encode(ProtocolMessage message) {
+		MsgpackEncoder encoder = MsgpackEncoder.get();
 		try {
-			message.writeMsgpack(packer);
-	
-			packer.flush();
-			return out.toByteArray();
-		} catch(IOException e) { return null; }
+			message.writeMsgpack(encoder.packer());
+			encoder.finish();
+			return encoder;
+		} catch(IOException e) {
+			encoder.discard();
+			return null;
+		}
 	}
 
 	/****************************************
@@ -44,7 +104,18 @@ public class ProtocolSerializer {
 	 ****************************************/
 	
 	public static ProtocolMessage fromJSON(String packed) throws AblyException {
-		return Serialisation.gson.fromJson(packed, ProtocolMessage.class);
+		JsonReader reader = new JsonReader(new StringReader(packed));
+		reader.setLenient(true);
+		try {
+			return ProtocolMessage.fromJSON(reader);
+		} catch(IOException e) {
+			throw AblyException.fromThrowable(e);
+		} catch(IllegalStateException e) {
+			/* thrown for content of the wrong type */
+			throw AblyException.fromThrowable(e);
+		} catch(NumberFormatException e) {
+			throw AblyException.fromThrowable(e);
+		}
 	}
 
 	/****************************************
@@ -52,6 +123,24 @@ public class ProtocolSerializer {
 	 ****************************************/
 	
 	public static byte[] writeJSON(ProtocolMessage message) throws AblyException {
-		return Serialisation.gson.toJson(message).getBytes(Charset.forName("UTF-8"));
+		return toJSON(message).getBytes(UTF8);
+	}
+
+	/**
+	 * Get the JSON text of a message, written directly
+	 * without building an intermediate tree
+	 */
+	public static String toJSON(ProtocolMessage message) {
+		JsonTextWriter out = JsonTextWriter.get();
+		try {
+			JsonWriter writer = new JsonWriter(out);
+			message.writeJSON(writer);
+			writer.flush();
+		} catch(IOException e) {
+			/* not thrown when writing to a string */
+		}
+		return out.toString();
 	}
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
 }
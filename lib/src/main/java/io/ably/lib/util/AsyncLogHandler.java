@@ -0,0 +1,206 @@
+package io.ably.lib.util;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A LogHandler that passes log messages to another handler on a dedicated
+ * thread, so that logging never blocks the thread that logs; for example
+ * the thread reading from a realtime connection.
+ *
+ * Messages are held in a fixed-size ring buffer, preallocated so that
+ * queueing a message does not allocate; if the buffer is full, the message
+ * is discarded and counted (see getDroppedCount()). Parameterized messages
+ * are formatted on the logging thread, so the arguments must not be
+ * modified after they are logged if the output is to reflect their
+ * state at the time.
+ */
+public class AsyncLogHandler implements Log.FormattingLogHandler {
+
+	public static final int DEFAULT_CAPACITY = 1024;
+
+	/**
+	 * Create a handler that outputs messages with Log.defaultHandler
+	 */
+	public AsyncLogHandler() {
+		this(Log.defaultHandler, DEFAULT_CAPACITY);
+	}
+
+	/**
+	 * Create a handler
+	 * @param delegate the handler to output messages with
+	 * @param capacity the number of messages that can be queued; rounded up to a power of 2
+	 */
+	public AsyncLogHandler(Log.LogHandler delegate, int capacity) {
+		int size = Integer.highestOneBit(Math.max(capacity, 2) - 1) << 1;
+		this.delegate = delegate;
+		this.mask = size - 1;
+		sequences = new AtomicLongArray(size);
+		for(int i = 0; i < size; i++)
+			sequences.set(i, i);
+		severities = new int[size];
+		tags = new String[size];
+		formats = new String[size];
+		argCounts = new int[size];
+		args1 = new Object[size];
+		args2 = new Object[size];
+		args3 = new Object[size];
+		throwables = new Throwable[size];
+		thread = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				drainLoop();
+			}
+		}, "ably-log");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	@Override
+	public void println(int severity, String tag, String msg, Throwable tr) {
+		/* a message that is not parameterized is indicated by argCount -1 */
+		offer(severity, tag, msg, -1, null, null, null, tr);
+	}
+
+	@Override
+	public void print(int severity, String tag, String format, int argCount, Object arg1, Object arg2, Object arg3, Throwable tr) {
+		offer(severity, tag, format, argCount, arg1, arg2, arg3, tr);
+	}
+
+	/**
+	 * Get the number of messages discarded because the buffer was full
+	 */
+	public long getDroppedCount() {
+		return dropped.get();
+	}
+
+	/**
+	 * Wait for all messages queued so far to be output
+	 * @param timeout the maximum time to wait, in milliseconds
+	 * @return true if the messages were output within the timeout
+	 */
+	public boolean flush(long timeout) {
+		long target = tail.get();
+		long deadline = System.currentTimeMillis() + timeout;
+		while(head < target) {
+			if(System.currentTimeMillis() >= deadline)
+				return false;
+			LockSupport.unpark(thread);
+			try {
+				Thread.sleep(1);
+			} catch(InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Stop the logging thread once the messages already queued have been output
+	 */
+	public void close() {
+		closed = true;
+		LockSupport.unpark(thread);
+	}
+
+	private void offer(int severity, String tag, String format, int argCount, Object arg1, Object arg2, Object arg3, Throwable tr) {
+		long pos;
+		int idx;
+		while(true) {
+			pos = tail.get();
+			idx = (int)pos & mask;
+			long seq = sequences.get(idx);
+			if(seq < pos) {
+				/* the buffer is full */
+				dropped.incrementAndGet();
+				return;
+			}
+			if(seq == pos && tail.compareAndSet(pos, pos + 1))
+				break;
+		}
+		severities[idx] = severity;
+		tags[idx] = tag;
+		formats[idx] = format;
+		argCounts[idx] = argCount;
+		args1[idx] = arg1;
+		args2[idx] = arg2;
+		args3[idx] = arg3;
+		throwables[idx] = tr;
+		/* publish the slot to the logging thread */
+		sequences.set(idx, pos + 1);
+		if(waiting)
+			LockSupport.unpark(thread);
+	}
+
+	private void drainLoop() {
+		while(true) {
+			if(!drain()) {
+				if(closed)
+					return;
+				waiting = true;
+				/* recheck, in case a message was published before waiting was set */
+				if(!isReadable())
+					LockSupport.parkNanos(this, PARK_NANOS);
+				waiting = false;
+			}
+		}
+	}
+
+	private boolean isReadable() {
+		return sequences.get((int)head & mask) == head + 1;
+	}
+
+	/**
+	 * Output all readable messages
+	 * @return true if any messages were output
+	 */
+	private boolean drain() {
+		boolean result = false;
+		while(isReadable()) {
+			int idx = (int)head & mask;
+			int severity = severities[idx];
+			String tag = tags[idx], format = formats[idx];
+			int argCount = argCounts[idx];
+			Object arg1 = args1[idx], arg2 = args2[idx], arg3 = args3[idx];
+			Throwable tr = throwables[idx];
+			tags[idx] = formats[idx] = null;
+			args1[idx] = args2[idx] = args3[idx] = null;
+			throwables[idx] = null;
+			/* release the slot for reuse */
+			sequences.set(idx, head + mask + 1);
+			result = true;
+			try {
+				String msg = (argCount < 0) ? format : Log.format(format, argCount, arg1, arg2, arg3);
+				delegate.println(severity, tag, msg, tr);
+			} catch(Throwable t) {
+				/* the log handler must not terminate the logging thread */
+			}
+			/* the message is now complete, for the purposes of flush() */
+			++head;
+		}
+		return result;
+	}
+
+	private static final long PARK_NANOS = 100000000L;
+
+	private final Log.LogHandler delegate;
+	private final int mask;
+	private final AtomicLongArray sequences;
+	private final int[] severities;
+	private final String[] tags;
+	private final String[] formats;
+	private final int[] argCounts;
+	private final Object[] args1;
+	private final Object[] args2;
+	private final Object[] args3;
+	private final Throwable[] throwables;
+	private final AtomicLong tail = new AtomicLong();
+	private final AtomicLong dropped = new AtomicLong();
+	private final Thread thread;
+	/* only written by the logging thread */
+	private volatile long head;
+	private volatile boolean waiting;
+	private volatile boolean closed;
+}
@@ -1,5 +1,10 @@
 package io.ably.lib.util;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
 import java.nio.charset.Charset;
 
 //Copyright 2003-2010 Christian d'Heureuse, Inventec Informatik AG, Zurich, Switzerland
@@ -26,6 +31,13 @@ import java.nio.charset.Charset;
 * Project home page: <a href="http://www.source-code.biz/base64coder/java/">www.source-code.biz/base64coder/java</a><br>
 * Author: Christian d'Heureuse, Inventec Informatik AG, Zurich, Switzerland<br>
 * Multi-licensed: EPL / LGPL / AL / BSD.
+*
+* <p>
+* Where the platform prefers it (see <code>Platform.preferJdkBase64</code>),
+* and it is available, encoding and decoding of whole arrays and strings
+* is delegated to <code>java.util.Base64</code>. The methods that encode and
+* decode between byte arrays write into arrays given by the caller, and the
+* stream methods encode and decode large payloads incrementally.
 */
 public class Base64Coder {
 
@@ -50,6 +62,17 @@ static {
  map2['-'] = map2['+']; map2['_'] = map2['/'];
 }
 
+//Mapping tables for encoding to, and decoding from, bytes; map4 is indexed by unsigned byte value.
+private static byte[]    map3 = new byte[64];
+private static int[]     map4 = new int[256];
+static {
+ for (int i=0; i<64; i++) map3[i] = (byte)map1[i];
+ for (int i=0; i<map4.length; i++) map4[i] = (i < map2.length) ? map2[i] : -1;
+}
+
+//The java.util.Base64 implementation, or null if not available or not preferred.
+private static final Jdk jdk = Platform.preferJdkBase64 ? Jdk.create() : null;
+
 /**
 * Encodes a string into Base64 format.
 * No blanks or line breaks are inserted.
@@ -57,7 +80,7 @@ static {
 * @return   A String containing the Base64 encoded data.
 */
 public static String encodeString (String s) {
-return new String(encode(s.getBytes(Charset.forName("UTF-8")))); }
+return encodeToString(s.getBytes(Charset.forName("UTF-8"))); }
 
 /**
 * Encodes a byte array into Base 64 format and breaks the output into lines of 76 characters.
@@ -139,6 +162,77 @@ while (ip < iEnd) {
  out[op] = op < oDataLen ? map1[o3] : '='; op++; }
 return out; }
 
+/**
+* Encodes a byte array into a Base64 String.
+* No blanks or line breaks are inserted in the output.
+* @param in  An array containing the data bytes to be encoded.
+* @return    A String containing the Base64 encoded data.
+*/
+public static String encodeToString (byte[] in) {
+if (jdk != null) return jdk.encodeToString(in);
+return new String(encode(in, 0, in.length)); }
+
+/**
+* Encodes part of a byte array into a Base64 String.
+* No blanks or line breaks are inserted in the output.
+* @param in    An array containing the data bytes to be encoded.
+* @param iOff  Offset of the first byte in <code>in</code> to be processed.
+* @param iLen  Number of bytes to process in <code>in</code>, starting at <code>iOff</code>.
+* @return      A String containing the Base64 encoded data.
+*/
+public static String encodeToString (byte[] in, int iOff, int iLen) {
+if (jdk != null && iOff == 0 && iLen == in.length) return jdk.encodeToString(in);
+return new String(encode(in, iOff, iLen)); }
+
+/**
+* Returns the length of the Base64 encoding, including padding, of the given number of bytes.
+*/
+public static int encodedLength (int iLen) {
+return ((iLen+2)/3)*4; }
+
+/**
+* Encodes bytes into Base64 format, as ASCII bytes, in an array given by the caller.
+* No blanks or line breaks are inserted in the output.
+* @param in    An array containing the data bytes to be encoded.
+* @param iOff  Offset of the first byte in <code>in</code> to be processed.
+* @param iLen  Number of bytes to process in <code>in</code>, starting at <code>iOff</code>.
+* @param out   The array for the output, with room for <code>encodedLength(iLen)</code> bytes from <code>oOff</code>.
+* @param oOff  Offset in <code>out</code> of the first byte of the output.
+* @return      The number of bytes written to <code>out</code>.
+*/
+public static int encode (byte[] in, int iOff, int iLen, byte[] out, int oOff) {
+int oLen = encodedLength(iLen);
+if (out.length - oOff < oLen) throw new IllegalArgumentException ("Output array is too small for the encoded data.");
+if (jdk != null && iOff == 0 && iLen == in.length && oOff == 0) return jdk.encode(in, out);
+int ip = iOff;
+int iFullEnd = iOff + iLen - iLen%3;
+int op = oOff;
+while (ip < iFullEnd) {
+ int bits = (in[ip] & 0xff) << 16 | (in[ip+1] & 0xff) << 8 | (in[ip+2] & 0xff);
+ ip += 3;
+ out[op++] = map3[bits >>> 18];
+ out[op++] = map3[(bits >>> 12) & 0x3f];
+ out[op++] = map3[(bits >>> 6) & 0x3f];
+ out[op++] = map3[bits & 0x3f]; }
+int remaining = iLen%3;
+if (remaining > 0) {
+ int i0 = in[ip] & 0xff;
+ int i1 = remaining > 1 ? in[ip+1] & 0xff : 0;
+ out[op++] = map3[i0 >>> 2];
+ out[op++] = map3[((i0 & 3) << 4) | (i1 >>> 4)];
+ out[op++] = remaining > 1 ? map3[(i1 & 0xf) << 2] : (byte)'=';
+ out[op++] = '='; }
+return oLen; }
+
+/**
+* Returns an output stream that encodes the bytes written to it into Base64 format,
+* as ASCII bytes, and writes them to the given stream. Closing the returned stream
+* writes any remaining output, including padding, and closes the given stream.
+* @param out  The stream to which the Base64 encoded data is written.
+*/
+public static OutputStream encodingStream (OutputStream out) {
+return new EncodingOutputStream(out); }
+
 /**
 * Decodes a string from Base64 format.
 * No blanks or line breaks are allowed within the Base64 encoded input data.
@@ -174,7 +268,37 @@ return decode(buf, 0, p); }
 * @throws   IllegalArgumentException If the input is not valid Base64 encoded data.
 */
 public static byte[] decode (String s) {
-return decode(s.toCharArray()); }
+int iLen = s.length();
+if (iLen%4 != 0) throw new IllegalArgumentException ("Length of Base64 encoded input string is not a multiple of 4.");
+if (jdk != null) {
+ /* the built-in decoder additionally accepts URL safe characters,
+  * so it decides any input that java.util.Base64 rejects */
+ try { return jdk.decode(s); } catch (IllegalArgumentException e) {} }
+while (iLen > 0 && s.charAt(iLen-1) == '=') iLen--;
+int oLen = (iLen*3) / 4;
+byte[] out = new byte[oLen];
+int ip = 0;
+int op = 0;
+while (ip < iLen) {
+ int i0 = s.charAt(ip++);
+ int i1 = ip < iLen ? s.charAt(ip++) : '=';
+ int i2 = ip < iLen ? s.charAt(ip++) : 'A';
+ int i3 = ip < iLen ? s.charAt(ip++) : 'A';
+ if (i0 > 127 || i1 > 127 || i2 > 127 || i3 > 127)
+    throw new IllegalArgumentException ("Illegal character in Base64 encoded data.");
+ int b0 = map2[i0];
+ int b1 = map2[i1];
+ int b2 = map2[i2];
+ int b3 = map2[i3];
+ if (b0 < 0 || b1 < 0 || b2 < 0 || b3 < 0)
+    throw new IllegalArgumentException ("Illegal character in Base64 encoded data.");
+ int o0 = ( b0       <<2) | (b1>>>4);
+ int o1 = ((b1 & 0xf)<<4) | (b2>>>2);
+ int o2 = ((b2 &   3)<<6) |  b3;
+ out[op++] = (byte)o0;
+ if (op<oLen) out[op++] = (byte)o1;
+ if (op<oLen) out[op++] = (byte)o2; }
+return out; }
 
 /**
 * Decodes a byte array from Base64 format.
@@ -224,6 +348,222 @@ while (ip < iEnd) {
  if (op<oLen) out[op++] = (byte)o2; }
 return out; }
 
+/**
+* Decodes a byte array from Base64 format, given as ASCII bytes.
+* No blanks or line breaks are allowed within the Base64 encoded input data.
+* @param in  An array containing the Base64 encoded data.
+* @return    An array containing the decoded data bytes.
+* @throws    IllegalArgumentException If the input is not valid Base64 encoded data.
+*/
+public static byte[] decode (byte[] in) {
+byte[] out = new byte[decodedLength(in, 0, in.length)];
+decode(in, 0, in.length, out, 0);
+return out; }
+
+/**
+* Returns the length of the decoded data of Base64 encoded input, given as ASCII bytes.
+* @throws IllegalArgumentException If the input length is not a multiple of 4.
+*/
+public static int decodedLength (byte[] in, int iOff, int iLen) {
+if (iLen%4 != 0) throw new IllegalArgumentException ("Length of Base64 encoded input string is not a multiple of 4.");
+while (iLen > 0 && in[iOff+iLen-1] == '=') iLen--;
+return (iLen*3) / 4; }
+
+/**
+* Decodes bytes from Base64 format, given as ASCII bytes, into an array given by the caller.
+* No blanks or line breaks are allowed within the Base64 encoded input data.
+* @param in    An array containing the Base64 encoded data.
+* @param iOff  Offset of the first byte in <code>in</code> to be processed.
+* @param iLen  Number of bytes to process in <code>in</code>, starting at <code>iOff</code>.
+* @param out   The array for the output, with room for <code>decodedLength(in, iOff, iLen)</code> bytes from <code>oOff</code>.
+* @param oOff  Offset in <code>out</code> of the first byte of the output.
+* @return      The number of bytes written to <code>out</code>.
+* @throws      IllegalArgumentException If the input is not valid Base64 encoded data.
+*/
+public static int decode (byte[] in, int iOff, int iLen, byte[] out, int oOff) {
+int oLen = decodedLength(in, iOff, iLen);
+if (out.length - oOff < oLen) throw new IllegalArgumentException ("Output array is too small for the decoded data.");
+if (jdk != null && iOff == 0 && iLen == in.length && oOff == 0) {
+ try { return jdk.decode(in, out); } catch (IllegalArgumentException e) {} }
+while (iLen > 0 && in[iOff+iLen-1] == '=') iLen--;
+int ip = iOff;
+int iEnd = iOff + iLen;
+int iFullEnd = iOff + (iLen & ~3);
+int op = oOff;
+while (ip < iFullEnd) {
+ int b0 = map4[in[ip] & 0xff];
+ int b1 = map4[in[ip+1] & 0xff];
+ int b2 = map4[in[ip+2] & 0xff];
+ int b3 = map4[in[ip+3] & 0xff];
+ ip += 4;
+ if ((b0 | b1 | b2 | b3) < 0)
+    throw new IllegalArgumentException ("Illegal character in Base64 encoded data.");
+ int bits = b0 << 18 | b1 << 12 | b2 << 6 | b3;
+ out[op++] = (byte)(bits >>> 16);
+ out[op++] = (byte)(bits >>> 8);
+ out[op++] = (byte)bits; }
+int remaining = iEnd - ip;
+if (remaining > 0) {
+ if (remaining == 1)
+    throw new IllegalArgumentException ("Illegal character in Base64 encoded data.");
+ int b0 = map4[in[ip] & 0xff];
+ int b1 = map4[in[ip+1] & 0xff];
+ int b2 = remaining > 2 ? map4[in[ip+2] & 0xff] : 0;
+ if ((b0 | b1 | b2) < 0)
+    throw new IllegalArgumentException ("Illegal character in Base64 encoded data.");
+ out[op++] = (byte)((b0 << 2) | (b1 >>> 4));
+ if (remaining > 2) out[op++] = (byte)(((b1 & 0xf) << 4) | (b2 >>> 2)); }
+return op - oOff; }
+
+/**
+* Returns an input stream that reads Base64 encoded data, as ASCII bytes,
+* from the given stream and returns the decoded data. No blanks or line
+* breaks are allowed within the Base64 encoded input data; invalid data
+* is reported as an IOException.
+* @param in  The stream from which the Base64 encoded data is read.
+*/
+public static InputStream decodingStream (InputStream in) {
+return new DecodingInputStream(in); }
+
+//Size of the encoded data buffered by the streams; a multiple of 4.
+private static final int STREAM_BUFFER_SIZE = 8192;
+
+private static final class EncodingOutputStream extends OutputStream {
+ private final OutputStream out;
+ private final byte[] buffer = new byte[STREAM_BUFFER_SIZE];
+ private final byte[] pending = new byte[3];
+ private int pendingCount;
+ private boolean closed;
+
+ EncodingOutputStream (OutputStream out) {
+    this.out = out; }
+
+ @Override
+ public void write (int b) throws IOException {
+    write(new byte[] { (byte)b }, 0, 1); }
+
+ @Override
+ public void write (byte[] b, int off, int len) throws IOException {
+    if (closed) throw new IOException ("Stream closed");
+    if (pendingCount > 0) {
+       while (pendingCount < 3 && len > 0) { pending[pendingCount++] = b[off++]; len--; }
+       if (pendingCount < 3) return;
+       out.write(buffer, 0, encode(pending, 0, 3, buffer, 0));
+       pendingCount = 0; }
+    int chunkLen = (buffer.length/4) * 3;
+    while (len >= 3) {
+       int l = Math.min(len - len%3, chunkLen);
+       out.write(buffer, 0, encode(b, off, l, buffer, 0));
+       off += l; len -= l; }
+    while (len > 0) { pending[pendingCount++] = b[off++]; len--; } }
+
+ @Override
+ public void flush () throws IOException {
+    out.flush(); }
+
+ @Override
+ public void close () throws IOException {
+    if (closed) return;
+    closed = true;
+    if (pendingCount > 0) out.write(buffer, 0, encode(pending, 0, pendingCount, buffer, 0));
+    out.close(); } }
+
+private static final class DecodingInputStream extends InputStream {
+ private final InputStream in;
+ private final byte[] inBuffer = new byte[STREAM_BUFFER_SIZE];
+ private final byte[] outBuffer = new byte[(STREAM_BUFFER_SIZE/4) * 3];
+ private int inCount, outPos, outLimit;
+ private boolean padded, eof;
+
+ DecodingInputStream (InputStream in) {
+    this.in = in; }
+
+ @Override
+ public int read () throws IOException {
+    byte[] b = new byte[1];
+    return read(b, 0, 1) < 0 ? -1 : b[0] & 0xff; }
+
+ @Override
+ public int read (byte[] b, int off, int len) throws IOException {
+    if (len == 0) return 0;
+    while (outPos == outLimit)
+       if (!fill()) return -1;
+    int l = Math.min(len, outLimit - outPos);
+    System.arraycopy(outBuffer, outPos, b, off, l);
+    outPos += l;
+    return l; }
+
+ @Override
+ public int available () throws IOException {
+    return outLimit - outPos; }
+
+ @Override
+ public void close () throws IOException {
+    in.close(); }
+
+ /* decode the next whole groups of 4 characters; returns false at the end of the input */
+ private boolean fill () throws IOException {
+    if (eof) return false;
+    int n = in.read(inBuffer, inCount, inBuffer.length - inCount);
+    if (n < 0) {
+       eof = true;
+       if (inCount != 0) throw new IOException ("Length of Base64 encoded input string is not a multiple of 4.");
+       return false; }
+    inCount += n;
+    int usable = inCount & ~3;
+    if (usable > 0) {
+       if (padded) throw new IOException ("Base64 encoded data continues after padding.");
+       padded = inBuffer[usable-1] == '=';
+       try {
+          outLimit = decode(inBuffer, 0, usable, outBuffer, 0);
+       } catch (IllegalArgumentException e) {
+          throw new IOException (e.getMessage()); }
+       outPos = 0;
+       System.arraycopy(inBuffer, usable, inBuffer, 0, inCount - usable);
+       inCount -= usable; }
+    return true; } }
+
+//Delegation to java.util.Base64, by reflection, since this library is built for Java 7.
+private static final class Jdk {
+ private final Object encoder, decoder;
+ private final Method encodeToString, encodeArray, decodeString, decodeArray;
+
+ private Jdk (Class<?> base64) throws Exception {
+    encoder = base64.getMethod("getEncoder").invoke(null);
+    decoder = base64.getMethod("getDecoder").invoke(null);
+    encodeToString = encoder.getClass().getMethod("encodeToString", byte[].class);
+    encodeArray = encoder.getClass().getMethod("encode", byte[].class, byte[].class);
+    decodeString = decoder.getClass().getMethod("decode", String.class);
+    decodeArray = decoder.getClass().getMethod("decode", byte[].class, byte[].class); }
+
+ static Jdk create () {
+    try {
+       return new Jdk(Class.forName("java.util.Base64"));
+    } catch (Exception e) {
+       return null; } }
+
+ String encodeToString (byte[] in) {
+    return (String)invoke(encodeToString, encoder, in); }
+
+ int encode (byte[] in, byte[] out) {
+    return (Integer)invoke(encodeArray, encoder, in, out); }
+
+ byte[] decode (String s) {
+    return (byte[])invoke(decodeString, decoder, s); }
+
+ int decode (byte[] in, byte[] out) {
+    return (Integer)invoke(decodeArray, decoder, in, out); }
+
+ private static Object invoke (Method method, Object target, Object... args) {
+    try {
+       return method.invoke(target, args);
+    } catch (InvocationTargetException e) {
+       Throwable cause = e.getCause();
+       if (cause instanceof RuntimeException) throw (RuntimeException)cause;
+       throw new IllegalStateException(cause);
+    } catch (IllegalAccessException e) {
+       throw new IllegalStateException(e); } } }
+
 //Dummy constructor.
 private Base64Coder() {}
 
@@ -2,14 +2,20 @@ package io.ably.lib.util;
 
 import java.security.InvalidAlgorithmParameterException;
 import java.security.InvalidKeyException;
+import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReference;
 
 import javax.crypto.BadPaddingException;
 import javax.crypto.Cipher;
 import javax.crypto.IllegalBlockSizeException;
 import javax.crypto.KeyGenerator;
 import javax.crypto.NoSuchPaddingException;
+import javax.crypto.ShortBufferException;
+import javax.crypto.spec.GCMParameterSpec;
 import javax.crypto.spec.IvParameterSpec;
 import javax.crypto.spec.SecretKeySpec;
 
@@ -40,6 +46,12 @@ public class Crypto {
 	public static final int DEFAULT_KEYLENGTH = is256BitsSupported() ? 256 : 128; // bits
 	public static final int DEFAULT_BLOCKLENGTH = 16; // bytes
 
+	/* chaining modes; see CipherParams.mode */
+	public static final String MODE_CBC = "cbc";
+	public static final String MODE_GCM = "gcm";
+	public static final String MODE_CTR = "ctr";
+	public static final String DEFAULT_MODE = MODE_CBC;
+
 	/**
 	 * A class encapsulating the client-specifiable parameters for
 	 * the cipher.
@@ -47,6 +59,15 @@ public class Crypto {
 	 * algorithm is the name of the algorithm in the default system provider,
 	 * or the lower-cased version of it; eg "aes" or "AES".
 	 *
+	 * mode is the chaining mode: MODE_CBC, the default, which is supported by
+	 * all clients; MODE_GCM, which is authenticated; or MODE_CTR. The mode is
+	 * recorded in the encoding of each message, so that a recipient with the
+	 * same key decrypts the message in that mode, whatever its own mode.
+	 * An ivSpec, if given, is used in CBC mode for the first message encrypted.
+	 * GCM and CTR modes ignore it: an IV must never be used twice with the same
+	 * key in those modes, and the same CipherParams may be used by several
+	 * channels, so their IVs are always generated with the SecureRandom.
+	 *
 	 * Clients may instance a CipherParams directly and populate it, or may
 	 * query the implementation to obtain a default system CipherParams.
 	 */
@@ -54,19 +75,26 @@ public class Crypto {
 		public final String algorithm;
 		public final int keyLength;
 		public final SecretKeySpec keySpec;
+		public final String mode;
 		public IvParameterSpec ivSpec;
 
 		public CipherParams(String algorithm, byte[] key) throws NoSuchAlgorithmException {
+			this(algorithm, DEFAULT_MODE, key);
+		}
+
+		public CipherParams(String algorithm, String mode, byte[] key) throws NoSuchAlgorithmException {
 			if(algorithm == null) algorithm = DEFAULT_ALGORITHM;
 			this.algorithm = algorithm;
 			this.keyLength = key.length * 8;
 			this.keySpec = new SecretKeySpec(key, algorithm.toUpperCase());
+			this.mode = (mode == null) ? DEFAULT_MODE : mode.toLowerCase();
 		}
 
-		private CipherParams(String algorithm, int keyLength, SecretKeySpec keySpec, IvParameterSpec ivSpec) {
+		private CipherParams(String algorithm, int keyLength, SecretKeySpec keySpec, String mode, IvParameterSpec ivSpec) {
 			this.algorithm = algorithm;
 			this.keyLength = keyLength;
 			this.keySpec = keySpec;
+			this.mode = mode;
 			this.ivSpec = ivSpec;
 		}
 	}
@@ -116,7 +144,7 @@ public class Crypto {
 	 * @return
 	 */
 	public static CipherParams getDefaultParams(CipherParams params) {
-		return new CipherParams(params.algorithm, params.keyLength, params.keySpec, params.ivSpec);
+		return new CipherParams(params.algorithm, params.keyLength, params.keySpec, params.mode, params.ivSpec);
 	}
 
 	public static CipherParams getParams(String algorithm, int keyLength) {
@@ -131,7 +159,15 @@ public class Crypto {
 	}
 
 	public static CipherParams getParams(String algorithm, byte[] key) throws NoSuchAlgorithmException {
-		CipherParams params = new CipherParams(algorithm, key);
+		return getParams(algorithm, DEFAULT_MODE, key);
+	}
+
+	/**
+	 * Obtain a CipherParams for the given algorithm, chaining mode and key;
+	 * an IV is generated using the default system SecureRandom.
+	 */
+	public static CipherParams getParams(String algorithm, String mode, byte[] key) throws NoSuchAlgorithmException {
+		CipherParams params = new CipherParams(algorithm, mode, key);
 		byte[] ivBytes = new byte[DEFAULT_BLOCKLENGTH];
 		secureRandom.nextBytes(ivBytes);
 		params.ivSpec = new IvParameterSpec(ivBytes);
@@ -158,6 +194,41 @@ public class Crypto {
 		public String getAlgorithm();
 	}
 
+	/**
+	 * Interface for a ChannelCipher that encrypts and decrypts into arrays
+	 * given by the caller, so that output can be written into a buffer that
+	 * is reused, or that is sized in advance. Implementations are safe for
+	 * concurrent use by multiple threads.
+	 */
+	public static interface BufferChannelCipher extends ChannelCipher {
+		/**
+		 * The length of the ciphertext, including the IV, of a plaintext of the given length
+		 */
+		public int getCiphertextLength(int plaintextLength);
+
+		/**
+		 * Encrypt part of an array into another
+		 * @param ciphertext the array for the ciphertext, with room for
+		 * getCiphertextLength(length) bytes from ciphertextOffset
+		 * @return the length of the ciphertext
+		 */
+		public int encrypt(byte[] plaintext, int offset, int length, byte[] ciphertext, int ciphertextOffset) throws AblyException;
+
+		/**
+		 * The maximum length of the plaintext of a ciphertext of the given length;
+		 * the room that decrypt() requires for its output
+		 */
+		public int getMaxPlaintextLength(int ciphertextLength);
+
+		/**
+		 * Decrypt part of an array into another
+		 * @param plaintext the array for the plaintext, with room for
+		 * getMaxPlaintextLength(length) bytes from plaintextOffset
+		 * @return the length of the plaintext
+		 */
+		public int decrypt(byte[] ciphertext, int offset, int length, byte[] plaintext, int plaintextOffset) throws AblyException;
+	}
+
 	/**
 	 * Internal; get a ChannelCipher instance based on the given ChannelOptions
 	 * @param opts
@@ -173,7 +244,252 @@ public class Crypto {
 		else
 			throw AblyException.fromErrorInfo(new ErrorInfo("ChannelOptions not supported", 400, 40000));
 
-		return new CBCCipher(params);
+		return getCipher(params);
+	}
+
+	/**
+	 * Internal; get a ChannelCipher instance, with the key of the given
+	 * ChannelOptions, for the algorithm named in a message encoding, such as
+	 * "aes-128-gcm"; this is used to decrypt messages encrypted in a different
+	 * mode to that of the channel.
+	 * @throws AblyException if the algorithm does not match the key
+	 */
+	public static ChannelCipher getCipher(ChannelOptions opts, String algorithm) throws AblyException {
+		if(!(opts.cipherParams instanceof CipherParams))
+			throw AblyException.fromErrorInfo(new ErrorInfo("ChannelOptions not supported", 400, 40000));
+		CipherParams params = (CipherParams)opts.cipherParams;
+		String prefix = params.algorithm + '-' + params.keyLength + '-';
+		if(!algorithm.regionMatches(true, 0, prefix, 0, prefix.length()))
+			throw AblyException.fromErrorInfo(new ErrorInfo("Cipher " + algorithm + " does not match the channel key", 400, 40000));
+		String mode = algorithm.substring(prefix.length());
+		return getCipher(new CipherParams(params.algorithm, params.keyLength, params.keySpec, mode.toLowerCase(), null));
+	}
+
+	private static ChannelCipher getCipher(CipherParams params) throws AblyException {
+		switch(params.mode) {
+			case MODE_CBC:
+				return new CBCCipher(params);
+			case MODE_GCM:
+				return new GCMCipher(params);
+			case MODE_CTR:
+				return new CTRCipher(params);
+			default:
+				throw AblyException.fromErrorInfo(new ErrorInfo("Unsupported cipher mode: " + params.mode, 400, 40000));
+		}
+	}
+
+	/**
+	 * Internal: the base of the ChannelCipher implementations, each of which
+	 * encrypts and decrypts with a Cipher for each thread, so that they are
+	 * safe for concurrent use. The Ciphers are shared by every ChannelCipher,
+	 * of any channel or client, with the same key and mode; see SharedCiphers.
+	 * The Cipher of each thread for encryption is created with a random IV,
+	 * and subclasses derive the IVs of successive messages from that; in CBC
+	 * mode, the first message encrypted by each ChannelCipher instead uses
+	 * the IV in its CipherParams, if given.
+	 */
+	private static abstract class ThreadCipher implements BufferChannelCipher {
+		protected final SecretKeySpec keySpec;
+		protected final int ivLength;
+		private final String algorithm;
+		private final SharedCiphers shared;
+		private final AtomicReference<byte[]> initialIv;
+
+		/**
+		 * @param useGivenIv true if the IV of the params, if any, is used for the first message
+		 */
+		protected ThreadCipher(CipherParams params, String transformation, int ivLength, boolean useGivenIv) throws AblyException {
+			this.keySpec = params.keySpec;
+			this.ivLength = ivLength;
+			this.algorithm = params.algorithm + '-' + params.keyLength + '-' + params.mode;
+			this.shared = SharedCiphers.get(this, transformation);
+			initialIv = new AtomicReference<byte[]>((useGivenIv && params.ivSpec != null) ? Arrays.copyOf(params.ivSpec.getIV(), ivLength) : null);
+		}
+
+		/**
+		 * Initialise a Cipher for encryption, with the IV of the first message
+		 */
+		protected abstract void initEncrypt(Cipher cipher, byte[] iv) throws InvalidKeyException, InvalidAlgorithmParameterException;
+
+		/**
+		 * Decrypt using the Cipher of the calling thread
+		 */
+		protected abstract int decrypt(CipherState state, byte[] ciphertext, int offset, int length, byte[] plaintext, int plaintextOffset) throws AblyException;
+
+		@Override
+		public byte[] encrypt(byte[] plaintext) throws AblyException {
+			if(plaintext == null) return null;
+			byte[] ciphertext = new byte[getCiphertextLength(plaintext.length)];
+			encrypt(plaintext, 0, plaintext.length, ciphertext, 0);
+			return ciphertext;
+		}
+
+		@Override
+		public byte[] decrypt(byte[] ciphertext) throws AblyException {
+			if(ciphertext == null) return null;
+			CipherState state = getDecryptState();
+			byte[] buffer = state.buffer(getMaxPlaintextLength(ciphertext.length));
+			int length = decrypt(state, ciphertext, 0, ciphertext.length, buffer, 0);
+			return Arrays.copyOf(buffer, length);
+		}
+
+		@Override
+		public int decrypt(byte[] ciphertext, int offset, int length, byte[] plaintext, int plaintextOffset) throws AblyException {
+			if(plaintext.length - plaintextOffset < getMaxPlaintextLength(length))
+				throw AblyException.fromErrorInfo(new ErrorInfo("Plaintext array is too small", 400, 40000));
+			return decrypt(getDecryptState(), ciphertext, offset, length, plaintext, plaintextOffset);
+		}
+
+		@Override
+		public String getAlgorithm() {
+			return algorithm;
+		}
+
+		/**
+		 * Internal: get the Cipher of the calling thread for encryption,
+		 * checking that the given array has room for the ciphertext.
+		 */
+		protected CipherState getEncryptState(int length, byte[] ciphertext, int ciphertextOffset) throws AblyException {
+			if(ciphertext.length - ciphertextOffset < getCiphertextLength(length))
+				throw AblyException.fromErrorInfo(new ErrorInfo("Ciphertext array is too small", 400, 40000));
+			return getState(shared.encryptStates, Cipher.ENCRYPT_MODE);
+		}
+
+		/**
+		 * Internal: get the Cipher of the calling thread for decryption, which
+		 * is initialised afresh for each use.
+		 */
+		protected CipherState getDecryptState() throws AblyException {
+			return getState(shared.decryptStates, Cipher.DECRYPT_MODE);
+		}
+
+		/**
+		 * Internal: the IV given for the first message of this ChannelCipher,
+		 * if that message has not yet been encrypted; otherwise null
+		 */
+		protected byte[] claimInitialIv() {
+			return (initialIv.get() == null) ? null : initialIv.getAndSet(null);
+		}
+
+		/**
+		 * Internal: get the calling thread's cipher for the given mode,
+		 * initialising it on first use.
+		 */
+		private CipherState getState(ThreadLocal<CipherState> states, int mode) throws AblyException {
+			CipherState state = states.get();
+			if(state == null) {
+				try {
+					Cipher cipher = Cipher.getInstance(shared.transformation);
+					byte[] iv = null;
+					if(mode == Cipher.ENCRYPT_MODE) {
+						iv = randomIv(ivLength);
+						initEncrypt(cipher, iv);
+					}
+					state = new CipherState(cipher, iv, DEFAULT_BLOCKLENGTH);
+				}
+				catch (NoSuchAlgorithmException|NoSuchPaddingException|InvalidAlgorithmParameterException|InvalidKeyException e) {
+					throw AblyException.fromThrowable(e);
+				}
+				states.set(state);
+			}
+			return state;
+		}
+
+		protected static AblyException decryptException(Exception e) {
+			Log.e(TAG, "decrypt()", e);
+			return AblyException.fromThrowable(e);
+		}
+
+		private static byte[] randomIv(int ivLength) {
+			byte[] iv = new byte[ivLength];
+			secureRandom.nextBytes(iv);
+			return iv;
+		}
+
+		/**
+		 * Internal: a cipher used by a single thread, with its working state
+		 */
+		protected static class CipherState {
+			protected final Cipher cipher;
+			/* the IV of the next message; its use depends on the mode */
+			protected byte[] iv;
+			protected final byte[] lastBlock;
+			private byte[] buffer;
+
+			private CipherState(Cipher cipher, byte[] iv, int blockLength) {
+				this.cipher = cipher;
+				this.iv = iv;
+				this.lastBlock = new byte[blockLength];
+			}
+
+			/* an array of at least the given length; only a small one is kept between calls */
+			private byte[] buffer(int length) {
+				if(buffer != null && buffer.length >= length)
+					return buffer;
+				byte[] result = new byte[Math.max(length, 256)];
+				if(result.length <= MAX_RETAINED_BUFFER)
+					buffer = result;
+				return result;
+			}
+		}
+
+		private static final int MAX_RETAINED_BUFFER = 64 * 1024;
+	}
+
+	/**
+	 * Internal: the Ciphers of each thread for a given key and transformation,
+	 * shared by all ChannelCiphers with that key and mode, so that Cipher
+	 * instances are obtained, and keys set up, once for each key rather than
+	 * once for each channel. The number of keys cached is bounded; beyond
+	 * that, each ChannelCipher has its own Ciphers.
+	 */
+	private static class SharedCiphers {
+		static SharedCiphers get(ThreadCipher cipher, String transformation) throws AblyException {
+			SharedCiphers key = new SharedCiphers(transformation, cipher.keySpec.getEncoded());
+			SharedCiphers shared = cache.get(key);
+			if(shared == null) {
+				/* verify the transformation and key now, rather than on first use */
+				try {
+					cipher.initEncrypt(Cipher.getInstance(transformation), ThreadCipher.randomIv(cipher.ivLength));
+				}
+				catch (NoSuchAlgorithmException|NoSuchPaddingException|InvalidAlgorithmParameterException|InvalidKeyException e) {
+					throw AblyException.fromThrowable(e);
+				}
+				shared = key;
+				if(cache.size() < MAX_CACHED) {
+					SharedCiphers existing = cache.putIfAbsent(key, key);
+					if(existing != null)
+						shared = existing;
+				}
+			}
+			return shared;
+		}
+
+		private SharedCiphers(String transformation, byte[] key) {
+			this.transformation = transformation;
+			this.key = key;
+		}
+
+		@Override
+		public int hashCode() {
+			return transformation.hashCode() * 31 + Arrays.hashCode(key);
+		}
+
+		@Override
+		public boolean equals(Object other) {
+			if(!(other instanceof SharedCiphers))
+				return false;
+			SharedCiphers shared = (SharedCiphers)other;
+			return transformation.equals(shared.transformation) && MessageDigest.isEqual(key, shared.key);
+		}
+
+		final String transformation;
+		private final byte[] key;
+		final ThreadLocal<ThreadCipher.CipherState> encryptStates = new ThreadLocal<ThreadCipher.CipherState>();
+		final ThreadLocal<ThreadCipher.CipherState> decryptStates = new ThreadLocal<ThreadCipher.CipherState>();
+
+		private static final int MAX_CACHED = 256;
+		private static final ConcurrentHashMap<SharedCiphers, SharedCiphers> cache = new ConcurrentHashMap<SharedCiphers, SharedCiphers>();
 	}
 
 	/**
@@ -184,80 +500,89 @@ public class Crypto {
 	 * whilst avoiding having to obtain further entropy for IVs, and reinit
 	 * the cipher, between successive messages.
 	 *
+	 * Each thread has its own chain of IVs, shared by the channels with the
+	 * same key. Padding is applied here, so the plaintext is not copied before
+	 * encryption.
 	 */
-	private static class CBCCipher implements ChannelCipher {
-		private final SecretKeySpec keySpec;
-		private final Cipher encryptCipher;
-		private final Cipher decryptCipher;
-		private final String algorithm;
-		private final int blockLength;
-		private byte[] iv;
+	private static class CBCCipher extends ThreadCipher {
+		/* a block containing zeros */
+		private final byte[] emptyBlock = new byte[DEFAULT_BLOCKLENGTH];
 
 		private CBCCipher(CipherParams params) throws AblyException {
-			String transformation = params.algorithm.toUpperCase() + "/CBC/PKCS5Padding";
-			try {
-				algorithm = params.algorithm + '-' + params.keyLength + "-cbc";
-				keySpec = params.keySpec;
-				encryptCipher = Cipher.getInstance(transformation);
-				encryptCipher.init(Cipher.ENCRYPT_MODE, params.keySpec, params.ivSpec);
-				decryptCipher = Cipher.getInstance(transformation);
-				iv = params.ivSpec.getIV();
-				blockLength = iv.length;
-			}
-			catch (NoSuchAlgorithmException|NoSuchPaddingException|InvalidAlgorithmParameterException|InvalidKeyException e) {
-				throw AblyException.fromThrowable(e);
-			}
+			super(params, params.algorithm.toUpperCase() + "/CBC/NoPadding", DEFAULT_BLOCKLENGTH, true);
 		}
 
 		@Override
-		public byte[] encrypt(byte[] plaintext) {
-			if(plaintext == null) return null;
-			int plaintextLength = plaintext.length;
-			int paddedLength = getPaddedLength(plaintextLength);
-			byte[] cipherIn = new byte[paddedLength];
-			byte[] ciphertext = new byte[paddedLength + blockLength];
-			int padding = paddedLength - plaintextLength;
-			System.arraycopy(plaintext, 0, cipherIn, 0, plaintextLength);
-			System.arraycopy(pkcs5Padding[padding], 0, cipherIn, plaintextLength, padding);
-			System.arraycopy(getIv(), 0, ciphertext, 0, blockLength);
-			byte[] cipherOut = encryptCipher.update(cipherIn);
-			System.arraycopy(cipherOut, 0, ciphertext, blockLength, paddedLength);
-			return ciphertext;
+		protected void initEncrypt(Cipher cipher, byte[] iv) throws InvalidKeyException, InvalidAlgorithmParameterException {
+			cipher.init(Cipher.ENCRYPT_MODE, keySpec, new IvParameterSpec(iv));
 		}
 
 		@Override
-		public byte[] decrypt(byte[] ciphertext) throws AblyException {
-			if(ciphertext == null) return null;
-			byte[] plaintext = null;
+		public int getCiphertextLength(int plaintextLength) {
+			return ivLength + getPaddedLength(plaintextLength);
+		}
+
+		@Override
+		public int encrypt(byte[] plaintext, int offset, int length, byte[] ciphertext, int ciphertextOffset) throws AblyException {
+			CipherState state = getEncryptState(length, ciphertext, ciphertextOffset);
+			int blockLength = ivLength;
 			try {
-				decryptCipher.init(Cipher.DECRYPT_MODE, keySpec, new IvParameterSpec(ciphertext, 0, blockLength));
-				plaintext = decryptCipher.doFinal(ciphertext, blockLength, ciphertext.length - blockLength);
-			}
-			catch (InvalidKeyException|InvalidAlgorithmParameterException|IllegalBlockSizeException|BadPaddingException e) {
-				Log.e(TAG, "decrypt()", e);
+				byte[] givenIv = claimInitialIv();
+				if(givenIv != null) {
+					/* the first message with the given IV is encrypted with the thread's
+					 * Cipher for decryption, which is initialised for each use, so that
+					 * the chain of the Cipher for encryption, which is shared with other
+					 * channels with the same key, is never rewound */
+					state = getDecryptState();
+					initEncrypt(state.cipher, givenIv);
+					System.arraycopy(givenIv, 0, ciphertext, ciphertextOffset, blockLength);
+				} else if(state.iv != null) {
+					/* the IV is the initial IV of this thread's chain, or the next block of the chain */
+					System.arraycopy(state.iv, 0, ciphertext, ciphertextOffset, blockLength);
+					state.iv = null;
+				} else {
+					state.cipher.update(emptyBlock, 0, blockLength, ciphertext, ciphertextOffset);
+				}
+				int fullLength = length - length % blockLength;
+				int position = ciphertextOffset + blockLength;
+				if(fullLength > 0)
+					position += state.cipher.update(plaintext, offset, fullLength, ciphertext, position);
+				/* the final block, with PKCS5 padding */
+				byte[] lastBlock = state.lastBlock;
+				int remaining = length - fullLength;
+				System.arraycopy(plaintext, offset + fullLength, lastBlock, 0, remaining);
+				Arrays.fill(lastBlock, remaining, blockLength, (byte)(blockLength - remaining));
+				state.cipher.update(lastBlock, 0, blockLength, ciphertext, position);
+			} catch (InvalidKeyException|InvalidAlgorithmParameterException|ShortBufferException e) {
 				throw AblyException.fromThrowable(e);
 			}
-			return plaintext;
+			return getCiphertextLength(length);
 		}
 
 		@Override
-		public String getAlgorithm() {
-			return algorithm;
+		public int getMaxPlaintextLength(int ciphertextLength) {
+			return Math.max(ciphertextLength - ivLength, 0);
 		}
 
-		/**
-		 * Internal: get an IV for the next message.
-		 * Returns either the IV that was used to initialise the ChannelCipher,
-		 * of generates an IV based on the current cipher state.
-		 * @return
-		 */
-		private byte[] getIv() {
-			if(iv == null)
-				return encryptCipher.update(emptyBlock);
-
-			byte[] result = iv;
-			iv = null;
-			return result;
+		@Override
+		protected int decrypt(CipherState state, byte[] ciphertext, int offset, int length, byte[] plaintext, int plaintextOffset) throws AblyException {
+			int blockLength = ivLength;
+			try {
+				if(length < 2 * blockLength || length % blockLength != 0)
+					throw new IllegalBlockSizeException("Input length must be a multiple of " + blockLength + " bytes, of at least two blocks");
+				state.cipher.init(Cipher.DECRYPT_MODE, keySpec, new IvParameterSpec(ciphertext, offset, blockLength));
+				int paddedLength = state.cipher.doFinal(ciphertext, offset + blockLength, length - blockLength, plaintext, plaintextOffset);
+				int padding = plaintext[plaintextOffset + paddedLength - 1] & 0xff;
+				if(padding < 1 || padding > blockLength)
+					throw new BadPaddingException("Given final block not properly padded");
+				for(int i = paddedLength - padding; i < paddedLength; i++)
+					if(plaintext[plaintextOffset + i] != (byte)padding)
+						throw new BadPaddingException("Given final block not properly padded");
+				return paddedLength - padding;
+			}
+			catch (InvalidKeyException|InvalidAlgorithmParameterException|IllegalBlockSizeException|BadPaddingException|ShortBufferException e) {
+				throw decryptException(e);
+			}
 		}
 
 		/**
@@ -266,37 +591,148 @@ public class Crypto {
 		 * @param plaintextLength
 		 * @return
 		 */
-		private static final int getPaddedLength(int plaintextLength) {
-			return (plaintextLength + DEFAULT_BLOCKLENGTH) & -DEFAULT_BLOCKLENGTH;
+		private int getPaddedLength(int plaintextLength) {
+			return (plaintextLength / ivLength + 1) * ivLength;
 		}
+	}
 
-		/**
-		 * Internal: a block containing zeros
-		 */
-		private static final byte[] emptyBlock = new byte[DEFAULT_BLOCKLENGTH];
+	/**
+	 * Internal: a class that implements a GCM mode ChannelCipher, which
+	 * authenticates each message with a 128-bit tag after the ciphertext.
+	 * Each message is emitted with its 96-bit nonce; the nonces of successive
+	 * messages from each thread are a counter, starting from a random value.
+	 * GCM is available from Java 7 and Android API level 19.
+	 */
+	private static class GCMCipher extends ThreadCipher {
+		private GCMCipher(CipherParams params) throws AblyException {
+			super(params, params.algorithm.toUpperCase() + "/GCM/NoPadding", GCM_NONCE_LENGTH, false);
+		}
 
-		/**
-		 * Internal: obtain the pkcs5 padding string for a given padded length;
-		 */
-		private static final byte[][] pkcs5Padding = new byte[][] {
-			new byte[] {16,16,16,16,16,16,16,16,16,16,16,16,16,16,16,16},
-			new byte[] {1},
-			new byte[] {2,2},
-			new byte[] {3,3,3},
-			new byte[] {4,4,4,4},
-			new byte[] {5,5,5,5,5},
-			new byte[] {6,6,6,6,6,6},
-			new byte[] {7,7,7,7,7,7,7},
-			new byte[] {8,8,8,8,8,8,8,8},
-			new byte[] {9,9,9,9,9,9,9,9,9},
-			new byte[] {10,10,10,10,10,10,10,10,10,10},
-			new byte[] {11,11,11,11,11,11,11,11,11,11,11},
-			new byte[] {12,12,12,12,12,12,12,12,12,12,12,12},
-			new byte[] {13,13,13,13,13,13,13,13,13,13,13,13,13},
-			new byte[] {14,14,14,14,14,14,14,14,14,14,14,14,14,14},
-			new byte[] {15,15,15,15,15,15,15,15,15,15,15,15,15,15,15},
-			new byte[] {16,16,16,16,16,16,16,16,16,16,16,16,16,16,16,16}
-		};
+		@Override
+		protected void initEncrypt(Cipher cipher, byte[] iv) throws InvalidKeyException, InvalidAlgorithmParameterException {
+			cipher.init(Cipher.ENCRYPT_MODE, keySpec, new GCMParameterSpec(GCM_TAG_LENGTH * 8, iv, 0, ivLength));
+		}
+
+		@Override
+		public int getCiphertextLength(int plaintextLength) {
+			return ivLength + plaintextLength + GCM_TAG_LENGTH;
+		}
+
+		@Override
+		public int encrypt(byte[] plaintext, int offset, int length, byte[] ciphertext, int ciphertextOffset) throws AblyException {
+			CipherState state = getEncryptState(length, ciphertext, ciphertextOffset);
+			try {
+				/* the Cipher was initialised with the first nonce of the thread;
+				 * each subsequent message requires the next nonce */
+				byte[] nonce = state.lastBlock;
+				if(state.iv != null) {
+					System.arraycopy(state.iv, 0, nonce, 0, ivLength);
+					state.iv = null;
+				} else {
+					increment(nonce, ivLength, 1);
+					initEncrypt(state.cipher, nonce);
+				}
+				System.arraycopy(nonce, 0, ciphertext, ciphertextOffset, ivLength);
+				return ivLength + state.cipher.doFinal(plaintext, offset, length, ciphertext, ciphertextOffset + ivLength);
+			} catch (InvalidKeyException|InvalidAlgorithmParameterException|IllegalBlockSizeException|BadPaddingException|ShortBufferException e) {
+				throw AblyException.fromThrowable(e);
+			}
+		}
+
+		@Override
+		public int getMaxPlaintextLength(int ciphertextLength) {
+			return Math.max(ciphertextLength - ivLength - GCM_TAG_LENGTH, 0);
+		}
+
+		@Override
+		protected int decrypt(CipherState state, byte[] ciphertext, int offset, int length, byte[] plaintext, int plaintextOffset) throws AblyException {
+			try {
+				if(length < ivLength + GCM_TAG_LENGTH)
+					throw new IllegalBlockSizeException("Input length must be at least " + (ivLength + GCM_TAG_LENGTH) + " bytes");
+				state.cipher.init(Cipher.DECRYPT_MODE, keySpec, new GCMParameterSpec(GCM_TAG_LENGTH * 8, ciphertext, offset, ivLength));
+				return state.cipher.doFinal(ciphertext, offset + ivLength, length - ivLength, plaintext, plaintextOffset);
+			}
+			catch (InvalidKeyException|InvalidAlgorithmParameterException|IllegalBlockSizeException|BadPaddingException|ShortBufferException e) {
+				throw decryptException(e);
+			}
+		}
+
+		private static final int GCM_NONCE_LENGTH = 12;
+		private static final int GCM_TAG_LENGTH = 16;
+	}
+
+	/**
+	 * Internal: a class that implements a CTR mode ChannelCipher, which needs
+	 * no padding. Each message is emitted with its initial counter block; the
+	 * counter of each thread starts from a random value, and continues from
+	 * one message to the next, so that no counter value is used twice.
+	 */
+	private static class CTRCipher extends ThreadCipher {
+		private CTRCipher(CipherParams params) throws AblyException {
+			super(params, params.algorithm.toUpperCase() + "/CTR/NoPadding", DEFAULT_BLOCKLENGTH, false);
+		}
+
+		@Override
+		protected void initEncrypt(Cipher cipher, byte[] iv) throws InvalidKeyException, InvalidAlgorithmParameterException {
+			cipher.init(Cipher.ENCRYPT_MODE, keySpec, new IvParameterSpec(iv));
+		}
+
+		@Override
+		public int getCiphertextLength(int plaintextLength) {
+			return ivLength + plaintextLength;
+		}
+
+		@Override
+		public int encrypt(byte[] plaintext, int offset, int length, byte[] ciphertext, int ciphertextOffset) throws AblyException {
+			CipherState state = getEncryptState(length, ciphertext, ciphertextOffset);
+			try {
+				/* the Cipher was initialised with the first counter block of the
+				 * thread; each subsequent message is initialised with the block
+				 * following those used by the previous message */
+				byte[] counter = state.lastBlock;
+				if(state.iv != null) {
+					System.arraycopy(state.iv, 0, counter, 0, ivLength);
+					state.iv = null;
+				} else {
+					initEncrypt(state.cipher, counter);
+				}
+				System.arraycopy(counter, 0, ciphertext, ciphertextOffset, ivLength);
+				int result = ivLength + state.cipher.doFinal(plaintext, offset, length, ciphertext, ciphertextOffset + ivLength);
+				increment(counter, ivLength, Math.max((length + ivLength - 1) / ivLength, 1));
+				return result;
+			} catch (InvalidKeyException|InvalidAlgorithmParameterException|IllegalBlockSizeException|BadPaddingException|ShortBufferException e) {
+				throw AblyException.fromThrowable(e);
+			}
+		}
+
+		@Override
+		public int getMaxPlaintextLength(int ciphertextLength) {
+			return Math.max(ciphertextLength - ivLength, 0);
+		}
+
+		@Override
+		protected int decrypt(CipherState state, byte[] ciphertext, int offset, int length, byte[] plaintext, int plaintextOffset) throws AblyException {
+			try {
+				if(length < ivLength)
+					throw new IllegalBlockSizeException("Input length must be at least " + ivLength + " bytes");
+				state.cipher.init(Cipher.DECRYPT_MODE, keySpec, new IvParameterSpec(ciphertext, offset, ivLength));
+				return state.cipher.doFinal(ciphertext, offset + ivLength, length - ivLength, plaintext, plaintextOffset);
+			}
+			catch (InvalidKeyException|InvalidAlgorithmParameterException|IllegalBlockSizeException|BadPaddingException|ShortBufferException e) {
+				throw decryptException(e);
+			}
+		}
+	}
+
+	/**
+	 * Internal: add to a big-endian counter of the given length
+	 */
+	private static void increment(byte[] counter, int length, long amount) {
+		for(int i = length - 1; i >= 0 && amount != 0; i--) {
+			long sum = (counter[i] & 0xff) + (amount & 0xff);
+			counter[i] = (byte)sum;
+			amount = (amount >>> 8) + (sum >>> 8);
+		}
 	}
 
 	/**
@@ -0,0 +1,111 @@
+package io.ably.lib.util;
+
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import io.ably.lib.types.AblyException;
+import io.ably.lib.types.ErrorInfo;
+import io.ably.lib.types.PayloadCodec;
+
+/**
+ * A payload codec that compresses payloads with deflate, in the
+ * zlib format (RFC 1950), recorded as "deflate" in the message encoding.
+ *
+ * Messages with this encoding are decoded whether or not the codec is
+ * configured for the channel. Payloads smaller than the given size, or
+ * that compression does not make smaller, are sent uncompressed.
+ */
+public class DeflateCodec implements PayloadCodec {
+
+	public static final String NAME = "deflate";
+
+	/**
+	 * The codec used to decode messages when none is configured
+	 */
+	public static final DeflateCodec DEFAULT = new DeflateCodec();
+
+	public DeflateCodec() {
+		this(Deflater.DEFAULT_COMPRESSION, DEFAULT_MIN_SIZE);
+	}
+
+	/**
+	 * @param level the compression level, from 1 (fastest) to 9 (best); -1 selects the default
+	 * @param minSize the size in bytes below which payloads are not compressed
+	 */
+	public DeflateCodec(int level, int minSize) {
+		this.level = level;
+		this.minSize = minSize;
+	}
+
+	@Override
+	public String getName() {
+		return NAME;
+	}
+
+	@Override
+	public byte[] encode(byte[] data) {
+		if(data.length < minSize)
+			return null;
+		Deflater deflater = deflaters.get();
+		deflater.reset();
+		deflater.setLevel(level);
+		deflater.setInput(data);
+		deflater.finish();
+		/* the output is only useful if it is smaller than the input */
+		byte[] output = new byte[data.length];
+		int length = 0;
+		while(!deflater.finished() && length < output.length)
+			length += deflater.deflate(output, length, output.length - length);
+		if(!deflater.finished())
+			return null;
+		return Arrays.copyOf(output, length);
+	}
+
+	@Override
+	public byte[] decode(byte[] data) throws AblyException {
+		Inflater inflater = inflaters.get();
+		inflater.reset();
+		inflater.setInput(data);
+		byte[] output = new byte[Math.max(data.length * 4, 64)];
+		int length = 0;
+		try {
+			while(!inflater.finished()) {
+				if(length == output.length) {
+					if(output.length >= MAX_DECODED_SIZE)
+						throw AblyException.fromErrorInfo(new ErrorInfo("Deflated data received exceeds maximum size", 400, 40013));
+					output = Arrays.copyOf(output, (int)Math.min((long)output.length * 2, MAX_DECODED_SIZE));
+				}
+				int count = inflater.inflate(output, length, output.length - length);
+				if(count == 0 && (inflater.needsInput() || inflater.needsDictionary()))
+					throw AblyException.fromErrorInfo(new ErrorInfo("Invalid deflated data received", 400, 40013));
+				length += count;
+			}
+		} catch(DataFormatException e) {
+			throw AblyException.fromErrorInfo(new ErrorInfo("Invalid deflated data received", 400, 40013));
+		}
+		return (length == output.length) ? output : Arrays.copyOf(output, length);
+	}
+
+	private static final int DEFAULT_MIN_SIZE = 1024;
+	private static final int MAX_DECODED_SIZE = 64 * 1024 * 1024;
+
+	/* Deflater and Inflater hold native memory that is only released
+	 * by end() or finalization, so one of each is kept per thread */
+	private static final ThreadLocal<Deflater> deflaters = new ThreadLocal<Deflater>() {
+		@Override
+		protected Deflater initialValue() {
+			return new Deflater();
+		}
+	};
+	private static final ThreadLocal<Inflater> inflaters = new ThreadLocal<Inflater>() {
+		@Override
+		protected Inflater initialValue() {
+			return new Inflater();
+		}
+	};
+
+	private final int level;
+	private final int minSize;
+}
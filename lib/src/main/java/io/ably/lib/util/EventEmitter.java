@@ -2,9 +2,9 @@ package io.ably.lib.util;
 
 import java.util.ArrayList;
 import java.util.HashMap;
-import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
  * An interface exposing the ability to register listeners for a class of events
@@ -15,12 +15,20 @@ import java.util.Map;
  */
 public abstract class EventEmitter<Event, Listener> {
 
+	/*
+	 * The registered listeners are held in a list and a map that are
+	 * never modified once published: each change is made to a copy, under
+	 * the lock, which then replaces the original. emit() therefore calls
+	 * listeners from a snapshot, without holding the lock, so listeners may
+	 * be registered and removed concurrently, or by a listener itself.
+	 */
+
 	/**
 	 * Remove all registered listeners irrespective of type
 	 */
 	public synchronized void off() {
-		listeners.clear();
-		filters.clear();
+		listeners = new ArrayList<Listener>();
+		filters = new HashMap<Listener, Filter>();
 	}
 
 	/**
@@ -28,8 +36,11 @@ public abstract class EventEmitter<Event, Listener> {
 	 * @param listener
 	 */
 	public synchronized void on(Listener listener) {
-		if(!listeners.contains(listener))
+		if(!listeners.contains(listener)) {
+			List<Listener> listeners = new ArrayList<Listener>(this.listeners);
 			listeners.add(listener);
+			this.listeners = listeners;
+		}
 	}
 
 	/**
@@ -37,7 +48,7 @@ public abstract class EventEmitter<Event, Listener> {
 	 * @param listener
 	 */
 	public synchronized void once(Listener listener) {
-		filters.put(listener, new Filter(null, listener, true));
+		putFilter(new Filter(null, listener, true));
 	}
 
 	/**
@@ -45,8 +56,12 @@ public abstract class EventEmitter<Event, Listener> {
 	 * @param listener
 	 */
 	public synchronized void off(Listener listener) {
-		listeners.remove(listener);
-		filters.remove(listener);
+		if(listeners.contains(listener)) {
+			List<Listener> listeners = new ArrayList<Listener>(this.listeners);
+			listeners.remove(listener);
+			this.listeners = listeners;
+		}
+		removeFilter(listener, null);
 	}
 
 	/**
@@ -54,7 +69,7 @@ public abstract class EventEmitter<Event, Listener> {
 	 * @param listener
 	 */
 	public synchronized void on(Event event, Listener listener) {
-		filters.put(listener, new Filter(event, listener, false));
+		putFilter(new Filter(event, listener, false));
 	}
 
 	/**
@@ -62,7 +77,7 @@ public abstract class EventEmitter<Event, Listener> {
 	 * @param listener
 	 */
 	public synchronized void once(Event event, Listener listener) {
-		filters.put(listener, new Filter(event, listener, true));
+		putFilter(new Filter(event, listener, true));
 	}
 
 	/**
@@ -73,7 +88,7 @@ public abstract class EventEmitter<Event, Listener> {
 	public synchronized void off(Event event, Listener listener) {
 		Filter filter = filters.get(listener);
 		if(filter != null && filter.event == event)
-			filters.remove(listener);
+			removeFilter(listener, filter);
 	}
 
 	/**
@@ -81,14 +96,16 @@ public abstract class EventEmitter<Event, Listener> {
 	 * @param event the Event
 	 * @param args the arguments to pass to listeners
 	 */
-	public synchronized void emit(Event event, Object... args) {
+	public void emit(Event event, Object... args) {
+		List<Listener> listeners = this.listeners;
+		Map<Listener, Filter> filters = this.filters;
 		for (int i = listeners.size() - 1; i >= 0; i--) {
 			apply(listeners.get(i), event, args);
 		}
 
-		for(Iterator<Map.Entry<Listener, Filter>> it = filters.entrySet().iterator(); it.hasNext(); )
-			if(it.next().getValue().apply(event, args))
-				it.remove();
+		for(Filter filter : filters.values())
+			if(filter.apply(event, args))
+				removeOnce(filter);
 	}
 
 	protected abstract void apply(Listener listener, Event event, Object... args);
@@ -98,8 +115,12 @@ public abstract class EventEmitter<Event, Listener> {
 		private Event event;
 		private Listener listener;
 		private boolean once;
+		/* set when a once filter is applied, so that concurrent emits apply it only once */
+		private final AtomicBoolean applied = new AtomicBoolean();
 		protected boolean apply(Event event, Object... args) {
 			if(this.event == event || this.event == null) {
+				if(once && !applied.compareAndSet(false, true))
+					return false;
 				EventEmitter.this.apply(listener, event, args);
 				return once;
 			}
@@ -107,6 +128,26 @@ public abstract class EventEmitter<Event, Listener> {
 		}
 	}
 
-	Map<Listener, Filter> filters = new HashMap<Listener, Filter>();
-	List<Listener> listeners = new ArrayList<Listener>();
+	private void putFilter(Filter filter) {
+		Map<Listener, Filter> filters = new HashMap<Listener, Filter>(this.filters);
+		filters.put(filter.listener, filter);
+		this.filters = filters;
+	}
+
+	/* remove the filter for the given listener, if it is the given filter or that is null */
+	private void removeFilter(Listener listener, Filter filter) {
+		Filter existing = filters.get(listener);
+		if(existing == null || (filter != null && existing != filter))
+			return;
+		Map<Listener, Filter> filters = new HashMap<Listener, Filter>(this.filters);
+		filters.remove(listener);
+		this.filters = filters;
+	}
+
+	private synchronized void removeOnce(Filter filter) {
+		removeFilter(filter.listener, filter);
+	}
+
+	volatile Map<Listener, Filter> filters = new HashMap<Listener, Filter>();
+	volatile List<Listener> listeners = new ArrayList<Listener>();
 }
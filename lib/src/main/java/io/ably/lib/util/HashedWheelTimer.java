@@ -0,0 +1,317 @@
+package io.ably.lib.util;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import io.ably.lib.transport.Defaults;
+
+/**
+ * A {@link Scheduler} based on a hashed timing wheel, which supports
+ * very large numbers of pending timeouts with O(1) scheduling and
+ * cancellation, serviced by a single thread.
+ *
+ * Time is divided into ticks; a timeout is placed in the bucket of the
+ * wheel corresponding to the tick in which it expires, along with the
+ * number of complete revolutions of the wheel remaining before it is due.
+ * The worker thread visits one bucket per tick, so timeouts run up to one
+ * tick late, which is of no consequence for protocol timeouts of seconds.
+ *
+ * Expired tasks are run on the worker thread, and so must not block;
+ * a task that calls application code should hand that to an executor.
+ *
+ * The worker thread is started when the first task is scheduled, and the
+ * number of timers that may be running at any time is limited
+ * to {@link Defaults#TIMER_MAX_THREADS}; most applications should use
+ * the JVM-wide instance returned by {@link #getDefault()}.
+ */
+public class HashedWheelTimer implements Scheduler {
+
+	/**
+	 * Get the timer shared by all clients in the JVM
+	 * that do not specify their own Scheduler.
+	 */
+	public static synchronized HashedWheelTimer getDefault() {
+		if(defaultInstance == null)
+			defaultInstance = new HashedWheelTimer(Defaults.TIMER_TICK_DURATION, Defaults.TIMER_WHEEL_SIZE);
+		return defaultInstance;
+	}
+
+	/**
+	 * Create a timer.
+	 * @param tickDuration the duration of a tick, in milliseconds
+	 * @param ticksPerWheel the number of buckets in the wheel; this is rounded up to a power of 2
+	 */
+	public HashedWheelTimer(long tickDuration, int ticksPerWheel) {
+		if(tickDuration <= 0)
+			throw new IllegalArgumentException("tickDuration must be positive");
+		if(ticksPerWheel <= 0 || ticksPerWheel > (1 << 30))
+			throw new IllegalArgumentException("ticksPerWheel out of range");
+		int wheelSize = 1;
+		while(wheelSize < ticksPerWheel)
+			wheelSize <<= 1;
+		wheel = new Bucket[wheelSize];
+		for(int i = 0; i < wheelSize; i++)
+			wheel[i] = new Bucket();
+		mask = wheelSize - 1;
+		this.tickDuration = TimeUnit.MILLISECONDS.toNanos(tickDuration);
+		this.name = "ably-timer-" + timerIndex.incrementAndGet();
+	}
+
+	/*************************
+	 * Scheduler methods
+	 *************************/
+
+	/**
+	 * @throws IllegalStateException if this timer has been stopped, or if its
+	 * worker thread is not yet started and the maximum number of timers are running
+	 */
+	@Override
+	public Timeout schedule(Runnable task, long delay) {
+		if(task == null)
+			throw new NullPointerException("task");
+		start();
+		long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(Math.max(delay, 0)) - startTime;
+		WheelTimeout timeout = new WheelTimeout(task, deadline);
+		pendingTimeouts.add(timeout);
+		return timeout;
+	}
+
+	/**
+	 * Stop this timer; pending timeouts are discarded without being run.
+	 * The default timer cannot be stopped.
+	 */
+	public void stop() {
+		synchronized(this) {
+			if(this == defaultInstance)
+				throw new IllegalStateException("The default timer cannot be stopped");
+			if(workerState == WORKER_STOPPED)
+				return;
+			if(workerState == WORKER_INIT) {
+				workerState = WORKER_STOPPED;
+				return;
+			}
+			workerState = WORKER_STOPPED;
+		}
+		worker.interrupt();
+		if(Thread.currentThread() != worker) {
+			try { worker.join(); } catch(InterruptedException ie) {}
+		}
+	}
+
+	/**
+	 * Get the number of timeouts that are pending.
+	 */
+	public int pendingCount() {
+		return pendingCount.get() + pendingTimeouts.size();
+	}
+
+	/*************************
+	 * internal
+	 *************************/
+
+	private synchronized void start() {
+		switch(workerState) {
+		case WORKER_STARTED:
+			return;
+		case WORKER_STOPPED:
+			throw new IllegalStateException("Timer has been stopped");
+		default:
+		}
+		if(runningCount.incrementAndGet() > Defaults.TIMER_MAX_THREADS) {
+			runningCount.decrementAndGet();
+			throw new IllegalStateException("Unable to start timer; limit of " + Defaults.TIMER_MAX_THREADS + " timers reached");
+		}
+		startTime = System.nanoTime();
+		worker = new Thread(new Worker(), name);
+		worker.setDaemon(true);
+		workerState = WORKER_STARTED;
+		worker.start();
+	}
+
+	private class Worker implements Runnable {
+		@Override
+		public void run() {
+			try {
+				while(workerState == WORKER_STARTED) {
+					long deadline = waitForNextTick();
+					if(deadline < 0)
+						break;
+					Bucket bucket = wheel[(int)(tick & mask)];
+					removeCancelled();
+					transferPending();
+					bucket.expire(deadline);
+					++tick;
+				}
+			} finally {
+				runningCount.decrementAndGet();
+			}
+		}
+
+		/**
+		 * Wait until the end of the current tick.
+		 * @return the tick deadline, relative to startTime, or -1 if stopped
+		 */
+		private long waitForNextTick() {
+			long deadline = tickDuration * (tick + 1);
+			while(true) {
+				long currentTime = System.nanoTime() - startTime;
+				long sleepMillis = TimeUnit.NANOSECONDS.toMillis(deadline - currentTime + 999999);
+				if(sleepMillis <= 0)
+					return currentTime;
+				try {
+					Thread.sleep(sleepMillis);
+				} catch(InterruptedException ie) {
+					if(workerState != WORKER_STARTED)
+						return -1;
+				}
+			}
+		}
+
+		private void transferPending() {
+			WheelTimeout timeout;
+			while((timeout = pendingTimeouts.poll()) != null) {
+				if(timeout.state.get() == STATE_CANCELLED)
+					continue;
+				long calculated = timeout.deadline / tickDuration;
+				timeout.remainingRounds = (calculated - tick) / wheel.length;
+				long ticks = Math.max(calculated, tick);
+				wheel[(int)(ticks & mask)].add(timeout);
+			}
+		}
+
+		private void removeCancelled() {
+			WheelTimeout timeout;
+			while((timeout = cancelledTimeouts.poll()) != null) {
+				if(timeout.bucket != null)
+					timeout.bucket.remove(timeout);
+			}
+		}
+	}
+
+	/**
+	 * A scheduled task
+	 */
+	private final class WheelTimeout implements Timeout {
+		WheelTimeout(Runnable task, long deadline) {
+			this.task = task;
+			this.deadline = deadline;
+		}
+
+		@Override
+		public boolean cancel() {
+			if(!state.compareAndSet(STATE_INIT, STATE_CANCELLED))
+				return false;
+			/* removal from the bucket is done by the worker thread */
+			cancelledTimeouts.add(this);
+			return true;
+		}
+
+		void expire() {
+			if(!state.compareAndSet(STATE_INIT, STATE_EXPIRED))
+				return;
+			try {
+				task.run();
+			} catch(Throwable t) {
+				Log.e(TAG, "Unexpected exception in scheduled task", t);
+			}
+		}
+
+		final Runnable task;
+		final long deadline;
+		final AtomicInteger state = new AtomicInteger(STATE_INIT);
+		long remainingRounds;
+
+		/* linkage within a bucket; only accessed by the worker thread */
+		Bucket bucket;
+		WheelTimeout prev, next;
+	}
+
+	/**
+	 * A doubly-linked list of timeouts; only accessed by the worker thread.
+	 */
+	private final class Bucket {
+		void add(WheelTimeout timeout) {
+			timeout.bucket = this;
+			if(head == null) {
+				head = tail = timeout;
+			} else {
+				tail.next = timeout;
+				timeout.prev = tail;
+				tail = timeout;
+			}
+			pendingCount.incrementAndGet();
+		}
+
+		WheelTimeout remove(WheelTimeout timeout) {
+			WheelTimeout next = timeout.next;
+			if(timeout.prev != null)
+				timeout.prev.next = next;
+			if(timeout.next != null)
+				timeout.next.prev = timeout.prev;
+			if(timeout == head)
+				head = next;
+			if(timeout == tail)
+				tail = timeout.prev;
+			timeout.prev = timeout.next = null;
+			timeout.bucket = null;
+			pendingCount.decrementAndGet();
+			return next;
+		}
+
+		void expire(long deadline) {
+			WheelTimeout timeout = head;
+			while(timeout != null) {
+				if(timeout.remainingRounds <= 0) {
+					WheelTimeout next = remove(timeout);
+					if(timeout.deadline <= deadline)
+						timeout.expire();
+					else
+						/* placed in the wrong bucket; should not happen */
+						Log.e(TAG, "Timeout expired in wrong bucket");
+					timeout = next;
+				} else if(timeout.state.get() == STATE_CANCELLED) {
+					timeout = remove(timeout);
+				} else {
+					--timeout.remainingRounds;
+					timeout = timeout.next;
+				}
+			}
+		}
+
+		private WheelTimeout head, tail;
+	}
+
+	/*************************
+	 * private members
+	 *************************/
+
+	private final Bucket[] wheel;
+	private final int mask;
+	private final long tickDuration;
+	private final String name;
+	private final Queue<WheelTimeout> pendingTimeouts = new ConcurrentLinkedQueue<WheelTimeout>();
+	private final Queue<WheelTimeout> cancelledTimeouts = new ConcurrentLinkedQueue<WheelTimeout>();
+	private final AtomicInteger pendingCount = new AtomicInteger();
+
+	private volatile int workerState = WORKER_INIT;
+	private volatile long startTime;
+	private Thread worker;
+	private long tick;
+
+	private static HashedWheelTimer defaultInstance;
+	/* the number of timers with a running worker thread */
+	private static final AtomicInteger runningCount = new AtomicInteger();
+	private static final AtomicInteger timerIndex = new AtomicInteger();
+
+	private static final int WORKER_INIT = 0;
+	private static final int WORKER_STARTED = 1;
+	private static final int WORKER_STOPPED = 2;
+
+	private static final int STATE_INIT = 0;
+	private static final int STATE_CANCELLED = 1;
+	private static final int STATE_EXPIRED = 2;
+
+	private static final String TAG = HashedWheelTimer.class.getName();
+}
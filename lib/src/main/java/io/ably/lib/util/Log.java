@@ -17,13 +17,35 @@
 package io.ably.lib.util;
 
 import java.io.PrintStream;
+import java.util.concurrent.ConcurrentHashMap;
 
+/**
+ * Static logging facade.
+ *
+ * In addition to methods taking a complete message, there are methods that
+ * take a format string, with "{}" placeholders, and up to three arguments;
+ * the message is only formatted if the severity is enabled for the tag, so
+ * a disabled log statement costs no allocation as long as its arguments
+ * are existing objects.
+ */
 public class Log {
 
 	public interface LogHandler {
 		public void println(int severity, String tag, String msg, Throwable tr);
 	}
 
+	/**
+	 * A LogHandler that accepts the format string and arguments of
+	 * parameterized log statements, so that it can defer formatting;
+	 * see AsyncLogHandler.
+	 */
+	public interface FormattingLogHandler extends LogHandler {
+		/**
+		 * @param argCount the number of arguments given, from 0 to 3
+		 */
+		public void print(int severity, String tag, String format, int argCount, Object arg1, Object arg2, Object arg3, Throwable tr);
+	}
+
 	/**
 	 * Default log handler class that sends output to System.out.
 	 * This is public as a convenience to allow simple subclasses
@@ -89,6 +111,21 @@ public class Log {
 		return 0;
 	}
 
+	public static int v(String tag, String format, Object arg1) {
+		print(VERBOSE, tag, format, 1, arg1, null, null, null);
+		return 0;
+	}
+
+	public static int v(String tag, String format, Object arg1, Object arg2) {
+		print(VERBOSE, tag, format, 2, arg1, arg2, null, null);
+		return 0;
+	}
+
+	public static int v(String tag, String format, Object arg1, Object arg2, Object arg3) {
+		print(VERBOSE, tag, format, 3, arg1, arg2, arg3, null);
+		return 0;
+	}
+
 	public static int d(String tag, String msg) {
 		print(DEBUG, tag, msg, null);
 		return 0;
@@ -99,6 +136,21 @@ public class Log {
 		return 0;
 	}
 
+	public static int d(String tag, String format, Object arg1) {
+		print(DEBUG, tag, format, 1, arg1, null, null, null);
+		return 0;
+	}
+
+	public static int d(String tag, String format, Object arg1, Object arg2) {
+		print(DEBUG, tag, format, 2, arg1, arg2, null, null);
+		return 0;
+	}
+
+	public static int d(String tag, String format, Object arg1, Object arg2, Object arg3) {
+		print(DEBUG, tag, format, 3, arg1, arg2, arg3, null);
+		return 0;
+	}
+
 	public static int i(String tag, String msg) {
 		print(INFO, tag, msg, null);
 		return 0;
@@ -109,6 +161,21 @@ public class Log {
 		return 0;
 	}
 
+	public static int i(String tag, String format, Object arg1) {
+		print(INFO, tag, format, 1, arg1, null, null, null);
+		return 0;
+	}
+
+	public static int i(String tag, String format, Object arg1, Object arg2) {
+		print(INFO, tag, format, 2, arg1, arg2, null, null);
+		return 0;
+	}
+
+	public static int i(String tag, String format, Object arg1, Object arg2, Object arg3) {
+		print(INFO, tag, format, 3, arg1, arg2, arg3, null);
+		return 0;
+	}
+
 	public static int w(String tag, String msg) {
 		print(WARN, tag, msg, null);
 		return 0;
@@ -119,6 +186,21 @@ public class Log {
 		return 0;
 	}
 
+	public static int w(String tag, String format, Object arg1) {
+		print(WARN, tag, format, 1, arg1, null, null, null);
+		return 0;
+	}
+
+	public static int w(String tag, String format, Object arg1, Object arg2) {
+		print(WARN, tag, format, 2, arg1, arg2, null, null);
+		return 0;
+	}
+
+	public static int w(String tag, String format, Object arg1, Object arg2, Object arg3) {
+		print(WARN, tag, format, 3, arg1, arg2, arg3, null);
+		return 0;
+	}
+
 	public static int w(String tag, Throwable tr) {
 		print(WARN, tag, null, tr);
 		return 0;
@@ -134,19 +216,101 @@ public class Log {
 		return 0;
 	}
 
+	public static int e(String tag, String format, Object arg1) {
+		print(ERROR, tag, format, 1, arg1, null, null, null);
+		return 0;
+	}
+
+	public static int e(String tag, String format, Object arg1, Object arg2) {
+		print(ERROR, tag, format, 2, arg1, arg2, null, null);
+		return 0;
+	}
+
+	public static int e(String tag, String format, Object arg1, Object arg2, Object arg3) {
+		print(ERROR, tag, format, 3, arg1, arg2, arg3, null);
+		return 0;
+	}
+
     public static void setLevel(int level) { Log.level = (level != 0) ? level : defaultLevel; }
     public static final int defaultLevel = WARN;
     public static int level = defaultLevel;
 
+    /**
+     * Set the level for a given tag, overriding the global level.
+     * @param tag the tag, which is the class name for library classes
+     * @param level the level, or 0 to revert to the global level
+     */
+    public static void setLevel(String tag, int level) {
+        if(level != 0)
+            tagLevels.put(tag, level);
+        else
+            tagLevels.remove(tag);
+        hasTagLevels = !tagLevels.isEmpty();
+    }
+
+    /**
+     * Remove all levels set for individual tags.
+     */
+    public static void clearTagLevels() {
+        tagLevels.clear();
+        hasTagLevels = false;
+    }
+
+    /**
+     * Check whether or not messages of the given severity are output for a tag;
+     * use this to guard log statements whose arguments are costly to construct.
+     */
+    public static boolean isLoggable(String tag, int severity) {
+        if(hasTagLevels && tag != null) {
+            Integer tagLevel = tagLevels.get(tag);
+            if(tagLevel != null)
+                return severity >= tagLevel;
+        }
+        return severity >= level;
+    }
+
     public static void setHandler(LogHandler handler) { Log.handler = (handler != null) ? handler : defaultHandler; }
     public static final LogHandler defaultHandler = new DefaultHandler();
     public static LogHandler handler = defaultHandler;
 
+    /**
+     * Format a message, replacing each "{}" in the format string with
+     * the next argument; placeholders in excess of argCount are left as is.
+     */
+    public static String format(String format, int argCount, Object arg1, Object arg2, Object arg3) {
+        if(format == null || argCount == 0)
+            return format;
+        StringBuilder builder = new StringBuilder(format.length() + 32);
+        int start = 0, argIndex = 0;
+        while(argIndex < argCount) {
+            int idx = format.indexOf("{}", start);
+            if(idx < 0)
+                break;
+            builder.append(format, start, idx);
+            builder.append((argIndex == 0) ? arg1 : (argIndex == 1) ? arg2 : arg3);
+            start = idx + 2;
+            ++argIndex;
+        }
+        return builder.append(format, start, format.length()).toString();
+    }
+
 	private static String[] severities = new String[]{"", "", "VERBOSE", "DEBUG", "INFO", "WARN", "ERROR", "ASSERT"};
-	
+	private static final ConcurrentHashMap<String, Integer> tagLevels = new ConcurrentHashMap<String, Integer>();
+	private static volatile boolean hasTagLevels;
+
 	private static void print(int severity, String tag, String msg, Throwable tr) {
-		if(severity >= level) {
+		if(isLoggable(tag, severity)) {
 			handler.println(severity, tag, msg, tr);
 		}
 	}
+
+	private static void print(int severity, String tag, String format, int argCount, Object arg1, Object arg2, Object arg3, Throwable tr) {
+		if(isLoggable(tag, severity)) {
+			LogHandler handler = Log.handler;
+			if(handler instanceof FormattingLogHandler)
+				((FormattingLogHandler)handler).print(severity, tag, format, argCount, arg1, arg2, arg3, tr);
+			else
+				handler.println(severity, tag, format(format, argCount, arg1, arg2, arg3), tr);
+		}
+	}
 }
@@ -1,12 +1,18 @@
 package io.ably.lib.util;
 
-import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
 
+/**
+ * A list of listeners that subclasses call in turn. Members may be added
+ * and removed from any thread, including from within a listener; each
+ * change publishes a new copy of the list, so iterating over members
+ * sees a snapshot and takes no lock.
+ */
 public abstract class Multicaster<T> {
 
-	protected final List<T> members = new ArrayList<T>();
+	protected final List<T> members = new CopyOnWriteArrayList<T>();
 
 	public Multicaster(T... members) { for(T m : members) this.members.add(m); }
 	
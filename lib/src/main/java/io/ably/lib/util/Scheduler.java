@@ -0,0 +1,30 @@
+package io.ably.lib.util;
+
+/**
+ * Interface for a service that runs tasks after a delay; this is used
+ * for all timeouts in the realtime library. A Scheduler may be shared
+ * between multiple clients; see {@link io.ably.lib.types.ClientOptions#scheduler}.
+ */
+public interface Scheduler {
+
+	/**
+	 * A handle to a scheduled task.
+	 */
+	interface Timeout {
+		/**
+		 * Cancel the task, if it has not already run or been cancelled.
+		 * @return true if the task was cancelled by this call
+		 */
+		boolean cancel();
+	}
+
+	/**
+	 * Schedule a task to run once, after the given delay.
+	 * Tasks should not block, as they may be run on a thread
+	 * that is shared with other tasks.
+	 * @param task
+	 * @param delay delay in milliseconds
+	 * @return a handle that can be used to cancel the task
+	 */
+	Timeout schedule(Runnable task, long delay);
+}
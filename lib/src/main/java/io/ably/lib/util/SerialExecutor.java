@@ -0,0 +1,97 @@
+package io.ably.lib.util;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * An Executor that runs its tasks one at a time, in the order they were
+ * submitted, on an underlying Executor that may run many tasks in
+ * parallel. Many SerialExecutors may share one underlying Executor, so
+ * that the tasks of each run in order while those of others proceed in
+ * parallel. A task that throws is logged, and the tasks after it still run.
+ */
+public class SerialExecutor implements Executor {
+
+	public SerialExecutor(Executor executor) {
+		this.executor = executor;
+	}
+
+	@Override
+	public void execute(Runnable task) {
+		synchronized(tasks) {
+			tasks.add(task);
+			if(running)
+				return;
+			running = true;
+		}
+		try {
+			executor.execute(runner);
+		} catch(RejectedExecutionException e) {
+			/* the underlying executor is saturated or has been shut
+			 * down, so the tasks are run by the caller rather than lost */
+			Log.v(TAG, "Executor rejected task; running on the calling thread");
+			runner.run();
+		}
+	}
+
+	/**
+	 * The number of tasks waiting to run
+	 */
+	public int size() {
+		synchronized(tasks) {
+			return tasks.size();
+		}
+	}
+
+	private final Runnable runner = new Runnable() {
+		@Override
+		public void run() {
+			/* the tasks queued so far are run in a batch, after which
+			 * the runner is resubmitted, so that a busy SerialExecutor
+			 * does not hold a thread of the underlying executor indefinitely */
+			int count = MAX_BATCH;
+			while(true) {
+				Runnable task;
+				synchronized(tasks) {
+					task = tasks.poll();
+					if(task == null) {
+						running = false;
+						return;
+					}
+				}
+				try {
+					task.run();
+				} catch(Throwable t) {
+					Log.e(TAG, "Unexpected exception running task", t);
+				}
+				if(--count == 0 && resubmit())
+					return;
+			}
+		}
+	};
+
+	/* resubmit the runner, if there are more tasks; returns false if the caller should continue */
+	private boolean resubmit() {
+		synchronized(tasks) {
+			if(tasks.isEmpty()) {
+				running = false;
+				return true;
+			}
+		}
+		try {
+			executor.execute(runner);
+			return true;
+		} catch(RejectedExecutionException e) {
+			return false;
+		}
+	}
+
+	private static final String TAG = SerialExecutor.class.getName();
+	private static final int MAX_BATCH = 64;
+
+	private final Executor executor;
+	private final ArrayDeque<Runnable> tasks = new ArrayDeque<Runnable>();
+	/* whether the runner is submitted or running; guarded by tasks */
+	private boolean running;
+}
@@ -0,0 +1,55 @@
+package io.ably.lib.util;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import io.ably.lib.transport.Defaults;
+
+/**
+ * Internal: the pool of threads, shared by all clients in the JVM, on which
+ * the library runs work that must not be done on its own I/O and timer
+ * threads, such as the delivery of received messages by NIO transports,
+ * expired callbacks and subscription listeners, when the application does
+ * not give an executor of its own.
+ *
+ * The number of threads is limited to {@link Defaults#EXECUTOR_MAX_THREADS}
+ * and tasks are not queued: when every thread is busy, execute() throws
+ * RejectedExecutionException and the caller runs the task itself. This
+ * bounds the number of threads, and a task that blocks waiting for another
+ * task cannot leave that task queued behind it.
+ */
+public class SharedExecutor {
+
+	/**
+	 * Get the shared executor, creating it if necessary. Its size is
+	 * determined by {@link Defaults#EXECUTOR_MAX_THREADS} at the time
+	 * of first use.
+	 */
+	public static synchronized Executor get() {
+		if(instance == null) {
+			int size = Math.max(1, Defaults.EXECUTOR_MAX_THREADS);
+			instance = new ThreadPoolExecutor(size, size, KEEP_ALIVE, TimeUnit.MILLISECONDS, new SynchronousQueue<Runnable>(), new ThreadFactory() {
+				@Override
+				public Thread newThread(Runnable runnable) {
+					Thread thread = new Thread(runnable, "ably-executor-" + threadCount.incrementAndGet());
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+			instance.allowCoreThreadTimeOut(true);
+		}
+		return instance;
+	}
+
+	private static ThreadPoolExecutor instance;
+	private static final AtomicInteger threadCount = new AtomicInteger();
+
+	/* the time after which an idle thread exits */
+	private static final long KEEP_ALIVE = 60000L;
+
+	private SharedExecutor() {}
+}
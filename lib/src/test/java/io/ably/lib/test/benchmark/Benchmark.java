@@ -0,0 +1,69 @@
+package io.ably.lib.test.benchmark;
+
+import java.lang.management.ManagementFactory;
+
+/**
+ * An operation measured by one of the benchmarks in this package.
+ *
+ * The benchmarks are not tests, and are not listed in any test suite;
+ * each has a main() that prints its figures. Run one with the benchmark
+ * task of the java project, eg:
+ *
+ *     ./gradlew java:benchmark -Pbenchmark=CipherBenchmark
+ */
+abstract class Benchmark {
+
+	Benchmark(String name) {
+		this.name = name;
+	}
+
+	/**
+	 * Perform the operation once
+	 */
+	abstract void run() throws Exception;
+
+	/**
+	 * Perform the operation the given number of times, recording the
+	 * time taken and, where the JVM supports it, the bytes allocated
+	 */
+	void measure(int count) throws Exception {
+		java.lang.management.ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+		com.sun.management.ThreadMXBean bean = (threadBean instanceof com.sun.management.ThreadMXBean) ?
+				(com.sun.management.ThreadMXBean)threadBean : null;
+		long threadId = Thread.currentThread().getId();
+		long startAllocated = (bean == null) ? 0 : bean.getThreadAllocatedBytes(threadId);
+		long start = System.nanoTime();
+		for(int i = 0; i < count; i++)
+			run();
+		elapsed = System.nanoTime() - start;
+		allocated = (bean == null) ? -1 : bean.getThreadAllocatedBytes(threadId) - startAllocated;
+		this.count = count;
+	}
+
+	/**
+	 * Measure each of the given operations, the given number of times,
+	 * and print the time taken and bytes allocated per operation. The
+	 * operations are measured twice, the first pass warming up.
+	 */
+	static void report(String title, int count, Benchmark... operations) throws Exception {
+		for(int pass = 0; pass < 2; pass++)
+			for(Benchmark operation : operations)
+				operation.measure(count);
+		System.out.println(title + ":");
+		for(Benchmark operation : operations)
+			System.out.println("  " + operation);
+	}
+
+	@Override
+	public String toString() {
+		String result = String.format("%s: %d ns", name, elapsed / count);
+		if(allocated >= 0)
+			result += String.format(", %d bytes allocated", allocated / count);
+		return result;
+	}
+
+	final String name;
+	long elapsed;
+	long allocated;
+	int count;
+}
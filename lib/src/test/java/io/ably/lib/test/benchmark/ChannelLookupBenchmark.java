@@ -0,0 +1,76 @@
+package io.ably.lib.test.benchmark;
+
+import java.util.concurrent.CountDownLatch;
+
+import io.ably.lib.realtime.AblyRealtime;
+import io.ably.lib.types.ClientOptions;
+
+/**
+ * Reports the time taken to look up existing channels, among 50000,
+ * in the channel registry of a realtime client, from several numbers
+ * of concurrent threads.
+ */
+public class ChannelLookupBenchmark {
+
+	private static final int CHANNEL_COUNT = 50000;
+	private static final int LOOKUPS = 1000000;
+	private static final int[] THREAD_COUNTS = { 1, 4, 16 };
+
+	public static void main(String[] args) throws Exception {
+		ClientOptions opts = new ClientOptions("appid.keyid:secret");
+		opts.autoConnect = false;
+		final AblyRealtime ably = new AblyRealtime(opts);
+		try {
+			final String[] names = new String[CHANNEL_COUNT];
+			for(int i = 0; i < CHANNEL_COUNT; i++)
+				ably.channels.get(names[i] = "channel" + i);
+			System.out.println(String.format("channel lookup among %d channels:", CHANNEL_COUNT));
+			for(int threadCount : THREAD_COUNTS) {
+				final int perThread = LOOKUPS / threadCount;
+				long elapsed = 0;
+				/* the first pass warms up */
+				for(int pass = 0; pass < 2; pass++) {
+					elapsed = runThreads(threadCount, new Runnable() {
+						@Override
+						public void run() {
+							int index = (int)Thread.currentThread().getId();
+							for(int i = 0; i < perThread; i++)
+								ably.channels.get(names[(int)((index + (long)i * 7919) % CHANNEL_COUNT)]);
+						}
+					});
+				}
+				System.out.println(String.format("  %d threads: %d ns per lookup", threadCount, elapsed / LOOKUPS));
+			}
+		} finally {
+			ably.close();
+		}
+	}
+
+	/**
+	 * Run the given task on each of several threads, started together,
+	 * and return the time taken for all of them to finish
+	 */
+	private static long runThreads(int threadCount, final Runnable task) throws InterruptedException {
+		final CountDownLatch start = new CountDownLatch(1);
+		Thread[] threads = new Thread[threadCount];
+		for(int t = 0; t < threadCount; t++) {
+			threads[t] = new Thread() {
+				@Override
+				public void run() {
+					try {
+						start.await();
+					} catch(InterruptedException e) {
+						return;
+					}
+					task.run();
+				}
+			};
+			threads[t].start();
+		}
+		long startTime = System.nanoTime();
+		start.countDown();
+		for(Thread thread : threads)
+			thread.join();
+		return System.nanoTime() - startTime;
+	}
+}
@@ -0,0 +1,63 @@
+package io.ably.lib.test.benchmark;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+
+import io.ably.lib.types.ChannelOptions;
+import io.ably.lib.types.Message;
+import io.ably.lib.types.PayloadCodec;
+import io.ably.lib.util.DeflateCodec;
+
+/**
+ * Compares the payload size, and the time taken to encode and decode,
+ * of a JSON document uncompressed and compressed with deflate at
+ * several levels.
+ */
+public class DeflateBenchmark {
+
+	private static final String[] NAMES = { "uncompressed", "level 1", "level 6", "level 9" };
+
+	public static void main(String[] args) throws Exception {
+		final JsonObject json = jsonDocument(16 * 1024);
+		PayloadCodec[] codecs = { null, new DeflateCodec(1, 1024), new DeflateCodec(6, 1024), new DeflateCodec(9, 1024) };
+		Benchmark[] operations = new Benchmark[codecs.length * 2];
+		for(int i = 0; i < codecs.length; i++) {
+			final ChannelOptions opts = new ChannelOptions();
+			if(codecs[i] != null)
+				opts.codecs = new PayloadCodec[] { codecs[i] };
+			Message encoded = new Message("event", json);
+			encoded.encode(opts);
+			final Object data = encoded.data;
+			final String encoding = encoded.encoding;
+			int size = (data instanceof byte[]) ? ((byte[])data).length : ((String)data).length();
+			operations[i * 2] = new Benchmark(String.format("%s, %d bytes, encode", NAMES[i], size)) {
+				@Override
+				void run() throws Exception { new Message("event", json).encode(opts); }
+			};
+			operations[i * 2 + 1] = new Benchmark(String.format("%s, %d bytes, decode", NAMES[i], size)) {
+				@Override
+				void run() throws Exception {
+					Message message = new Message("event", data);
+					message.encoding = encoding;
+					message.decode(opts);
+				}
+			};
+		}
+		Benchmark.report(String.format("deflate, %d byte JSON document", json.toString().length()), 500, operations);
+	}
+
+	private static JsonObject jsonDocument(int size) {
+		JsonObject json = new JsonObject();
+		JsonArray items = new JsonArray();
+		json.add("items", items);
+		for(int i = 0; json.toString().length() < size; i++) {
+			JsonObject item = new JsonObject();
+			item.addProperty("id", i);
+			item.addProperty("name", "item " + i);
+			item.addProperty("price", 100 + (i * 37) % 1000);
+			item.addProperty("available", i % 3 != 0);
+			items.add(item);
+		}
+		return json;
+	}
+}
@@ -0,0 +1,55 @@
+package io.ably.lib.test.benchmark;
+
+import io.ably.lib.types.ProtocolMessage;
+import io.ably.lib.types.ProtocolSerializer;
+import io.ably.lib.util.Serialisation;
+
+/**
+ * Compares the time taken, and the bytes allocated, to read and write a
+ * JSON message frame with the streaming codec and with Gson as previously.
+ */
+public class JsonCodecBenchmark {
+
+	private static final int MESSAGE_COUNT = 3;
+
+	public static void main(String[] args) throws Exception {
+		final String json = messageFrame();
+		final ProtocolMessage msg = ProtocolSerializer.fromJSON(json);
+		Benchmark.report(String.format("JSON codec, %d byte frame with %d messages", json.length(), MESSAGE_COUNT), 200000,
+			new Benchmark("read, Gson") {
+				@Override
+				void run() { Serialisation.gson.fromJson(json, ProtocolMessage.class); }
+			},
+			new Benchmark("read, streaming") {
+				@Override
+				void run() throws Exception { ProtocolSerializer.fromJSON(json); }
+			},
+			new Benchmark("write, Gson") {
+				@Override
+				void run() { Serialisation.gson.toJson(msg); }
+			},
+			new Benchmark("write, streaming") {
+				@Override
+				void run() { ProtocolSerializer.toJSON(msg); }
+			}
+		);
+	}
+
+	/**
+	 * A message frame, as sent by the server, with all the fields that are usually present
+	 */
+	private static String messageFrame() {
+		StringBuilder json = new StringBuilder();
+		json.append("{\"action\":15,\"id\":\"connid:1234\",\"channel\":\"json_codec\",\"channelSerial\":\"7d4e1a2b3c:1234\",")
+			.append("\"connectionSerial\":1234,\"timestamp\":1500000000000,\"messages\":[");
+		for(int i = 0; i < MESSAGE_COUNT; i++) {
+			if(i > 0)
+				json.append(',');
+			json.append("{\"id\":\"connid:1234:").append(i).append("\",\"name\":\"event\",\"clientId\":\"clientId\",")
+				.append("\"connectionId\":\"connid\",\"timestamp\":1500000000000,\"encoding\":\"json\",")
+				.append("\"data\":\"{\\\"value\\\":\\\"abcdefghijklmnopqrstuvwxyzabcdefghijklmnopqrstuvwxyz\\\"}\"}");
+		}
+		json.append("]}");
+		return json.toString();
+	}
+}
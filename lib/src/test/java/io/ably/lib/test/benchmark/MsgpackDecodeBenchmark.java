@@ -0,0 +1,64 @@
+package io.ably.lib.test.benchmark;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+
+import org.msgpack.core.MessagePacker;
+
+import io.ably.lib.types.ProtocolMessage;
+import io.ably.lib.types.ProtocolSerializer;
+import io.ably.lib.util.Serialisation;
+
+/**
+ * Reports the time taken, and the bytes allocated, to decode a msgpack
+ * message frame containing several messages, from an array and from
+ * a buffer as received by the transports.
+ */
+public class MsgpackDecodeBenchmark {
+
+	private static final int MESSAGE_COUNT = 3;
+
+	public static void main(String[] args) throws Exception {
+		final byte[] packed = packMessageFrame();
+		final ByteBuffer buffer = ByteBuffer.wrap(packed);
+		Benchmark.report(String.format("msgpack decode, %d byte frame with %d messages", packed.length, MESSAGE_COUNT), 500000,
+			new Benchmark("from array") {
+				@Override
+				void run() throws Exception { ProtocolSerializer.readMsgpack(packed); }
+			},
+			new Benchmark("from buffer") {
+				@Override
+				void run() throws Exception { ProtocolSerializer.readMsgpack(buffer.duplicate()); }
+			}
+		);
+	}
+
+	/**
+	 * Pack a message frame, as sent by the server, with all the
+	 * fields that are usually present
+	 */
+	private static byte[] packMessageFrame() throws Exception {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		MessagePacker packer = Serialisation.msgpackPackerConfig.newPacker(out);
+		packer.packMapHeader(7);
+		packer.packString("action").packInt(ProtocolMessage.Action.message.getValue());
+		packer.packString("id").packString("connid:1234");
+		packer.packString("channel").packString("msgpack_decode");
+		packer.packString("channelSerial").packString("7d4e1a2b3c:1234");
+		packer.packString("connectionSerial").packLong(1234L);
+		packer.packString("timestamp").packLong(1500000000000L);
+		packer.packString("messages").packArrayHeader(MESSAGE_COUNT);
+		for(int i = 0; i < MESSAGE_COUNT; i++) {
+			packer.packMapHeader(7);
+			packer.packString("id").packString("connid:1234:" + i);
+			packer.packString("name").packString("event");
+			packer.packString("clientId").packString("clientId");
+			packer.packString("connectionId").packString("connid");
+			packer.packString("timestamp").packLong(1500000000000L);
+			packer.packString("encoding").packString("json");
+			packer.packString("data").packString("{\"value\":\"abcdefghijklmnopqrstuvwxyzabcdefghijklmnopqrstuvwxyz\"}");
+		}
+		packer.flush();
+		return out.toByteArray();
+	}
+}
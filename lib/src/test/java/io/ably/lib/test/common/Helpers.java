@@ -128,6 +128,7 @@ public class Helpers {
 		 * @param event
 		 */
 		public MessageWaiter(Channel channel, String event) {
+			reset();
 			try {
 				channel.subscribe(event, this);
 			} catch(AblyException e) {}
@@ -0,0 +1,127 @@
+package io.ably.lib.test.realtime;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import io.ably.lib.realtime.AblyRealtime;
+import io.ably.lib.realtime.Channel;
+import io.ably.lib.types.ClientOptions;
+
+/**
+ * Tests for the channel registry of a realtime client used from many
+ * threads, without a connection to the service.
+ */
+public class ChannelRegistryTest {
+
+	private AblyRealtime ably;
+
+	@Before
+	public void setUp() throws Exception {
+		ClientOptions opts = new ClientOptions("appid.keyid:secret");
+		opts.autoConnect = false;
+		ably = new AblyRealtime(opts);
+	}
+
+	@After
+	public void tearDown() {
+		if(ably != null)
+			ably.close();
+	}
+
+	/**
+	 * Run the given task on each of several threads, started together
+	 */
+	private static Throwable runThreads(int threadCount, final Runnable task) throws InterruptedException {
+		final CountDownLatch start = new CountDownLatch(1);
+		final Throwable[] failure = new Throwable[1];
+		Thread[] threads = new Thread[threadCount];
+		for(int t = 0; t < threadCount; t++) {
+			threads[t] = new Thread() {
+				@Override
+				public void run() {
+					try {
+						start.await();
+						task.run();
+					} catch(Throwable t) {
+						synchronized(failure) { failure[0] = t; }
+					}
+				}
+			};
+			threads[t].start();
+		}
+		start.countDown();
+		for(Thread thread : threads)
+			thread.join();
+		return failure[0];
+	}
+
+	/**
+	 * Verify that threads getting the same channels concurrently are
+	 * given the same instance of each
+	 */
+	@Test
+	public void channels_concurrent_get() throws Exception {
+		final int channelCount = 1000, threadCount = 8;
+		final Channel[][] results = new Channel[threadCount][channelCount];
+		final int[] nextThread = new int[1];
+		Throwable failure = runThreads(threadCount, new Runnable() {
+			@Override
+			public void run() {
+				int thread;
+				synchronized(nextThread) { thread = nextThread[0]++; }
+				for(int i = 0; i < channelCount; i++)
+					results[thread][i] = ably.channels.get("channel" + i);
+			}
+		});
+		assertEquals(null, failure);
+		assertEquals(channelCount, ably.channels.size());
+		for(int i = 0; i < channelCount; i++)
+			for(int t = 0; t < threadCount; t++)
+				assertSame(ably.channels.get("channel" + i), results[t][i]);
+	}
+
+	/**
+	 * Verify that the channels can be iterated while others are created
+	 * and released
+	 */
+	@Test
+	public void channels_iterate_while_changing() throws Exception {
+		for(int i = 0; i < 1000; i++)
+			ably.channels.get("stable" + i);
+		final AtomicBoolean done = new AtomicBoolean();
+		final int[] iterations = new int[1];
+		Throwable failure = runThreads(2, new Runnable() {
+			private final AtomicBoolean first = new AtomicBoolean(true);
+			@Override
+			public void run() {
+				if(first.getAndSet(false)) {
+					for(int i = 0; i < 20000; i++) {
+						ably.channels.get("transient" + (i % 100));
+						ably.channels.release("transient" + ((i + 50) % 100));
+					}
+					done.set(true);
+				} else {
+					while(!done.get()) {
+						int stable = 0;
+						for(Channel channel : ably.channels.values())
+							if(channel.name.startsWith("stable"))
+								++stable;
+						if(stable != 1000)
+							throw new AssertionError("Iteration missed channels: " + stable);
+						++iterations[0];
+					}
+				}
+			}
+		});
+		assertEquals(null, failure);
+		assertTrue(iterations[0] > 0);
+	}
+}
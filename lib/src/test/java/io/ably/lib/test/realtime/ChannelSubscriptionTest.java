@@ -0,0 +1,184 @@
+package io.ably.lib.test.realtime;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.Timeout;
+
+import io.ably.lib.realtime.Channel.MessageListener;
+import io.ably.lib.realtime.ChannelSubscription;
+import io.ably.lib.realtime.SubscriptionOptions;
+import io.ably.lib.realtime.SubscriptionOptions.OverflowPolicy;
+import io.ably.lib.types.Message;
+
+/**
+ * Tests for the buffering and overflow policies of subscriptions,
+ * delivering messages directly, without a connection to the service.
+ */
+public class ChannelSubscriptionTest {
+
+	@Rule
+	public Timeout testTimeout = Timeout.seconds(30);
+
+	private ExecutorService executor;
+
+	@Before
+	public void setUp() {
+		executor = Executors.newSingleThreadExecutor();
+	}
+
+	@After
+	public void tearDown() {
+		executor.shutdownNow();
+	}
+
+	/**
+	 * A listener that records the data of each message, and is blocked
+	 * from returning until released
+	 */
+	private static class BlockingListener implements MessageListener {
+		@Override
+		public void onMessage(Message message) {
+			started.countDown();
+			try { release.await(); } catch(InterruptedException e) {}
+			synchronized(received) {
+				received.add((String)message.data);
+				received.notifyAll();
+			}
+		}
+
+		void waitFor(int count) throws InterruptedException {
+			synchronized(received) {
+				while(received.size() < count)
+					received.wait();
+			}
+		}
+
+		final CountDownLatch started = new CountDownLatch(1);
+		final CountDownLatch release = new CountDownLatch(1);
+		final List<String> received = new ArrayList<String>();
+	}
+
+	private ChannelSubscription subscription(BlockingListener listener, OverflowPolicy policy) {
+		SubscriptionOptions options = new SubscriptionOptions();
+		options.bufferSize = 3;
+		options.overflowPolicy = policy;
+		options.executor = executor;
+		return new ChannelSubscription(listener, options);
+	}
+
+	/**
+	 * Deliver the first message, and wait until the listener is blocked on
+	 * it, so that the buffer holds the messages that follow
+	 */
+	private static void deliverFirst(ChannelSubscription subscription, BlockingListener listener) throws InterruptedException {
+		subscription.onMessage(new Message("event", "m0"));
+		assertTrue(listener.started.await(5, TimeUnit.SECONDS));
+	}
+
+	/**
+	 * Verify that the oldest messages are dropped when the buffer is full,
+	 * and that the metrics report the buffer
+	 */
+	@Test
+	public void subscription_drop_oldest() throws Exception {
+		BlockingListener listener = new BlockingListener();
+		ChannelSubscription subscription = subscription(listener, OverflowPolicy.dropOldest);
+		deliverFirst(subscription, listener);
+		for(int i = 1; i <= 5; i++)
+			subscription.onMessage(new Message("event", "m" + i));
+		assertEquals(3, subscription.getQueueDepth());
+		assertEquals(2, subscription.getDroppedCount());
+		Thread.sleep(20);
+		assertTrue(subscription.getOldestMessageAge() >= 10);
+
+		listener.release.countDown();
+		listener.waitFor(4);
+		assertEquals("[m0, m3, m4, m5]", listener.received.toString());
+		assertEquals(0, subscription.getQueueDepth());
+		assertEquals(0, subscription.getOldestMessageAge());
+	}
+
+	/**
+	 * Verify that received messages are dropped when the buffer is full
+	 */
+	@Test
+	public void subscription_drop_newest() throws Exception {
+		BlockingListener listener = new BlockingListener();
+		ChannelSubscription subscription = subscription(listener, OverflowPolicy.dropNewest);
+		deliverFirst(subscription, listener);
+		for(int i = 1; i <= 5; i++)
+			subscription.onMessage(new Message("event", "m" + i));
+		assertEquals(2, subscription.getDroppedCount());
+
+		listener.release.countDown();
+		listener.waitFor(4);
+		assertEquals("[m0, m1, m2, m3]", listener.received.toString());
+	}
+
+	/**
+	 * Verify that the delivering thread waits for space when the buffer
+	 * is full, and that no message is lost
+	 */
+	@Test
+	public void subscription_block() throws Exception {
+		final BlockingListener listener = new BlockingListener();
+		final ChannelSubscription subscription = subscription(listener, OverflowPolicy.block);
+		deliverFirst(subscription, listener);
+		final CountDownLatch delivered = new CountDownLatch(1);
+		Thread sender = new Thread() {
+			@Override
+			public void run() {
+				for(int i = 1; i <= 10; i++)
+					subscription.onMessage(new Message("event", "m" + i));
+				delivered.countDown();
+			}
+		};
+		sender.start();
+		assertTrue("Verify the sender is blocked", !delivered.await(100, TimeUnit.MILLISECONDS));
+		assertEquals(3, subscription.getQueueDepth());
+
+		listener.release.countDown();
+		assertTrue(delivered.await(5, TimeUnit.SECONDS));
+		listener.waitFor(11);
+		for(int i = 0; i <= 10; i++)
+			assertEquals("m" + i, listener.received.get(i));
+		assertEquals(0, subscription.getDroppedCount());
+	}
+
+	/**
+	 * Verify that the subscription fails when the buffer overflows,
+	 * and delivers no further messages
+	 */
+	@Test
+	public void subscription_fail() throws Exception {
+		BlockingListener listener = new BlockingListener();
+		ChannelSubscription subscription = subscription(listener, OverflowPolicy.fail);
+		deliverFirst(subscription, listener);
+		for(int i = 1; i <= 3; i++)
+			subscription.onMessage(new Message("event", "m" + i));
+		assertNull(subscription.getFailure());
+		subscription.onMessage(new Message("event", "m4"));
+		assertTrue(subscription.getFailure() != null);
+		assertEquals(0, subscription.getQueueDepth());
+
+		subscription.onMessage(new Message("event", "m5"));
+		listener.release.countDown();
+		listener.waitFor(1);
+		executor.shutdown();
+		assertTrue(executor.awaitTermination(5, TimeUnit.SECONDS));
+		assertEquals("[m0]", listener.received.toString());
+	}
+}
@@ -2,8 +2,12 @@ package io.ably.lib.test.realtime;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
 
 import java.util.HashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.junit.Test;
 
@@ -175,4 +179,77 @@ public class EventEmitterTest {
 		assertNull(listener.counts.get(MyEvents.event_1));
 	}
 
+
+	/**
+	 * Register listeners that remove themselves and register others when
+	 * called, and verify that the event is delivered to the listeners
+	 * registered when it was emitted
+	 */
+	@Test
+	public void off_during_emit() {
+		final MyEmitter emitter = new MyEmitter();
+		final CountingListener added = new CountingListener();
+		final int[] calls = new int[1];
+		for(int i = 0; i < 3; i++) {
+			emitter.on(new MyListener() {
+				@Override
+				public void onMyThingHappened(MyEventPayload theThing) {
+					++calls[0];
+					emitter.off(this);
+					emitter.on(MyEvents.event_0, added);
+				}
+			});
+		}
+		emitter.emit(MyEvents.event_0, "off_during_emit");
+		assertEquals(3, calls[0]);
+		assertNull(added.counts.get(MyEvents.event_0));
+		emitter.emit(MyEvents.event_0, "off_during_emit");
+		assertEquals(3, calls[0]);
+		assertEquals(Integer.valueOf(1), added.counts.get(MyEvents.event_0));
+	}
+
+	/**
+	 * Verify that a listener may be registered while another thread is
+	 * emitting to a listener that blocks, and that a once listener is
+	 * called once by concurrent emits
+	 */
+	@Test
+	public void emit_concurrent() throws InterruptedException {
+		final MyEmitter emitter = new MyEmitter();
+		final CountDownLatch blocked = new CountDownLatch(1), release = new CountDownLatch(1);
+		final AtomicInteger onceCalls = new AtomicInteger();
+		emitter.once(new MyListener() {
+			@Override
+			public void onMyThingHappened(MyEventPayload theThing) {
+				onceCalls.incrementAndGet();
+			}
+		});
+		emitter.on(MyEvents.event_1, new MyListener() {
+			@Override
+			public void onMyThingHappened(MyEventPayload theThing) {
+				blocked.countDown();
+				try { release.await(); } catch(InterruptedException e) {}
+			}
+		});
+		Thread[] threads = new Thread[2];
+		for(int i = 0; i < threads.length; i++) {
+			threads[i] = new Thread() {
+				@Override
+				public void run() {
+					emitter.emit(MyEvents.event_1, "emit_concurrent");
+				}
+			};
+			threads[i].start();
+		}
+		assertTrue(blocked.await(5, TimeUnit.SECONDS));
+		/* this would wait for the blocked listener if emit held the lock */
+		CountingListener listener = new CountingListener();
+		emitter.on(listener);
+		release.countDown();
+		for(Thread thread : threads)
+			thread.join();
+		emitter.emit(MyEvents.event_0, "emit_concurrent");
+		assertEquals(Integer.valueOf(1), listener.counts.get(MyEvents.event_0));
+		assertEquals(1, onceCalls.get());
+	}
 }
@@ -0,0 +1,228 @@
+package io.ably.lib.test.realtime;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.Timeout;
+
+import io.ably.lib.realtime.AblyRealtime;
+import io.ably.lib.realtime.Channel;
+import io.ably.lib.realtime.ChannelState;
+import io.ably.lib.realtime.ChannelStateListener;
+import io.ably.lib.realtime.ConnectionState;
+import io.ably.lib.test.common.Helpers.ChannelWaiter;
+import io.ably.lib.test.common.Helpers.ConnectionWaiter;
+import io.ably.lib.test.util.MockRealtimeServer;
+import io.ably.lib.transport.Defaults;
+import io.ably.lib.types.ClientOptions;
+import io.ably.lib.util.HashedWheelTimer;
+import io.ably.lib.util.Scheduler;
+
+/**
+ * Tests for the hashed wheel timer used for realtime timeouts.
+ */
+public class HashedWheelTimerTest {
+
+	@Rule
+	public Timeout testTimeout = Timeout.seconds(30);
+
+	/**
+	 * Verify that scheduled tasks run, in deadline order, no earlier than requested.
+	 */
+	@Test
+	public void timer_expiry_order() throws Exception {
+		HashedWheelTimer timer = new HashedWheelTimer(10, 8);
+		try {
+			final List<Integer> order = Collections.synchronizedList(new ArrayList<Integer>());
+			final CountDownLatch latch = new CountDownLatch(3);
+			final long start = System.currentTimeMillis();
+			final long[] runTimes = new long[3];
+			/* the longest delay spans several revolutions of the wheel */
+			long[] delays = new long[] { 300, 50, 150 };
+			for(int i = 0; i < delays.length; i++) {
+				final int idx = i;
+				timer.schedule(new Runnable() {
+					@Override
+					public void run() {
+						runTimes[idx] = System.currentTimeMillis() - start;
+						order.add(idx);
+						latch.countDown();
+					}
+				}, delays[i]);
+			}
+			assertTrue("Verify all tasks ran", latch.await(5, TimeUnit.SECONDS));
+			assertEquals("Verify tasks ran in deadline order", Arrays.asList(1, 2, 0), order);
+			for(int i = 0; i < delays.length; i++)
+				assertTrue("Verify task did not run early", runTimes[i] >= delays[i]);
+		} finally {
+			timer.stop();
+		}
+	}
+
+	/**
+	 * Verify that cancelled tasks do not run, and that a
+	 * large number of timeouts can be scheduled and cancelled.
+	 */
+	@Test
+	public void timer_cancel() throws Exception {
+		HashedWheelTimer timer = new HashedWheelTimer(10, 64);
+		try {
+			final AtomicInteger runCount = new AtomicInteger();
+			Runnable task = new Runnable() {
+				@Override
+				public void run() {
+					runCount.incrementAndGet();
+				}
+			};
+			int count = 100000;
+			Scheduler.Timeout[] timeouts = new Scheduler.Timeout[count];
+			for(int i = 0; i < count; i++)
+				timeouts[i] = timer.schedule(task, 200 + (i % 1000));
+			for(int i = 0; i < count; i += 2)
+				assertTrue("Verify cancel succeeds", timeouts[i].cancel());
+			assertFalse("Verify repeated cancel fails", timeouts[0].cancel());
+
+			long deadline = System.currentTimeMillis() + 10000;
+			while(runCount.get() < count / 2 && System.currentTimeMillis() < deadline)
+				Thread.sleep(50);
+			Thread.sleep(100);
+			assertEquals("Verify only uncancelled tasks ran", count / 2, runCount.get());
+			assertEquals("Verify no timeouts remain", 0, timer.pendingCount());
+			assertFalse("Verify expired task cannot be cancelled", timeouts[1].cancel());
+		} finally {
+			timer.stop();
+		}
+	}
+
+	/**
+	 * Verify that the number of running timers, and so timer threads, is
+	 * capped, and that timers that have not been started do not count.
+	 */
+	@Test
+	public void timer_instance_limit() {
+		Runnable task = new Runnable() {
+			@Override
+			public void run() {}
+		};
+		HashedWheelTimer.getDefault().schedule(task, 0);
+		List<HashedWheelTimer> timers = new ArrayList<HashedWheelTimer>();
+		try {
+			for(int i = 0; i < 2 * Defaults.TIMER_MAX_THREADS; i++)
+				timers.add(new HashedWheelTimer(100, 8));
+			for(HashedWheelTimer timer : timers)
+				timer.schedule(task, 1000);
+			fail("Expected timer limit to be reached");
+		} catch(IllegalStateException e) {
+			/* expected */
+		} finally {
+			for(HashedWheelTimer timer : timers)
+				timer.stop();
+		}
+		/* verify that stopping timers releases them from the limit */
+		HashedWheelTimer timer = new HashedWheelTimer(100, 8);
+		timer.schedule(task, 1000);
+		timer.stop();
+	}
+
+	/**
+	 * Verify that a channel attach times out, using the scheduler given in ClientOptions,
+	 * and that the state change is not emitted on the timer's thread.
+	 */
+	@Test
+	public void timer_channel_attach_timeout() throws Exception {
+		MockRealtimeServer server = new MockRealtimeServer(MockRealtimeServer.getFreePort());
+		server.ignoreAttach = true;
+		server.startServer();
+		long savedTimeout = Defaults.realtimeRequestTimeout;
+		Defaults.realtimeRequestTimeout = 500L;
+		final AtomicInteger scheduleCount = new AtomicInteger();
+		try {
+			ClientOptions opts = new ClientOptions("appid.keyid:secret");
+			opts.restHost = "localhost";
+			opts.realtimeHost = "localhost";
+			opts.tls = false;
+			opts.port = server.getListeningPort();
+			opts.scheduler = new Scheduler() {
+				@Override
+				public Timeout schedule(Runnable task, long delay) {
+					scheduleCount.incrementAndGet();
+					return HashedWheelTimer.getDefault().schedule(task, delay);
+				}
+			};
+			AblyRealtime ably = new AblyRealtime(opts);
+			ConnectionWaiter connectionWaiter = new ConnectionWaiter(ably.connection);
+			connectionWaiter.waitFor(ConnectionState.connected);
+
+			Channel channel = ably.channels.get("timer_channel_attach_timeout");
+			final AtomicReference<String> emitThread = new AtomicReference<String>();
+			final CountDownLatch emitted = new CountDownLatch(1);
+			channel.on(ChannelState.suspended, new ChannelStateListener() {
+				@Override
+				public void onChannelStateChanged(ChannelStateChange stateChange) {
+					emitThread.set(Thread.currentThread().getName());
+					emitted.countDown();
+				}
+			});
+			channel.attach();
+			new ChannelWaiter(channel).waitFor(ChannelState.suspended);
+			assertEquals("Verify suspended state is reached", ChannelState.suspended, channel.state);
+			assertTrue("Verify client scheduler was used", scheduleCount.get() > 0);
+			assertTrue(emitted.await(5, TimeUnit.SECONDS));
+			assertFalse("Verify the state change is not emitted on the timer's thread", emitThread.get().startsWith("ably-timer"));
+
+			ably.close();
+			connectionWaiter.waitFor(ConnectionState.closed);
+		} finally {
+			Defaults.realtimeRequestTimeout = savedTimeout;
+			server.stop();
+		}
+	}
+
+	/**
+	 * Verify that many callbacks expiring together are run on a
+	 * bounded number of threads, and that each of them is run.
+	 */
+	@Test
+	public void timer_callbacks_bounded() throws Exception {
+		ClientOptions opts = new ClientOptions("appid.keyid:secret");
+		opts.autoConnect = false;
+		AblyRealtime ably = new AblyRealtime(opts);
+		try {
+			final int count = 200;
+			final CountDownLatch done = new CountDownLatch(count);
+			final Set<Thread> threads = Collections.synchronizedSet(new HashSet<Thread>());
+			for(int i = 0; i < count; i++) {
+				ably.connection.connectionManager.scheduleCallback(new Runnable() {
+					@Override
+					public void run() {
+						threads.add(Thread.currentThread());
+						try {
+							Thread.sleep(20);
+						} catch(InterruptedException e) {}
+						done.countDown();
+					}
+				}, 50);
+			}
+			assertTrue("Verify all callbacks were run", done.await(20, TimeUnit.SECONDS));
+			/* a callback is run on the timer's thread when every thread of the executor is busy */
+			assertTrue("Verify the number of threads is bounded", threads.size() <= Defaults.EXECUTOR_MAX_THREADS + 1);
+		} finally {
+			ably.close();
+		}
+	}
+}
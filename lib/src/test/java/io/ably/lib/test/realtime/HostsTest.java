@@ -2,9 +2,12 @@ package io.ably.lib.test.realtime;
 
 import static org.hamcrest.Matchers.allOf;
 import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.greaterThan;
 import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.lessThan;
 import static org.hamcrest.Matchers.isEmptyOrNullString;
 import static org.hamcrest.Matchers.not;
+import static org.hamcrest.Matchers.sameInstance;
 import static org.junit.Assert.assertThat;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
@@ -14,7 +17,9 @@ import java.util.Arrays;
 import org.junit.Test;
 
 import io.ably.lib.transport.Defaults;
+import io.ably.lib.transport.HostScores;
 import io.ably.lib.transport.Hosts;
+import io.ably.lib.types.AblyException;
 import io.ably.lib.types.ClientOptions;
 
 public class HostsTest {
@@ -186,6 +191,115 @@ public class HostsTest {
 		}
 	}
 
+	/**
+	 * Expect that fallback hosts are ordered by the latency recorded for each,
+	 * and that hosts with recorded failures come after hosts with no history
+	 */
+	@Test
+	public void hosts_fallback_ranked() throws AblyException {
+		ClientOptions options = new ClientOptions();
+		String[] customHosts = { "F.ably-realtime.com", "G.ably-realtime.com", "H.ably-realtime.com", "I.ably-realtime.com" };
+		options.fallbackHosts = customHosts;
+		Hosts hosts = new Hosts(Defaults.HOST_REALTIME, Defaults.HOST_REALTIME, options);
+		hosts.recordSuccess("F.ably-realtime.com", 300);
+		hosts.recordSuccess("G.ably-realtime.com", 100);
+		hosts.recordFailure("H.ably-realtime.com");
+
+		/* I has no history, so is scored with the mean latency of F and G */
+		String[] expected = { "G.ably-realtime.com", "I.ably-realtime.com", "F.ably-realtime.com", "H.ably-realtime.com" };
+		String host = Defaults.HOST_REALTIME;
+		for (String expectedHost : expected) {
+			host = hosts.getFallback(host);
+			assertThat(host, is(equalTo(expectedHost)));
+		}
+		assertThat(hosts.getFallback(host), is(equalTo(null)));
+	}
+
+	/**
+	 * Expect that a sequence of fallback hosts keeps the order in which
+	 * the hosts were ranked when it began, while the results of other
+	 * requests change the order of later sequences
+	 */
+	@Test
+	public void hosts_fallback_sequence_snapshot() throws AblyException {
+		ClientOptions options = new ClientOptions();
+		String[] customHosts = { "F.ably-realtime.com", "G.ably-realtime.com", "H.ably-realtime.com" };
+		options.fallbackHosts = customHosts;
+		Hosts hosts = new Hosts(Defaults.HOST_REALTIME, Defaults.HOST_REALTIME, options);
+		hosts.recordSuccess("F.ably-realtime.com", 200);
+		hosts.recordSuccess("G.ably-realtime.com", 100);
+		hosts.recordSuccess("H.ably-realtime.com", 300);
+		Hosts.FallbackSequence fallbacks = hosts.getFallbackSequence();
+		assertThat(fallbacks.hasFallback(), is(true));
+		String host = fallbacks.getFallback(Defaults.HOST_REALTIME);
+		assertThat(host, is(equalTo("G.ably-realtime.com")));
+
+		/* other requests fail with G and F, and start a new sequence */
+		hosts.recordFailure("G.ably-realtime.com");
+		hosts.recordFailure("F.ably-realtime.com");
+		assertThat(hosts.getFallbackSequence().getFallback(Defaults.HOST_REALTIME), is(equalTo("H.ably-realtime.com")));
+
+		host = fallbacks.getFallback(host);
+		assertThat(host, is(equalTo("F.ably-realtime.com")));
+		host = fallbacks.getFallback(host);
+		assertThat(host, is(equalTo("H.ably-realtime.com")));
+		assertThat(fallbacks.getFallback(host), is(equalTo(null)));
+	}
 
+	/**
+	 * Expect that the effect of a failure decays, so that
+	 * a host that has failed is ranked ahead of others again
+	 */
+	@Test
+	public void hosts_fallback_failure_decay() throws Exception {
+		ClientOptions options = new ClientOptions();
+		String[] customHosts = { "F.ably-realtime.com", "G.ably-realtime.com", "H.ably-realtime.com" };
+		options.fallbackHosts = customHosts;
+		HostScores scores = new HostScores(100);
+		Hosts hosts = new Hosts(Defaults.HOST_REALTIME, Defaults.HOST_REALTIME, options, scores);
+		hosts.recordFailure("F.ably-realtime.com");
+		hosts.recordSuccess("G.ably-realtime.com", 1000);
+		hosts.recordSuccess("H.ably-realtime.com", 10);
+		assertThat(scores.getScore("F.ably-realtime.com"), is(greaterThan(scores.getScore("G.ably-realtime.com"))));
+		String host = hosts.getFallback(Defaults.HOST_REALTIME);
+		assertThat(host, is(equalTo("H.ably-realtime.com")));
+		host = hosts.getFallback(host);
+		assertThat(host, is(equalTo("G.ably-realtime.com")));
+		assertThat(hosts.getFallback(host), is(equalTo("F.ably-realtime.com")));
+
+		/* wait for the failure to decay, and for new results for the other hosts */
+		Thread.sleep(1000);
+		assertThat(scores.getFailureRate("F.ably-realtime.com"), is(lessThan(0.01)));
+		hosts.recordSuccess("G.ably-realtime.com", 1000);
+		hosts.recordSuccess("H.ably-realtime.com", 10);
+		host = hosts.getFallback(Defaults.HOST_REALTIME);
+		assertThat(host, is(equalTo("H.ably-realtime.com")));
+		assertThat(hosts.getFallback(host), is(equalTo("F.ably-realtime.com")));
+	}
+
+	/**
+	 * Expect that the results recorded by one client influence
+	 * another when both set shareHostScores
+	 */
+	@Test
+	public void hosts_fallback_shared_scores() throws AblyException {
+		try {
+			ClientOptions options = new ClientOptions();
+			options.shareHostScores = true;
+			String[] customHosts = { "F.ably-realtime.com", "G.ably-realtime.com" };
+			options.fallbackHosts = customHosts;
+			Hosts hosts1 = new Hosts(Defaults.HOST_REALTIME, Defaults.HOST_REALTIME, options);
+			Hosts hosts2 = new Hosts(Defaults.HOST_REST, Defaults.HOST_REST, options);
+			assertThat(hosts2.getScores(), is(sameInstance(hosts1.getScores())));
+			hosts1.recordFailure("F.ably-realtime.com");
+			assertThat(hosts2.getFallback(Defaults.HOST_REST), is(equalTo("G.ably-realtime.com")));
 
+			/* a client not sharing scores is unaffected */
+			options.shareHostScores = false;
+			Hosts hosts3 = new Hosts(Defaults.HOST_REST, Defaults.HOST_REST, options);
+			assertThat(hosts3.getScores().getFailureRate("F.ably-realtime.com"), is(equalTo(0.0)));
+		} finally {
+			HostScores.getShared().reset();
+		}
+	}
 }
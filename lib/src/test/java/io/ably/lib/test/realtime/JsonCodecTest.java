@@ -0,0 +1,165 @@
+package io.ably.lib.test.realtime;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.charset.Charset;
+import java.util.Map;
+
+import org.junit.Test;
+
+import io.ably.lib.http.HttpCore;
+import io.ably.lib.types.ErrorInfo;
+import io.ably.lib.types.Message;
+import io.ably.lib.types.MessageSerializer;
+import io.ably.lib.types.PresenceMessage;
+import io.ably.lib.types.ProtocolMessage;
+import io.ably.lib.types.ProtocolSerializer;
+import io.ably.lib.util.Serialisation;
+
+/**
+ * Tests for the streaming JSON codec for protocol messages, and its
+ * compatibility with the Gson serialisation it replaces.
+ */
+public class JsonCodecTest {
+
+	private static final int MESSAGE_COUNT = 3;
+
+	/**
+	 * A message frame, as sent by the server, with all the fields that are usually present
+	 */
+	private static String messageFrame() {
+		StringBuilder json = new StringBuilder();
+		json.append("{\"action\":15,\"id\":\"connid:1234\",\"channel\":\"json_codec\",\"channelSerial\":\"7d4e1a2b3c:1234\",")
+			.append("\"connectionSerial\":1234,\"timestamp\":1500000000000,\"messages\":[");
+		for(int i = 0; i < MESSAGE_COUNT; i++) {
+			if(i > 0)
+				json.append(',');
+			json.append("{\"id\":\"connid:1234:").append(i).append("\",\"name\":\"event\",\"clientId\":\"clientId\",")
+				.append("\"connectionId\":\"connid\",\"timestamp\":1500000000000,\"encoding\":\"json\",")
+				.append("\"data\":\"{\\\"value\\\":\\\"abcdefghijklmnopqrstuvwxyzabcdefghijklmnopqrstuvwxyz\\\"}\"}");
+		}
+		json.append("]}");
+		return json.toString();
+	}
+
+	private static void verifyMessageFrame(ProtocolMessage msg) {
+		assertEquals(ProtocolMessage.Action.message, msg.action);
+		assertEquals("connid:1234", msg.id);
+		assertEquals("json_codec", msg.channel);
+		assertEquals("7d4e1a2b3c:1234", msg.channelSerial);
+		assertEquals(Long.valueOf(1234L), msg.connectionSerial);
+		assertNull(msg.msgSerial);
+		assertEquals(1500000000000L, msg.timestamp);
+		assertEquals(MESSAGE_COUNT, msg.messages.length);
+		for(int i = 0; i < MESSAGE_COUNT; i++) {
+			Message message = msg.messages[i];
+			assertEquals("connid:1234:" + i, message.id);
+			assertEquals("event", message.name);
+			assertEquals("clientId", message.clientId);
+			assertEquals("connid", message.connectionId);
+			assertEquals(1500000000000L, message.timestamp);
+			assertEquals("json", message.encoding);
+			assertTrue(((String)message.data).startsWith("{\"value\":"));
+		}
+	}
+
+	/**
+	 * Verify that a received frame is read as it was by Gson
+	 */
+	@Test
+	public void json_read_frame() throws Exception {
+		String json = messageFrame();
+		verifyMessageFrame(ProtocolSerializer.fromJSON(json));
+		verifyMessageFrame(Serialisation.gson.fromJson(json, ProtocolMessage.class));
+	}
+
+	/**
+	 * Verify the reading of nested types, null values and unknown fields
+	 */
+	@Test
+	public void json_read_nested() throws Exception {
+		String json = "{\"action\":4,\"connectionId\":\"connid\",\"flags\":null,\"futureField\":{\"key\":[1,\"value\"]}," +
+				"\"connectionDetails\":{\"clientId\":\"clientId\",\"connectionKey\":\"connectionKey\",\"maxMessageSize\":65536,\"unknown\":true}," +
+				"\"error\":{\"message\":\"error message\",\"code\":40000,\"statusCode\":400}," +
+				"\"presence\":[{\"action\":2,\"clientId\":\"clientId\",\"data\":{\"key\":\"value\"}}]}";
+		ProtocolMessage msg = ProtocolSerializer.fromJSON(json);
+		assertEquals(ProtocolMessage.Action.connected, msg.action);
+		assertEquals("connid", msg.connectionId);
+		assertEquals(0, msg.flags);
+		assertEquals("clientId", msg.connectionDetails.clientId);
+		assertEquals("connectionKey", msg.connectionDetails.connectionKey);
+		assertEquals(Long.valueOf(65536L), msg.connectionDetails.maxMessageSize);
+		assertEquals("error message", msg.error.message);
+		assertEquals(40000, msg.error.code);
+		assertEquals(400, msg.error.statusCode);
+		assertEquals(PresenceMessage.Action.enter, msg.presence[0].action);
+		/* data that is not a string is read as Gson reads an Object */
+		assertEquals("value", ((Map<?, ?>)msg.presence[0].data).get("key"));
+	}
+
+	/**
+	 * Verify that malformed content is reported as an AblyException
+	 */
+	@Test
+	public void json_read_malformed() {
+		String[] malformed = { "{\"action\":", "{\"action\":\"attach\"}", "[]" };
+		for(String json : malformed) {
+			try {
+				ProtocolSerializer.fromJSON(json);
+				assertTrue("Expected failure for " + json, false);
+			} catch(io.ably.lib.types.AblyException e) {}
+		}
+	}
+
+	/**
+	 * Verify that a written message, including binary data, is read back,
+	 * both by the streaming reader and by Gson
+	 */
+	@Test
+	public void json_write_roundtrip() throws Exception {
+		ProtocolMessage msg = new ProtocolMessage(ProtocolMessage.Action.message, "json_codec");
+		msg.msgSerial = 100000L;
+		Message binaryMessage = new Message("binary", new byte[] { 1, 2, 3 });
+		binaryMessage.encoding = "custom";
+		msg.messages = new Message[] { new Message("event", "text", "clientId"), binaryMessage };
+		msg.presence = new PresenceMessage[] { new PresenceMessage(PresenceMessage.Action.update, "clientId", "data") };
+		msg.auth = new ProtocolMessage.AuthDetails("token");
+		msg.error = new ErrorInfo("error message", 400, 40000);
+
+		String json = ProtocolSerializer.toJSON(msg);
+		assertEquals(json, new String(ProtocolSerializer.writeJSON(msg), Charset.forName("UTF-8")));
+		ProtocolMessage[] decoded = { ProtocolSerializer.fromJSON(json), Serialisation.gson.fromJson(json, ProtocolMessage.class) };
+		for(ProtocolMessage result : decoded) {
+			assertEquals(msg.action, result.action);
+			assertEquals(msg.channel, result.channel);
+			assertEquals(msg.msgSerial, result.msgSerial);
+			assertEquals("token", result.auth.accessToken);
+			assertEquals(40000, result.error.code);
+			assertEquals("event", result.messages[0].name);
+			assertEquals("text", result.messages[0].data);
+			assertEquals("clientId", result.messages[0].clientId);
+			assertEquals("custom/base64", result.messages[1].encoding);
+			result.messages[1].decode(null);
+			assertEquals("custom", result.messages[1].encoding);
+			assertArrayEquals(new byte[] { 1, 2, 3 }, (byte[])result.messages[1].data);
+			assertEquals(PresenceMessage.Action.update, result.presence[0].action);
+			assertEquals("data", result.presence[0].data);
+		}
+	}
+
+	/**
+	 * Verify that message arrays, as used in REST requests and responses, are written and read
+	 */
+	@Test
+	public void json_message_array() throws Exception {
+		Message[] messages = { new Message("event1", "data1"), new Message("event2", "data2") };
+		HttpCore.RequestBody body = MessageSerializer.asJsonRequest(messages);
+		Message[] result = MessageSerializer.readJSON(body.getEncoded());
+		assertEquals(2, result.length);
+		assertEquals("event2", result[1].name);
+		assertEquals("data2", result[1].data);
+	}
+}
@@ -0,0 +1,333 @@
+package io.ably.lib.test.realtime;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.charset.Charset;
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.Test;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+
+import io.ably.lib.types.BatchDecoder;
+import io.ably.lib.types.ChannelOptions;
+import io.ably.lib.types.Message;
+import io.ably.lib.types.MessageDecodeException;
+import io.ably.lib.types.PayloadCodec;
+import io.ably.lib.util.Base64Coder;
+import io.ably.lib.util.DeflateCodec;
+
+/**
+ * Tests for the encoding and decoding of message data with the
+ * transforms given by the message encoding string.
+ */
+public class MessageEncodingTest {
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	private static ChannelOptions cipherOptions() throws Exception {
+		byte[] key = new byte[16];
+		for(int i = 0; i < key.length; i++)
+			key[i] = (byte)i;
+		return ChannelOptions.fromCipherKey(key);
+	}
+
+	/**
+	 * Encrypt a message, as it would be sent, with its data base64-encoded
+	 * as it would be over a JSON transport
+	 */
+	private static Message encryptedMessage(ChannelOptions opts, Object data) throws Exception {
+		Message message = new Message("event", data);
+		message.encode(opts);
+		message.data = new String(Base64Coder.encode((byte[])message.data));
+		message.encoding += "/base64";
+		return message;
+	}
+
+	/**
+	 * Verify that the full chain of transforms is encoded and then decoded
+	 */
+	@Test
+	public void encoding_roundtrip_encrypted() throws Exception {
+		ChannelOptions opts = cipherOptions();
+		JsonObject json = new JsonObject();
+		json.addProperty("key", "value");
+		Message message = encryptedMessage(opts, json);
+		assertEquals("json/utf-8/cipher+aes-128-cbc/base64", message.encoding);
+		message.decode(opts);
+		assertNull(message.encoding);
+		assertEquals(json, message.data);
+
+		/* a second message with the same encoding */
+		message = encryptedMessage(opts, "text");
+		assertEquals("utf-8/cipher+aes-128-cbc/base64", message.encoding);
+		message.decode(opts);
+		assertNull(message.encoding);
+		assertEquals("text", message.data);
+	}
+
+	/**
+	 * Verify that decoding stops at an unrecognised transform, and that
+	 * the encoding that remains is the part that was not decoded
+	 */
+	@Test
+	public void encoding_decode_unrecognised() throws Exception {
+		Message message = new Message("event", "{\"key\":1}");
+		message.encoding = "custom/json";
+		message.decode(null);
+		assertEquals("custom", message.encoding);
+		assertTrue(message.data instanceof JsonObject);
+
+		message = new Message("event", new String(Base64Coder.encode(new byte[] { 1, 2, 3 })));
+		message.encoding = "json/custom+param/base64";
+		message.decode(null);
+		assertEquals("json/custom+param", message.encoding);
+		assertArrayEquals(new byte[] { 1, 2, 3 }, (byte[])message.data);
+
+		message = new Message("event", "data");
+		message.encoding = "utf-8/not valid";
+		message.decode(null);
+		assertEquals("utf-8/not valid", message.encoding);
+		assertEquals("data", message.data);
+	}
+
+	/**
+	 * Verify that a transform that fails remains in the encoding,
+	 * with the data as it was before that transform
+	 */
+	@Test
+	public void encoding_decode_failure() throws Exception {
+		Message message = new Message("event", "{\"key\":");
+		message.encoding = "custom/json";
+		try {
+			message.decode(null);
+			assertTrue("Expected decode failure", false);
+		} catch(MessageDecodeException e) {
+			assertEquals("Invalid JSON data received", e.errorInfo.message);
+		}
+		assertEquals("custom/json", message.encoding);
+		assertEquals("{\"key\":", message.data);
+
+		/* the utf-8 transform is decoded, and the json transform remains */
+		message = new Message("event", "{\"key\":".getBytes(UTF8));
+		message.encoding = "json/utf-8";
+		try {
+			message.decode(null);
+			assertTrue("Expected decode failure", false);
+		} catch(MessageDecodeException e) {}
+		assertEquals("json", message.encoding);
+		assertEquals("{\"key\":", message.data);
+
+		message = encryptedMessage(cipherOptions(), "text");
+		try {
+			message.decode(null);
+			assertTrue("Expected decode failure", false);
+		} catch(MessageDecodeException e) {
+			assertEquals("Encrypted message received but encryption is not set up", e.errorInfo.message);
+		}
+		assertEquals("utf-8/cipher+aes-128-cbc", message.encoding);
+		assertTrue(message.data instanceof byte[]);
+
+		message = new Message("event", "not base64!");
+		message.encoding = "base64";
+		try {
+			message.decode(null);
+			assertTrue("Expected decode failure", false);
+		} catch(MessageDecodeException e) {
+			assertEquals("Invalid base64 data received", e.errorInfo.message);
+		}
+		assertEquals("base64", message.encoding);
+	}
+
+	/**
+	 * Verify that utf-8 encoded binary data decodes to a String
+	 */
+	@Test
+	public void encoding_decode_utf8_binary() throws Exception {
+		Message message = new Message("event", "text \u00e9".getBytes(UTF8));
+		message.encoding = "utf-8";
+		message.decode(null);
+		assertNull(message.encoding);
+		assertEquals("text \u00e9", message.data);
+	}
+
+	/**
+	 * Verify that messages with many distinct encodings, more than
+	 * are cached, are all decoded
+	 */
+	@Test
+	public void encoding_decode_distinct() throws Exception {
+		String data = new String(Base64Coder.encode(new byte[] { 1, 2, 3 }));
+		for(int i = 0; i < 1000; i++) {
+			Message message = new Message("event", data);
+			message.encoding = "custom" + i + "/base64";
+			message.decode(null);
+			assertEquals("custom" + i, message.encoding);
+			assertArrayEquals(new byte[] { 1, 2, 3 }, (byte[])message.data);
+		}
+	}
+
+	/**
+	 * A JSON document of roughly the given size, with repetition typical of real data
+	 */
+	private static JsonObject jsonDocument(int size) {
+		JsonObject json = new JsonObject();
+		JsonArray items = new JsonArray();
+		json.add("items", items);
+		for(int i = 0; json.toString().length() < size; i++) {
+			JsonObject item = new JsonObject();
+			item.addProperty("id", i);
+			item.addProperty("name", "item " + i);
+			item.addProperty("price", 100 + (i * 37) % 1000);
+			item.addProperty("available", i % 3 != 0);
+			items.add(item);
+		}
+		return json;
+	}
+
+	/**
+	 * Verify that a large payload is compressed, and decoded by a client
+	 * that does not have the codec configured
+	 */
+	@Test
+	public void encoding_deflate_roundtrip() throws Exception {
+		ChannelOptions opts = cipherOptions();
+		opts.codecs = new PayloadCodec[] { new DeflateCodec() };
+		JsonObject json = jsonDocument(10000);
+		Message message = encryptedMessage(opts, json);
+		assertEquals("json/utf-8/deflate/cipher+aes-128-cbc/base64", message.encoding);
+		assertTrue(((String)message.data).length() < json.toString().length() / 2);
+		message.decode(cipherOptions());
+		assertNull(message.encoding);
+		assertEquals(json, message.data);
+
+		/* small payloads are not compressed */
+		opts.encrypted = false;
+		message = new Message("event", "text");
+		message.encode(opts);
+		assertNull(message.encoding);
+		assertEquals("text", message.data);
+
+		message = new Message("event", json.toString());
+		message.encode(opts);
+		assertEquals("utf-8/deflate", message.encoding);
+		message.decode(null);
+		assertNull(message.encoding);
+		assertEquals(json.toString(), message.data);
+	}
+
+	/**
+	 * Verify that invalid compressed data fails to decode, leaving the deflate transform
+	 */
+	@Test
+	public void encoding_deflate_invalid() throws Exception {
+		Message message = new Message("event", new byte[] { 1, 2, 3, 4 });
+		message.encoding = "utf-8/deflate";
+		try {
+			message.decode(null);
+			assertTrue("Expected decode failure", false);
+		} catch(MessageDecodeException e) {}
+		assertEquals("utf-8/deflate", message.encoding);
+	}
+
+	/**
+	 * A codec that reverses the payload
+	 */
+	private static class ReverseCodec implements PayloadCodec {
+		@Override
+		public String getName() { return "reverse"; }
+
+		@Override
+		public byte[] encode(byte[] data) { return reverse(data); }
+
+		@Override
+		public byte[] decode(byte[] data) { return reverse(data); }
+
+		private static byte[] reverse(byte[] data) {
+			byte[] result = new byte[data.length];
+			for(int i = 0; i < data.length; i++)
+				result[i] = data[data.length - 1 - i];
+			return result;
+		}
+	}
+
+	/**
+	 * Verify that a custom codec is recorded in the encoding, and that
+	 * decoding stops at that transform if the codec is not configured
+	 */
+	@Test
+	public void encoding_custom_codec() throws Exception {
+		ChannelOptions opts = new ChannelOptions();
+		opts.codecs = new PayloadCodec[] { new ReverseCodec() };
+		Message message = new Message("event", "text");
+		message.encode(opts);
+		assertEquals("utf-8/reverse", message.encoding);
+		assertArrayEquals("txet".getBytes(UTF8), (byte[])message.data);
+
+		Message undecoded = new Message("event", message.data);
+		undecoded.encoding = message.encoding;
+		undecoded.decode(new ChannelOptions());
+		assertEquals("utf-8/reverse", undecoded.encoding);
+		assertArrayEquals("txet".getBytes(UTF8), (byte[])undecoded.data);
+
+		message.decode(opts);
+		assertNull(message.encoding);
+		assertEquals("text", message.data);
+	}
+
+	/**
+	 * A batch of encrypted messages, with the given message, if any,
+	 * replaced with one that fails to decode
+	 */
+	private static Message[] encryptedBatch(ChannelOptions opts, int count, int invalidIndex) throws Exception {
+		Message[] messages = new Message[count];
+		for(int i = 0; i < count; i++) {
+			JsonObject json = new JsonObject();
+			json.addProperty("index", i);
+			messages[i] = encryptedMessage(opts, json);
+		}
+		if(invalidIndex >= 0)
+			messages[invalidIndex].data = "not base64!";
+		return messages;
+	}
+
+	/**
+	 * Verify that a batch decoded in parallel has every message decoded,
+	 * in place, and that failures and unselected messages are reported by index
+	 */
+	@Test
+	public void encoding_batch_parallel() throws Exception {
+		ChannelOptions opts = cipherOptions();
+		ForkJoinPool pool = new ForkJoinPool(4);
+		try {
+			BatchDecoder decoder = new BatchDecoder(pool, 16);
+			Message[] messages = encryptedBatch(opts, 1000, 500);
+			MessageDecodeException[] errors = decoder.decode(messages, null, opts);
+			for(int i = 0; i < messages.length; i++) {
+				if(i == 500) {
+					assertTrue(errors[i] != null);
+					assertEquals("json/utf-8/cipher+aes-128-cbc/base64", messages[i].encoding);
+					continue;
+				}
+				assertNull(errors[i]);
+				assertNull(messages[i].encoding);
+				assertEquals(i, ((JsonObject)messages[i].data).get("index").getAsInt());
+			}
+
+			/* only the selected messages are decoded */
+			messages = encryptedBatch(opts, 200, -1);
+			boolean[] selected = new boolean[messages.length];
+			for(int i = 0; i < selected.length; i += 3)
+				selected[i] = true;
+			assertNull(decoder.decode(messages, selected, opts));
+			for(int i = 0; i < messages.length; i++)
+				assertEquals(selected[i], messages[i].encoding == null);
+		} finally {
+			pool.shutdown();
+		}
+	}
+}
@@ -0,0 +1,165 @@
+package io.ably.lib.test.realtime;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+
+import org.junit.Test;
+import org.msgpack.core.MessagePacker;
+
+import io.ably.lib.types.Message;
+import io.ably.lib.types.MessageSerializer;
+import io.ably.lib.types.ProtocolMessage;
+import io.ably.lib.types.ProtocolSerializer;
+import io.ably.lib.util.Serialisation;
+
+/**
+ * Tests for decoding of received protocol messages from msgpack,
+ * with field names matched without creating strings.
+ */
+public class MsgpackDecodeTest {
+
+	private static final int MESSAGE_COUNT = 3;
+
+	/**
+	 * Pack a message frame, as sent by the server, with all the
+	 * fields that are usually present
+	 */
+	private static byte[] packMessageFrame(boolean withUnknownFields) throws Exception {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		MessagePacker packer = Serialisation.msgpackPackerConfig.newPacker(out);
+		packer.packMapHeader(withUnknownFields ? 9 : 7);
+		packer.packString("action").packInt(ProtocolMessage.Action.message.getValue());
+		packer.packString("id").packString("connid:1234");
+		packer.packString("channel").packString("msgpack_decode");
+		packer.packString("channelSerial").packString("7d4e1a2b3c:1234");
+		packer.packString("connectionSerial").packLong(1234L);
+		packer.packString("timestamp").packLong(1500000000000L);
+		if(withUnknownFields) {
+			/* a field that may be added to the protocol, with a structured value */
+			packer.packString("futureField").packMapHeader(1).packString("key").packArrayHeader(2).packInt(1).packString("value");
+			/* a field name too long for the decoder's buffer */
+			StringBuilder longName = new StringBuilder();
+			for(int i = 0; i < 100; i++)
+				longName.append('x');
+			packer.packString(longName.toString()).packString("value");
+		}
+		packer.packString("messages").packArrayHeader(MESSAGE_COUNT);
+		for(int i = 0; i < MESSAGE_COUNT; i++) {
+			packer.packMapHeader(withUnknownFields ? 8 : 7);
+			packer.packString("id").packString("connid:1234:" + i);
+			packer.packString("name").packString("event");
+			packer.packString("clientId").packString("clientId");
+			packer.packString("connectionId").packString("connid");
+			packer.packString("timestamp").packLong(1500000000000L);
+			packer.packString("encoding").packString("json");
+			packer.packString("data").packString("{\"value\":\"abcdefghijklmnopqrstuvwxyzabcdefghijklmnopqrstuvwxyz\"}");
+			if(withUnknownFields)
+				packer.packString("extras").packNil();
+		}
+		packer.flush();
+		return out.toByteArray();
+	}
+
+	private static void verifyMessageFrame(ProtocolMessage msg) {
+		assertEquals(ProtocolMessage.Action.message, msg.action);
+		assertEquals("connid:1234", msg.id);
+		assertEquals("msgpack_decode", msg.channel);
+		assertEquals("7d4e1a2b3c:1234", msg.channelSerial);
+		assertEquals(Long.valueOf(1234L), msg.connectionSerial);
+		assertNull(msg.msgSerial);
+		assertEquals(1500000000000L, msg.timestamp);
+		assertEquals(MESSAGE_COUNT, msg.messages.length);
+		for(int i = 0; i < MESSAGE_COUNT; i++) {
+			Message message = msg.messages[i];
+			assertEquals("connid:1234:" + i, message.id);
+			assertEquals("event", message.name);
+			assertEquals("clientId", message.clientId);
+			assertEquals("connid", message.connectionId);
+			assertEquals(1500000000000L, message.timestamp);
+			assertEquals("json", message.encoding);
+			assertTrue(((String)message.data).startsWith("{\"value\":"));
+		}
+	}
+
+	/**
+	 * Verify that a message frame decodes correctly, from an array and from a buffer
+	 */
+	@Test
+	public void msgpack_decode_fields() throws Exception {
+		byte[] packed = packMessageFrame(false);
+		verifyMessageFrame(ProtocolSerializer.readMsgpack(packed));
+		verifyMessageFrame(ProtocolSerializer.readMsgpack(ByteBuffer.wrap(packed)));
+	}
+
+	/**
+	 * Verify that unknown fields, including one with a long name and ones
+	 * with structured or nil values, are skipped
+	 */
+	@Test
+	public void msgpack_decode_unknown_fields() throws Exception {
+		verifyMessageFrame(ProtocolSerializer.readMsgpack(packMessageFrame(true)));
+		/* verify that the decoder is left in a usable state */
+		verifyMessageFrame(ProtocolSerializer.readMsgpack(packMessageFrame(false)));
+	}
+
+	/**
+	 * Verify the decoding of the nested types in a connected and an error frame
+	 */
+	@Test
+	public void msgpack_decode_nested() throws Exception {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		MessagePacker packer = Serialisation.msgpackPackerConfig.newPacker(out);
+		packer.packMapHeader(4);
+		packer.packString("action").packInt(ProtocolMessage.Action.connected.getValue());
+		packer.packString("connectionId").packString("connid");
+		packer.packString("connectionDetails").packMapHeader(4);
+		packer.packString("clientId").packString("clientId");
+		packer.packString("connectionKey").packString("connectionKey");
+		packer.packString("maxMessageSize").packLong(65536L);
+		packer.packString("connectionStateTtl").packLong(120000L);
+		packer.packString("error").packMapHeader(3);
+		packer.packString("message").packString("error message");
+		packer.packString("code").packInt(40000);
+		packer.packString("statusCode").packInt(400);
+		packer.flush();
+
+		ProtocolMessage msg = ProtocolSerializer.readMsgpack(out.toByteArray());
+		assertEquals(ProtocolMessage.Action.connected, msg.action);
+		assertEquals("connid", msg.connectionId);
+		assertEquals("clientId", msg.connectionDetails.clientId);
+		assertEquals("connectionKey", msg.connectionDetails.connectionKey);
+		assertEquals(Long.valueOf(65536L), msg.connectionDetails.maxMessageSize);
+		assertEquals(Long.valueOf(120000L), msg.connectionDetails.connectionStateTtl);
+		assertEquals("error message", msg.error.message);
+		assertEquals(40000, msg.error.code);
+		assertEquals(400, msg.error.statusCode);
+	}
+
+	/**
+	 * Verify that an array of messages, as in a REST response, decodes correctly
+	 */
+	@Test
+	public void msgpack_decode_message_array() throws Exception {
+		ProtocolMessage msg = ProtocolSerializer.readMsgpack(packMessageFrame(false));
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		MessagePacker packer = Serialisation.msgpackPackerConfig.newPacker(out);
+		packer.packArrayHeader(MESSAGE_COUNT);
+		for(Message message : msg.messages) {
+			packer.packMapHeader(2);
+			packer.packString("name").packString(message.name);
+			packer.packString("id").packString(message.id);
+		}
+		packer.flush();
+
+		Message[] messages = MessageSerializer.readMsgpack(out.toByteArray());
+		assertEquals(MESSAGE_COUNT, messages.length);
+		for(int i = 0; i < MESSAGE_COUNT; i++) {
+			assertEquals("event", messages[i].name);
+			assertEquals(msg.messages[i].id, messages[i].id);
+		}
+	}
+}
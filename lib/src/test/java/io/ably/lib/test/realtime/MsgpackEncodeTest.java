@@ -0,0 +1,171 @@
+package io.ably.lib.test.realtime;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+
+import org.junit.Test;
+import org.msgpack.core.MessagePacker;
+
+import io.ably.lib.types.Message;
+import io.ably.lib.types.PresenceMessage;
+import io.ably.lib.types.ProtocolMessage;
+import io.ably.lib.types.ProtocolSerializer;
+import io.ably.lib.util.Serialisation;
+
+/**
+ * Tests for encoding of protocol messages with the msgpack encoder
+ * that reuses a buffer for each thread.
+ */
+public class MsgpackEncodeTest {
+
+	private static ProtocolMessage createMessage(int serial, int dataLength) {
+		StringBuilder data = new StringBuilder();
+		for(int i = 0; i < dataLength; i++)
+			data.append((char)('a' + i % 26));
+		ProtocolMessage msg = new ProtocolMessage(ProtocolMessage.Action.message, "msgpack_encode");
+		msg.msgSerial = (long)serial;
+		msg.messages = new Message[] { new Message("event", data.toString()) };
+		return msg;
+	}
+
+	/**
+	 * Verify that messages encoded in succession, including one larger than
+	 * the reused buffer, decode correctly, and that the array and buffer
+	 * forms of the encoding are identical
+	 */
+	@Test
+	public void msgpack_encode_reuse() throws Exception {
+		int[] lengths = { 10, 100000, 10, 5000, 0 };
+		for(int i = 0; i < lengths.length; i++) {
+			ProtocolMessage msg = createMessage(i, lengths[i]);
+			byte[] encoded = ProtocolSerializer.writeMsgpack(msg);
+			ByteBuffer buffer = ProtocolSerializer.writeMsgpackToBuffer(msg);
+			byte[] bufferContent = new byte[buffer.remaining()];
+			buffer.get(bufferContent);
+			assertArrayEquals("Verify encodings are identical", encoded, bufferContent);
+
+			ProtocolMessage decoded = ProtocolSerializer.readMsgpack(encoded);
+			assertEquals(msg.action, decoded.action);
+			assertEquals(msg.channel, decoded.channel);
+			assertEquals(msg.msgSerial, decoded.msgSerial);
+			assertEquals(msg.messages[0].data, decoded.messages[0].data);
+		}
+	}
+
+	/**
+	 * Verify that each thread encodes into its own buffer
+	 */
+	@Test
+	public void msgpack_encode_threads() throws Exception {
+		final ByteBuffer[] buffers = new ByteBuffer[2];
+		Thread[] threads = new Thread[2];
+		for(int i = 0; i < threads.length; i++) {
+			final int index = i;
+			threads[i] = new Thread() {
+				@Override
+				public void run() {
+					buffers[index] = ProtocolSerializer.writeMsgpackToBuffer(createMessage(index, 100));
+				}
+			};
+			threads[i].start();
+		}
+		for(Thread thread : threads)
+			thread.join();
+		assertTrue("Verify buffers are distinct", buffers[0].array() != buffers[1].array());
+		for(int i = 0; i < buffers.length; i++) {
+			byte[] content = new byte[buffers[i].remaining()];
+			buffers[i].get(content);
+			assertEquals((long)i, (long)ProtocolSerializer.readMsgpack(content).msgSerial);
+		}
+	}
+
+	/**
+	 * Verify that messages with all encoded fields present, or absent, decode correctly
+	 */
+	@Test
+	public void msgpack_encode_fields() throws Exception {
+		Message message = new Message("name", new byte[] { 1, 2, 3 }, "clientId");
+		message.id = "id";
+		message.timestamp = 1500000000000L;
+		message.connectionId = "connectionId";
+		message.encoding = "cipher+aes-128-cbc";
+		PresenceMessage presenceMessage = new PresenceMessage(PresenceMessage.Action.enter, "clientId", "data");
+		ProtocolMessage msg = new ProtocolMessage(ProtocolMessage.Action.message, "msgpack_encode_fields");
+		msg.msgSerial = 100000L;
+		msg.messages = new Message[] { message, new Message() };
+		msg.presence = new PresenceMessage[] { presenceMessage };
+		msg.auth = new ProtocolMessage.AuthDetails("token");
+
+		ProtocolMessage decoded = ProtocolSerializer.readMsgpack(ProtocolSerializer.writeMsgpack(msg));
+		assertEquals(msg.action, decoded.action);
+		assertEquals(msg.channel, decoded.channel);
+		assertEquals(msg.msgSerial, decoded.msgSerial);
+		assertEquals(msg.auth.accessToken, decoded.auth.accessToken);
+		assertEquals(2, decoded.messages.length);
+		Message decodedMessage = decoded.messages[0];
+		assertEquals(message.name, decodedMessage.name);
+		assertEquals(message.id, decodedMessage.id);
+		assertEquals(message.timestamp, decodedMessage.timestamp);
+		assertEquals(message.clientId, decodedMessage.clientId);
+		assertEquals(message.connectionId, decodedMessage.connectionId);
+		assertEquals(message.encoding, decodedMessage.encoding);
+		/* binary data remains a buffer until the message is decoded */
+		assertEquals(ByteBuffer.wrap((byte[])message.data), decodedMessage.data);
+		assertEquals(null, decoded.messages[1].name);
+		assertEquals(null, decoded.messages[1].data);
+		assertEquals(PresenceMessage.Action.enter, decoded.presence[0].action);
+		assertEquals("clientId", decoded.presence[0].clientId);
+		assertEquals("data", decoded.presence[0].data);
+	}
+
+	/**
+	 * Verify that encoding a published message into the reused buffer
+	 * allocates less per message than the new packer and output stream
+	 * per message did previously
+	 */
+	@Test
+	public void msgpack_encode_allocation() throws Exception {
+		java.lang.management.ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+		if(!(threadBean instanceof com.sun.management.ThreadMXBean))
+			/* allocation measurement not supported */
+			return;
+		com.sun.management.ThreadMXBean bean = (com.sun.management.ThreadMXBean)threadBean;
+		long threadId = Thread.currentThread().getId();
+		int count = 20000;
+		ProtocolMessage msg = createMessage(0, 200);
+		byte[] encoded = ProtocolSerializer.writeMsgpack(msg);
+
+		/* warm up */
+		for(int i = 0; i < count; i++) {
+			legacyEncode(encoded);
+			ProtocolSerializer.writeMsgpackToBuffer(msg);
+		}
+
+		/* the previous encoding allocated a packer, stream and result array for
+		 * each message; this is reproduced by writing the encoded content through them */
+		long start = bean.getThreadAllocatedBytes(threadId);
+		for(int i = 0; i < count; i++)
+			legacyEncode(encoded);
+		long legacyEncodingOverhead = (bean.getThreadAllocatedBytes(threadId) - start) / count;
+
+		start = bean.getThreadAllocatedBytes(threadId);
+		for(int i = 0; i < count; i++)
+			ProtocolSerializer.writeMsgpackToBuffer(msg);
+		long reusedTotal = (bean.getThreadAllocatedBytes(threadId) - start) / count;
+
+		assertTrue("Verify reused buffer allocates less than the previous overhead alone", reusedTotal < legacyEncodingOverhead);
+	}
+
+	private static byte[] legacyEncode(byte[] content) throws Exception {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		MessagePacker packer = Serialisation.msgpackPackerConfig.newPacker(out);
+		packer.writePayload(content);
+		packer.flush();
+		return out.toByteArray();
+	}
+}
@@ -0,0 +1,273 @@
+package io.ably.lib.test.realtime;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.java_websocket.WebSocket;
+import org.java_websocket.client.WebSocketClient;
+import org.java_websocket.drafts.Draft;
+import org.java_websocket.handshake.ClientHandshake;
+import org.java_websocket.handshake.ServerHandshake;
+import org.java_websocket.server.WebSocketServer;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.Timeout;
+
+import io.ably.lib.realtime.AblyRealtime;
+import io.ably.lib.realtime.Channel;
+import io.ably.lib.realtime.ChannelState;
+import io.ably.lib.realtime.ConnectionState;
+import io.ably.lib.test.common.Helpers.ChannelWaiter;
+import io.ably.lib.test.common.Helpers.CompletionWaiter;
+import io.ably.lib.test.common.Helpers.ConnectionWaiter;
+import io.ably.lib.test.util.MockRealtimeServer;
+import io.ably.lib.transport.PerMessageDeflateDraft;
+import io.ably.lib.types.ClientOptions;
+import io.ably.lib.types.CompressionOptions;
+import io.ably.lib.types.ProtocolMessage;
+
+/**
+ * Tests for permessage-deflate compression of websocket connections,
+ * run against a local websocket server.
+ */
+public class RealtimeCompressionTest {
+
+	@Rule
+	public Timeout testTimeout = Timeout.seconds(60);
+
+	private static final int MESSAGE_COUNT = 500;
+
+	/**
+	 * Send JSON messages, representative of realtime traffic, to a local echo
+	 * server with compression negotiated in both directions; verify that they
+	 * are received intact and compressed.
+	 */
+	@Test
+	public void compression_roundtrip_json() throws Exception {
+		CompressionOptions options = new CompressionOptions();
+		roundtrip(options, true);
+	}
+
+	/**
+	 * Verify messages are received intact when each message is compressed
+	 * independently, and that this compresses less well than with context takeover.
+	 */
+	@Test
+	public void compression_no_context_takeover() throws Exception {
+		CompressionOptions options = new CompressionOptions();
+		options.clientNoContextTakeover = true;
+		options.serverNoContextTakeover = true;
+		double independentRatio = roundtrip(options, true);
+		double contextRatio = roundtrip(new CompressionOptions(), true);
+		assertTrue("Verify context takeover improves compression", contextRatio < independentRatio);
+	}
+
+	/**
+	 * Verify that the compression level is applied, with lower
+	 * levels giving compression that is no better.
+	 */
+	@Test
+	public void compression_level() throws Exception {
+		CompressionOptions fast = new CompressionOptions();
+		fast.level = 1;
+		CompressionOptions best = new CompressionOptions();
+		best.level = 9;
+		CompressionOptions none = new CompressionOptions();
+		none.level = 0;
+		double fastRatio = roundtrip(fast, true);
+		double bestRatio = roundtrip(best, true);
+		double noneRatio = roundtrip(none, true);
+		assertTrue("Verify best compression is no worse than fast", bestRatio <= fastRatio);
+		assertTrue("Verify level 0 does not compress", noneRatio >= 1.0);
+	}
+
+	/**
+	 * Verify that a server window size that the server declines
+	 * results in an uncompressed connection that still works.
+	 */
+	@Test
+	public void compression_declined() throws Exception {
+		CompressionOptions options = new CompressionOptions();
+		/* the test server only accepts a 15-bit window */
+		options.serverMaxWindowBits = 10;
+		roundtrip(options, false);
+	}
+
+	/**
+	 * Connect a realtime client with compression enabled to an endpoint that
+	 * does not support it; verify that the connection proceeds uncompressed.
+	 */
+	@Test
+	public void compression_realtime_unsupported_server() throws Exception {
+		MockRealtimeServer server = new MockRealtimeServer(MockRealtimeServer.getFreePort());
+		server.startServer();
+		try {
+			ClientOptions opts = new ClientOptions("appid.keyid:secret");
+			opts.restHost = "localhost";
+			opts.realtimeHost = "localhost";
+			opts.tls = false;
+			opts.port = server.getListeningPort();
+			opts.compression = new CompressionOptions();
+			AblyRealtime ably = new AblyRealtime(opts);
+			ConnectionWaiter connectionWaiter = new ConnectionWaiter(ably.connection);
+			connectionWaiter.waitFor(ConnectionState.connected);
+			assertEquals("Verify connected state is reached", ConnectionState.connected, ably.connection.state);
+
+			Channel channel = ably.channels.get("compression_realtime_unsupported_server");
+			channel.attach();
+			new ChannelWaiter(channel).waitFor(ChannelState.attached);
+			CompletionWaiter completionWaiter = new CompletionWaiter();
+			channel.publish("name", createPayload(0), completionWaiter);
+			completionWaiter.waitFor();
+			assertTrue("Verify publish succeeded", completionWaiter.success);
+
+			boolean found = false;
+			for(ProtocolMessage msg : server.getReceivedMessages())
+				found |= (msg.action == ProtocolMessage.Action.message);
+			assertTrue("Verify message was received by the server", found);
+
+			ably.close();
+			connectionWaiter.waitFor(ConnectionState.closed);
+		} finally {
+			server.stop();
+		}
+	}
+
+	/**
+	 * Send messages to an echo server, and verify each echoed message.
+	 * @return the ratio of compressed to uncompressed bytes sent
+	 */
+	private static double roundtrip(CompressionOptions options, boolean expectNegotiated) throws Exception {
+		EchoServer server = new EchoServer(MockRealtimeServer.getFreePort(), options);
+		server.start();
+		waitForServer(server.getPort());
+		EchoClient client = null;
+		try {
+			client = new EchoClient(URI.create("ws://localhost:" + server.getPort() + "/"), new PerMessageDeflateDraft(options));
+			assertTrue("Verify connection opened", client.connectBlocking());
+			/* the connection may use a copy of the draft passed in */
+			PerMessageDeflateDraft draft = (PerMessageDeflateDraft)client.getConnection().getDraft();
+			assertEquals("Verify compression negotiation", expectNegotiated, draft.isNegotiated());
+
+			List<String> payloads = new ArrayList<String>(MESSAGE_COUNT);
+			for(int i = 0; i < MESSAGE_COUNT; i++)
+				payloads.add("{\"action\":15,\"channel\":\"compression\",\"msgSerial\":" + i + ",\"messages\":[{\"name\":\"update\",\"data\":" + createPayload(i) + "}]}");
+
+			for(String payload : payloads)
+				client.send(payload);
+			for(String payload : payloads)
+				assertEquals("Verify echoed message", payload, client.received.poll(10, TimeUnit.SECONDS));
+
+			double ratio = (double)draft.getCompressedBytesSent() / draft.getBytesSent();
+			double receivedRatio = (double)draft.getCompressedBytesReceived() / Math.max(draft.getBytesReceived(), 1);
+			if(expectNegotiated && options.level != 0) {
+				assertTrue("Verify messages sent were compressed", ratio < 0.5);
+				assertTrue("Verify messages received were compressed", receivedRatio < 0.5);
+			} else if(!expectNegotiated) {
+				assertEquals("Verify messages were sent uncompressed", draft.getBytesSent(), draft.getCompressedBytesSent());
+			}
+			return ratio;
+		} finally {
+			if(client != null)
+				client.closeBlocking();
+			server.stop();
+		}
+	}
+
+	private static void waitForServer(int port) throws Exception {
+		for(int i = 0; i < 100; i++) {
+			Socket socket = new Socket();
+			try {
+				socket.connect(new InetSocketAddress("localhost", port));
+				return;
+			} catch(IOException e) {
+				Thread.sleep(50);
+			} finally {
+				socket.close();
+			}
+		}
+	}
+
+	/**
+	 * Create a JSON payload with the structure, but not the
+	 * content, repeated between successive messages.
+	 */
+	private static String createPayload(int seed) {
+		StringBuilder builder = new StringBuilder("{\"readings\":[");
+		for(int i = 0; i < 20; i++) {
+			if(i > 0)
+				builder.append(',');
+			builder.append("{\"sensorId\":\"sensor-").append(i)
+				.append("\",\"timestamp\":").append(1500000000000L + seed * 1000L + i)
+				.append(",\"temperature\":").append((seed * 31 + i * 17) % 400 / 10.0)
+				.append(",\"status\":\"").append((seed + i) % 7 == 0 ? "warning" : "ok").append("\"}");
+		}
+		return builder.append("]}").toString();
+	}
+
+	private static class EchoServer extends WebSocketServer {
+		EchoServer(int port, CompressionOptions options) {
+			super(new InetSocketAddress("localhost", port), Collections.<Draft>singletonList(new PerMessageDeflateDraft(options)));
+		}
+
+		@Override
+		public void onOpen(WebSocket conn, ClientHandshake handshake) {}
+
+		@Override
+		public void onClose(WebSocket conn, int code, String reason, boolean remote) {}
+
+		@Override
+		public void onMessage(WebSocket conn, String message) {
+			conn.send(message);
+		}
+
+		@Override
+		public void onMessage(WebSocket conn, ByteBuffer message) {
+			conn.send(message);
+		}
+
+		@Override
+		public void onError(WebSocket conn, Exception ex) {
+			ex.printStackTrace();
+		}
+
+		/* not present in all versions of the websocket library */
+		public void onStart() {}
+	}
+
+	private static class EchoClient extends WebSocketClient {
+		EchoClient(URI uri, Draft draft) {
+			super(uri, draft);
+		}
+
+		@Override
+		public void onOpen(ServerHandshake handshake) {}
+
+		@Override
+		public void onMessage(String message) {
+			received.add(message);
+		}
+
+		@Override
+		public void onClose(int code, String reason, boolean remote) {}
+
+		@Override
+		public void onError(Exception ex) {
+			ex.printStackTrace();
+		}
+
+		final BlockingQueue<String> received = new LinkedBlockingQueue<String>();
+	}
+}
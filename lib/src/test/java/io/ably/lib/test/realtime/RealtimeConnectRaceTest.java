@@ -0,0 +1,189 @@
+package io.ably.lib.test.realtime;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.Timeout;
+
+import io.ably.lib.realtime.AblyRealtime;
+import io.ably.lib.realtime.ConnectionState;
+import io.ably.lib.test.common.Helpers.ConnectionWaiter;
+import io.ably.lib.test.util.MockRealtimeServer;
+import io.ably.lib.transport.ConnectMetrics;
+import io.ably.lib.transport.HostScores;
+import io.ably.lib.types.ClientOptions;
+
+/**
+ * Tests for racing connection attempts across the primary and fallback hosts,
+ * using local endpoints on distinct loopback addresses.
+ */
+public class RealtimeConnectRaceTest {
+
+	@Rule
+	public Timeout testTimeout = Timeout.seconds(30);
+
+	private static final String PRIMARY_HOST = "127.0.0.1";
+	private static final String FALLBACK_HOST = "127.0.0.2";
+
+	private int port;
+	private MockRealtimeServer fallbackServer;
+
+	@Before
+	public void setUp() throws Exception {
+		port = MockRealtimeServer.getFreePort();
+		fallbackServer = new MockRealtimeServer(FALLBACK_HOST, port);
+		fallbackServer.startServer();
+	}
+
+	@After
+	public void tearDown() {
+		fallbackServer.stop();
+	}
+
+	private ClientOptions createOptions(long connectRaceDelay) throws Exception {
+		ClientOptions opts = new ClientOptions("appid.keyid:secret");
+		opts.restHost = "localhost";
+		opts.realtimeHost = PRIMARY_HOST;
+		opts.fallbackHosts = new String[] { FALLBACK_HOST };
+		opts.tls = false;
+		opts.port = port;
+		opts.useBinaryProtocol = false;
+		opts.connectRaceDelay = connectRaceDelay;
+		return opts;
+	}
+
+	/**
+	 * Verify that when the primary host accepts connections but does not
+	 * respond, a racing attempt with the fallback host connects without
+	 * waiting for the connection timeout, and the primary attempt is closed.
+	 */
+	@Test
+	public void connect_race_fallback_wins() throws Exception {
+		UnresponsiveServer primaryServer = new UnresponsiveServer(PRIMARY_HOST, port);
+		try {
+			long start = System.currentTimeMillis();
+			AblyRealtime ably = new AblyRealtime(createOptions(500));
+			ConnectionWaiter connectionWaiter = new ConnectionWaiter(ably.connection);
+			connectionWaiter.waitFor(ConnectionState.connected);
+			long elapsed = System.currentTimeMillis() - start;
+			assertEquals("Verify connected state is reached", ConnectionState.connected, ably.connection.state);
+			assertTrue("Verify connection was not delayed by the connect timeout", elapsed < 5000);
+
+			ConnectMetrics metrics = ably.connection.connectionManager.getConnectMetrics();
+			assertEquals("Verify connection count", 1, metrics.connectCount);
+			assertEquals("Verify connected host", FALLBACK_HOST, metrics.lastHost);
+			assertEquals("Verify connected host", FALLBACK_HOST, ably.connection.connectionManager.getHost());
+			assertEquals("Verify number of attempts", 2, metrics.lastAttemptCount);
+			assertEquals("Verify fallback count", 1, metrics.fallbackCount);
+			assertTrue("Verify connect time includes the race delay", metrics.lastConnectTime >= 500);
+
+			assertTrue("Verify primary attempt was made", primaryServer.accepted.await(5, TimeUnit.SECONDS));
+			assertTrue("Verify primary attempt was closed", primaryServer.closed.await(5, TimeUnit.SECONDS));
+
+			ably.close();
+			connectionWaiter.waitFor(ConnectionState.closed);
+		} finally {
+			primaryServer.close();
+		}
+	}
+
+	/**
+	 * Verify that when the primary host connects within the race delay,
+	 * no attempt is made with the fallback host.
+	 */
+	@Test
+	public void connect_race_primary_wins() throws Exception {
+		MockRealtimeServer primaryServer = new MockRealtimeServer(PRIMARY_HOST, port);
+		primaryServer.startServer();
+		try {
+			AblyRealtime ably = new AblyRealtime(createOptions(2000));
+			ConnectionWaiter connectionWaiter = new ConnectionWaiter(ably.connection);
+			connectionWaiter.waitFor(ConnectionState.connected);
+			assertEquals("Verify connected state is reached", ConnectionState.connected, ably.connection.state);
+
+			ConnectMetrics metrics = ably.connection.connectionManager.getConnectMetrics();
+			assertEquals("Verify connected host", PRIMARY_HOST, metrics.lastHost);
+			assertEquals("Verify number of attempts", 1, metrics.lastAttemptCount);
+			assertEquals("Verify fallback count", 0, metrics.fallbackCount);
+
+			/* wait beyond the race delay to verify that no racing attempt is started */
+			Thread.sleep(2500);
+			assertEquals("Verify no fallback attempt was made", 0, fallbackServer.getConnectionCount());
+			assertEquals("Verify still connected", ConnectionState.connected, ably.connection.state);
+
+			ably.close();
+			connectionWaiter.waitFor(ConnectionState.closed);
+		} finally {
+			primaryServer.stop();
+		}
+	}
+
+	/**
+	 * Verify that when the primary host refuses connections, the fallback
+	 * attempt already in progress becomes the transport.
+	 */
+	@Test
+	public void connect_race_primary_refused() throws Exception {
+		/* nothing is listening on the primary host */
+		AblyRealtime ably = new AblyRealtime(createOptions(200));
+		ConnectionWaiter connectionWaiter = new ConnectionWaiter(ably.connection);
+		connectionWaiter.waitFor(ConnectionState.connected);
+		assertEquals("Verify connected state is reached", ConnectionState.connected, ably.connection.state);
+		assertEquals("Verify connected host", FALLBACK_HOST, ably.connection.connectionManager.getConnectMetrics().lastHost);
+
+		/* the results of the attempts are recorded for ordering fallback hosts */
+		HostScores scores = ably.httpCore.getHostScores();
+		assertTrue("Verify failure of primary host was recorded", scores.getFailureRate(PRIMARY_HOST) > 0);
+		assertEquals("Verify no failure of fallback host was recorded", 0.0, scores.getFailureRate(FALLBACK_HOST), 0);
+		assertTrue("Verify latency of fallback host was recorded", scores.getLatency(FALLBACK_HOST) >= 0);
+
+		ably.close();
+		connectionWaiter.waitFor(ConnectionState.closed);
+	}
+
+	/**
+	 * A server that accepts connections, but never responds
+	 */
+	private static class UnresponsiveServer extends Thread {
+		UnresponsiveServer(String host, int port) throws IOException {
+			serverSocket = new ServerSocket(port, 50, InetAddress.getByName(host));
+			setDaemon(true);
+			start();
+		}
+
+		@Override
+		public void run() {
+			try {
+				Socket socket = serverSocket.accept();
+				accepted.countDown();
+				InputStream in = socket.getInputStream();
+				byte[] buf = new byte[4096];
+				while(in.read(buf) >= 0) {}
+				socket.close();
+			} catch(IOException e) {
+			} finally {
+				closed.countDown();
+			}
+		}
+
+		void close() throws IOException {
+			serverSocket.close();
+		}
+
+		final CountDownLatch accepted = new CountDownLatch(1);
+		final CountDownLatch closed = new CountDownLatch(1);
+		private final ServerSocket serverSocket;
+	}
+}
@@ -0,0 +1,345 @@
+package io.ably.lib.test.realtime;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.Timeout;
+
+import io.ably.lib.realtime.AblyRealtime;
+import io.ably.lib.realtime.Channel;
+import io.ably.lib.realtime.ChannelState;
+import io.ably.lib.realtime.ChannelStateListener;
+import io.ably.lib.realtime.ChannelSubscription;
+import io.ably.lib.realtime.ConnectionState;
+import io.ably.lib.realtime.SubscriptionOptions;
+import io.ably.lib.test.common.Helpers.ChannelWaiter;
+import io.ably.lib.test.common.Helpers.ConnectionWaiter;
+import io.ably.lib.test.common.Helpers.MessageWaiter;
+import io.ably.lib.test.util.MockRealtimeServer;
+import io.ably.lib.transport.ConnectionManager;
+import io.ably.lib.types.AblyException;
+import io.ably.lib.types.ClientOptions;
+import io.ably.lib.types.Message;
+import io.ably.lib.types.ProtocolMessage;
+
+/**
+ * Tests that received messages are delivered on the dispatch executor,
+ * in order for each channel, and through buffered subscriptions, run
+ * against a local mock realtime endpoint that echoes published messages.
+ */
+public class RealtimeDispatchTest {
+
+	@Rule
+	public Timeout testTimeout = Timeout.seconds(30);
+
+	private MockRealtimeServer server;
+	private ExecutorService executor;
+	private AblyRealtime ably;
+
+	@Before
+	public void setUp() throws Exception {
+		server = new MockRealtimeServer(MockRealtimeServer.getFreePort());
+		server.echoMessages = true;
+		server.startServer();
+		executor = Executors.newFixedThreadPool(4);
+		ably = connect(executor);
+	}
+
+	private AblyRealtime connect(ExecutorService dispatchExecutor) throws Exception {
+		ClientOptions opts = new ClientOptions("appid.keyid:secret");
+		opts.restHost = "localhost";
+		opts.realtimeHost = "localhost";
+		opts.tls = false;
+		opts.port = server.getListeningPort();
+		opts.dispatchExecutor = dispatchExecutor;
+		AblyRealtime client = new AblyRealtime(opts);
+		new ConnectionWaiter(client.connection).waitFor(ConnectionState.connected);
+		assertEquals("Verify connected state is reached", ConnectionState.connected, client.connection.state);
+		return client;
+	}
+
+	@After
+	public void tearDown() {
+		if(ably != null)
+			ably.close();
+		server.stop();
+		executor.shutdown();
+	}
+
+	private Channel attach(String name) throws Exception {
+		return attach(ably, name);
+	}
+
+	private static Channel attach(AblyRealtime client, String name) throws Exception {
+		Channel channel = client.channels.get(name);
+		channel.attach();
+		new ChannelWaiter(channel).waitFor(ChannelState.attached);
+		return channel;
+	}
+
+	/**
+	 * Block the listener of one channel; verify that messages on another
+	 * channel are still delivered, and that the blocked channel's messages
+	 * are then delivered in order
+	 */
+	@Test
+	public void dispatch_blocked_listener() throws Exception {
+		Channel slow = attach("dispatch_slow");
+		Channel fast = attach("dispatch_fast");
+		final CountDownLatch release = new CountDownLatch(1);
+		final List<String> slowReceived = new ArrayList<String>();
+		final List<String> threads = new ArrayList<String>();
+		final CountDownLatch slowDone = new CountDownLatch(20);
+		slow.subscribe(new Channel.MessageListener() {
+			@Override
+			public void onMessage(Message message) {
+				try { release.await(); } catch(InterruptedException e) {}
+				synchronized(slowReceived) {
+					slowReceived.add((String)message.data);
+					threads.add(Thread.currentThread().getName());
+				}
+				slowDone.countDown();
+			}
+		});
+		MessageWaiter fastWaiter = new MessageWaiter(fast);
+
+		for(int i = 0; i < 20; i++)
+			slow.publish("event", "message " + i);
+		fast.publish("event", "fast");
+		fastWaiter.waitFor(1);
+		assertEquals("Verify the other channel's message is delivered while a listener is blocked", 1, fastWaiter.receivedMessages.size());
+
+		release.countDown();
+		assertTrue(slowDone.await(10, TimeUnit.SECONDS));
+		synchronized(slowReceived) {
+			for(int i = 0; i < 20; i++)
+				assertEquals("Verify messages are delivered in order", "message " + i, slowReceived.get(i));
+			for(String thread : threads)
+				assertTrue("Verify delivery is on the executor", thread.startsWith("pool-"));
+		}
+	}
+
+	/**
+	 * Block the listener while messages are being dispatched, then detach;
+	 * verify that the change of state is emitted after those messages
+	 */
+	@Test
+	public void dispatch_state_ordered() throws Exception {
+		final Channel channel = attach("dispatch_state_ordered");
+		final CountDownLatch release = new CountDownLatch(1);
+		final List<String> events = new ArrayList<String>();
+		final CountDownLatch done = new CountDownLatch(1);
+		channel.subscribe(new Channel.MessageListener() {
+			@Override
+			public void onMessage(Message message) {
+				try { release.await(); } catch(InterruptedException e) {}
+				synchronized(events) { events.add((String)message.data); }
+			}
+		});
+		channel.on(ChannelState.detached, new ChannelStateListener() {
+			@Override
+			public void onChannelStateChanged(ChannelStateChange stateChange) {
+				synchronized(events) { events.add("detached"); }
+				done.countDown();
+			}
+		});
+
+		for(int i = 0; i < 3; i++)
+			channel.publish("event", "message " + i);
+		channel.detach();
+		Thread.sleep(500);
+		release.countDown();
+		assertTrue(done.await(10, TimeUnit.SECONDS));
+		synchronized(events) {
+			assertEquals(4, events.size());
+			for(int i = 0; i < 3; i++)
+				assertEquals("Verify messages are delivered in order", "message " + i, events.get(i));
+			assertEquals("Verify the change of state follows the messages", "detached", events.get(3));
+		}
+	}
+
+	/**
+	 * Queue an ATTACHED for an attaching channel behind a blocked listener,
+	 * then suspend the connection; verify that the suspension is applied
+	 * after the ATTACHED, leaving the channel suspended
+	 */
+	@Test
+	public void dispatch_suspend_ordered() throws Exception {
+		server.ignoreAttach = true;
+		final Channel channel = ably.channels.get("dispatch_suspend_ordered");
+		final CountDownLatch entered = new CountDownLatch(1);
+		final CountDownLatch release = new CountDownLatch(1);
+		channel.subscribe(new Channel.MessageListener() {
+			@Override
+			public void onMessage(Message message) {
+				entered.countDown();
+				try { release.await(); } catch(InterruptedException e) {}
+			}
+		});
+		assertEquals(ChannelState.attaching, channel.state);
+		final List<ChannelState> states = new ArrayList<ChannelState>();
+		final CountDownLatch done = new CountDownLatch(2);
+		channel.on(new ChannelStateListener() {
+			@Override
+			public void onChannelStateChanged(ChannelStateChange stateChange) {
+				synchronized(states) { states.add(stateChange.current); }
+				done.countDown();
+			}
+		});
+
+		ConnectionManager connectionManager = ably.connection.connectionManager;
+		ProtocolMessage message = new ProtocolMessage(ProtocolMessage.Action.message, channel.name);
+		message.messages = new Message[] { new Message("event", "blocked") };
+		connectionManager.onMessage(null, message);
+		assertTrue(entered.await(10, TimeUnit.SECONDS));
+		connectionManager.onMessage(null, new ProtocolMessage(ProtocolMessage.Action.attached, channel.name));
+		connectionManager.requestState(ConnectionState.suspended);
+		new ConnectionWaiter(ably.connection).waitFor(ConnectionState.suspended);
+		Thread.sleep(200);
+		release.countDown();
+
+		assertTrue(done.await(10, TimeUnit.SECONDS));
+		synchronized(states) {
+			assertEquals(ChannelState.attached, states.get(0));
+			assertEquals("Verify the suspension follows the queued ATTACHED", ChannelState.suspended, states.get(1));
+		}
+		assertEquals(ChannelState.suspended, channel.state);
+	}
+
+	/**
+	 * Subscribe with a buffered subscription; verify that messages are
+	 * delivered through it, and not after it is unsubscribed
+	 */
+	@Test
+	public void dispatch_buffered_subscription() throws Exception {
+		Channel channel = attach("dispatch_buffered");
+		final List<String> received = new ArrayList<String>();
+		final CountDownLatch done = new CountDownLatch(5);
+		SubscriptionOptions options = new SubscriptionOptions();
+		options.bufferSize = 10;
+		ChannelSubscription subscription = channel.subscribe(new Channel.MessageListener() {
+			@Override
+			public void onMessage(Message message) {
+				synchronized(received) { received.add((String)message.data); }
+				done.countDown();
+			}
+		}, options);
+		for(int i = 0; i < 5; i++)
+			channel.publish("event", "message " + i);
+		assertTrue(done.await(10, TimeUnit.SECONDS));
+		assertEquals(0, subscription.getDroppedCount());
+
+		subscription.unsubscribe();
+		MessageWaiter waiter = new MessageWaiter(channel);
+		channel.publish("event", "after");
+		waiter.waitFor(1);
+		synchronized(received) {
+			assertEquals(5, received.size());
+			for(int i = 0; i < 5; i++)
+				assertEquals("message " + i, received.get(i));
+		}
+	}
+
+	/**
+	 * Subscribe with OverflowPolicy.block and a buffer of one message, on a
+	 * client whose dispatch executor has a single thread; verify that the
+	 * messages are all delivered, in order, rather than the dispatch waiting
+	 * for space while the listener waits for the thread
+	 */
+	@Test
+	public void dispatch_blocking_subscription() throws Exception {
+		ExecutorService singleThread = Executors.newFixedThreadPool(1);
+		AblyRealtime client = connect(singleThread);
+		try {
+			Channel channel = attach(client, "dispatch_blocking");
+			final List<String> received = new ArrayList<String>();
+			final CountDownLatch done = new CountDownLatch(10);
+			SubscriptionOptions options = new SubscriptionOptions();
+			options.bufferSize = 1;
+			options.overflowPolicy = SubscriptionOptions.OverflowPolicy.block;
+			channel.subscribe(new Channel.MessageListener() {
+				@Override
+				public void onMessage(Message message) {
+					synchronized(received) { received.add((String)message.data); }
+					done.countDown();
+				}
+			}, options);
+			for(int i = 0; i < 10; i++)
+				channel.publish("event", "message " + i);
+			assertTrue("Verify all messages are delivered", done.await(10, TimeUnit.SECONDS));
+			synchronized(received) {
+				for(int i = 0; i < 10; i++)
+					assertEquals("message " + i, received.get(i));
+			}
+		} finally {
+			client.close();
+			singleThread.shutdown();
+		}
+	}
+
+	/**
+	 * Subscribe with an executor that has been shut down; verify that
+	 * the messages are delivered on the dispatching thread instead
+	 */
+	@Test
+	public void dispatch_rejected_executor() throws Exception {
+		Channel channel = attach("dispatch_rejected");
+		ExecutorService shutdown = Executors.newSingleThreadExecutor();
+		shutdown.shutdown();
+		final CountDownLatch done = new CountDownLatch(3);
+		SubscriptionOptions options = new SubscriptionOptions();
+		options.executor = shutdown;
+		channel.subscribe(new Channel.MessageListener() {
+			@Override
+			public void onMessage(Message message) {
+				done.countDown();
+			}
+		}, options);
+		for(int i = 0; i < 3; i++)
+			channel.publish("event", "message " + i);
+		assertTrue("Verify all messages are delivered", done.await(10, TimeUnit.SECONDS));
+	}
+
+	/**
+	 * Publish an unnamed message alongside a named one; verify that both
+	 * reach a listener for all messages, and only the named one reaches
+	 * a listener for its name
+	 */
+	@Test
+	public void dispatch_unnamed_message() throws Exception {
+		Channel channel = attach("dispatch_unnamed");
+		MessageWaiter named = new MessageWaiter(channel, "event");
+		MessageWaiter all = new MessageWaiter(channel);
+		channel.publish(null, "unnamed");
+		channel.publish("event", "named");
+		all.waitFor(2);
+		named.waitFor(1);
+		assertEquals(2, all.receivedMessages.size());
+		assertEquals("unnamed", all.receivedMessages.get(0).data);
+		assertEquals(null, all.receivedMessages.get(0).name);
+		assertEquals(1, named.receivedMessages.size());
+		assertEquals("named", named.receivedMessages.get(0).data);
+
+		try {
+			channel.subscribe((String)null, new Channel.MessageListener() {
+				@Override
+				public void onMessage(Message message) {}
+			});
+			fail("Verify subscribing with a null event name is rejected");
+		} catch(AblyException e) {
+			assertEquals(40000, e.errorInfo.code);
+		}
+	}
+}
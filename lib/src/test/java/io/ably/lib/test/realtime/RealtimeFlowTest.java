@@ -0,0 +1,236 @@
+package io.ably.lib.test.realtime;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.Timeout;
+
+import io.ably.lib.realtime.AblyRealtime;
+import io.ably.lib.realtime.Channel;
+import io.ably.lib.realtime.ChannelState;
+import io.ably.lib.realtime.ConnectionState;
+import io.ably.lib.test.common.Helpers.ChannelWaiter;
+import io.ably.lib.test.common.Helpers.ConnectionWaiter;
+import io.ably.lib.test.common.Helpers.MessageWaiter;
+import io.ably.lib.test.util.MockRealtimeServer;
+import io.ably.lib.types.ClientOptions;
+import io.ably.lib.types.Flow;
+import io.ably.lib.types.Message;
+import io.ably.lib.types.Param;
+
+/**
+ * Tests for the Flow.Publishers of channel messages and history, run
+ * against a local mock realtime endpoint that echoes published messages
+ * and serves history.
+ */
+public class RealtimeFlowTest {
+
+	@Rule
+	public Timeout testTimeout = Timeout.seconds(30);
+
+	private MockRealtimeServer server;
+	private AblyRealtime ably;
+
+	@Before
+	public void setUp() throws Exception {
+		server = new MockRealtimeServer(MockRealtimeServer.getFreePort());
+		server.echoMessages = true;
+		server.startServer();
+		ClientOptions opts = new ClientOptions("appid.keyid:secret");
+		opts.restHost = "localhost";
+		opts.realtimeHost = "localhost";
+		opts.tls = false;
+		opts.port = server.getListeningPort();
+		opts.useBinaryProtocol = false;
+		ably = new AblyRealtime(opts);
+		new ConnectionWaiter(ably.connection).waitFor(ConnectionState.connected);
+		assertEquals("Verify connected state is reached", ConnectionState.connected, ably.connection.state);
+	}
+
+	@After
+	public void tearDown() {
+		if(ably != null)
+			ably.close();
+		server.stop();
+	}
+
+	/**
+	 * A subscriber that records the data of the messages it is given,
+	 * and requests a given number initially
+	 */
+	private static class TestSubscriber implements Flow.Subscriber<Message> {
+		TestSubscriber(long initialRequest) {
+			this.initialRequest = initialRequest;
+		}
+
+		@Override
+		public synchronized void onSubscribe(Flow.Subscription subscription) {
+			this.subscription = subscription;
+			notifyAll();
+			if(initialRequest > 0)
+				subscription.request(initialRequest);
+		}
+
+		@Override
+		public synchronized void onNext(Message item) {
+			received.add((String)item.data);
+			notifyAll();
+		}
+
+		@Override
+		public synchronized void onError(Throwable throwable) {
+			error = throwable;
+			notifyAll();
+		}
+
+		@Override
+		public synchronized void onComplete() {
+			complete = true;
+			notifyAll();
+		}
+
+		synchronized Flow.Subscription waitForSubscription() throws InterruptedException {
+			while(subscription == null)
+				wait();
+			return subscription;
+		}
+
+		synchronized void waitFor(int count) throws InterruptedException {
+			while(received.size() < count && error == null)
+				wait();
+		}
+
+		synchronized void waitForTermination() throws InterruptedException {
+			while(!complete && error == null)
+				wait();
+		}
+
+		synchronized List<String> getReceived() {
+			return new ArrayList<String>(received);
+		}
+
+		private final long initialRequest;
+		private final List<String> received = new ArrayList<String>();
+		private Flow.Subscription subscription;
+		private Throwable error;
+		private boolean complete;
+	}
+
+	/**
+	 * Verify that a subscriber is given no more messages than it has
+	 * requested, and is given the rest, in order, when it requests more
+	 */
+	@Test
+	public void flow_messages_demand() throws Exception {
+		Channel channel = ably.channels.get("flow_messages_demand");
+		TestSubscriber subscriber = new TestSubscriber(2);
+		channel.publisher(null).subscribe(subscriber);
+		Flow.Subscription subscription = subscriber.waitForSubscription();
+		new ChannelWaiter(channel).waitFor(ChannelState.attached);
+		assertEquals("Verify subscribing attaches the channel", ChannelState.attached, channel.state);
+
+		MessageWaiter waiter = new MessageWaiter(channel);
+		for(int i = 0; i < 5; i++)
+			channel.publish("event", "message " + i);
+		waiter.waitFor(5);
+		subscriber.waitFor(2);
+		Thread.sleep(100);
+		assertEquals("Verify only the requested messages are given", 2, subscriber.getReceived().size());
+
+		subscription.request(3);
+		subscriber.waitFor(5);
+		List<String> received = subscriber.getReceived();
+		assertEquals(5, received.size());
+		for(int i = 0; i < 5; i++)
+			assertEquals("Verify messages are given in order", "message " + i, received.get(i));
+		assertNull(subscriber.error);
+	}
+
+	/**
+	 * Verify that cancelling a subscription detaches the channel it
+	 * attached, unless the channel has other listeners
+	 */
+	@Test
+	public void flow_cancel_detaches() throws Exception {
+		Channel channel = ably.channels.get("flow_cancel_detaches");
+		TestSubscriber subscriber = new TestSubscriber(Long.MAX_VALUE);
+		Flow.Publisher<Message> publisher = channel.publisher(null);
+		publisher.subscribe(subscriber);
+		subscriber.waitForSubscription().cancel();
+		new ChannelWaiter(channel).waitFor(ChannelState.detached);
+		assertEquals("Verify cancelling detaches the channel", ChannelState.detached, channel.state);
+
+		TestSubscriber other = new TestSubscriber(Long.MAX_VALUE);
+		publisher.subscribe(other);
+		other.waitForSubscription();
+		MessageWaiter waiter = new MessageWaiter(channel);
+		new ChannelWaiter(channel).waitFor(ChannelState.attached);
+		subscriber = new TestSubscriber(Long.MAX_VALUE);
+		publisher.subscribe(subscriber);
+		subscriber.waitForSubscription().cancel();
+		other.waitForSubscription().cancel();
+		channel.publish("event", "after");
+		waiter.waitFor(1);
+		assertEquals("Verify the channel stays attached while it has listeners", ChannelState.attached, channel.state);
+		assertTrue("Verify no message is given after cancelling", other.getReceived().isEmpty());
+	}
+
+	/**
+	 * Verify that the pages of history are requested only as the
+	 * subscriber requests messages, and that the publisher completes
+	 * after the last page
+	 */
+	@Test
+	public void flow_history_demand() throws Exception {
+		server.historyMessages = 25;
+		Channel channel = ably.channels.get("flow_history_demand");
+		TestSubscriber subscriber = new TestSubscriber(5);
+		channel.historyPublisher(new Param[] { new Param("limit", "10") }).subscribe(subscriber);
+		subscriber.waitFor(5);
+		Thread.sleep(100);
+		assertEquals(5, subscriber.getReceived().size());
+		assertEquals("Verify only the first page is requested", 1, server.getHistoryRequestCount());
+
+		subscriber.waitForSubscription().request(10);
+		subscriber.waitFor(15);
+		Thread.sleep(100);
+		assertEquals(15, subscriber.getReceived().size());
+		assertEquals("Verify the next page is requested only when needed", 2, server.getHistoryRequestCount());
+		assertFalse(subscriber.complete);
+
+		subscriber.waitForSubscription().request(Long.MAX_VALUE);
+		subscriber.waitForTermination();
+		assertNull(subscriber.error);
+		List<String> received = subscriber.getReceived();
+		assertEquals(25, received.size());
+		for(int i = 0; i < 25; i++)
+			assertEquals("message " + i, received.get(i));
+		assertEquals(3, server.getHistoryRequestCount());
+	}
+
+	/**
+	 * Verify that requesting a number of messages that is not positive
+	 * is signalled as an error
+	 */
+	@Test
+	public void flow_invalid_request() throws Exception {
+		Channel channel = ably.channels.get("flow_invalid_request");
+		TestSubscriber subscriber = new TestSubscriber(0);
+		channel.publisher(null).subscribe(subscriber);
+		new ChannelWaiter(channel).waitFor(ChannelState.attached);
+		subscriber.waitForSubscription().request(0);
+		subscriber.waitForTermination();
+		assertTrue(subscriber.error instanceof IllegalArgumentException);
+		new ChannelWaiter(channel).waitFor(ChannelState.detached);
+		assertEquals("Verify the error releases the subscription", ChannelState.detached, channel.state);
+	}
+}
@@ -0,0 +1,136 @@
+package io.ably.lib.test.realtime;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.Timeout;
+
+import com.google.gson.JsonObject;
+
+import io.ably.lib.realtime.AblyRealtime;
+import io.ably.lib.realtime.Channel;
+import io.ably.lib.realtime.ChannelState;
+import io.ably.lib.realtime.ConnectionState;
+import io.ably.lib.test.common.Helpers.ChannelWaiter;
+import io.ably.lib.test.common.Helpers.ConnectionWaiter;
+import io.ably.lib.test.common.Helpers.MessageWaiter;
+import io.ably.lib.test.util.MockRealtimeServer;
+import io.ably.lib.types.ClientOptions;
+import io.ably.lib.types.Message;
+import io.ably.lib.util.Log;
+
+/**
+ * Tests that received messages are only decoded if they are delivered
+ * to a listener, run against a local mock realtime endpoint that echoes
+ * published messages.
+ */
+public class RealtimeLazyDecodeTest {
+
+	@Rule
+	public Timeout testTimeout = Timeout.seconds(30);
+
+	private MockRealtimeServer server;
+	private AblyRealtime ably;
+	private final List<String> errors = new ArrayList<String>();
+
+	@Before
+	public void setUp() throws Exception {
+		server = new MockRealtimeServer(MockRealtimeServer.getFreePort());
+		server.echoMessages = true;
+		server.startServer();
+		ClientOptions opts = new ClientOptions("appid.keyid:secret");
+		opts.restHost = "localhost";
+		opts.realtimeHost = "localhost";
+		opts.tls = false;
+		opts.port = server.getListeningPort();
+		opts.logHandler = new Log.LogHandler() {
+			@Override
+			public void println(int severity, String tag, String msg, Throwable tr) {
+				if(severity == Log.ERROR) {
+					synchronized(errors) {
+						errors.add(msg);
+					}
+				}
+			}
+		};
+		ably = new AblyRealtime(opts);
+		new ConnectionWaiter(ably.connection).waitFor(ConnectionState.connected);
+		assertEquals("Verify connected state is reached", ConnectionState.connected, ably.connection.state);
+	}
+
+	@After
+	public void tearDown() {
+		if(ably != null)
+			ably.close();
+		server.stop();
+		Log.setHandler(null);
+	}
+
+	private Channel attach(String name) throws Exception {
+		Channel channel = ably.channels.get(name);
+		channel.attach();
+		new ChannelWaiter(channel).waitFor(ChannelState.attached);
+		return channel;
+	}
+
+	/**
+	 * A message with an encoding of json, but data that is not valid JSON,
+	 * so that decoding it is observable as a logged error
+	 */
+	private static Message invalidJsonMessage(String name) {
+		Message message = new Message(name, "{not json");
+		message.encoding = "json";
+		return message;
+	}
+
+	private int decodeErrorCount() {
+		int count = 0;
+		synchronized(errors) {
+			for(String error : errors)
+				if(error.startsWith("Invalid JSON data received"))
+					++count;
+		}
+		return count;
+	}
+
+	/**
+	 * Publish messages with two names, subscribing only to one; verify that
+	 * only the message that is delivered is decoded
+	 */
+	@Test
+	public void lazy_decode_subscribed_names() throws Exception {
+		Channel channel = attach("lazy_decode_subscribed_names");
+		MessageWaiter waiter = new MessageWaiter(channel, "subscribed");
+
+		JsonObject data = new JsonObject();
+		data.addProperty("key", "value");
+		Message valid = new Message("subscribed", data);
+		channel.publish(new Message[] { invalidJsonMessage("unsubscribed"), invalidJsonMessage("subscribed"), valid });
+		waiter.waitFor(2);
+
+		assertEquals("Verify only the subscribed message failed to decode", 1, decodeErrorCount());
+		Message received = waiter.receivedMessages.get(1);
+		assertTrue("Verify delivered message was decoded", received.data instanceof JsonObject);
+		assertEquals("value", ((JsonObject)received.data).get("key").getAsString());
+	}
+
+	/**
+	 * Publish messages with two names, with a listener for all messages;
+	 * verify that all are decoded
+	 */
+	@Test
+	public void lazy_decode_all_listener() throws Exception {
+		Channel channel = attach("lazy_decode_all_listener");
+		MessageWaiter waiter = new MessageWaiter(channel);
+		channel.publish(new Message[] { invalidJsonMessage("name1"), invalidJsonMessage("name2") });
+		waiter.waitFor(2);
+		assertEquals("Verify all messages were decoded", 2, decodeErrorCount());
+	}
+}
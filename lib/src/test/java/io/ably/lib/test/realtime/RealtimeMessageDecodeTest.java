@@ -0,0 +1,82 @@
+package io.ably.lib.test.realtime;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.ByteBuffer;
+
+import org.junit.Test;
+
+import io.ably.lib.types.ChannelOptions;
+import io.ably.lib.types.Message;
+import io.ably.lib.types.ProtocolMessage;
+import io.ably.lib.types.ProtocolSerializer;
+
+/**
+ * Tests for decoding received protocol messages, independent of the transport.
+ */
+public class RealtimeMessageDecodeTest {
+
+	private static final byte[] binaryData = new byte[] { 1, 2, 3, 4, 5, 6, 7, 8 };
+
+	private static byte[] packMessage() {
+		ProtocolMessage msg = new ProtocolMessage(ProtocolMessage.Action.message, "decode_channel");
+		msg.messages = new Message[] { new Message("binary_event", binaryData), new Message("text_event", "text_data") };
+		return ProtocolSerializer.writeMsgpack(msg);
+	}
+
+	/**
+	 * Decode a message from a direct buffer, positioned part way through
+	 * its content, and verify that binary data is delivered as a byte[] by default.
+	 */
+	@Test
+	public void decode_direct_buffer() throws Exception {
+		byte[] packed = packMessage();
+		ByteBuffer frame = ByteBuffer.allocateDirect(packed.length + 4);
+		frame.putInt(0xdeadbeef).put(packed).flip();
+		frame.position(4);
+
+		ProtocolMessage msg = ProtocolSerializer.readMsgpack(frame);
+		assertEquals("Verify channel", "decode_channel", msg.channel);
+		assertEquals("Verify message count", 2, msg.messages.length);
+
+		Message binaryMessage = msg.messages[0];
+		binaryMessage.decode(null);
+		assertTrue("Verify binary data is a byte[]", binaryMessage.data instanceof byte[]);
+		assertArrayEquals("Verify binary data", binaryData, (byte[])binaryMessage.data);
+
+		Message textMessage = msg.messages[1];
+		textMessage.decode(null);
+		assertEquals("Verify text data", "text_data", textMessage.data);
+	}
+
+	/**
+	 * Verify that, when requested in ChannelOptions, binary data is
+	 * delivered as a read-only view of the received frame without copying.
+	 */
+	@Test
+	public void decode_binary_as_bytebuffer() throws Exception {
+		byte[] packed = packMessage();
+		ByteBuffer frame = ByteBuffer.wrap(packed);
+
+		ProtocolMessage msg = ProtocolSerializer.readMsgpack(frame);
+		ChannelOptions options = new ChannelOptions();
+		options.binaryDataAsByteBuffer = true;
+		Message binaryMessage = msg.messages[0];
+		binaryMessage.decode(options);
+
+		assertTrue("Verify binary data is a ByteBuffer", binaryMessage.data instanceof ByteBuffer);
+		ByteBuffer data = (ByteBuffer)binaryMessage.data;
+		assertTrue("Verify binary data is read-only", data.isReadOnly());
+		byte[] content = new byte[data.remaining()];
+		data.duplicate().get(content);
+		assertArrayEquals("Verify binary data", binaryData, content);
+
+		/* modify the frame and verify that the data is a view of it, not a copy */
+		for(int i = 0; i < packed.length; i++)
+			if(packed[i] == binaryData[0] && packed[i + 1] == binaryData[1])
+				packed[i] = 42;
+		assertEquals("Verify binary data is a view of the frame", 42, data.get(data.position()));
+	}
+}
@@ -0,0 +1,313 @@
+package io.ably.lib.test.realtime;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.Timeout;
+
+import io.ably.lib.realtime.AblyRealtime;
+import io.ably.lib.realtime.Channel;
+import io.ably.lib.realtime.ChannelState;
+import io.ably.lib.realtime.ConnectionState;
+import io.ably.lib.test.common.Helpers.ChannelWaiter;
+import io.ably.lib.test.common.Helpers.CompletionWaiter;
+import io.ably.lib.test.common.Helpers.ConnectionWaiter;
+import io.ably.lib.test.util.MockRealtimeServer;
+import io.ably.lib.transport.Defaults;
+import io.ably.lib.types.ClientOptions;
+import io.ably.lib.types.ProtocolMessage;
+import io.ably.lib.util.Base64Coder;
+
+/**
+ * Tests for the NIO websocket transport, run against a local mock realtime endpoint.
+ */
+public class RealtimeNioTransportTest {
+
+	@Rule
+	public Timeout testTimeout = Timeout.seconds(30);
+
+	private static MockRealtimeServer server;
+	private static String savedTransport;
+
+	@BeforeClass
+	public static void setUpBeforeClass() throws Exception {
+		server = new MockRealtimeServer(MockRealtimeServer.getFreePort());
+		server.startServer();
+		savedTransport = Defaults.TRANSPORT;
+		Defaults.TRANSPORT = Defaults.TRANSPORT_NIO;
+	}
+
+	@AfterClass
+	public static void tearDownAfterClass() {
+		Defaults.TRANSPORT = savedTransport;
+		server.stop();
+	}
+
+	private static ClientOptions createOptions(boolean useBinaryProtocol) throws Exception {
+		ClientOptions opts = new ClientOptions("appid.keyid:secret");
+		opts.restHost = "localhost";
+		opts.realtimeHost = "localhost";
+		opts.tls = false;
+		opts.port = server.getListeningPort();
+		opts.useBinaryProtocol = useBinaryProtocol;
+		return opts;
+	}
+
+	/**
+	 * Connect using the text protocol, attach, publish and verify
+	 * that the message is acked; then close.
+	 */
+	@Test
+	public void nio_connect_publish_json() throws Exception {
+		connect_publish(false);
+	}
+
+	/**
+	 * Connect using the binary protocol, attach, publish and verify
+	 * that the message is acked and was received intact; then close.
+	 */
+	@Test
+	public void nio_connect_publish_binary() throws Exception {
+		connect_publish(true);
+	}
+
+	/**
+	 * Connect over TLS, to a local endpoint with a self-signed certificate
+	 * that the client is made to trust, attach, publish and verify that the
+	 * message is acked and was received intact; then close.
+	 */
+	@Test
+	public void nio_connect_publish_tls() throws Exception {
+		MockRealtimeServer tlsServer = new MockRealtimeServer(MockRealtimeServer.getFreePort());
+		File trustStore = tlsServer.makeSecure();
+		tlsServer.startServer();
+		String savedTrustStore = System.setProperty("javax.net.ssl.trustStore", trustStore.getPath());
+		String savedTrustStorePassword = System.setProperty("javax.net.ssl.trustStorePassword", MockRealtimeServer.KEYSTORE_PASSWORD);
+		try {
+			ClientOptions opts = createOptions(true);
+			opts.tls = true;
+			opts.tlsPort = tlsServer.getListeningPort();
+			connect_publish(tlsServer, opts, "nio_connect_publish_tls");
+		} finally {
+			restoreProperty("javax.net.ssl.trustStore", savedTrustStore);
+			restoreProperty("javax.net.ssl.trustStorePassword", savedTrustStorePassword);
+			tlsServer.stop();
+		}
+	}
+
+	private static void restoreProperty(String key, String value) {
+		if(value == null)
+			System.clearProperty(key);
+		else
+			System.setProperty(key, value);
+	}
+
+	private void connect_publish(boolean useBinaryProtocol) throws Exception {
+		connect_publish(server, createOptions(useBinaryProtocol), "nio_connect_publish_" + useBinaryProtocol);
+	}
+
+	private void connect_publish(MockRealtimeServer server, ClientOptions opts, String channelName) throws Exception {
+		AblyRealtime ably = new AblyRealtime(opts);
+		ConnectionWaiter connectionWaiter = new ConnectionWaiter(ably.connection);
+		connectionWaiter.waitFor(ConnectionState.connected);
+		assertEquals("Verify connected state is reached", ConnectionState.connected, ably.connection.state);
+
+		Channel channel = ably.channels.get(channelName);
+		channel.attach();
+		new ChannelWaiter(channel).waitFor(ChannelState.attached);
+		assertEquals("Verify attached state is reached", ChannelState.attached, channel.state);
+
+		CompletionWaiter completionWaiter = new CompletionWaiter();
+		channel.publish("nio_event", "nio_data", completionWaiter);
+		completionWaiter.waitFor();
+		assertTrue("Verify publish was acked", completionWaiter.success);
+
+		boolean found = false;
+		List<ProtocolMessage> received = server.getReceivedMessages();
+		for(ProtocolMessage msg : received) {
+			if(msg.action == ProtocolMessage.Action.message && channelName.equals(msg.channel)) {
+				assertEquals("Verify message name", "nio_event", msg.messages[0].name);
+				assertEquals("Verify message data", "nio_data", msg.messages[0].data);
+				found = true;
+			}
+		}
+		assertTrue("Verify message was received by server", found);
+
+		ably.close();
+		connectionWaiter.waitFor(ConnectionState.closed);
+		assertEquals("Verify closed state is reached", ConnectionState.closed, ably.connection.state);
+	}
+
+	/**
+	 * Open many connections concurrently and verify that they
+	 * are serviced by no more than the configured number of selector threads.
+	 */
+	@Test
+	public void nio_shared_selector_threads() throws Exception {
+		int connectionCount = 20;
+		AblyRealtime[] clients = new AblyRealtime[connectionCount];
+		ConnectionWaiter[] waiters = new ConnectionWaiter[connectionCount];
+		for(int i = 0; i < connectionCount; i++) {
+			clients[i] = new AblyRealtime(createOptions(true));
+			waiters[i] = new ConnectionWaiter(clients[i].connection);
+		}
+		for(int i = 0; i < connectionCount; i++) {
+			waiters[i].waitFor(ConnectionState.connected);
+		}
+
+		int selectorThreads = 0;
+		for(Thread thread : Thread.getAllStackTraces().keySet()) {
+			if(thread.getName().startsWith("ably-nio-selector-"))
+				++selectorThreads;
+		}
+		assertTrue("Verify selector threads are shared", selectorThreads > 0 && selectorThreads <= Defaults.NIO_SELECTOR_THREADS);
+
+		for(int i = 0; i < connectionCount; i++) {
+			clients[i].close();
+		}
+		for(int i = 0; i < connectionCount; i++) {
+			waiters[i].waitFor(ConnectionState.closed);
+		}
+	}
+
+	/**
+	 * Connect to an endpoint that does not respond to the websocket close
+	 * frame, then disconnect; verify that the socket is closed once the close
+	 * has not been acknowledged within realtimeRequestTimeout.
+	 */
+	@Test
+	public void nio_close_timeout() throws Exception {
+		final ServerSocket serverSocket = new ServerSocket(0);
+		final CountDownLatch closeFrameReceived = new CountDownLatch(1);
+		final CountDownLatch socketClosed = new CountDownLatch(1);
+		Thread serverThread = new Thread() {
+			@Override
+			public void run() {
+				try {
+					Socket socket = serverSocket.accept();
+					InputStream in = socket.getInputStream();
+					OutputStream out = socket.getOutputStream();
+					acceptWebSocket(in, out);
+					writeTextFrame(out, "{\"action\":4,\"connectionId\":\"nio_close_timeout\",\"connectionSerial\":-1," +
+							"\"connectionDetails\":{\"clientId\":\"*\",\"connectionKey\":\"nio_close_timeout!key\",\"maxIdleInterval\":0,\"connectionStateTtl\":120000}}");
+					while(true) {
+						int opcode = in.read();
+						if(opcode < 0)
+							break;
+						String payload = readFramePayload(in);
+						if(payload == null)
+							break;
+						/* the close frame is not answered */
+						if((opcode & 0x0f) == 8)
+							closeFrameReceived.countDown();
+					}
+					socketClosed.countDown();
+					socket.close();
+				} catch(IOException e) {
+					socketClosed.countDown();
+				}
+			}
+		};
+		serverThread.start();
+		try {
+			ClientOptions opts = new ClientOptions("appid.keyid:secret");
+			opts.restHost = "localhost";
+			opts.realtimeHost = "localhost";
+			opts.tls = false;
+			opts.port = serverSocket.getLocalPort();
+			opts.useBinaryProtocol = false;
+			opts.realtimeRequestTimeout = 1000L;
+			AblyRealtime ably = new AblyRealtime(opts);
+			try {
+				ConnectionWaiter connectionWaiter = new ConnectionWaiter(ably.connection);
+				connectionWaiter.waitFor(ConnectionState.connected);
+				/* this closes the transport, starting the closing handshake */
+				ably.connection.connectionManager.requestState(ConnectionState.disconnected);
+				assertTrue("Verify the close frame was sent", closeFrameReceived.await(10, TimeUnit.SECONDS));
+				assertTrue("Verify the socket was closed", socketClosed.await(10, TimeUnit.SECONDS));
+			} finally {
+				ably.close();
+			}
+		} finally {
+			serverSocket.close();
+		}
+	}
+
+	private static void acceptWebSocket(InputStream in, OutputStream out) throws IOException {
+		StringBuilder request = new StringBuilder();
+		while(request.indexOf("\r\n\r\n") < 0) {
+			int b = in.read();
+			if(b < 0)
+				throw new IOException("Connection closed during handshake");
+			request.append((char)b);
+		}
+		String key = null;
+		for(String line : request.toString().split("\r\n"))
+			if(line.toLowerCase(Locale.ROOT).startsWith("sec-websocket-key:"))
+				key = line.substring(line.indexOf(':') + 1).trim();
+		String accept;
+		try {
+			MessageDigest sha1 = MessageDigest.getInstance("SHA-1");
+			accept = Base64Coder.encodeToString(sha1.digest((key + "258EAFA5-E914-47DA-95CA-C5AB0DC85B11").getBytes("US-ASCII")));
+		} catch(NoSuchAlgorithmException e) {
+			throw new IOException(e);
+		}
+		out.write(("HTTP/1.1 101 Switching Protocols\r\nUpgrade: websocket\r\nConnection: Upgrade\r\n" +
+				"Sec-WebSocket-Accept: " + accept + "\r\n\r\n").getBytes("US-ASCII"));
+		out.flush();
+	}
+
+	private static void writeTextFrame(OutputStream out, String text) throws IOException {
+		byte[] payload = text.getBytes("UTF-8");
+		out.write(0x81);
+		if(payload.length < 126) {
+			out.write(payload.length);
+		} else {
+			out.write(126);
+			out.write(payload.length >> 8);
+			out.write(payload.length & 0xff);
+		}
+		out.write(payload);
+		out.flush();
+	}
+
+	/* read the rest of a masked client frame, after its first byte; returns null at the end of the stream */
+	private static String readFramePayload(InputStream in) throws IOException {
+		DataInputStream data = new DataInputStream(in);
+		try {
+			long length = data.readUnsignedByte() & 0x7f;
+			if(length == 126)
+				length = data.readUnsignedShort();
+			else if(length == 127)
+				length = data.readLong();
+			byte[] mask = new byte[4];
+			data.readFully(mask);
+			byte[] payload = new byte[(int)length];
+			data.readFully(payload);
+			for(int i = 0; i < payload.length; i++)
+				payload[i] ^= mask[i % 4];
+			return new String(payload, "UTF-8");
+		} catch(EOFException e) {
+			return null;
+		}
+	}
+}
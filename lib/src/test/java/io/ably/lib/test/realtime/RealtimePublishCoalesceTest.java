@@ -0,0 +1,236 @@
+package io.ably.lib.test.realtime;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.Timeout;
+
+import io.ably.lib.realtime.AblyRealtime;
+import io.ably.lib.realtime.Channel;
+import io.ably.lib.realtime.ChannelState;
+import io.ably.lib.realtime.CompletionListener;
+import io.ably.lib.realtime.ConnectionState;
+import io.ably.lib.test.common.Helpers.ChannelWaiter;
+import io.ably.lib.test.common.Helpers.CompletionWaiter;
+import io.ably.lib.test.common.Helpers.ConnectionWaiter;
+import io.ably.lib.test.util.MockRealtimeServer;
+import io.ably.lib.types.ClientOptions;
+import io.ably.lib.types.ErrorInfo;
+import io.ably.lib.types.Message;
+import io.ably.lib.types.ProtocolMessage;
+
+/**
+ * Tests for coalescing of published messages, run against a local mock realtime endpoint.
+ */
+public class RealtimePublishCoalesceTest {
+
+	@Rule
+	public Timeout testTimeout = Timeout.seconds(30);
+
+	private MockRealtimeServer server;
+
+	@Before
+	public void setUp() throws Exception {
+		server = new MockRealtimeServer(MockRealtimeServer.getFreePort());
+		server.startServer();
+	}
+
+	@After
+	public void tearDown() {
+		server.stop();
+	}
+
+	private AblyRealtime connect(long coalesceInterval) throws Exception {
+		ClientOptions opts = new ClientOptions("appid.keyid:secret");
+		opts.restHost = "localhost";
+		opts.realtimeHost = "localhost";
+		opts.tls = false;
+		opts.port = server.getListeningPort();
+		opts.useBinaryProtocol = false;
+		opts.publishCoalesceInterval = coalesceInterval;
+		AblyRealtime ably = new AblyRealtime(opts);
+		new ConnectionWaiter(ably.connection).waitFor(ConnectionState.connected);
+		assertEquals("Verify connected state is reached", ConnectionState.connected, ably.connection.state);
+		return ably;
+	}
+
+	private static Channel attach(AblyRealtime ably, String name) throws Exception {
+		Channel channel = ably.channels.get(name);
+		channel.attach();
+		new ChannelWaiter(channel).waitFor(ChannelState.attached);
+		return channel;
+	}
+
+	private List<ProtocolMessage> receivedMessages() {
+		List<ProtocolMessage> result = new ArrayList<ProtocolMessage>();
+		for(ProtocolMessage msg : server.getReceivedMessages())
+			if(msg.action == ProtocolMessage.Action.message)
+				result.add(msg);
+		return result;
+	}
+
+	/**
+	 * Publish many messages in quick succession on one channel; verify that
+	 * they are sent in fewer protocol messages, in order, and that the
+	 * listener for every publish is called when they are acked.
+	 */
+	@Test
+	public void coalesce_same_channel() throws Exception {
+		AblyRealtime ably = connect(200);
+		try {
+			Channel channel = attach(ably, "coalesce_same_channel");
+			int count = 50;
+			CompletionWaiter completionWaiter = new CompletionWaiter();
+			for(int i = 0; i < count; i++)
+				channel.publish("event", "message " + i, completionWaiter);
+			assertNull("Verify no publish failed", completionWaiter.waitFor(count));
+
+			List<ProtocolMessage> received = receivedMessages();
+			assertTrue("Verify messages were coalesced", received.size() < count);
+			int index = 0;
+			for(ProtocolMessage msg : received)
+				for(Message message : msg.messages)
+					assertEquals("Verify message order", "message " + index++, message.data);
+			assertEquals("Verify all messages were received", count, index);
+		} finally {
+			ably.close();
+		}
+	}
+
+	/**
+	 * Verify that coalesced messages do not exceed the
+	 * maxMessageSize indicated by the server for the connection.
+	 */
+	@Test
+	public void coalesce_max_message_size() throws Exception {
+		server.maxMessageSize = 1000;
+		AblyRealtime ably = connect(200);
+		try {
+			Channel channel = attach(ably, "coalesce_max_message_size");
+			StringBuilder data = new StringBuilder();
+			for(int i = 0; i < 300; i++)
+				data.append('x');
+			int count = 20;
+			CompletionWaiter completionWaiter = new CompletionWaiter();
+			for(int i = 0; i < count; i++)
+				channel.publish("event", data.toString(), completionWaiter);
+			assertNull("Verify no publish failed", completionWaiter.waitFor(count));
+
+			List<ProtocolMessage> received = receivedMessages();
+			int total = 0;
+			for(ProtocolMessage msg : received) {
+				int size = 0;
+				for(Message message : msg.messages)
+					size += message.name.length() + ((String)message.data).length();
+				assertTrue("Verify size limit is respected", size <= 1000);
+				total += msg.messages.length;
+			}
+			assertEquals("Verify all messages were received", count, total);
+			assertTrue("Verify messages were coalesced", received.size() < count);
+		} finally {
+			ably.close();
+		}
+	}
+
+	/**
+	 * Verify that binary data is sized by its base64 encoding when
+	 * sent with the JSON protocol, so that coalesced messages do not
+	 * exceed the maxMessageSize indicated by the server once encoded.
+	 */
+	@Test
+	public void coalesce_max_message_size_binary() throws Exception {
+		server.maxMessageSize = 1000;
+		AblyRealtime ably = connect(200);
+		try {
+			Channel channel = attach(ably, "coalesce_max_message_size_binary");
+			/* 300 bytes are sent as 400 characters, so only two fit the limit */
+			byte[] data = new byte[300];
+			int count = 20;
+			CompletionWaiter completionWaiter = new CompletionWaiter();
+			for(int i = 0; i < count; i++)
+				channel.publish("event", data, completionWaiter);
+			assertNull("Verify no publish failed", completionWaiter.waitFor(count));
+
+			List<ProtocolMessage> received = receivedMessages();
+			int total = 0;
+			for(ProtocolMessage msg : received) {
+				assertTrue("Verify encoded size limit is respected", msg.messages.length <= 2);
+				total += msg.messages.length;
+			}
+			assertEquals("Verify all messages were received", count, total);
+			assertTrue("Verify messages were coalesced", received.size() < count);
+		} finally {
+			ably.close();
+		}
+	}
+
+	/**
+	 * Verify that publishing on another channel causes messages already
+	 * being coalesced to be sent first, so that messages are not reordered.
+	 */
+	@Test
+	public void coalesce_preserves_order() throws Exception {
+		AblyRealtime ably = connect(5000);
+		try {
+			Channel channelA = attach(ably, "coalesce_preserves_order_a");
+			Channel channelB = attach(ably, "coalesce_preserves_order_b");
+			CompletionWaiter completionWaiter = new CompletionWaiter();
+			channelA.publish("event", "a1", completionWaiter);
+			channelA.publish("event", "a2", completionWaiter);
+			channelB.publish("event", "b1", completionWaiter);
+			/* this is sent immediately, so it causes the coalesced message to be sent */
+			channelA.detach();
+			assertNull("Verify no publish failed", completionWaiter.waitFor(3));
+
+			List<ProtocolMessage> received = receivedMessages();
+			assertEquals("Verify coalesced messages were sent", 2, received.size());
+			assertEquals("Verify channel of first message", "coalesce_preserves_order_a", received.get(0).channel);
+			assertEquals("Verify messages were coalesced", 2, received.get(0).messages.length);
+			assertEquals("Verify channel of second message", "coalesce_preserves_order_b", received.get(1).channel);
+		} finally {
+			ably.close();
+		}
+	}
+
+	/**
+	 * Verify that the listener of a coalesced message that fails, because
+	 * the connection is closed before it is sent, is called once and not
+	 * while the ConnectionManager's lock is held.
+	 */
+	@Test
+	public void coalesce_failure_unlocked() throws Exception {
+		final AblyRealtime ably = connect(5000);
+		Channel channel = attach(ably, "coalesce_failure_unlocked");
+		final AtomicInteger errorCount = new AtomicInteger();
+		final AtomicBoolean heldLock = new AtomicBoolean();
+		final CountDownLatch failed = new CountDownLatch(1);
+		channel.publish("event", "message", new CompletionListener() {
+			@Override
+			public void onSuccess() {}
+
+			@Override
+			public void onError(ErrorInfo reason) {
+				heldLock.set(Thread.holdsLock(ably.connection.connectionManager));
+				errorCount.incrementAndGet();
+				failed.countDown();
+			}
+		});
+		ably.close();
+		assertTrue("Verify the publish failed", failed.await(10, TimeUnit.SECONDS));
+		assertFalse("Verify the listener was not called with the lock held", heldLock.get());
+		assertEquals("Verify the listener was called once", 1, errorCount.get());
+	}
+}
@@ -16,6 +16,7 @@ import io.ably.lib.test.common.Setup;
 	ConnectionManagerTest.class,
 	HostsTest.class,
 	EventEmitterTest.class,
+	HashedWheelTimerTest.class,
 	RealtimeHttpHeaderTest.class,
 	RealtimeAuthTest.class,
 	RealtimeJWTTest.class,
@@ -23,6 +24,20 @@ import io.ably.lib.test.common.Setup;
 	RealtimeInitTest.class,
 	RealtimeConnectTest.class,
 	RealtimeConnectFailTest.class,
+	RealtimeConnectRaceTest.class,
+	RealtimeNioTransportTest.class,
+	RealtimeMessageDecodeTest.class,
+	MsgpackEncodeTest.class,
+	MsgpackDecodeTest.class,
+	JsonCodecTest.class,
+	RealtimeLazyDecodeTest.class,
+	RealtimeDispatchTest.class,
+	RealtimeFlowTest.class,
+	MessageEncodingTest.class,
+	ChannelRegistryTest.class,
+	ChannelSubscriptionTest.class,
+	RealtimeCompressionTest.class,
+	RealtimePublishCoalesceTest.class,
 	RealtimeChannelTest.class,
 	RealtimePresenceTest.class,
 	RealtimeMessageTest.class,
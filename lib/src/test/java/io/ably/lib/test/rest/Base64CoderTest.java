@@ -0,0 +1,126 @@
+package io.ably.lib.test.rest;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.util.Random;
+
+import org.junit.Test;
+
+import io.ably.lib.util.Base64Coder;
+
+/**
+ * Tests for the Base64 coder, comparing each of its forms of encoding and
+ * decoding with the original char array implementation.
+ */
+public class Base64CoderTest {
+
+	private static final Charset ASCII = Charset.forName("US-ASCII");
+
+	private static byte[] randomBytes(Random random, int length) {
+		byte[] data = new byte[length];
+		random.nextBytes(data);
+		return data;
+	}
+
+	/**
+	 * Verify that each form of encoding, and decoding, agrees with the
+	 * char array implementation, for every length of padding
+	 */
+	@Test
+	public void base64_compatibility() {
+		Random random = new Random(1);
+		for(int length = 0; length < 100; length++) {
+			byte[] data = randomBytes(random, length);
+			String expected = new String(Base64Coder.encode(data));
+			assertEquals(expected, Base64Coder.encodeToString(data));
+
+			/* encode part of an array into part of another */
+			byte[] padded = new byte[length + 5];
+			System.arraycopy(data, 0, padded, 3, length);
+			assertEquals(expected, Base64Coder.encodeToString(padded, 3, length));
+			byte[] encoded = new byte[Base64Coder.encodedLength(length) + 2];
+			int encodedLength = Base64Coder.encode(padded, 3, length, encoded, 1);
+			assertEquals(expected.length(), encodedLength);
+			assertEquals(expected, new String(encoded, 1, encodedLength, ASCII));
+
+			assertArrayEquals(data, Base64Coder.decode(expected));
+			assertArrayEquals(data, Base64Coder.decode(expected.toCharArray()));
+			assertArrayEquals(data, Base64Coder.decode(expected.getBytes(ASCII)));
+			byte[] decoded = new byte[length + 4];
+			assertEquals(length, Base64Coder.decode(encoded, 1, encodedLength, decoded, 2));
+			for(int i = 0; i < length; i++)
+				assertEquals(data[i], decoded[i + 2]);
+		}
+	}
+
+	/**
+	 * Verify that URL safe characters are accepted, and invalid data rejected, by each decoder
+	 */
+	@Test
+	public void base64_decode_variants() {
+		byte[] data = { (byte)0xfb, (byte)0xff, (byte)0xbf };
+		assertEquals("+/+/", new String(Base64Coder.encode(data)));
+		assertArrayEquals(data, Base64Coder.decode("-_-_"));
+		assertArrayEquals(data, Base64Coder.decode("-_-_".getBytes(ASCII)));
+
+		String[] invalid = { "abc", "ab!d", "a===", "ab==ab==", "ab\u00e9d" };
+		for(String s : invalid) {
+			try {
+				Base64Coder.decode(s);
+				assertTrue("Expected failure for " + s, false);
+			} catch(IllegalArgumentException e) {}
+			try {
+				Base64Coder.decode(s.getBytes(Charset.forName("UTF-8")));
+				assertTrue("Expected failure for " + s, false);
+			} catch(IllegalArgumentException e) {}
+		}
+	}
+
+	/**
+	 * Verify that a multi-megabyte payload is encoded and decoded by the
+	 * streams, when written and read in chunks of varying sizes
+	 */
+	@Test
+	public void base64_streams() throws IOException {
+		Random random = new Random(2);
+		byte[] data = randomBytes(random, 3 * 1024 * 1024 + 1);
+
+		ByteArrayOutputStream encodedOut = new ByteArrayOutputStream();
+		OutputStream encoder = Base64Coder.encodingStream(encodedOut);
+		int position = 0;
+		while(position < data.length) {
+			int length = Math.min(random.nextInt(20000), data.length - position);
+			if(length == 1)
+				encoder.write(data[position]);
+			else
+				encoder.write(data, position, length);
+			position += length;
+		}
+		encoder.close();
+		byte[] encoded = encodedOut.toByteArray();
+		assertEquals(Base64Coder.encodeToString(data), new String(encoded, ASCII));
+
+		InputStream decoder = Base64Coder.decodingStream(new ByteArrayInputStream(encoded));
+		ByteArrayOutputStream decodedOut = new ByteArrayOutputStream();
+		byte[] buffer = new byte[7001];
+		int count;
+		while((count = decoder.read(buffer, 0, 1 + random.nextInt(buffer.length - 1))) >= 0)
+			decodedOut.write(buffer, 0, count);
+		assertArrayEquals(data, decodedOut.toByteArray());
+
+		/* invalid data is reported as an IOException */
+		try {
+			InputStream invalid = Base64Coder.decodingStream(new ByteArrayInputStream("abcd!efg".getBytes(ASCII)));
+			while(invalid.read() >= 0);
+			assertTrue("Expected failure", false);
+		} catch(IOException e) {}
+	}
+}
@@ -0,0 +1,398 @@
+package io.ably.lib.test.rest;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+import javax.crypto.Cipher;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.IvParameterSpec;
+
+import org.junit.Test;
+
+import io.ably.lib.types.AblyException;
+import io.ably.lib.types.ChannelOptions;
+import io.ably.lib.types.Message;
+import io.ably.lib.util.Crypto;
+import io.ably.lib.util.Crypto.BufferChannelCipher;
+import io.ably.lib.util.Crypto.ChannelCipher;
+import io.ably.lib.util.Crypto.CipherParams;
+
+/**
+ * Tests for the channel ciphers, verified against the JCE AES/CBC/PKCS5Padding,
+ * AES/GCM/NoPadding and AES/CTR/NoPadding ciphers, without a connection to the service.
+ */
+public class ChannelCipherTest {
+
+	private static final byte[] key = new byte[16];
+	private static final byte[] iv = new byte[16];
+	static {
+		for(int i = 0; i < 16; i++) {
+			key[i] = (byte)i;
+			iv[i] = (byte)(100 + i);
+		}
+	}
+
+	private static ChannelCipher createCipher() throws Exception {
+		return createCipher(Crypto.MODE_CBC);
+	}
+
+	private static ChannelCipher createCipher(String mode) throws Exception {
+		return Crypto.getCipher(createOptions(mode));
+	}
+
+	/* the given IV is only used for CBC; an IV is never reused with the same key in the other modes */
+	private static ChannelOptions createOptions(String mode) throws Exception {
+		final CipherParams params = Crypto.getParams("aes", mode, key);
+		if(mode.equals(Crypto.MODE_CBC))
+			params.ivSpec = new IvParameterSpec(iv);
+		return new ChannelOptions() {{ encrypted = true; cipherParams = params; }};
+	}
+
+	/* decrypt with the JCE cipher, using the IV in the first block */
+	private static byte[] jceDecrypt(byte[] ciphertext) throws Exception {
+		Cipher cipher = Cipher.getInstance("AES/CBC/PKCS5Padding");
+		cipher.init(Cipher.DECRYPT_MODE, Crypto.getParams("aes", key).keySpec, new IvParameterSpec(ciphertext, 0, 16));
+		return cipher.doFinal(ciphertext, 16, ciphertext.length - 16);
+	}
+
+	/**
+	 * Verify that the first message is encrypted with the given IV, and that
+	 * each message, of every length of padding, decrypts with the JCE cipher
+	 */
+	@Test
+	public void cipher_compatibility() throws Exception {
+		ChannelCipher cipher = createCipher();
+		Random random = new Random(1);
+		for(int length = 0; length < 50; length++) {
+			byte[] plaintext = new byte[length];
+			random.nextBytes(plaintext);
+			byte[] ciphertext = cipher.encrypt(plaintext);
+			assertEquals(16 + (length / 16 + 1) * 16, ciphertext.length);
+			if(length == 0) {
+				Cipher jceCipher = Cipher.getInstance("AES/CBC/PKCS5Padding");
+				jceCipher.init(Cipher.ENCRYPT_MODE, Crypto.getParams("aes", key).keySpec, new IvParameterSpec(iv));
+				assertArrayEquals(iv, Arrays.copyOf(ciphertext, 16));
+				assertArrayEquals(jceCipher.doFinal(plaintext), Arrays.copyOfRange(ciphertext, 16, ciphertext.length));
+			}
+			assertArrayEquals(plaintext, jceDecrypt(ciphertext));
+			assertArrayEquals(plaintext, cipher.decrypt(ciphertext));
+		}
+	}
+
+	/**
+	 * Verify encryption and decryption between parts of arrays given by the caller
+	 */
+	@Test
+	public void cipher_buffers() throws Exception {
+		BufferChannelCipher cipher = (BufferChannelCipher)createCipher();
+		byte[] plaintext = "plaintext with some length".getBytes("UTF-8");
+		byte[] input = new byte[plaintext.length + 10];
+		System.arraycopy(plaintext, 0, input, 5, plaintext.length);
+
+		int ciphertextLength = cipher.getCiphertextLength(plaintext.length);
+		byte[] output = new byte[ciphertextLength + 3];
+		assertEquals(ciphertextLength, cipher.encrypt(input, 5, plaintext.length, output, 3));
+		assertArrayEquals(plaintext, jceDecrypt(Arrays.copyOfRange(output, 3, output.length)));
+
+		byte[] decrypted = new byte[cipher.getMaxPlaintextLength(ciphertextLength) + 7];
+		assertEquals(plaintext.length, cipher.decrypt(output, 3, ciphertextLength, decrypted, 7));
+		assertArrayEquals(plaintext, Arrays.copyOfRange(decrypted, 7, 7 + plaintext.length));
+
+		try {
+			cipher.encrypt(input, 5, plaintext.length, new byte[ciphertextLength - 1], 0);
+			assertTrue("Expected failure for short output", false);
+		} catch(AblyException e) {}
+	}
+
+	/**
+	 * Verify that ciphertext of invalid length, or with invalid padding, is rejected
+	 */
+	@Test
+	public void cipher_invalid() throws Exception {
+		ChannelCipher cipher = createCipher();
+		byte[] ciphertext = cipher.encrypt(new byte[20]);
+		byte[][] invalid = {
+			Arrays.copyOf(ciphertext, 16),
+			Arrays.copyOf(ciphertext, ciphertext.length - 1),
+			Arrays.copyOf(ciphertext, ciphertext.length)
+		};
+		/* corrupt the final block, so its padding is invalid */
+		invalid[2][invalid[2].length - 1] ^= 0x55;
+		for(byte[] data : invalid) {
+			try {
+				cipher.decrypt(data);
+				assertTrue("Expected failure", false);
+			} catch(AblyException e) {}
+		}
+	}
+
+	/**
+	 * Verify that several threads can encrypt and decrypt with the
+	 * same cipher, and that the IVs of all messages are distinct
+	 */
+	@Test
+	public void cipher_concurrent() throws Exception {
+		final ChannelCipher cipher = createCipher();
+		final int threadCount = 4, messageCount = 2000;
+		final Set<String> ivs = new HashSet<String>();
+		final Throwable[] failure = new Throwable[1];
+		Thread[] threads = new Thread[threadCount];
+		for(int t = 0; t < threadCount; t++) {
+			final int threadIndex = t;
+			threads[t] = new Thread() {
+				@Override
+				public void run() {
+					try {
+						Set<String> threadIvs = new HashSet<String>();
+						for(int i = 0; i < messageCount; i++) {
+							byte[] plaintext = ("message " + threadIndex + ":" + i).getBytes("UTF-8");
+							byte[] ciphertext = cipher.encrypt(plaintext);
+							threadIvs.add(Arrays.toString(Arrays.copyOf(ciphertext, 16)));
+							if(!Arrays.equals(plaintext, cipher.decrypt(ciphertext)) || !Arrays.equals(plaintext, jceDecrypt(ciphertext)))
+								throw new AssertionError("Decrypted message differs");
+						}
+						synchronized(ivs) { ivs.addAll(threadIvs); }
+					} catch(Throwable t) {
+						synchronized(ivs) { failure[0] = t; }
+					}
+				}
+			};
+			threads[t].start();
+		}
+		for(Thread thread : threads)
+			thread.join();
+		assertEquals(null, failure[0]);
+		assertEquals(threadCount * messageCount, ivs.size());
+	}
+
+	/**
+	 * Verify that GCM and CTR ciphertext decrypts with the JCE cipher, that the
+	 * IV of the params is not used, and that each message has a distinct IV
+	 */
+	@Test
+	public void cipher_modes_compatibility() throws Exception {
+		String[] modes = { Crypto.MODE_GCM, Crypto.MODE_CTR };
+		for(String mode : modes) {
+			boolean gcm = mode.equals(Crypto.MODE_GCM);
+			int ivLength = gcm ? 12 : 16, tagLength = gcm ? 16 : 0;
+			ChannelOptions opts = createOptions(mode);
+			byte[] channelIv = ((CipherParams)opts.cipherParams).ivSpec.getIV();
+			BufferChannelCipher cipher = (BufferChannelCipher)Crypto.getCipher(opts);
+			assertEquals("aes-128-" + mode, cipher.getAlgorithm());
+			Set<String> ivs = new HashSet<String>();
+			Random random = new Random(1);
+			for(int length = 0; length < 100; length++) {
+				byte[] plaintext = new byte[length];
+				random.nextBytes(plaintext);
+				byte[] ciphertext = cipher.encrypt(plaintext);
+				assertEquals(ivLength + length + tagLength, ciphertext.length);
+				assertEquals(ciphertext.length, cipher.getCiphertextLength(length));
+				byte[] messageIv = Arrays.copyOf(ciphertext, ivLength);
+				if(length == 0)
+					assertFalse(Arrays.equals(Arrays.copyOf(channelIv, ivLength), messageIv));
+				assertTrue(ivs.add(Arrays.toString(messageIv)));
+
+				Cipher jceCipher = Cipher.getInstance(gcm ? "AES/GCM/NoPadding" : "AES/CTR/NoPadding");
+				jceCipher.init(Cipher.DECRYPT_MODE, Crypto.getParams("aes", key).keySpec,
+						gcm ? new GCMParameterSpec(128, messageIv) : new IvParameterSpec(messageIv));
+				assertArrayEquals(plaintext, jceCipher.doFinal(ciphertext, ivLength, ciphertext.length - ivLength));
+				assertArrayEquals(plaintext, cipher.decrypt(ciphertext));
+			}
+		}
+	}
+
+	/**
+	 * Verify that GCM rejects ciphertext that has been altered
+	 */
+	@Test
+	public void cipher_gcm_tampered() throws Exception {
+		ChannelCipher cipher = createCipher(Crypto.MODE_GCM);
+		byte[] ciphertext = cipher.encrypt("some plaintext".getBytes("UTF-8"));
+		for(int i : new int[] { 0, 12, ciphertext.length - 1 }) {
+			byte[] tampered = Arrays.copyOf(ciphertext, ciphertext.length);
+			tampered[i] ^= 1;
+			try {
+				cipher.decrypt(tampered);
+				assertTrue("Expected failure", false);
+			} catch(AblyException e) {}
+		}
+		try {
+			cipher.decrypt(Arrays.copyOf(ciphertext, 27));
+			assertTrue("Expected failure", false);
+		} catch(AblyException e) {}
+	}
+
+	/**
+	 * Verify that a message encrypted in each mode is recorded with that
+	 * mode in its encoding, and decrypted by a client using any mode
+	 */
+	@Test
+	public void cipher_modes_negotiation() throws Exception {
+		String[] modes = { Crypto.MODE_CBC, Crypto.MODE_GCM, Crypto.MODE_CTR };
+		for(String sendMode : modes) {
+			for(String receiveMode : modes) {
+				Message message = new Message("event", "text");
+				message.encode(createOptions(sendMode));
+				assertEquals("utf-8/cipher+aes-128-" + sendMode, message.encoding);
+				message.decode(createOptions(receiveMode));
+				assertEquals(null, message.encoding);
+				assertEquals("text", message.data);
+			}
+		}
+
+		/* a mode that does not match the key fails */
+		Message message = new Message("event", "text");
+		message.encode(createOptions(Crypto.MODE_GCM));
+		message.encoding = "utf-8/cipher+aes-256-gcm";
+		try {
+			message.decode(createOptions(Crypto.MODE_CBC));
+			assertTrue("Expected failure", false);
+		} catch(AblyException e) {}
+		assertEquals("utf-8/cipher+aes-256-gcm", message.encoding);
+	}
+
+	/**
+	 * Verify that several threads can encrypt and decrypt with
+	 * the same GCM and CTR ciphers, with distinct IVs
+	 */
+	@Test
+	public void cipher_modes_concurrent() throws Exception {
+		String[] modes = { Crypto.MODE_GCM, Crypto.MODE_CTR };
+		for(final String mode : modes) {
+			final ChannelCipher cipher = createCipher(mode);
+			final int ivLength = mode.equals(Crypto.MODE_GCM) ? 12 : 16;
+			final int threadCount = 4, messageCount = 2000;
+			final Set<String> ivs = new HashSet<String>();
+			final Throwable[] failure = new Throwable[1];
+			Thread[] threads = new Thread[threadCount];
+			for(int t = 0; t < threadCount; t++) {
+				final int threadIndex = t;
+				threads[t] = new Thread() {
+					@Override
+					public void run() {
+						try {
+							Set<String> threadIvs = new HashSet<String>();
+							for(int i = 0; i < messageCount; i++) {
+								byte[] plaintext = ("message " + threadIndex + ":" + i).getBytes("UTF-8");
+								byte[] ciphertext = cipher.encrypt(plaintext);
+								threadIvs.add(Arrays.toString(Arrays.copyOf(ciphertext, ivLength)));
+								if(!Arrays.equals(plaintext, cipher.decrypt(ciphertext)))
+									throw new AssertionError("Decrypted message differs");
+							}
+							synchronized(ivs) { ivs.addAll(threadIvs); }
+						} catch(Throwable t) {
+							synchronized(ivs) { failure[0] = t; }
+						}
+					}
+				};
+				threads[t].start();
+			}
+			for(Thread thread : threads)
+				thread.join();
+			assertEquals(null, failure[0]);
+			assertEquals(threadCount * messageCount, ivs.size());
+		}
+	}
+
+	/**
+	 * Verify that the GCM and CTR ciphers of channels with the same
+	 * CipherParams, used from the same and from different threads,
+	 * never encrypt with the same IV
+	 */
+	@Test
+	public void cipher_modes_shared_params() throws Exception {
+		String[] modes = { Crypto.MODE_GCM, Crypto.MODE_CTR };
+		for(String mode : modes) {
+			final int ivLength = mode.equals(Crypto.MODE_GCM) ? 12 : 16;
+			final CipherParams params = Crypto.getParams("aes", mode, key);
+			final ChannelCipher[] ciphers = new ChannelCipher[4];
+			for(int i = 0; i < ciphers.length; i++)
+				ciphers[i] = new ChannelOptions() {{ encrypted = true; cipherParams = params; }}.getCipher();
+			final Set<String> ivs = new HashSet<String>();
+			final Throwable[] failure = new Throwable[1];
+			Thread[] threads = new Thread[2];
+			for(int t = 0; t < threads.length; t++) {
+				threads[t] = new Thread() {
+					@Override
+					public void run() {
+						try {
+							for(int j = 0; j < 3; j++) {
+								for(ChannelCipher cipher : ciphers) {
+									byte[] plaintext = "plaintext".getBytes("UTF-8");
+									byte[] ciphertext = cipher.encrypt(plaintext);
+									synchronized(ivs) {
+										if(!ivs.add(Arrays.toString(Arrays.copyOf(ciphertext, ivLength))))
+											throw new AssertionError("IV reused");
+									}
+									if(!Arrays.equals(plaintext, cipher.decrypt(ciphertext)))
+										throw new AssertionError("Decrypted message differs");
+								}
+							}
+						} catch(Throwable t) {
+							synchronized(ivs) { failure[0] = t; }
+						}
+					}
+				};
+				threads[t].start();
+			}
+			for(Thread thread : threads)
+				thread.join();
+			assertEquals(null, failure[0]);
+			assertEquals(threads.length * 3 * ciphers.length, ivs.size());
+		}
+	}
+
+	/**
+	 * Verify that ciphers of many channels with the same key each use their
+	 * given IV for their first message, and that the IVs of every message
+	 * are otherwise distinct
+	 */
+	@Test
+	public void cipher_shared() throws Exception {
+		Set<String> ivs = new HashSet<String>();
+		for(int i = 0; i < 100; i++) {
+			final CipherParams params = Crypto.getParams("aes", key);
+			byte[] channelIv = params.ivSpec.getIV();
+			ChannelCipher cipher = new ChannelOptions() {{ encrypted = true; cipherParams = params; }}.getCipher();
+			for(int j = 0; j < 3; j++) {
+				byte[] plaintext = ("message " + i + ":" + j).getBytes("UTF-8");
+				byte[] ciphertext = cipher.encrypt(plaintext);
+				byte[] messageIv = Arrays.copyOf(ciphertext, 16);
+				if(j == 0)
+					assertArrayEquals(channelIv, messageIv);
+				assertTrue(ivs.add(Arrays.toString(messageIv)));
+				assertArrayEquals(plaintext, jceDecrypt(ciphertext));
+			}
+		}
+	}
+
+	/**
+	 * Verify that the first message of a channel, encrypted with the given
+	 * IV, does not rewind the chain of IVs shared with another channel with
+	 * the same key, so that the IVs of later messages are not repeated
+	 */
+	@Test
+	public void cipher_shared_not_rewound() throws Exception {
+		ChannelCipher first = createCipher(), second = createCipher();
+		byte[][] plaintexts = { "message 1".getBytes("UTF-8"), "message 2".getBytes("UTF-8"), "message 3".getBytes("UTF-8") };
+		Set<String> ivs = new HashSet<String>();
+		for(ChannelCipher cipher : new ChannelCipher[] { first, second }) {
+			for(int j = 0; j < plaintexts.length; j++) {
+				byte[] ciphertext = cipher.encrypt(plaintexts[j]);
+				byte[] messageIv = Arrays.copyOf(ciphertext, 16);
+				if(j == 0)
+					assertArrayEquals(iv, messageIv);
+				else
+					assertTrue("Verify the IV is not repeated", ivs.add(Arrays.toString(messageIv)));
+				assertArrayEquals(plaintexts[j], jceDecrypt(ciphertext));
+			}
+		}
+	}
+}
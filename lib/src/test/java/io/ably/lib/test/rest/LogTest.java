@@ -0,0 +1,242 @@
+package io.ably.lib.test.rest;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.Timeout;
+
+import io.ably.lib.realtime.AblyRealtime;
+import io.ably.lib.realtime.Channel;
+import io.ably.lib.realtime.ChannelState;
+import io.ably.lib.realtime.ConnectionState;
+import io.ably.lib.test.common.Helpers.ChannelWaiter;
+import io.ably.lib.test.common.Helpers.ConnectionWaiter;
+import io.ably.lib.test.util.MockRealtimeServer;
+import io.ably.lib.transport.WebSocketTransport;
+import io.ably.lib.types.ClientOptions;
+import io.ably.lib.util.AsyncLogHandler;
+import io.ably.lib.util.Log;
+
+/**
+ * Tests for parameterized logging, per-tag levels and the asynchronous log handler.
+ */
+public class LogTest {
+
+	@Rule
+	public Timeout testTimeout = Timeout.seconds(30);
+
+	private static final String TAG = LogTest.class.getName();
+
+	@After
+	public void tearDown() {
+		Log.setLevel(Log.defaultLevel);
+		Log.setHandler(null);
+		Log.clearTagLevels();
+	}
+
+	/**
+	 * Verify substitution of arguments into format strings
+	 */
+	@Test
+	public void log_format() {
+		assertEquals("a = 1, b = null", Log.format("a = {}, b = {}", 2, 1, null, null));
+		assertEquals("1 2 3", Log.format("{} {} {}", 3, "1", 2L, '3'));
+		assertEquals("excess {}", Log.format("excess {}", 0, null, null, null));
+		assertEquals("no placeholders", Log.format("no placeholders", 1, "x", null, null));
+		assertEquals("x{}", Log.format("{}{}", 1, "x", null, null));
+	}
+
+	/**
+	 * Verify that disabled log statements do not format their arguments,
+	 * and that enabled statements are formatted for a plain LogHandler
+	 */
+	@Test
+	public void log_deferred_format() {
+		CapturingHandler handler = new CapturingHandler();
+		Log.setHandler(handler);
+		Log.setLevel(Log.INFO);
+		CountingArg arg = new CountingArg();
+		Log.v(TAG, "verbose {}", arg);
+		Log.d(TAG, "debug {} {}", arg, arg);
+		assertEquals("Verify disabled statements are not formatted", 0, arg.count);
+		assertEquals("Verify disabled statements are not output", 0, handler.messages.size());
+
+		Log.i(TAG, "info {}", arg);
+		assertEquals("Verify enabled statement is formatted", 1, arg.count);
+		assertEquals("Verify enabled statement is output", "info arg", handler.messages.get(0));
+	}
+
+	/**
+	 * Verify that the level set for a tag overrides the global level
+	 */
+	@Test
+	public void log_tag_levels() {
+		CapturingHandler handler = new CapturingHandler();
+		Log.setHandler(handler);
+		Log.setLevel(Log.WARN);
+		Log.setLevel(TAG, Log.VERBOSE);
+		Log.setLevel("quiet", Log.NONE);
+		assertTrue(Log.isLoggable(TAG, Log.VERBOSE));
+		assertTrue(!Log.isLoggable("other", Log.INFO));
+		assertTrue(!Log.isLoggable("quiet", Log.ERROR));
+
+		Log.v(TAG, "enabled for tag");
+		Log.v("other", "not enabled for other tags");
+		Log.e("quiet", "disabled for tag");
+		Log.e("other", "enabled globally");
+		assertEquals(2, handler.messages.size());
+		assertEquals("enabled for tag", handler.messages.get(0));
+		assertEquals("enabled globally", handler.messages.get(1));
+
+		Log.setLevel(TAG, 0);
+		assertTrue("Verify tag reverts to global level", !Log.isLoggable(TAG, Log.VERBOSE));
+	}
+
+	/**
+	 * Verify that messages logged from multiple threads are output, in order
+	 * for each thread, and that they are formatted on the logging thread
+	 */
+	@Test
+	public void log_async_handler() throws Exception {
+		final int threadCount = 4, count = 1000;
+		final CapturingHandler delegate = new CapturingHandler();
+		final AsyncLogHandler handler = new AsyncLogHandler(delegate, threadCount * count);
+		Log.setHandler(handler);
+		Log.setLevel(Log.VERBOSE);
+		try {
+			Thread[] threads = new Thread[threadCount];
+			for(int i = 0; i < threadCount; i++) {
+				final Integer thread = i;
+				threads[i] = new Thread() {
+					@Override
+					public void run() {
+						for(int j = 0; j < count; j++)
+							Log.v(TAG, "thread {} message {}", thread, j);
+					}
+				};
+				threads[i].start();
+			}
+			for(Thread thread : threads)
+				thread.join();
+			assertTrue("Verify messages were output", handler.flush(10000));
+			assertEquals("Verify no messages were dropped", 0, handler.getDroppedCount());
+			assertEquals("Verify all messages were output", threadCount * count, delegate.messages.size());
+
+			int[] next = new int[threadCount];
+			for(String message : delegate.messages) {
+				String[] parts = message.split(" ");
+				int thread = Integer.parseInt(parts[1]);
+				assertEquals("Verify message order", next[thread]++, Integer.parseInt(parts[3]));
+			}
+			assertEquals("Verify messages were formatted on the logging thread", "ably-log", delegate.threadName);
+		} finally {
+			handler.close();
+		}
+	}
+
+	/**
+	 * Verify that logging does not block when the handler is slow
+	 * and the buffer is full, and that discarded messages are counted
+	 */
+	@Test
+	public void log_async_handler_full() throws Exception {
+		final CountDownLatch release = new CountDownLatch(1);
+		CapturingHandler delegate = new CapturingHandler() {
+			@Override
+			public void println(int severity, String tag, String msg, Throwable tr) {
+				try {
+					release.await();
+				} catch(InterruptedException e) {}
+				super.println(severity, tag, msg, tr);
+			}
+		};
+		AsyncLogHandler handler = new AsyncLogHandler(delegate, 8);
+		Log.setHandler(handler);
+		try {
+			long start = System.nanoTime();
+			for(int i = 0; i < 100; i++)
+				Log.e(TAG, "message {}", i);
+			long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+			assertTrue("Verify logging did not block", elapsed < 1000);
+			assertTrue("Verify messages were dropped", handler.getDroppedCount() >= 100 - 9);
+
+			release.countDown();
+			assertTrue(handler.flush(5000));
+			assertEquals("Verify remaining messages were output", 100 - handler.getDroppedCount(), delegate.messages.size());
+			assertEquals("message 0", delegate.messages.get(0));
+		} finally {
+			handler.close();
+		}
+	}
+
+	/**
+	 * Connect with verbose logging to an asynchronous handler; verify that
+	 * the protocol messages sent are logged
+	 */
+	@Test
+	public void log_async_realtime_verbose() throws Exception {
+		MockRealtimeServer server = new MockRealtimeServer(MockRealtimeServer.getFreePort());
+		server.startServer();
+		CapturingHandler delegate = new CapturingHandler();
+		AsyncLogHandler handler = new AsyncLogHandler(delegate, AsyncLogHandler.DEFAULT_CAPACITY);
+		try {
+			ClientOptions opts = new ClientOptions("appid.keyid:secret");
+			opts.restHost = "localhost";
+			opts.realtimeHost = "localhost";
+			opts.tls = false;
+			opts.port = server.getListeningPort();
+			opts.logLevel = Log.VERBOSE;
+			opts.logHandler = handler;
+			AblyRealtime ably = new AblyRealtime(opts);
+			new ConnectionWaiter(ably.connection).waitFor(ConnectionState.connected);
+			Channel channel = ably.channels.get("log_async_realtime_verbose");
+			channel.attach();
+			new ChannelWaiter(channel).waitFor(ChannelState.attached);
+			ably.close();
+			assertTrue(handler.flush(5000));
+
+			boolean found = false;
+			synchronized(delegate) {
+				for(int i = 0; i < delegate.messages.size(); i++)
+					found |= WebSocketTransport.class.getName().equals(delegate.tags.get(i)) &&
+						delegate.messages.get(i).startsWith("send(): attach: {") &&
+						delegate.messages.get(i).contains("log_async_realtime_verbose");
+			}
+			assertTrue("Verify sent message was logged", found);
+		} finally {
+			handler.close();
+			server.stop();
+		}
+	}
+
+	private static class CapturingHandler implements Log.LogHandler {
+		@Override
+		public synchronized void println(int severity, String tag, String msg, Throwable tr) {
+			tags.add(tag);
+			messages.add(msg);
+			threadName = Thread.currentThread().getName();
+		}
+
+		final List<String> tags = new ArrayList<String>();
+		final List<String> messages = new ArrayList<String>();
+		volatile String threadName;
+	}
+
+	private static class CountingArg {
+		@Override
+		public String toString() {
+			++count;
+			return "arg";
+		}
+
+		int count;
+	}
+}
@@ -18,6 +18,7 @@ import io.ably.lib.test.common.Setup;
 	RestRequestTest.class,
 	RestAppStatsTest.class,
 	RestInitTest.class,
+	LogTest.class,
 	RestTimeTest.class,
 	RestAuthTest.class,
 	RestAuthAttributeTest.class,
@@ -28,6 +29,8 @@ import io.ably.lib.test.common.Setup;
 	RestChannelHistoryTest.class,
 	RestChannelPublishTest.class,
 	RestCryptoTest.class,
+	Base64CoderTest.class,
+	ChannelCipherTest.class,
 	RestPresenceTest.class,
 	RestProxyTest.class
 })
@@ -0,0 +1,257 @@
+package io.ably.lib.test.util;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.ServerSocket;
+import java.security.KeyStore;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.net.ssl.KeyManagerFactory;
+
+import fi.iki.elonen.NanoWSD;
+import fi.iki.elonen.NanoWSD.WebSocketFrame.CloseCode;
+import fi.iki.elonen.NanoWSD.WebSocketFrame.OpCode;
+import io.ably.lib.types.AblyException;
+import io.ably.lib.types.ProtocolMessage;
+import io.ably.lib.types.ProtocolSerializer;
+
+/**
+ * A minimal local realtime endpoint, for tests that exercise the
+ * transport layer without depending on the sandbox environment.
+ *
+ * Each websocket connection is sent a CONNECTED message on open;
+ * attach and detach requests are answered with ATTACHED and DETACHED,
+ * and messages requiring an ack are acked. All protocol messages received
+ * from clients are recorded. Responses are always sent as JSON text frames,
+ * which the library accepts irrespective of the requested format.
+ *
+ * HTTP requests for the history of any channel are answered with the
+ * given number of messages, in pages of the requested limit.
+ */
+public class MockRealtimeServer extends NanoWSD {
+
+	public MockRealtimeServer(int port) {
+		super(port);
+	}
+
+	public MockRealtimeServer(String hostname, int port) {
+		super(hostname, port);
+	}
+
+	/**
+	 * Find a free local port on which to start a server.
+	 */
+	public static int getFreePort() throws IOException {
+		ServerSocket socket = new ServerSocket(0);
+		try {
+			return socket.getLocalPort();
+		} finally {
+			socket.close();
+		}
+	}
+
+	/**
+	 * Start the server, with no socket read timeout
+	 * so that idle connections are not dropped.
+	 */
+	public void startServer() throws IOException {
+		start(0);
+	}
+
+	/**
+	 * Serve over TLS, with a self-signed certificate for localhost that is
+	 * generated with keytool. Must be called before startServer().
+	 * @return a JKS key store, with password KEYSTORE_PASSWORD, that
+	 * clients can use as a trust store so that they trust the certificate
+	 */
+	public File makeSecure() throws Exception {
+		File keyStoreFile = File.createTempFile("mockserver", ".jks");
+		keyStoreFile.delete();
+		keyStoreFile.deleteOnExit();
+		String keytool = System.getProperty("java.home") + File.separator + "bin" + File.separator + "keytool";
+		Process process = new ProcessBuilder(keytool, "-genkeypair", "-alias", "localhost",
+				"-keyalg", "RSA", "-keysize", "2048", "-validity", "1",
+				"-dname", "CN=localhost", "-ext", "SAN=dns:localhost,ip:127.0.0.1",
+				"-storetype", "JKS", "-keystore", keyStoreFile.getPath(),
+				"-storepass", KEYSTORE_PASSWORD, "-keypass", KEYSTORE_PASSWORD)
+				.redirectErrorStream(true).start();
+		InputStream output = process.getInputStream();
+		while(output.read() != -1);
+		if(process.waitFor() != 0)
+			throw new IOException("Unable to generate key store with keytool");
+
+		KeyStore keyStore = KeyStore.getInstance("JKS");
+		InputStream in = new FileInputStream(keyStoreFile);
+		try {
+			keyStore.load(in, KEYSTORE_PASSWORD.toCharArray());
+		} finally {
+			in.close();
+		}
+		KeyManagerFactory keyManagerFactory = KeyManagerFactory.getInstance(KeyManagerFactory.getDefaultAlgorithm());
+		keyManagerFactory.init(keyStore, KEYSTORE_PASSWORD.toCharArray());
+		makeSecure(makeSSLSocketFactory(keyStore, keyManagerFactory), null);
+		return keyStoreFile;
+	}
+
+	public static final String KEYSTORE_PASSWORD = "mockserver";
+
+	/**
+	 * If set, attach requests are not answered, so that attach timeouts can be tested.
+	 */
+	public volatile boolean ignoreAttach;
+
+	/**
+	 * If set, the maxMessageSize indicated to clients in connectionDetails.
+	 */
+	public volatile long maxMessageSize;
+
+	/**
+	 * If set, messages published by a client are sent back to it, as if
+	 * it were subscribed to the channel.
+	 */
+	public volatile boolean echoMessages;
+
+	/**
+	 * The number of messages in the history of every channel.
+	 */
+	public volatile int historyMessages;
+
+	/**
+	 * Get the protocol messages received so far, from all connections.
+	 */
+	public List<ProtocolMessage> getReceivedMessages() {
+		synchronized(received) {
+			return new ArrayList<ProtocolMessage>(received);
+		}
+	}
+
+	/**
+	 * Get the number of websocket connections opened so far.
+	 */
+	public int getConnectionCount() {
+		return connectionCount.get();
+	}
+
+	/**
+	 * Get the number of history pages requested so far.
+	 */
+	public int getHistoryRequestCount() {
+		return historyRequestCount.get();
+	}
+
+	@Override
+	protected Response serveHttp(IHTTPSession session) {
+		if(!session.getUri().startsWith("/channels/"))
+			return newFixedLengthResponse(Response.Status.NOT_FOUND, MIME_PLAINTEXT, "Not found");
+		historyRequestCount.incrementAndGet();
+		Map<String, String> params = session.getParms();
+		int offset = params.containsKey("offset") ? Integer.parseInt(params.get("offset")) : 0;
+		int limit = params.containsKey("limit") ? Integer.parseInt(params.get("limit")) : 100;
+		int end = Math.min(offset + limit, historyMessages);
+		StringBuilder body = new StringBuilder("[");
+		for(int i = offset; i < end; i++) {
+			if(i > offset)
+				body.append(',');
+			body.append("{\"id\":\"history:" + i + "\",\"name\":\"event\",\"data\":\"message " + i + "\"}");
+		}
+		body.append(']');
+		Response response = newFixedLengthResponse(Response.Status.OK, "application/json", body.toString());
+		if(end < historyMessages)
+			response.addHeader("Link", "<./messages?offset=" + end + "&limit=" + limit + ">; rel=\"next\"");
+		return response;
+	}
+
+	@Override
+	protected WebSocket openWebSocket(IHTTPSession handshake) {
+		return new RealtimeSocket(handshake, "mockConnection" + connectionCount.incrementAndGet());
+	}
+
+	private class RealtimeSocket extends WebSocket {
+
+		RealtimeSocket(IHTTPSession handshake, String connectionId) {
+			super(handshake);
+			this.connectionId = connectionId;
+			this.useBinaryProtocol = !"json".equals(handshake.getParms().get("format"));
+		}
+
+		@Override
+		protected void onOpen() {
+			sendText("{\"action\":4,\"connectionId\":\"" + connectionId + "\",\"connectionSerial\":-1," +
+					"\"connectionDetails\":{\"clientId\":\"*\",\"connectionKey\":\"" + connectionId + "!key\"," +
+					"\"maxIdleInterval\":15000,\"connectionStateTtl\":120000" +
+					(maxMessageSize > 0 ? ",\"maxMessageSize\":" + maxMessageSize : "") + "}}");
+		}
+
+		@Override
+		protected void onClose(CloseCode code, String reason, boolean initiatedByRemote) {}
+
+		@Override
+		protected void onMessage(WebSocketFrame frame) {
+			ProtocolMessage msg;
+			try {
+				/* JSON may be sent in binary frames */
+				if(frame.getOpCode() == OpCode.Text)
+					msg = ProtocolSerializer.fromJSON(frame.getTextPayload());
+				else if(useBinaryProtocol)
+					msg = ProtocolSerializer.readMsgpack(frame.getBinaryPayload());
+				else
+					msg = ProtocolSerializer.fromJSON(new String(frame.getBinaryPayload(), "UTF-8"));
+			} catch(AblyException|UnsupportedEncodingException e) {
+				return;
+			}
+			synchronized(received) {
+				received.add(msg);
+			}
+			switch(msg.action) {
+			case attach:
+				if(ignoreAttach)
+					break;
+				sendText("{\"action\":11,\"channel\":\"" + msg.channel + "\"}");
+				break;
+			case detach:
+				sendText("{\"action\":13,\"channel\":\"" + msg.channel + "\"}");
+				break;
+			case message:
+			case presence:
+				sendText("{\"action\":1,\"msgSerial\":" + msg.msgSerial + ",\"count\":1}");
+				if(echoMessages && msg.action == ProtocolMessage.Action.message) {
+					ProtocolMessage echo = new ProtocolMessage(ProtocolMessage.Action.message, msg.channel);
+					echo.id = connectionId + ":" + msg.msgSerial;
+					echo.connectionId = connectionId;
+					echo.messages = msg.messages;
+					sendText(ProtocolSerializer.toJSON(echo));
+				}
+				break;
+			case close:
+				sendText("{\"action\":8}");
+				break;
+			default:
+			}
+		}
+
+		@Override
+		protected void onPong(WebSocketFrame pong) {}
+
+		@Override
+		protected void onException(IOException exception) {}
+
+		private void sendText(String text) {
+			try {
+				send(text);
+			} catch(IOException e) {}
+		}
+
+		private final String connectionId;
+		private final boolean useBinaryProtocol;
+	}
+
+	private final List<ProtocolMessage> received = new ArrayList<ProtocolMessage>();
+	private final AtomicInteger connectionCount = new AtomicInteger();
+	private final AtomicInteger historyRequestCount = new AtomicInteger();
+}